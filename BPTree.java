@@ -1,3 +1,17 @@
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
 /**
  * @dev Class for a B+ tree. Since the structures and behaviours between
  *      internal nodes and
@@ -11,15 +25,43 @@
 public class BPTree<TKey extends Comparable<TKey>, TValue> {
 
   private BPTreeNode<TKey, TValue> root;
+  private BPTreeContext<TKey, TValue> context;
   private int debug;
+  private BPTreeLatencyHistogram[] latency;
+  private ObjectName mbeanName;
+  private BPTreeLookupCache<TKey, TValue> cache;
+
+  // Descent path of the current insert or delete, reused between calls
+  private BPTreeInnerNode<TKey, TValue>[] pathNodes;
+  private int[] pathIndex;
+  private int depth;
+
+  // Rightmost leaf, for inserts above the largest key. Dropped whenever that
+  // leaf may have been copied or merged away
+  private BPTreeLeafNode<TKey, TValue> appendLeaf;
+
+  // Number of levels, kept up to date wherever the root changes so that
+  // getHeight never walks a tree another thread may be changing
+  private volatile int height = 1;
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
   // constructor
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   public BPTree(int order) {
-    this.root = new BPTreeLeafNode<TKey, TValue>(order);
+    this(order, BPTreeSearchMode.BINARY);
+  }
+
+  /**
+   * @dev Create a tree whose nodes search their keys with the given strategy.
+   *      LINEAR is only worth choosing for small orders.
+   */
+  public BPTree(int order, BPTreeSearchMode searchMode) {
+    this.context = new BPTreeContext<TKey, TValue>(searchMode);
+    this.root = new BPTreeLeafNode<TKey, TValue>(order, this.context);
     this.debug = 0;
+    this.pathNodes = newPath(8);
+    this.pathIndex = new int[8];
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -34,6 +76,204 @@ public class BPTree<TKey extends Comparable<TKey>, TValue> {
     return res;
   }
 
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // compare counts
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Number of key comparisons made by insert, search and delete since the
+   *      tree was created or the counters were last reset.
+   */
+  public long getCompareCount() {
+    return context.compares;
+  }
+
+  /**
+   * @dev Number of insert, search and delete calls counted alongside the
+   *      comparisons.
+   */
+  public long getOperationCount() {
+    return context.operations;
+  }
+
+  /**
+   * @dev Average number of key comparisons per insert, search or delete.
+   */
+  public double getComparesPerOperation() {
+    if (context.operations == 0) {
+      return 0;
+    }
+    return (double) context.compares / context.operations;
+  }
+
+  public void resetCompareCount() {
+    context.compares = 0;
+    context.operations = 0;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // stats
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Copy of the tree's operation counts, structural change counts and,
+   *      if latency tracking is on, latency histograms. range() is timed only
+   *      up to returning the cursor, not for the walk through the cursor.
+   */
+  public BPTreeStats getStats() {
+    long[][] merged = null;
+    if (latency != null) {
+      merged = new long[latency.length][];
+      for (int i = 0; i < latency.length; i++) {
+        merged[i] = latency[i].merge();
+      }
+    }
+    return new BPTreeStats(context, getHeight(), merged, cache);
+  }
+
+  /**
+   * @dev Zero every counter and histogram, including the compare counts.
+   */
+  public void resetStats() {
+    context.resetStats();
+    if (cache != null) {
+      cache.resetStats();
+    }
+    if (latency != null) {
+      for (BPTreeLatencyHistogram histogram : latency) {
+        histogram.reset();
+      }
+    }
+  }
+
+  /**
+   * @dev Time every insert, search, delete, scan, batch insert and bulk load
+   *      into per-operation latency histograms. Off by default; when off an
+   *      operation pays one field check instead of two System.nanoTime()
+   *      calls. Switching it off drops the histograms.
+   */
+  public void setLatencyTracking(boolean enabled) {
+    if (!enabled) {
+      latency = null;
+    } else if (latency == null) {
+      BPTreeLatencyHistogram[] histograms = new BPTreeLatencyHistogram[BPTreeOperation.values().length];
+      for (int i = 0; i < histograms.length; i++) {
+        histograms[i] = new BPTreeLatencyHistogram();
+      }
+      latency = histograms;
+    }
+  }
+
+  /**
+   * @dev Record the latency of an operation that began at start, and emit a
+   *      JFR event for it if a recording is on and it took longer than the
+   *      event threshold.
+   */
+  private void endOperation(BPTreeOperation operation, long start, BPTreeSlowOperationEvent event) {
+    BPTreeLatencyHistogram[] histograms = latency;
+    if (histograms != null) {
+      histograms[operation.ordinal()].record(System.nanoTime() - start);
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.operation = operation.name();
+      event.order = root.m;
+      event.height = getHeight();
+      event.commit();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // JFR events
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Emit a split event for node, which just split off newNode. level
+   *      counts the leaves as 1. The event object is only filled in while a
+   *      recording has the event enabled.
+   */
+  private void commitSplit(BPTreeNode<TKey, TValue> node, BPTreeNode<TKey, TValue> newNode, int level, int height) {
+    BPTreeSplitEvent event = new BPTreeSplitEvent();
+    if (event.isEnabled()) {
+      event.leaf = node.isLeaf();
+      event.order = node.m;
+      event.keyCount = node.keyTally + newNode.keyTally + (node.isLeaf() ? 0 : 1);
+      event.level = level;
+      event.height = height;
+      event.commit();
+    }
+  }
+
+  private void commitRebalance(String kind, boolean separatorRemoved, int level, int keyCount, int siblingKeyCount) {
+    BPTreeRebalanceEvent event = new BPTreeRebalanceEvent();
+    if (event.isEnabled()) {
+      event.kind = kind;
+      event.leaf = level == 1;
+      event.level = level;
+      event.separatorRemoved = separatorRemoved;
+      event.order = root.m;
+      event.keyCount = keyCount;
+      event.siblingKeyCount = siblingKeyCount;
+      event.height = depth + 1;
+      event.commit();
+    }
+  }
+
+  /**
+   * @dev Number of levels in the tree, counting the leaves. Safe to call
+   *      from a thread other than the one changing the tree.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * @dev Count the levels down the leftmost path, after an operation that
+   *      may have added or removed several at once.
+   */
+  private int measureHeight() {
+    int levels = 1;
+    for (BPTreeNode<TKey, TValue> node = root; !node.isLeaf(); node = ((BPTreeInnerNode<TKey, TValue>) node).getChild(0)) {
+      levels++;
+    }
+    return levels;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // registerMBean
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Publish this tree's stats on the platform MBean server as
+   *      BPTree:type=BPTree,name=<name>. The MBean reads the same counters
+   *      as getStats(), without locking, so from a JMX client they may lag
+   *      the thread writing to the tree slightly. Attribute reads within a
+   *      second of each other share one getStats() snapshot.
+   */
+  public ObjectName registerMBean(String name) {
+    try {
+      ObjectName objectName = new ObjectName("BPTree:type=BPTree,name=" + ObjectName.quote(name));
+      ManagementFactory.getPlatformMBeanServer()
+          .registerMBean(new StandardMBean(new BPTreeMonitor(this), BPTreeStatsMXBean.class, true), objectName);
+      mbeanName = objectName;
+      return objectName;
+    } catch (JMException e) {
+      throw new IllegalStateException("could not register MBean for tree " + name, e);
+    }
+  }
+
+  public void unregisterMBean() {
+    if (mbeanName == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+      mbeanName = null;
+    } catch (JMException e) {
+      throw new IllegalStateException("could not unregister MBean " + mbeanName, e);
+    }
+  }
+
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
   // print
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -48,17 +288,271 @@ public class BPTree<TKey extends Comparable<TKey>, TValue> {
     }
   }
 
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // setSplitRatio
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Share of a full node's keys that stays in the left node when it
+   *      splits, in (0, 1]. The default of 0.5 splits evenly. Each side of a
+   *      split keeps at least one key, so a ratio far from 0.5 lets the new
+   *      node start below the usual minimum fill.
+   */
+  public void setSplitRatio(double ratio) {
+    context.splitRatio = checkRatio(ratio);
+  }
+
+  /**
+   * @dev Split ratio for a node that was filled by a key landing in its last
+   *      slot, which is what ascending keys do. The default of 0.5 splits
+   *      evenly. For time-series or auto-increment keys, 0.9 or 1 leaves the
+   *      left node nearly or entirely full instead of half empty for good,
+   *      roughly doubling leaf occupancy; random inserts, which rarely land
+   *      last, still split at the general ratio.
+   */
+  public void setAppendSplitRatio(double ratio) {
+    context.appendSplitRatio = checkRatio(ratio);
+  }
+
+  private static double checkRatio(double ratio) {
+    if (!(ratio > 0 && ratio <= 1)) {
+      throw new IllegalArgumentException("split ratio must be in (0, 1], got " + ratio);
+    }
+    return ratio;
+  }
+
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
   // insert
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   /**
-   * @dev Insert a new key and its associated value into the B+ tree.
+   * @dev Insert a new key and its associated value into the B+ tree. A key
+   *      above the largest key goes straight to the rightmost leaf, which the
+   *      tree remembers, so ascending inserts skip the descent from the root.
    */
+  @SuppressWarnings("unchecked")
   public void insert(TKey key, TValue value) {
     if (root != null) {
-      root = root.insert(key, value);
+      BPTreeSlowOperationEvent event = new BPTreeSlowOperationEvent();
+      event.begin();
+      long start = latency != null ? System.nanoTime() : 0;
+      context.operations++;
+      context.operationCounts[BPTreeOperation.INSERT.ordinal()]++;
+      if (cache != null) {
+        cache.update(key, value);
+      }
+      BPTreeLeafNode<TKey, TValue> leaf = appendTarget(key);
+      boolean append = leaf != null;
+      if (append) {
+        context.appendInserts++;
+      } else {
+        leaf = descend(key);
+      }
+      BPTreeNode<TKey, TValue> node = leaf;
+      BPTreeNode<TKey, TValue> newNode = append ? leaf.append(key, value) : leaf.insert(key, value);
+      BPTreeLeafNode<TKey, TValue> last = (BPTreeLeafNode<TKey, TValue>) (newNode != null ? newNode : leaf);
+      if (append && (newNode != null || context.augmented)) {
+        rightSpine();
+      }
+
+      // Carry each split up the path stack for as long as parents overflow.
+      // An augmented tree refreshes the path's summaries all the way up
+      for (int level = depth - 1; level >= 0 && (newNode != null || context.augmented); level--) {
+        BPTreeInnerNode<TKey, TValue> parent = pathNodes[level];
+        int index = pathIndex[level];
+        if (newNode == null) {
+          parent.refreshSummaries(index, index);
+          continue;
+        }
+        commitSplit(node, newNode, depth - level, depth + 1);
+        parent.insertSeparator(index, (TKey) context.splitKey, newNode);
+        if (context.augmented) {
+          parent.refreshSummaries(index, index + 1);
+        }
+        node = parent;
+        newNode = parent.keyTally == parent.m ? parent.splitNode(index == parent.keyTally - 1) : null;
+      }
+
+      // The root itself split, grow the tree by one level
+      if (newNode != null) {
+        commitSplit(node, newNode, depth + 1, depth + 2);
+        BPTreeInnerNode<TKey, TValue> newRoot = new BPTreeInnerNode<TKey, TValue>(root.m, context);
+        newRoot.keys[0] = context.splitKey;
+        newRoot.references[0] = root;
+        newRoot.references[1] = newNode;
+        newRoot.keyTally = 1;
+        if (context.augmented) {
+          newRoot.refreshSummaries(0, 1);
+        }
+        root = newRoot;
+        height++;
+        context.heightIncreases++;
+      }
+      context.splitKey = null;
+      if (last.rightSibling == null && context.openSnapshots.get() == 0) {
+        appendLeaf = last;
+      }
+      endOperation(BPTreeOperation.INSERT, start, event);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // insertAll
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Insert a batch of keys and their associated values. The batch is
+   *      sorted and applied in one pass from the root: each leaf merges all of
+   *      its new keys in a single visit and each overflowing node is split once,
+   *      with the separators for every new node passed up together. When a key
+   *      appears more than once in the batch, its last value wins. While
+   *      snapshots are open the keys are inserted one at a time instead, so
+   *      each change copies its path, and count as single inserts.
+   * @param keys   - batch keys, in any order
+   * @param values - value for each key, at the same index
+   */
+  public void insertAll(TKey[] keys, TValue[] values) {
+    if (keys.length != values.length) {
+      throw new IllegalArgumentException("insertAll got " + keys.length + " keys but " + values.length + " values");
+    }
+    if (root == null || keys.length == 0) {
+      return;
+    }
+    if (context.openSnapshots.get() > 0) {
+      for (int i = 0; i < keys.length; i++) {
+        insert(keys[i], values[i]);
+      }
+      return;
+    }
+    BPTreeSlowOperationEvent event = new BPTreeSlowOperationEvent();
+    event.begin();
+    long start = latency != null ? System.nanoTime() : 0;
+    context.operations += keys.length;
+    context.operationCounts[BPTreeOperation.BATCH_INSERT.ordinal()] += keys.length;
+
+    // Stable sort, so the last of several equal keys is the one kept
+    Integer[] order = new Integer[keys.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> keys[a].compareTo(keys[b]));
+
+    Object[] sortedKeys = new Object[keys.length];
+    Object[] sortedValues = new Object[keys.length];
+    int count = 0;
+    for (int i = 0; i < order.length; i++) {
+      if (count > 0 && keys[order[i]].compareTo(keys[order[i - 1]]) == 0) {
+        count--;
+      }
+      sortedKeys[count] = keys[order[i]];
+      sortedValues[count++] = values[order[i]];
+    }
+    if (count < keys.length) {
+      sortedKeys = Arrays.copyOf(sortedKeys, count);
+      sortedValues = Arrays.copyOf(sortedValues, count);
+    }
+    root = new BPTreeBatchInserter<TKey, TValue>(root.m, context, sortedKeys, sortedValues).insert(root);
+    height = measureHeight();
+    appendLeaf = null;
+    if (cache != null) {
+      for (int i = 0; i < keys.length; i++) {
+        cache.update(keys[i], values[i]);
+      }
+    }
+    endOperation(BPTreeOperation.BATCH_INSERT, start, event);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // bulkLoad
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Fill an empty tree from entries in strictly ascending key order,
+   *      bottom-up and without descending from the root for every key. Leaves
+   *      are packed to fillFactor of their capacity and linked into the
+   *      sequence set; the index set is then built level by level above them.
+   * @param sorted     - entries in strictly ascending key order
+   * @param fillFactor - share of each node to fill, in (0, 1]. Leave headroom
+   *                     below 1 if keys will be inserted later, so the first
+   *                     inserts do not split every leaf.
+   */
+  public void bulkLoad(Iterator<? extends Map.Entry<? extends TKey, ? extends TValue>> sorted, double fillFactor) {
+    compact();
+    if (root == null || !root.isLeaf() || root.getKeyCount() != 0) {
+      throw new IllegalStateException("bulkLoad requires an empty tree");
+    }
+    BPTreeSlowOperationEvent event = new BPTreeSlowOperationEvent();
+    event.begin();
+    long start = latency != null ? System.nanoTime() : 0;
+    BPTreeBulkLoader<TKey, TValue> loader = new BPTreeBulkLoader<TKey, TValue>(root.m, context, fillFactor);
+    root = loader.load(sorted);
+    height = measureHeight();
+    appendLeaf = null;
+    if (context.augmented) {
+      summarize(root);
+    }
+    context.operations += loader.count;
+    context.operationCounts[BPTreeOperation.BULK_LOAD.ordinal()] += loader.count;
+    endOperation(BPTreeOperation.BULK_LOAD, start, event);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // setLookupCache
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Put a bounded cache of up to capacity keys in front of search, or
+   *      remove it with capacity 0. A hit is answered with one hash probe and
+   *      no descent. The cache is scan-resistant, so the hot keys of a skewed
+   *      workload stay cached through one-off reads; see BPTreeLookupCache.
+   *      Writes through the tree keep it exact. Keys must have hashCode and
+   *      equals consistent with compareTo. searchAll, ranges and snapshots
+   *      read the tree directly.
+   */
+  public void setLookupCache(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("lookup cache capacity must not be negative, got " + capacity);
     }
+    cache = capacity > 0 ? new BPTreeLookupCache<TKey, TValue>(capacity) : null;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // setFingerprints
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Give every leaf a side array with a one-byte hash of each key, as in
+   *      FPTree. search, searchAll and delete then find their key in the leaf
+   *      by scanning the fingerprints and comparing a full key only where one
+   *      matches, which saves compareTo calls at large orders or with costly
+   *      keys. Leaves stay sorted, so ranges, inserts and splits are as
+   *      before and only keep the fingerprints in step. Keys must have a
+   *      hashCode consistent with compareTo. Existing leaves are
+   *      fingerprinted once, in O(n).
+   * @throws IllegalStateException if a snapshot is open
+   */
+  @SuppressWarnings("unchecked")
+  public void setFingerprints(boolean enabled) {
+    if (context.openSnapshots.get() > 0) {
+      throw new IllegalStateException("cannot change fingerprints while a snapshot is open");
+    }
+    context.fingerprints = enabled;
+    if (root == null) {
+      return;
+    }
+    BPTreeLeafNode<TKey, TValue> leaf = root.findLeaf(null);
+    while (leaf != null) {
+      if (enabled) {
+        leaf.refreshFingerprints();
+      } else {
+        leaf.fingerprints = null;
+      }
+      leaf = (BPTreeLeafNode<TKey, TValue>) leaf.rightSibling;
+    }
+  }
+
+  public boolean hasFingerprints() {
+    return context.fingerprints;
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -67,28 +561,460 @@ public class BPTree<TKey extends Comparable<TKey>, TValue> {
 
   /**
    * @dev Search a key value on the B+ tree and return its associated value.
+   *      With a lookup cache, the cache is tried first and a value found in
+   *      the tree is offered to it.
    */
   public TValue search(TKey key) {
     if (root != null) {
+      BPTreeSlowOperationEvent event = new BPTreeSlowOperationEvent();
+      event.begin();
+      long start = latency != null ? System.nanoTime() : 0;
       debug++;
-      return root.search(key);
+      context.operations++;
+      context.operationCounts[BPTreeOperation.SEARCH.ordinal()]++;
+      TValue value = cache != null ? cache.get(key) : null;
+      if (value == null) {
+        value = root.search(key);
+        if (cache != null && value != null) {
+          cache.admit(key, value);
+        }
+      }
+      endOperation(BPTreeOperation.SEARCH, start, event);
+      return value;
     }
     return null;
   }
 
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // searchAll
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Search a batch of keys and return their values in the order the keys
+   *      were given, null for absent keys. The batch is visited in ascending
+   *      key order, so after one descent each key is answered from the
+   *      current leaf or its right sibling while it falls within their range.
+   *      Only a key beyond both costs another descent from the root.
+   * @return a list with the value of keys[i] at position i
+   */
+  @SuppressWarnings("unchecked")
+  public List<TValue> searchAll(TKey[] keys) {
+    List<TValue> values = new ArrayList<TValue>(Collections.<TValue>nCopies(keys.length, null));
+    if (root == null || keys.length == 0) {
+      return values;
+    }
+    context.operations += keys.length;
+    context.operationCounts[BPTreeOperation.SEARCH.ordinal()] += keys.length;
+
+    Integer[] order = new Integer[keys.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> keys[a].compareTo(keys[b]));
+
+    BPTreeLeafNode<TKey, TValue> leaf = root.findLeaf(keys[order[0]]);
+    for (int i = 0; i < order.length; i++) {
+      TKey key = keys[order[i]];
+      if (!leaf.covers(key)) {
+        BPTreeLeafNode<TKey, TValue> next = (BPTreeLeafNode<TKey, TValue>) leaf.rightSibling;
+        leaf = next != null && next.covers(key) ? next : root.findLeaf(key);
+      }
+      int index = leaf.indexOf(key);
+      if (index >= 0 && leaf.values[index] != BPTreeLeafNode.TOMBSTONE) {
+        values.set(order[i], (TValue) leaf.values[index]);
+      }
+    }
+    return values;
+  }
+
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
   // delete
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   /**
-   * @dev Delete a key and its associated value from the B+ tree.
+   * @dev Delete a key and its associated value from the B+ tree. Underflow is
+   *      repaired at every level: a node below its minimum fill borrows from
+   *      or merges with a sibling, which may leave its parent underfull in
+   *      turn, and a root left with a single child is replaced by that child.
+   *      In lazy delete mode the entry is only marked as a tombstone.
    */
   public void delete(TKey key) {
     if (root != null) {
-      root = root.delete(key);
+      BPTreeSlowOperationEvent event = new BPTreeSlowOperationEvent();
+      event.begin();
+      long start = latency != null ? System.nanoTime() : 0;
+      context.operations++;
+      context.operationCounts[BPTreeOperation.DELETE.ordinal()]++;
+      if (cache != null) {
+        cache.invalidate(key);
+      }
+      BPTreeLeafNode<TKey, TValue> leaf = descend(key);
+      if (context.lazyDelete && !context.augmented) {
+        leaf.tombstone(key);
+      } else if (leaf.remove(key) && depth > 0) {
+        repair(leaf, false);
+      }
+      endOperation(BPTreeOperation.DELETE, start, event);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // repair
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Fix underflow after entries left leaf, whose path is on the path
+   *      stack, working up to the root and collapsing it if needed. Unless
+   *      wholePath is set, the walk stops at the first level that did not
+   *      change.
+   */
+  @SuppressWarnings("unchecked")
+  private void repair(BPTreeLeafNode<TKey, TValue> leaf, boolean wholePath) {
+    boolean rebalanced = leaf.keyTally < Math.max(1, (leaf.m - 1) / 2);
+    if (rebalanced) {
+      rebalanceLeaf(leaf);
+    }
+
+    // Walk up while the level below changed this node. A rebalance below
+    // touches the child on the path and a sibling on either side
+    int minKeys = (root.m + 1) / 2 - 1;
+    for (int level = depth - 1; level >= 0 && (rebalanced || context.augmented || wholePath); level--) {
+      BPTreeInnerNode<TKey, TValue> node = pathNodes[level];
+      int index = pathIndex[level];
+      if (context.augmented) {
+        node.refreshSummaries(rebalanced ? index - 1 : index, rebalanced ? index + 1 : index);
+      }
+      rebalanced = level > 0 && node.keyTally < minKeys && rebalanceInner(level);
+    }
+    while (!root.isLeaf() && root.keyTally == 0) {
+      root = ((BPTreeInnerNode<TKey, TValue>) root).getChild(0);
+      height--;
+      context.heightDecreases++;
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // rebalanceLeaf
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Borrow enough entries to reach the minimum from a sibling that can
+   *      spare them, otherwise merge with a sibling. After a delete that is a
+   *      single entry; a purged leaf may need more. Only siblings under the
+   *      same parent are used, so the separator to fix is always the one
+   *      between the two leaves.
+   */
+  private void rebalanceLeaf(BPTreeLeafNode<TKey, TValue> leaf) {
+    BPTreeInnerNode<TKey, TValue> parent = pathNodes[depth - 1];
+    int childIndex = pathIndex[depth - 1];
+    BPTreeLeafNode<TKey, TValue> left = childIndex > 0
+        ? (BPTreeLeafNode<TKey, TValue>) parent.writableChild(childIndex - 1)
+        : null;
+    BPTreeLeafNode<TKey, TValue> right = childIndex < parent.keyTally
+        ? (BPTreeLeafNode<TKey, TValue>) parent.writableChild(childIndex + 1)
+        : null;
+    int minKeys = Math.max(1, (leaf.m - 1) / 2);
+    int keyCount = leaf.keyTally;
+    int needed = minKeys - keyCount;
+
+    if (left != null && left.keyTally - needed >= minKeys) {
+      commitRebalance("left redistribution", false, 1, keyCount, left.keyTally);
+      left.moveTo(left.keyTally - needed, needed, leaf, 0);
+      parent.keys[childIndex - 1] = leaf.keys[0];
+      context.leftRedistributions++;
+    } else if (right != null && right.keyTally - needed >= minKeys) {
+      commitRebalance("right redistribution", false, 1, keyCount, right.keyTally);
+      right.moveTo(0, needed, leaf, leaf.keyTally);
+      parent.keys[childIndex] = right.keys[0];
+      context.rightRedistributions++;
+    } else if (left != null) {
+      commitRebalance("left merge", true, 1, keyCount, left.keyTally);
+      appendLeaf = null;
+      leaf.moveTo(0, leaf.keyTally, left, left.keyTally);
+      unlink(leaf);
+      parent.removeSeparator(childIndex - 1);
+      context.leftMerges++;
+    } else if (right != null) {
+      commitRebalance("right merge", true, 1, keyCount, right.keyTally);
+      appendLeaf = null;
+      right.moveTo(0, right.keyTally, leaf, leaf.keyTally);
+      unlink(right);
+      parent.removeSeparator(childIndex);
+      context.rightMerges++;
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // deleteRange
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Delete every entry whose key lies between from and to, with the
+   *      same bounds as range. The leaves strictly inside the range are
+   *      unlinked from the sequence set in one step, and the subtrees that
+   *      hold nothing but such keys are cut out of the index set without
+   *      being visited. Only the nodes on the paths to the two bounds are
+   *      trimmed and rebalanced, so the cost follows the height of the tree
+   *      rather than the number of keys removed.
+   */
+  public void deleteRange(TKey from, boolean fromInclusive, TKey to, boolean toInclusive) {
+    if (root == null) {
+      return;
+    }
+    if (from != null && to != null) {
+      context.compares++;
+      int cmp = from.compareTo(to);
+      if (cmp > 0 || (cmp == 0 && !(fromInclusive && toInclusive))) {
+        return;
+      }
+    }
+    BPTreeSlowOperationEvent event = new BPTreeSlowOperationEvent();
+    event.begin();
+    long start = latency != null ? System.nanoTime() : 0;
+    context.operations++;
+    context.operationCounts[BPTreeOperation.DELETE.ordinal()]++;
+    if (context.openSnapshots.get() > 0 && root.isShared()) {
+      root = root.copy();
+    }
+    appendLeaf = null;
+    if (cache != null) {
+      cache.clear();
+    }
+
+    if (cut(root, from, fromInclusive, to, toInclusive) && !root.isLeaf()) {
+      context.heightDecreases += height - 1;
+      root = new BPTreeLeafNode<TKey, TValue>(root.m, context);
+      height = 1;
+    } else {
+      if (from != null) {
+        rebalancePath(from);
+      }
+      if (to != null) {
+        rebalancePath(to);
+      }
+    }
+    endOperation(BPTreeOperation.DELETE, start, event);
+  }
+
+  /**
+   * @dev Delete every entry in the half-open key range [from, to).
+   */
+  public void deleteRange(TKey from, TKey to) {
+    deleteRange(from, true, to, false);
+  }
+
+  /**
+   * @dev Remove the keys in range from the subtree under node, which must
+   *      already be private to the live tree. Where the range spans several
+   *      children, the boundary leaves are linked to each other, the children
+   *      in between are dropped whole and only the two outer children are
+   *      recursed into. Children left empty are dropped as well.
+   * @return whether node is left with no keys at all
+   */
+  @SuppressWarnings("unchecked")
+  private boolean cut(BPTreeNode<TKey, TValue> node, TKey from, boolean fromInclusive, TKey to, boolean toInclusive) {
+    if (node.isLeaf()) {
+      BPTreeLeafNode<TKey, TValue> leaf = (BPTreeLeafNode<TKey, TValue>) node;
+      int lo = from == null ? 0 : leaf.searchKeys(from, !fromInclusive);
+      int hi = to == null ? leaf.keyTally : leaf.searchKeys(to, toInclusive);
+      if (lo < hi) {
+        leaf.removeRange(lo, hi);
+      }
+      return leaf.keyTally == 0;
+    }
+
+    BPTreeInnerNode<TKey, TValue> inner = (BPTreeInnerNode<TKey, TValue>) node;
+    int lo = from == null ? 0 : inner.findChild(from);
+    int hi = to == null ? inner.keyTally : inner.findChild(to);
+    boolean emptied;
+    if (lo == hi) {
+      emptied = cut(inner.writableChild(lo), from, fromInclusive, to, toInclusive) && dropChild(inner, lo);
+    } else {
+      BPTreeLeafNode<TKey, TValue> left = edgeLeaf(inner.getChild(lo), true);
+      BPTreeLeafNode<TKey, TValue> right = edgeLeaf(inner.getChild(hi), false);
+      for (BPTreeNode<TKey, TValue> gone = left.rightSibling; gone != right && context.tombstones > 0;
+          gone = gone.rightSibling) {
+        context.tombstones -= ((BPTreeLeafNode<TKey, TValue>) gone).tombstones;
+      }
+      left.rightSibling = right;
+      right.leftSibling = left;
+      if (hi - lo > 1) {
+        inner.removeChildren(lo + 1, hi);
+      }
+      boolean leftEmptied = cut(inner.writableChild(lo), from, fromInclusive, null, false);
+      boolean rightEmptied = cut(inner.writableChild(lo + 1), null, false, to, toInclusive);
+      emptied = rightEmptied && dropChild(inner, lo + 1);
+      emptied = leftEmptied ? dropChild(inner, lo) : emptied;
+    }
+    if (context.augmented && !emptied) {
+      inner.refreshSummaries(lo, lo + 1);
+    }
+    return emptied;
+  }
+
+  /**
+   * @dev Drop the emptied child at index, unlinking it first if it is a leaf.
+   * @return whether it was inner's only child, which is then kept and inner
+   *         counts as empty itself
+   */
+  private boolean dropChild(BPTreeInnerNode<TKey, TValue> inner, int index) {
+    BPTreeNode<TKey, TValue> child = inner.getChild(index);
+    if (child.isLeaf()) {
+      unlink((BPTreeLeafNode<TKey, TValue>) child);
+    }
+    if (inner.keyTally == 0) {
+      return true;
+    }
+    inner.removeChildren(index, index + 1);
+    return false;
+  }
+
+  /**
+   * @dev The rightmost or leftmost leaf under node.
+   */
+  @SuppressWarnings("unchecked")
+  private BPTreeLeafNode<TKey, TValue> edgeLeaf(BPTreeNode<TKey, TValue> node, boolean rightmost) {
+    while (!node.isLeaf()) {
+      BPTreeInnerNode<TKey, TValue> inner = (BPTreeInnerNode<TKey, TValue>) node;
+      node = inner.getChild(rightmost ? inner.keyTally : 0);
+    }
+    return (BPTreeLeafNode<TKey, TValue>) node;
+  }
+
+  /**
+   * @dev Repair the path to key until no node on it is below its minimum
+   *      fill. A node cut down to a single child has no sibling to borrow
+   *      from until its parent is repaired, so this can take a few passes.
+   */
+  private void rebalancePath(TKey key) {
+    int minKeys = (root.m + 1) / 2 - 1;
+    while (true) {
+      BPTreeLeafNode<TKey, TValue> leaf = descend(key);
+      boolean underfull = depth > 0 && (leaf.keyTally < Math.max(1, (leaf.m - 1) / 2) || pathNodes[0].keyTally == 0);
+      for (int level = 1; level < depth && !underfull; level++) {
+        underfull = pathNodes[level].keyTally < minKeys;
+      }
+      if (!underfull) {
+        return;
+      }
+      repair(leaf, true);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // lazy delete
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev In lazy mode a delete only marks its entry as a tombstone and
+   *      returns, leaving every borrow and merge to compact(). Reads skip
+   *      tombstones, inserting a tombstoned key revives it, and a leaf that
+   *      fills up while holding tombstones is purged instead of split.
+   *      Leaves may sit below their minimum fill until the next compact().
+   *      Deletes stay eager while the tree is augmented, since its counts
+   *      leave no room for entries that are present but deleted.
+   */
+  public void setLazyDelete(boolean enabled) {
+    context.lazyDelete = enabled;
+  }
+
+  /**
+   * @dev Drop every tombstone and repair the underflow left behind, in one
+   *      pass along the sequence set. Leaves without tombstones are stepped
+   *      over; each leaf with some is reached by a descent, purged, and then
+   *      borrowed into or merged exactly as after an eager delete.
+   */
+  @SuppressWarnings("unchecked")
+  public void compact() {
+    if (root == null || context.tombstones == 0) {
+      return;
+    }
+    BPTreeLeafNode<TKey, TValue> leaf = root.findLeaf(null);
+    while (leaf != null) {
+      if (leaf.tombstones == 0) {
+        leaf = (BPTreeLeafNode<TKey, TValue>) leaf.rightSibling;
+        continue;
+      }
+
+      // Rebalancing may move or merge the next leaf, so resume from the
+      // leaf that holds its first key afterwards
+      BPTreeNode<TKey, TValue> next = leaf.rightSibling;
+      TKey resume = next != null ? (TKey) next.keys[0] : null;
+      leaf = descend((TKey) leaf.keys[0]);
+      leaf.purge();
+      if (depth > 0) {
+        repair(leaf, false);
+      }
+      leaf = resume != null ? root.findLeaf(resume) : null;
     }
   }
 
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // rebalanceInner
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev The inner-node counterpart of rebalanceLeaf for the node at level on
+   *      the path stack. Children move between the two nodes through the
+   *      parent's separator, which is rotated once per child borrowed and
+   *      pulled down on a merge.
+   * @return whether a sibling was found, so the parent changed
+   */
+  @SuppressWarnings("unchecked")
+  private boolean rebalanceInner(int level) {
+    BPTreeInnerNode<TKey, TValue> node = pathNodes[level];
+    BPTreeInnerNode<TKey, TValue> parent = pathNodes[level - 1];
+    int childIndex = pathIndex[level - 1];
+    BPTreeInnerNode<TKey, TValue> left = childIndex > 0
+        ? (BPTreeInnerNode<TKey, TValue>) parent.writableChild(childIndex - 1)
+        : null;
+    BPTreeInnerNode<TKey, TValue> right = childIndex < parent.keyTally
+        ? (BPTreeInnerNode<TKey, TValue>) parent.writableChild(childIndex + 1)
+        : null;
+    int minKeys = (node.m + 1) / 2 - 1;
+    int keyCount = node.keyTally;
+    int needed = minKeys - keyCount;
+    int nodeLevel = depth - level + 1;
+
+    if (left != null && left.keyTally - needed >= minKeys) {
+      commitRebalance("left redistribution", false, nodeLevel, keyCount, left.keyTally);
+      for (int i = 0; i < needed; i++) {
+        parent.keys[childIndex - 1] = node.borrowFromLeft(left, (TKey) parent.keys[childIndex - 1]);
+      }
+      context.leftRedistributions++;
+    } else if (right != null && right.keyTally - needed >= minKeys) {
+      commitRebalance("right redistribution", false, nodeLevel, keyCount, right.keyTally);
+      for (int i = 0; i < needed; i++) {
+        parent.keys[childIndex] = node.borrowFromRight(right, (TKey) parent.keys[childIndex]);
+      }
+      context.rightRedistributions++;
+    } else if (left != null) {
+      commitRebalance("left merge", true, nodeLevel, keyCount, left.keyTally);
+      left.mergeFrom(node, (TKey) parent.keys[childIndex - 1]);
+      parent.removeSeparator(childIndex - 1);
+      context.leftMerges++;
+    } else if (right != null) {
+      commitRebalance("right merge", true, nodeLevel, keyCount, right.keyTally);
+      node.mergeFrom(right, (TKey) parent.keys[childIndex]);
+      parent.removeSeparator(childIndex);
+      context.rightMerges++;
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  private void unlink(BPTreeLeafNode<TKey, TValue> leaf) {
+    if (leaf.leftSibling != null) {
+      leaf.leftSibling.rightSibling = leaf.rightSibling;
+    }
+    if (leaf.rightSibling != null) {
+      leaf.rightSibling.leftSibling = leaf.leftSibling;
+    }
+    leaf.leftSibling = null;
+    leaf.rightSibling = null;
+  }
+
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
   // values
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -98,8 +1024,371 @@ public class BPTree<TKey extends Comparable<TKey>, TValue> {
    */
   public TValue[] values() {
     if (root != null) {
-      return root.values();
+      BPTreeSlowOperationEvent event = new BPTreeSlowOperationEvent();
+      event.begin();
+      long start = latency != null ? System.nanoTime() : 0;
+      context.operationCounts[BPTreeOperation.SCAN.ordinal()]++;
+      TValue[] values = root.values();
+      endOperation(BPTreeOperation.SCAN, start, event);
+      return values;
     }
     return null;
   }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // range
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Return a lazy cursor over the entries whose keys lie between from and
+   *      to in ascending key order. A null bound leaves that side open. The
+   *      tree is descended once, to the leaf holding the lower bound; the
+   *      cursor then follows the sequence set until the upper bound.
+   */
+  public BPTreeCursor<TKey, TValue> range(TKey from, boolean fromInclusive, TKey to, boolean toInclusive) {
+    if (root == null) {
+      return new BPTreeCursor<TKey, TValue>(null, 0, to, toInclusive);
+    }
+    context.operations++;
+    context.operationCounts[BPTreeOperation.SCAN.ordinal()]++;
+    BPTreeLeafNode<TKey, TValue> leaf = root.findLeaf(from);
+    int index = from == null ? 0 : leaf.searchKeys(from, !fromInclusive);
+    return new BPTreeCursor<TKey, TValue>(leaf, index, to, toInclusive);
+  }
+
+  /**
+   * @dev Return a lazy cursor over the half-open key range [from, to).
+   */
+  public BPTreeCursor<TKey, TValue> range(TKey from, TKey to) {
+    return range(from, true, to, false);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // augment
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Switch the tree to augmented mode: every inner node keeps the key
+   *      count of each child subtree, which makes rank, select and count
+   *      O(m log n). Writes then refresh the counts along their path, at
+   *      O(m) per level. Existing nodes are summarised once, in O(n).
+   */
+  public void augment() {
+    augment(null);
+  }
+
+  /**
+   * @dev As augment(), and also keep an aggregate of each child subtree's
+   *      values under monoid, for aggregate(from, to).
+   */
+  @SuppressWarnings("unchecked")
+  public <A> void augment(BPTreeMonoid<? super TValue, A> monoid) {
+    compact();
+    context.augmented = true;
+    context.monoid = (BPTreeMonoid<Object, Object>) monoid;
+    summarize(root);
+  }
+
+  public boolean isAugmented() {
+    return context.augmented;
+  }
+
+  /**
+   * @dev Recompute the summaries of every inner node below node, bottom-up.
+   */
+  private void summarize(BPTreeNode<TKey, TValue> node) {
+    if (node.isLeaf()) {
+      return;
+    }
+    BPTreeInnerNode<TKey, TValue> inner = (BPTreeInnerNode<TKey, TValue>) node;
+    for (int i = 0; i <= inner.keyTally; i++) {
+      summarize(inner.getChild(i));
+    }
+    inner.allocateSummaries();
+    inner.refreshSummaries(0, inner.keyTally);
+  }
+
+  private void requireAugmented(boolean aggregates) {
+    if (!context.augmented || (aggregates && context.monoid == null)) {
+      throw new IllegalStateException(aggregates ? "tree is not augmented with a monoid" : "tree is not augmented");
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // rank
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Number of keys smaller than key, which is also the index key has
+   *      or would have in ascending order. Requires augmented mode.
+   */
+  public long rank(TKey key) {
+    requireAugmented(false);
+    context.operations++;
+    context.operationCounts[BPTreeOperation.SEARCH.ordinal()]++;
+    return countBelow(key, false);
+  }
+
+  /**
+   * @dev Keys smaller than key, or smaller than or equal to it if inclusive.
+   *      Whole subtrees left of the descent are taken from the stored counts.
+   */
+  private long countBelow(TKey key, boolean inclusive) {
+    long below = 0;
+    BPTreeNode<TKey, TValue> node = root;
+    while (!node.isLeaf()) {
+      BPTreeInnerNode<TKey, TValue> inner = (BPTreeInnerNode<TKey, TValue>) node;
+      int index = inner.findChild(key);
+      below += inner.count(0, index);
+      node = inner.getChild(index);
+    }
+    return below + node.searchKeys(key, inclusive);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // select
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev The key at index in ascending order, counting from 0. Requires
+   *      augmented mode.
+   * @throws IndexOutOfBoundsException if index is negative or not below the
+   *                                   number of keys
+   */
+  public TKey select(long index) {
+    requireAugmented(false);
+    context.operations++;
+    context.operationCounts[BPTreeOperation.SEARCH.ordinal()]++;
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("index " + index + " out of range for " + size() + " keys");
+    }
+    BPTreeNode<TKey, TValue> node = root;
+    while (!node.isLeaf()) {
+      BPTreeInnerNode<TKey, TValue> inner = (BPTreeInnerNode<TKey, TValue>) node;
+      int child = 0;
+      while (index >= inner.counts[child]) {
+        index -= inner.counts[child++];
+      }
+      context.nodeVisits++;
+      node = inner.getChild(child);
+    }
+    context.nodeVisits++;
+    return node.getKey((int) index);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // size
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Number of keys in the tree. Requires augmented mode, which is the
+   *      only mode that keeps subtree counts.
+   */
+  public long size() {
+    requireAugmented(false);
+    if (root.isLeaf()) {
+      return root.keyTally;
+    }
+    return ((BPTreeInnerNode<TKey, TValue>) root).count(0, root.keyTally + 1);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // count
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Number of keys between from and to, with bounds as for range(). A
+   *      null bound leaves that side open. Requires augmented mode.
+   */
+  public long count(TKey from, boolean fromInclusive, TKey to, boolean toInclusive) {
+    requireAugmented(false);
+    context.operations++;
+    context.operationCounts[BPTreeOperation.SEARCH.ordinal()]++;
+    long upper = to == null ? size() : countBelow(to, toInclusive);
+    long lower = from == null ? 0 : countBelow(from, !fromInclusive);
+    return Math.max(0, upper - lower);
+  }
+
+  /**
+   * @dev Number of keys in the half-open range [from, to).
+   */
+  public long count(TKey from, TKey to) {
+    return count(from, true, to, false);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // aggregate
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev The monoid's aggregate of the values whose keys lie between from
+   *      and to, with bounds as for range(). Subtrees that lie wholly inside
+   *      the range contribute their stored aggregate, so only the two
+   *      boundary paths are descended. A must be the aggregate type of the
+   *      monoid passed to augment.
+   */
+  @SuppressWarnings("unchecked")
+  public <A> A aggregate(TKey from, boolean fromInclusive, TKey to, boolean toInclusive) {
+    requireAugmented(true);
+    context.operations++;
+    context.operationCounts[BPTreeOperation.SCAN.ordinal()]++;
+    return (A) aggregate(root, from, fromInclusive, to, toInclusive);
+  }
+
+  /**
+   * @dev The monoid's aggregate over the half-open range [from, to).
+   */
+  public <A> A aggregate(TKey from, TKey to) {
+    return aggregate(from, true, to, false);
+  }
+
+  private Object aggregate(BPTreeNode<TKey, TValue> node, TKey from, boolean fromInclusive, TKey to,
+      boolean toInclusive) {
+    if (node.isLeaf()) {
+      int lo = from == null ? 0 : node.searchKeys(from, !fromInclusive);
+      int hi = to == null ? node.keyTally : node.searchKeys(to, toInclusive);
+      return lo < hi ? ((BPTreeLeafNode<TKey, TValue>) node).fold(lo, hi) : context.monoid.identity();
+    }
+    BPTreeInnerNode<TKey, TValue> inner = (BPTreeInnerNode<TKey, TValue>) node;
+    int lo = from == null ? 0 : inner.findChild(from);
+    int hi = to == null ? inner.keyTally : inner.findChild(to);
+    if (from == null && to == null) {
+      return inner.fold(0, inner.keyTally + 1);
+    }
+    if (lo > hi) {
+      return context.monoid.identity();
+    }
+    if (lo == hi) {
+      return aggregate(inner.getChild(lo), from, fromInclusive, to, toInclusive);
+    }
+    Object result = aggregate(inner.getChild(lo), from, fromInclusive, null, false);
+    result = context.monoid.combine(result, inner.fold(lo + 1, hi));
+    return context.monoid.combine(result, aggregate(inner.getChild(hi), null, false, to, toInclusive));
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // streams
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Stream of every entry in ascending key order. The spliterator splits
+   *      at inner node boundaries, so a parallel stream hands disjoint
+   *      subtrees to each worker, and each worker follows the sequence set
+   *      within its subtrees. The tree must not be changed while the stream
+   *      runs; stream a snapshot's values() instead if writes continue.
+   */
+  public Stream<Map.Entry<TKey, TValue>> entryStream() {
+    context.operationCounts[BPTreeOperation.SCAN.ordinal()]++;
+    return StreamSupport.stream(new BPTreeSpliterator<TKey, TValue, Map.Entry<TKey, TValue>>(root,
+        (key, value) -> new AbstractMap.SimpleImmutableEntry<TKey, TValue>(key, value), true), false);
+  }
+
+  /**
+   * @dev Stream of every value in ascending key order, split the same way as
+   *      entryStream.
+   */
+  public Stream<TValue> valueStream() {
+    context.operationCounts[BPTreeOperation.SCAN.ordinal()]++;
+    return StreamSupport.stream(new BPTreeSpliterator<TKey, TValue, TValue>(root, (key, value) -> value, false),
+        false);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // snapshot
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Return a read-only view of the tree as it is now. Taking it copies
+   *      nothing: it starts a new epoch, and from then on insert and delete
+   *      copy each node on their path that was created before the snapshot,
+   *      leaving the original to the view. Once every snapshot is closed,
+   *      writes go back to changing nodes in place and the superseded
+   *      versions are left to the garbage collector.
+   * @dev A snapshot may be read from another thread while this tree keeps
+   *      taking writes, provided it is handed over safely. Its reads are
+   *      still added to this tree's compare counters.
+   */
+  public BPTreeSnapshot<TKey, TValue> snapshot() {
+    context.epoch++;
+    context.openSnapshots.incrementAndGet();
+    return new BPTreeSnapshot<TKey, TValue>(root, context);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // descend
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Descent for insert and delete that records every inner node and the
+   *      child index taken on the path stack, so splits and merges can walk
+   *      back up without parent pointers. While snapshots are open, every node
+   *      on the path that a snapshot still shares is replaced by a private
+   *      copy on the way down, so the write can change the path in place.
+   */
+  private BPTreeLeafNode<TKey, TValue> descend(TKey key) {
+    boolean copy = context.openSnapshots.get() > 0;
+    if (copy) {
+      appendLeaf = null;
+      if (root.isShared()) {
+        root = root.copy();
+      }
+    }
+    depth = 0;
+    BPTreeNode<TKey, TValue> node = root;
+    while (!node.isLeaf()) {
+      BPTreeInnerNode<TKey, TValue> inner = (BPTreeInnerNode<TKey, TValue>) node;
+      int index = inner.findChild(key);
+      push(inner, index);
+      node = copy ? inner.writableChild(index) : inner.getChild(index);
+    }
+    return (BPTreeLeafNode<TKey, TValue>) node;
+  }
+
+  private void push(BPTreeInnerNode<TKey, TValue> inner, int index) {
+    if (depth == pathNodes.length) {
+      pathNodes = Arrays.copyOf(pathNodes, depth * 2);
+      pathIndex = Arrays.copyOf(pathIndex, depth * 2);
+    }
+    pathNodes[depth] = inner;
+    pathIndex[depth++] = index;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // appendTarget
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev The rightmost leaf if key is above every key in the tree, found with
+   *      one compare against the leaf's last key; otherwise null. Not used
+   *      while snapshots are open, since then the path must be copied.
+   */
+  @SuppressWarnings("unchecked")
+  private BPTreeLeafNode<TKey, TValue> appendTarget(TKey key) {
+    BPTreeLeafNode<TKey, TValue> leaf = appendLeaf;
+    if (leaf == null || leaf.keyTally == 0 || context.openSnapshots.get() > 0) {
+      return null;
+    }
+    context.compares++;
+    return key.compareTo((TKey) leaf.keys[leaf.keyTally - 1]) > 0 ? leaf : null;
+  }
+
+  /**
+   * @dev Fill the path stack with the right edge of the tree, the path to the
+   *      rightmost leaf, without comparing any keys. An append only needs the
+   *      path when its leaf splits or the tree is augmented.
+   */
+  private void rightSpine() {
+    depth = 0;
+    BPTreeNode<TKey, TValue> node = root;
+    while (!node.isLeaf()) {
+      BPTreeInnerNode<TKey, TValue> inner = (BPTreeInnerNode<TKey, TValue>) node;
+      push(inner, inner.keyTally);
+      node = inner.getChild(inner.keyTally);
+    }
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static <TKey extends Comparable<TKey>, TValue> BPTreeInnerNode<TKey, TValue>[] newPath(int length) {
+    return (BPTreeInnerNode<TKey, TValue>[]) new BPTreeInnerNode[length];
+  }
 }
@@ -0,0 +1,329 @@
+import java.util.ArrayList;
+
+/**
+ * @dev Applies a sorted batch of entries to a B+ tree in one pass. The batch
+ *      is cut into runs by the separators of each inner node and every run is
+ *      pushed into its subtree once, so a leaf takes all of its new keys in a
+ *      single merge. A node that overflows is split once, into as many evenly
+ *      filled nodes as it needs, and the separators for all of them are added
+ *      to the parent together.
+ * @dev In an augmented tree the subtree summaries of every visited inner
+ *      node are recomputed on the way back up.
+ * 
+ * @param <TKey>   the data type of the key
+ * @param <TValue> the data type of the value
+ */
+@SuppressWarnings("unchecked")
+class BPTreeBatchInserter<TKey extends Comparable<TKey>, TValue> {
+
+  private final int m;
+  private final BPTreeContext<TKey, TValue> context;
+  private final Object[] keys;
+  private final Object[] values;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @param keys   - batch keys in strictly ascending order
+   * @param values - value for each key
+   */
+  BPTreeBatchInserter(int order, BPTreeContext<TKey, TValue> context, Object[] keys, Object[] values) {
+    this.m = order;
+    this.context = context;
+    this.keys = keys;
+    this.values = values;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // insert
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Insert the whole batch below root and return the root of the
+   *      changed tree, which is new if the old root split.
+   */
+  public BPTreeNode<TKey, TValue> insert(BPTreeNode<TKey, TValue> root) {
+    ArrayList<Object> separators = new ArrayList<Object>();
+    ArrayList<BPTreeNode<TKey, TValue>> splits = new ArrayList<BPTreeNode<TKey, TValue>>();
+    this.insertRun(root, 0, this.keys.length, separators, splits);
+
+    // Grow the tree until the nodes split off the top fit under a single root
+    while (!splits.isEmpty()) {
+      Object[] rootKeys = separators.toArray();
+      Object[] rootReferences = new Object[splits.size() + 1];
+      rootReferences[0] = root;
+      for (int i = 0; i < splits.size(); i++) {
+        rootReferences[i + 1] = splits.get(i);
+      }
+      separators.clear();
+      splits.clear();
+      root = new BPTreeInnerNode<TKey, TValue>(this.m, this.context);
+      this.context.heightIncreases++;
+      this.fillInner((BPTreeInnerNode<TKey, TValue>) root, rootKeys, rootReferences, rootKeys.length, separators, splits);
+    }
+    return root;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // insertRun
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Insert batch entries [from, to) below node. If node has to split,
+   *      the nodes split off to its right are appended to splits, each after
+   *      the separator that goes in front of it.
+   */
+  private void insertRun(BPTreeNode<TKey, TValue> node, int from, int to, ArrayList<Object> separators,
+      ArrayList<BPTreeNode<TKey, TValue>> splits) {
+    this.context.nodeVisits++;
+    if (node.isLeaf()) {
+      this.mergeIntoLeaf((BPTreeLeafNode<TKey, TValue>) node, from, to, separators, splits);
+      return;
+    }
+    BPTreeInnerNode<TKey, TValue> inner = (BPTreeInnerNode<TKey, TValue>) node;
+
+    // Hand each child the run of keys below its separator; keys equal to a separator go right
+    ArrayList<Object> childSeparators = new ArrayList<Object>();
+    ArrayList<BPTreeNode<TKey, TValue>> childSplits = new ArrayList<BPTreeNode<TKey, TValue>>();
+    int[] splitsEnd = new int[inner.keyTally + 1];
+    int start = from;
+    int firstVisited = -1;
+    int lastVisited = -1;
+    for (int child = 0; child <= inner.keyTally; child++) {
+      int end = child < inner.keyTally ? this.lowerBound((TKey) inner.keys[child], start, to) : to;
+      if (end > start) {
+        this.insertRun(inner.getChild(child), start, end, childSeparators, childSplits);
+        start = end;
+        firstVisited = firstVisited < 0 ? child : firstVisited;
+        lastVisited = child;
+      }
+      splitsEnd[child] = childSplits.size();
+    }
+    if (childSplits.isEmpty()) {
+      if (this.context.augmented) {
+        inner.refreshSummaries(firstVisited, lastVisited);
+      }
+      return;
+    }
+
+    // Interleave the new children and separators with the existing ones
+    int keyCount = inner.keyTally + childSplits.size();
+    Object[] mergedKeys = new Object[keyCount];
+    Object[] mergedReferences = new Object[keyCount + 1];
+    int k = 0;
+    int r = 0;
+    int split = 0;
+    for (int child = 0; child <= inner.keyTally; child++) {
+      mergedReferences[r++] = inner.references[child];
+      for (; split < splitsEnd[child]; split++) {
+        mergedKeys[k++] = childSeparators.get(split);
+        mergedReferences[r++] = childSplits.get(split);
+      }
+      if (child < inner.keyTally) {
+        mergedKeys[k++] = inner.keys[child];
+      }
+    }
+    this.fillInner(inner, mergedKeys, mergedReferences, keyCount, separators, splits);
+  }
+
+  /**
+   * @dev Index of the first batch key in [from, to) that is not smaller
+   *      than key.
+   */
+  private int lowerBound(TKey key, int from, int to) {
+    int low = from;
+    int high = to;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      this.context.compares++;
+      if (((TKey) this.keys[mid]).compareTo(key) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // mergeIntoLeaf
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Merge batch entries [from, to) with the entries of leaf. A batch
+   *      entry replaces the value of an equal key. If the result does not fit,
+   *      it is dealt out evenly over leaf and as many new leaves to its right
+   *      as needed, linked into the sequence set. A batch key equal to a
+   *      tombstone revives it; other tombstones move along like live entries.
+   */
+  private void mergeIntoLeaf(BPTreeLeafNode<TKey, TValue> leaf, int from, int to, ArrayList<Object> separators,
+      ArrayList<BPTreeNode<TKey, TValue>> splits) {
+    int capacity = leaf.keyTally + to - from;
+    if (capacity < this.m) {
+      this.mergeInPlace(leaf, from, to);
+      return;
+    }
+    Object[] mergedKeys = new Object[capacity];
+    Object[] mergedValues = new Object[capacity];
+    int count = 0;
+    int i = 0;
+    int j = from;
+    while (i < leaf.keyTally || j < to) {
+      int cmp;
+      if (i == leaf.keyTally) {
+        cmp = 1;
+      } else if (j == to) {
+        cmp = -1;
+      } else {
+        this.context.compares++;
+        cmp = ((TKey) leaf.keys[i]).compareTo((TKey) this.keys[j]);
+      }
+      if (cmp < 0) {
+        mergedKeys[count] = leaf.keys[i];
+        mergedValues[count++] = leaf.values[i++];
+      } else {
+        if (cmp == 0) {
+          this.revive(leaf, i++);
+        }
+        mergedKeys[count] = this.keys[j];
+        mergedValues[count++] = this.values[j++];
+      }
+    }
+
+    boolean tombstones = leaf.tombstones > 0;
+    int pieces = (count + this.m - 2) / (this.m - 1);
+    BPTreeLeafNode<TKey, TValue> target = leaf;
+    int start = 0;
+    for (int piece = 0; piece < pieces; piece++) {
+      int end = (int) ((long) count * (piece + 1) / pieces);
+      if (piece > 0) {
+        BPTreeLeafNode<TKey, TValue> next = new BPTreeLeafNode<TKey, TValue>(this.m, this.context);
+        this.context.leafSplits++;
+        next.rightSibling = target.rightSibling;
+        if (next.rightSibling != null) {
+          next.rightSibling.leftSibling = next;
+        }
+        next.leftSibling = target;
+        target.rightSibling = next;
+        target = next;
+        separators.add(mergedKeys[start]);
+        splits.add(next);
+      }
+      int previousTally = target.keyTally;
+      System.arraycopy(mergedKeys, start, target.keys, 0, end - start);
+      System.arraycopy(mergedValues, start, target.values, 0, end - start);
+      for (int slot = end - start; slot < previousTally; slot++) {
+        target.keys[slot] = null;
+        target.values[slot] = null;
+      }
+      target.keyTally = end - start;
+      if (tombstones) {
+        target.tombstones = target.countTombstones();
+      }
+      if (target.fingerprints != null) {
+        target.refreshFingerprints();
+      }
+      start = end;
+    }
+  }
+
+  /**
+   * @dev Merge batch entries [from, to) into leaf when they are sure to fit,
+   *      back to front so no entry is copied twice. A batch key equal to one
+   *      in the leaf leaves a gap at the front, which is closed afterwards.
+   */
+  private void mergeInPlace(BPTreeLeafNode<TKey, TValue> leaf, int from, int to) {
+    int i = leaf.keyTally - 1;
+    int j = to - 1;
+    int w = leaf.keyTally + to - from - 1;
+    while (j >= from) {
+      int cmp;
+      if (i < 0) {
+        cmp = -1;
+      } else {
+        this.context.compares++;
+        cmp = ((TKey) leaf.keys[i]).compareTo((TKey) this.keys[j]);
+      }
+      if (cmp > 0) {
+        leaf.keys[w] = leaf.keys[i];
+        leaf.values[w--] = leaf.values[i--];
+      } else {
+        if (cmp == 0) {
+          this.revive(leaf, i--);
+        }
+        leaf.keys[w] = this.keys[j];
+        leaf.values[w--] = this.values[j--];
+      }
+    }
+    // Entries of the leaf below the smallest batch key are already in place
+    int gap = w - i;
+    int count = leaf.keyTally + to - from - gap;
+    if (gap > 0) {
+      System.arraycopy(leaf.keys, w + 1, leaf.keys, i + 1, count - i - 1);
+      System.arraycopy(leaf.values, w + 1, leaf.values, i + 1, count - i - 1);
+      for (int slot = count; slot < count + gap; slot++) {
+        leaf.keys[slot] = null;
+        leaf.values[slot] = null;
+      }
+    }
+    leaf.keyTally = count;
+    if (leaf.fingerprints != null) {
+      leaf.refreshFingerprints();
+    }
+  }
+
+  /**
+   * @dev Account for a batch entry replacing slot i of leaf, which revives
+   *      the key if it was a tombstone.
+   */
+  private void revive(BPTreeLeafNode<TKey, TValue> leaf, int i) {
+    if (leaf.values[i] == BPTreeLeafNode.TOMBSTONE) {
+      leaf.tombstones--;
+      this.context.tombstones--;
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // fillInner
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Store keyCount keys and keyCount + 1 references in node. If they do
+   *      not fit, they are dealt out evenly by reference over node and new
+   *      inner nodes to its right, and the key between two of those nodes is
+   *      passed up with the right-hand one.
+   */
+  private void fillInner(BPTreeInnerNode<TKey, TValue> node, Object[] keys, Object[] references, int keyCount,
+      ArrayList<Object> separators, ArrayList<BPTreeNode<TKey, TValue>> splits) {
+    int referenceCount = keyCount + 1;
+    int pieces = (referenceCount + this.m - 1) / this.m;
+    BPTreeInnerNode<TKey, TValue> target = node;
+    int start = 0;
+    for (int piece = 0; piece < pieces; piece++) {
+      int end = (int) ((long) referenceCount * (piece + 1) / pieces);
+      if (piece > 0) {
+        target = new BPTreeInnerNode<TKey, TValue>(this.m, this.context);
+        this.context.innerSplits++;
+        separators.add(keys[start - 1]);
+        splits.add(target);
+      }
+      int previousTally = target.keyTally;
+      int childCount = end - start;
+      for (int c = 0; c < childCount; c++) {
+        target.setChild(c, (BPTreeNode<TKey, TValue>) references[start + c]);
+      }
+      System.arraycopy(keys, start, target.keys, 0, childCount - 1);
+      for (int slot = childCount - 1; slot < previousTally; slot++) {
+        target.keys[slot] = null;
+        target.references[slot + 1] = null;
+      }
+      target.keyTally = childCount - 1;
+      if (this.context.augmented) {
+        target.refreshSummaries(0, target.keyTally);
+      }
+      start = end;
+    }
+  }
+}
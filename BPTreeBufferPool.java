@@ -0,0 +1,223 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * @dev A bounded cache of decoded node pages in front of a BPTreePageFile.
+ *      Each frame holds one node, looked up by page ID. A pinned node stays
+ *      in its frame until it is unpinned. A changed node is only marked
+ *      dirty; it is written back when its frame is reused or on flush.
+ * @dev Write-back never touches a page the file's last checkpoint can reach.
+ *      Before a node of an older epoch is changed, the tree moves it to a
+ *      page of the current epoch with relocate(), so dirty nodes always live
+ *      in pages allocated since that checkpoint, however early they are
+ *      evicted.
+ * @dev Frames are reused in CLOCK order. The hand skips pinned and resident
+ *      frames and gives a frame whose reference bit is set a second chance.
+ *      Pages read by a sequential scan come in with the bit clear, so one
+ *      pass over the leaves only recycles the frames that pass itself filled,
+ *      not the working set.
+ * @dev An operation is never refused for lack of frames: if every frame is
+ *      pinned or resident, the pool grows past its capacity instead.
+ * 
+ * @param <TKey>   the data type of the key
+ * @param <TValue> the data type of the value
+ */
+class BPTreeBufferPool<TKey extends Comparable<TKey>, TValue> {
+
+  private final BPTreePageFile file;
+  private final BPTreeCodec<TKey> keyCodec;
+  private final BPTreeCodec<TValue> valueCodec;
+  private final int leafOrder;
+  private final int innerOrder;
+  private final ByteBuffer page;
+
+  private PagedBPTreeNode<TKey, TValue>[] frames;
+  private final HashMap<Long, PagedBPTreeNode<TKey, TValue>> pageTable;
+  private int hand;
+  private int used;
+
+  protected long hits;
+  protected long misses;
+  protected long evictions;
+  protected long writes;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  BPTreeBufferPool(BPTreePageFile file, int capacity, int leafOrder, int innerOrder, BPTreeCodec<TKey> keyCodec,
+      BPTreeCodec<TValue> valueCodec) {
+    this.file = file;
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+    this.leafOrder = leafOrder;
+    this.innerOrder = innerOrder;
+    this.page = ByteBuffer.allocate(file.pageSize);
+    this.frames = new PagedBPTreeNode[capacity];
+    this.pageTable = new HashMap<Long, PagedBPTreeNode<TKey, TValue>>(capacity * 2);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // pin
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Return the node stored in pageId, reading it if it is not cached,
+   *      and pin it.
+   * @param resident - keep the frame out of eviction, for the top levels.
+   *                   A frame stays resident once any caller asks for it
+   * @param scan     - a one-off sequential read that should not displace
+   *                   the working set
+   */
+  PagedBPTreeNode<TKey, TValue> pin(long pageId, boolean resident, boolean scan) throws IOException {
+    PagedBPTreeNode<TKey, TValue> node = this.pageTable.get(pageId);
+    if (node != null) {
+      this.hits++;
+      node.referenced |= !scan;
+    } else {
+      this.misses++;
+      int frame = this.claimFrame();
+      this.file.readPage(pageId, this.page);
+      node = PagedBPTreeNode.decode(pageId, this.page, this.leafOrder, this.innerOrder, this.keyCodec, this.valueCodec);
+      node.referenced = !scan;
+      this.install(node, frame);
+    }
+    node.resident |= resident;
+    node.pinCount++;
+    return node;
+  }
+
+  /**
+   * @dev Allocate a page for a new, empty node and return it pinned and
+   *      dirty.
+   */
+  PagedBPTreeNode<TKey, TValue> pinNew(boolean leaf) throws IOException {
+    int frame = this.claimFrame();
+    long pageId = this.file.allocate();
+    PagedBPTreeNode<TKey, TValue> node = new PagedBPTreeNode<TKey, TValue>(pageId, leaf,
+        leaf ? this.leafOrder : this.innerOrder);
+    node.epoch = this.file.epoch;
+    node.referenced = true;
+    node.dirty = true;
+    this.install(node, frame);
+    node.pinCount++;
+    return node;
+  }
+
+  /**
+   * @dev Move node to a page of the current epoch if it is still in a page
+   *      the last checkpoint may reach, and mark it dirty. The old page is
+   *      held back until the next checkpoint.
+   * @return whether the node moved, so its parent must be relinked
+   */
+  boolean relocate(PagedBPTreeNode<TKey, TValue> node) {
+    if (node.epoch == this.file.epoch) {
+      return false;
+    }
+    node.dirty = true;
+    this.pageTable.remove(node.pageId);
+    this.file.free(node.pageId, node.epoch);
+    node.pageId = this.file.allocate();
+    node.epoch = this.file.epoch;
+    this.pageTable.put(node.pageId, node);
+    return true;
+  }
+
+  void unpin(PagedBPTreeNode<TKey, TValue> node) {
+    node.pinCount--;
+  }
+
+  private void install(PagedBPTreeNode<TKey, TValue> node, int frame) {
+    node.frame = frame;
+    this.frames[frame] = node;
+    this.pageTable.put(node.pageId, node);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // claimFrame
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Return an empty frame, evicting the node the clock hand settles on
+   *      and writing it back first if it is dirty.
+   */
+  private int claimFrame() throws IOException {
+    if (this.used < this.frames.length) {
+      for (int i = 0; i < this.frames.length; i++) {
+        int frame = (this.hand + i) % this.frames.length;
+        if (this.frames[frame] == null) {
+          this.used++;
+          return frame;
+        }
+      }
+    }
+
+    // Two full turns clear every reference bit, so a third finding nothing means all frames are held
+    for (int step = 0; step < 2 * this.frames.length + 1; step++) {
+      int frame = this.hand;
+      this.hand = (this.hand + 1) % this.frames.length;
+      PagedBPTreeNode<TKey, TValue> node = this.frames[frame];
+      if (node.pinCount > 0 || node.resident) {
+        continue;
+      }
+      if (node.referenced) {
+        node.referenced = false;
+        continue;
+      }
+      this.writeBack(node);
+      this.pageTable.remove(node.pageId);
+      this.frames[frame] = null;
+      this.evictions++;
+      return frame;
+    }
+    int frame = this.frames.length;
+    this.frames = Arrays.copyOf(this.frames, frame * 2);
+    this.used++;
+    return frame;
+  }
+
+  private void writeBack(PagedBPTreeNode<TKey, TValue> node) throws IOException {
+    if (node.dirty) {
+      if (node.epoch != this.file.epoch) {
+        throw new IllegalStateException("page " + node.pageId + " was changed without being relocated");
+      }
+      node.encode(this.page, this.keyCodec, this.valueCodec);
+      this.file.writePage(node.pageId, this.page);
+      node.dirty = false;
+      this.writes++;
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // free
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Drop node from the pool without writing it and give its page back
+   *      to the file.
+   */
+  void free(PagedBPTreeNode<TKey, TValue> node) {
+    this.frames[node.frame] = null;
+    this.pageTable.remove(node.pageId);
+    this.used--;
+    this.file.free(node.pageId, node.epoch);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // flush
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Write back every dirty node. Nodes stay cached.
+   */
+  void flush() throws IOException {
+    for (PagedBPTreeNode<TKey, TValue> node : this.frames) {
+      if (node != null) {
+        this.writeBack(node);
+      }
+    }
+  }
+}
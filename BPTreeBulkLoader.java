@@ -0,0 +1,191 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * @dev Builds a B+ tree bottom-up from entries that arrive in ascending key
+ *      order. Leaves are packed to a target fill level straight off the input
+ *      and linked into the sequence set as they are completed. Each index set
+ *      level above is then built from the level below in one linear pass.
+ * 
+ * @param <TKey>   the data type of the key
+ * @param <TValue> the data type of the value
+ */
+@SuppressWarnings("unchecked")
+class BPTreeBulkLoader<TKey extends Comparable<TKey>, TValue> {
+
+  private final int m;
+  private final BPTreeContext<TKey, TValue> context;
+  private final int leafTarget;
+  private final int innerTarget;
+  private final int minLeafKeys;
+  private final int minChildren;
+
+  // Nodes of the level being built, with the smallest key below each node
+  private ArrayList<BPTreeNode<TKey, TValue>> nodes;
+  private ArrayList<TKey> lowKeys;
+
+  // Number of entries taken from the input
+  int count;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @param fillFactor - share of a node's capacity to fill, in (0, 1]. Nodes
+   *                     are never packed below the minimum occupancy the
+   *                     delete path expects.
+   */
+  BPTreeBulkLoader(int order, BPTreeContext<TKey, TValue> context, double fillFactor) {
+    if (!(fillFactor > 0 && fillFactor <= 1)) {
+      throw new IllegalArgumentException("fillFactor must be in (0, 1], was " + fillFactor);
+    }
+    this.m = order;
+    this.context = context;
+    this.minLeafKeys = Math.max(1, (order - 1) / 2);
+    this.leafTarget = Math.max(minLeafKeys, Math.min(order - 1, (int) Math.round((order - 1) * fillFactor)));
+    this.minChildren = Math.max(2, (order + 1) / 2);
+    this.innerTarget = Math.max(minChildren, Math.min(order, (int) Math.round(order * fillFactor)));
+    this.nodes = new ArrayList<BPTreeNode<TKey, TValue>>();
+    this.lowKeys = new ArrayList<TKey>();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // load
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Consume the input and return the root of the finished tree.
+   * @throws IllegalArgumentException if the keys are not strictly ascending
+   */
+  public BPTreeNode<TKey, TValue> load(Iterator<? extends Map.Entry<? extends TKey, ? extends TValue>> sorted) {
+    this.buildLeaves(sorted);
+    while (this.nodes.size() > 1) {
+      this.buildInnerLevel();
+    }
+    return this.nodes.get(0);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // buildLeaves
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  private void buildLeaves(Iterator<? extends Map.Entry<? extends TKey, ? extends TValue>> sorted) {
+    BPTreeLeafNode<TKey, TValue> leaf = new BPTreeLeafNode<TKey, TValue>(m, context);
+    TKey previous = null;
+
+    while (sorted.hasNext()) {
+      Map.Entry<? extends TKey, ? extends TValue> entry = sorted.next();
+      TKey key = entry.getKey();
+      if (previous != null && previous.compareTo(key) >= 0) {
+        throw new IllegalArgumentException("bulk load input is not strictly ascending at key " + key);
+      }
+      previous = key;
+      this.count++;
+
+      // Current leaf is packed, start the next one in the sequence set
+      if (leaf.keyTally == leafTarget) {
+        this.addNode(leaf);
+        BPTreeLeafNode<TKey, TValue> next = new BPTreeLeafNode<TKey, TValue>(m, context);
+        next.leftSibling = leaf;
+        leaf.rightSibling = next;
+        leaf = next;
+      }
+      leaf.keys[leaf.keyTally] = key;
+      leaf.values[leaf.keyTally++] = entry.getValue();
+    }
+    this.addNode(leaf);
+    this.balanceLastLeaf();
+    if (this.context.fingerprints) {
+      for (BPTreeNode<TKey, TValue> node : this.nodes) {
+        ((BPTreeLeafNode<TKey, TValue>) node).refreshFingerprints();
+      }
+    }
+  }
+
+  /**
+   * @dev The input rarely ends on a leaf boundary. If the last leaf came out
+   *      below minimum occupancy, either split the last two leaves evenly or,
+   *      when that would leave both too small, fold the last into its left.
+   */
+  private void balanceLastLeaf() {
+    int count = this.nodes.size();
+    BPTreeLeafNode<TKey, TValue> last = (BPTreeLeafNode<TKey, TValue>) this.nodes.get(count - 1);
+    if (count == 1 || last.keyTally >= minLeafKeys) {
+      return;
+    }
+    BPTreeLeafNode<TKey, TValue> left = (BPTreeLeafNode<TKey, TValue>) this.nodes.get(count - 2);
+    int total = left.keyTally + last.keyTally;
+
+    if (total < 2 * minLeafKeys) {
+      System.arraycopy(last.keys, 0, left.keys, left.keyTally, last.keyTally);
+      System.arraycopy(last.values, 0, left.values, left.keyTally, last.keyTally);
+      left.keyTally = total;
+      left.rightSibling = null;
+      this.nodes.remove(count - 1);
+      this.lowKeys.remove(count - 1);
+      return;
+    }
+
+    int moved = left.keyTally - total / 2;
+    System.arraycopy(last.keys, 0, last.keys, moved, last.keyTally);
+    System.arraycopy(last.values, 0, last.values, moved, last.keyTally);
+    System.arraycopy(left.keys, left.keyTally - moved, last.keys, 0, moved);
+    System.arraycopy(left.values, left.keyTally - moved, last.values, 0, moved);
+    for (int i = left.keyTally - moved; i < left.keyTally; i++) {
+      left.keys[i] = null;
+      left.values[i] = null;
+    }
+    left.keyTally -= moved;
+    last.keyTally += moved;
+    this.lowKeys.set(count - 1, (TKey) last.keys[0]);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // buildInnerLevel
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Group the current level under a new level of inner nodes. The number
+   *      of parents is fixed by the target fill (but never so many that a
+   *      parent gets fewer than the minimum number of children), then children
+   *      are dealt out evenly so no parent on the right edge is left underfull.
+   *      The smallest key below each child, other than the first, becomes its
+   *      separator.
+   */
+  private void buildInnerLevel() {
+    ArrayList<BPTreeNode<TKey, TValue>> children = this.nodes;
+    ArrayList<TKey> childKeys = this.lowKeys;
+    int childCount = children.size();
+    int parentCount = Math.max(1, Math.min((childCount + innerTarget - 1) / innerTarget, childCount / minChildren));
+    int perParent = childCount / parentCount;
+    int extra = childCount % parentCount;
+
+    this.nodes = new ArrayList<BPTreeNode<TKey, TValue>>(parentCount);
+    this.lowKeys = new ArrayList<TKey>(parentCount);
+    int next = 0;
+    for (int p = 0; p < parentCount; p++) {
+      int take = perParent + (p < extra ? 1 : 0);
+      BPTreeInnerNode<TKey, TValue> parent = new BPTreeInnerNode<TKey, TValue>(m, context);
+      parent.setChild(0, children.get(next));
+      for (int c = 1; c < take; c++) {
+        parent.keys[c - 1] = childKeys.get(next + c);
+        parent.setChild(c, children.get(next + c));
+      }
+      parent.keyTally = take - 1;
+      this.nodes.add(parent);
+      this.lowKeys.add(childKeys.get(next));
+      next += take;
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // addNode
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  private void addNode(BPTreeLeafNode<TKey, TValue> leaf) {
+    this.nodes.add(leaf);
+    this.lowKeys.add((TKey) leaf.keys[0]);
+  }
+}
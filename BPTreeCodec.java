@@ -0,0 +1,119 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @dev Fixed-width binary form of keys or values for the paged tree. Every
+ *      encoded entry takes exactly size() bytes, so slots sit at fixed offsets
+ *      in a page and the number of entries a page holds follows from the page
+ *      size alone.
+ * 
+ * @param <T> the data type encoded
+ */
+public interface BPTreeCodec<T> {
+
+  /**
+   * @dev Number of bytes every encoded value occupies.
+   */
+  int size();
+
+  /**
+   * @dev Write value at the buffer's position, advancing it by size() bytes.
+   */
+  void encode(T value, ByteBuffer buffer);
+
+  /**
+   * @dev Read a value at the buffer's position, advancing it by size() bytes.
+   */
+  T decode(ByteBuffer buffer);
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // built-in codecs
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  BPTreeCodec<Integer> INTEGER = new BPTreeCodec<Integer>() {
+    public int size() {
+      return Integer.BYTES;
+    }
+
+    public void encode(Integer value, ByteBuffer buffer) {
+      buffer.putInt(value);
+    }
+
+    public Integer decode(ByteBuffer buffer) {
+      return buffer.getInt();
+    }
+  };
+
+  BPTreeCodec<Long> LONG = new BPTreeCodec<Long>() {
+    public int size() {
+      return Long.BYTES;
+    }
+
+    public void encode(Long value, ByteBuffer buffer) {
+      buffer.putLong(value);
+    }
+
+    public Long decode(ByteBuffer buffer) {
+      return buffer.getLong();
+    }
+  };
+
+  BPTreeCodec<Double> DOUBLE = new BPTreeCodec<Double>() {
+    public int size() {
+      return Double.BYTES;
+    }
+
+    public void encode(Double value, ByteBuffer buffer) {
+      buffer.putDouble(value);
+    }
+
+    public Double decode(ByteBuffer buffer) {
+      return buffer.getDouble();
+    }
+  };
+
+  /**
+   * @dev Strings of up to maxBytes bytes of UTF-8, stored as a two-byte length
+   *      followed by the bytes and zero padding. null is stored as length -1.
+   */
+  static BPTreeCodec<String> string(int maxBytes) {
+    if (maxBytes < 1 || maxBytes > Short.MAX_VALUE) {
+      throw new IllegalArgumentException("maxBytes must be between 1 and " + Short.MAX_VALUE + ", was " + maxBytes);
+    }
+    return new BPTreeCodec<String>() {
+      public int size() {
+        return Short.BYTES + maxBytes;
+      }
+
+      public void encode(String value, ByteBuffer buffer) {
+        int end = buffer.position() + this.size();
+        if (value == null) {
+          buffer.putShort((short) -1);
+        } else {
+          byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+          if (bytes.length > maxBytes) {
+            throw new IllegalArgumentException("string takes " + bytes.length + " bytes, codec holds " + maxBytes);
+          }
+          buffer.putShort((short) bytes.length);
+          buffer.put(bytes);
+        }
+        while (buffer.position() < end) {
+          buffer.put((byte) 0);
+        }
+      }
+
+      public String decode(ByteBuffer buffer) {
+        int end = buffer.position() + this.size();
+        int length = buffer.getShort();
+        String value = null;
+        if (length >= 0) {
+          byte[] bytes = new byte[length];
+          buffer.get(bytes);
+          value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        buffer.position(end);
+        return value;
+      }
+    };
+  }
+}
@@ -0,0 +1,104 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @dev State shared by every node of one B+ tree. Nodes are created deep inside
+ *      the insert and delete paths, so per-tree settings and counters travel
+ *      with each node through this object rather than through method arguments.
+ * 
+ * @param <TKey>   the data type of the key
+ * @param <TValue> the data type of the value
+ */
+class BPTreeContext<TKey extends Comparable<TKey>, TValue> {
+
+  protected BPTreeSearchMode searchMode;
+  protected long compares;
+  protected long operations;
+
+  // Instrumentation read by BPTreeStats. Plain fields like compares, so a
+  // reader on another thread may see them lag behind the writer
+  protected final long[] operationCounts = new long[BPTreeOperation.values().length];
+  protected long nodeVisits;
+  protected long leafSplits;
+  protected long innerSplits;
+  protected long leftRedistributions;
+  protected long rightRedistributions;
+  protected long leftMerges;
+  protected long rightMerges;
+  protected long heightIncreases;
+  protected long heightDecreases;
+  protected long appendInserts;
+
+  // Copy-on-write state for snapshots: a node created before the current epoch
+  // may be shared with an open snapshot and is copied before it is changed
+  protected long epoch;
+  protected final AtomicInteger openSnapshots = new AtomicInteger();
+
+  // Result channel of the last split: the key to add to the parent in front
+  // of the new right-hand node. Reused, so a split allocates only that node.
+  protected Object splitKey;
+
+  // Augmented mode: inner nodes keep a key count, and with a monoid also an
+  // aggregate, for every child subtree
+  protected boolean augmented;
+  protected BPTreeMonoid<Object, Object> monoid;
+
+  // Share of a full node's keys that stays in the left half of a split, and
+  // the share used instead when the key that filled the node is its last
+  protected double splitRatio = 0.5;
+  protected double appendSplitRatio = 0.5;
+
+  // Lazy delete: deletes leave tombstones, counted here across all leaves,
+  // for compact() to clear
+  protected boolean lazyDelete;
+  protected long tombstones;
+
+  // Leaves keep a one-byte fingerprint per key for point lookups
+  protected boolean fingerprints;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public BPTreeContext(BPTreeSearchMode searchMode) {
+    this.searchMode = searchMode;
+    this.compares = 0;
+    this.operations = 0;
+    this.epoch = 0;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // resetStats
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public void resetStats() {
+    this.compares = 0;
+    this.operations = 0;
+    Arrays.fill(this.operationCounts, 0);
+    this.nodeVisits = 0;
+    this.leafSplits = 0;
+    this.innerSplits = 0;
+    this.leftRedistributions = 0;
+    this.rightRedistributions = 0;
+    this.leftMerges = 0;
+    this.rightMerges = 0;
+    this.heightIncreases = 0;
+    this.heightDecreases = 0;
+    this.appendInserts = 0;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // splitIndex
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Number of the keys of a full node that stay in the left half when it
+   *      splits, never fewer than one or more than keys - 1.
+   * @param append - whether the key that filled the node landed in its last
+   *                 slot, as ascending keys do
+   */
+  public int splitIndex(int keys, boolean append) {
+    int index = (int) (keys * (append ? this.appendSplitRatio : this.splitRatio));
+    return Math.max(1, Math.min(keys - 1, index));
+  }
+}
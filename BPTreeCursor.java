@@ -0,0 +1,181 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+/**
+ * @dev A lazy, forward-only cursor over a key range of a B+ tree. It starts at
+ *      the first qualifying slot of the leaf found by a single descent and then
+ *      follows the rightSibling links of the sequence set until the upper bound
+ *      is passed. Nothing is copied up front, so a range costs the descent plus
+ *      the entries actually visited.
+ * @dev Tombstones left by lazy deletes are skipped.
+ * @dev The cursor reads the live tree. Inserting or deleting keys while a
+ *      cursor is open leaves its remaining output undefined.
+ * @dev A cursor over a snapshot cannot trust the rightSibling links, which
+ *      belong to the live tree. It keeps the path from the root to its leaf
+ *      instead and moves to the next leaf through the parents.
+ * 
+ * @param <TKey>   the data type of the key
+ * @param <TValue> the data type of the value
+ */
+@SuppressWarnings("unchecked")
+public class BPTreeCursor<TKey extends Comparable<TKey>, TValue> implements Iterator<TValue> {
+
+  private BPTreeLeafNode<TKey, TValue> leaf;
+  private int index;
+  private final TKey to;
+  private final boolean toInclusive;
+  private TKey currentKey;
+  private TValue currentValue;
+  private BPTreeInnerNode<TKey, TValue>[] path;
+  private int[] pathIndex;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @param leaf        - leaf holding the first candidate entry
+   * @param index       - slot of the first candidate entry in that leaf
+   * @param to          - upper bound, or null for no upper bound
+   * @param toInclusive - whether a key equal to the upper bound is returned
+   */
+  BPTreeCursor(BPTreeLeafNode<TKey, TValue> leaf, int index, TKey to, boolean toInclusive) {
+    this.leaf = leaf;
+    this.index = index;
+    this.to = to;
+    this.toInclusive = toInclusive;
+  }
+
+  /**
+   * @param path      - inner nodes from the root down to the parent of leaf
+   * @param pathIndex - index of the child followed out of each node in path
+   */
+  BPTreeCursor(BPTreeInnerNode<TKey, TValue>[] path, int[] pathIndex, BPTreeLeafNode<TKey, TValue> leaf, int index,
+      TKey to, boolean toInclusive) {
+    this(leaf, index, to, toInclusive);
+    this.path = path;
+    this.pathIndex = pathIndex;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // hasNext
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public boolean hasNext() {
+
+    // Step over exhausted (or empty) leaves along the sequence set, and over
+    // tombstones
+    while (leaf != null && (index >= leaf.keyTally || leaf.values[index] == BPTreeLeafNode.TOMBSTONE)) {
+      if (index < leaf.keyTally) {
+        index++;
+        continue;
+      }
+      leaf.context.nodeVisits++;
+      leaf = nextLeaf();
+      index = 0;
+    }
+    if (leaf == null) {
+      return false;
+    }
+
+    // Stop for good once the upper bound is passed
+    if (to != null) {
+      leaf.context.compares++;
+      int cmp = ((TKey) leaf.keys[index]).compareTo(to);
+      if (cmp > 0 || (cmp == 0 && !toInclusive)) {
+        leaf = null;
+        return false;
+      }
+    }
+    return true;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // nextLeaf
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev The leaf after the current one: its right sibling or, with a path,
+   *      the leftmost leaf under the nearest ancestor that has a child further
+   *      right.
+   */
+  private BPTreeLeafNode<TKey, TValue> nextLeaf() {
+    if (path == null) {
+      return (BPTreeLeafNode<TKey, TValue>) leaf.rightSibling;
+    }
+    int level = path.length - 1;
+    while (level >= 0 && pathIndex[level] >= path[level].keyTally) {
+      level--;
+    }
+    if (level < 0) {
+      return null;
+    }
+    pathIndex[level]++;
+    BPTreeNode<TKey, TValue> node = path[level].getChild(pathIndex[level]);
+    while (!node.isLeaf()) {
+      level++;
+      path[level] = (BPTreeInnerNode<TKey, TValue>) node;
+      pathIndex[level] = 0;
+      node = path[level].getChild(0);
+    }
+    return (BPTreeLeafNode<TKey, TValue>) node;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // next
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Advance to the next entry and return its value. The matching key is
+   *      available from getKey() afterwards.
+   */
+  @Override
+  public TValue next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    currentKey = (TKey) leaf.keys[index];
+    currentValue = (TValue) leaf.values[index];
+    index++;
+    return currentValue;
+  }
+
+  public TKey getKey() {
+    return currentKey;
+  }
+
+  public TValue getValue() {
+    return currentValue;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // forEach
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Hand every remaining key and value in the range to action. Entries
+   *      are read straight out of the leaf arrays, so no objects are created.
+   */
+  public void forEach(BiConsumer<? super TKey, ? super TValue> action) {
+    while (hasNext()) {
+      int end = leaf.keyTally;
+      for (; index < end; index++) {
+        TKey key = (TKey) leaf.keys[index];
+        if (to != null) {
+          leaf.context.compares++;
+          int cmp = key.compareTo(to);
+          if (cmp > 0 || (cmp == 0 && !toInclusive)) {
+            leaf = null;
+            return;
+          }
+        }
+        Object value = leaf.values[index];
+        if (value != BPTreeLeafNode.TOMBSTONE) {
+          action.accept(key, (TValue) value);
+        }
+      }
+    }
+  }
+}
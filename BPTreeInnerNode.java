@@ -1,3 +1,5 @@
+import java.util.Arrays;
+
 /**
  * A B+ tree internal node
  * 
@@ -9,16 +11,34 @@ class BPTreeInnerNode<TKey extends Comparable<TKey>, TValue> extends BPTreeNode<
 
   protected Object[] references;
 
+  // Augmented mode only: key count and monoid aggregate of each child subtree,
+  // kept in step with references
+  protected long[] counts;
+  protected Object[] aggregates;
+
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
   // constructor
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-  public BPTreeInnerNode(int order) {
+  public BPTreeInnerNode(int order, BPTreeContext<TKey, TValue> context) {
     this.m = order;
+    this.context = context;
+    this.epoch = context.epoch;
     // The strategy used here first inserts and then checks for overflow,
     // so an extra space is required in case the node is technically already full.
     this.keys = new Object[m];
     this.references = new Object[m + 1];
+    if (context.augmented) {
+      this.allocateSummaries();
+    }
+  }
+
+  /**
+   * @dev Make room for the per-child summaries of an augmented tree.
+   */
+  public void allocateSummaries() {
+    this.counts = new long[this.m + 1];
+    this.aggregates = this.context.monoid != null ? new Object[this.m + 1] : null;
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -35,9 +55,6 @@ class BPTreeInnerNode<TKey extends Comparable<TKey>, TValue> extends BPTreeNode<
 
   public void setChild(int index, BPTreeNode<TKey, TValue> child) {
     this.references[index] = child;
-    if (child != null) {
-      child.setParent(this);
-    }
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -50,131 +67,58 @@ class BPTreeInnerNode<TKey extends Comparable<TKey>, TValue> extends BPTreeNode<
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-  // insert
+  // copy
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-  /**
-   * @dev Throughout the program, there is the upBoundPacket object.
-   *      It is is used to convey information to higher levels of the
-   *      B+ Tree whenever a change has been made in a lower level that
-   *      will affect the structure of the tree higher up. If a change
-   *      is made in a lower level that will not affect a higher level,
-   *      the current node is returned.
-   */
-
-  public BPTreeNode<TKey, TValue> insert(TKey key, TValue value) {
-
-    // Find correct child to traverse
-    int index = 0;
-    Boolean greaterKeyFound = false;
-    for (int i = 0; i < this.keyTally; i++) {
-      index = i;
-      if (key.compareTo((TKey) this.keys[i]) < 0) {
-        greaterKeyFound = true;
-        break;
+  public BPTreeNode<TKey, TValue> copy() {
+    BPTreeInnerNode<TKey, TValue> copy = new BPTreeInnerNode<TKey, TValue>(this.m, this.context);
+    System.arraycopy(this.keys, 0, copy.keys, 0, this.keyTally);
+    System.arraycopy(this.references, 0, copy.references, 0, this.keyTally + 1);
+    copy.keyTally = this.keyTally;
+    if (this.counts != null && copy.counts != null) {
+      System.arraycopy(this.counts, 0, copy.counts, 0, this.keyTally + 1);
+      if (this.aggregates != null && copy.aggregates != null) {
+        System.arraycopy(this.aggregates, 0, copy.aggregates, 0, this.keyTally + 1);
       }
     }
-
-    BPTreeNode<TKey, TValue> nextChild = null;
-    if (greaterKeyFound)
-      nextChild = (BPTreeNode<TKey, TValue>) this.references[index];
-    if (!greaterKeyFound)
-      nextChild = (BPTreeNode<TKey, TValue>) this.references[index + 1];
-
-    // Go down to next child in tree
-    BPTreeNode<TKey, TValue> upBoundPacket = nextChild.insert(key, value);
-
-    // A middle key was sent up to this level, add it to this node
-    if (upBoundPacket.keys[1] == null && upBoundPacket != nextChild) {
-      this.keys[this.keyTally++] = upBoundPacket.keys[0];
-      this.sortKeys();
-      this.addNewReference((BPTreeInnerNode<TKey, TValue>) upBoundPacket,
-          this.getIndexOfKey((TKey) upBoundPacket.keys[0]));
-    }
-
-    // This node is full after insertion
-    if (this.keyTally == this.m)
-      return this.splitNode();
-
-    // This node is not full after insertion
-    this.linkParentToChild();
-    return this;
+    return copy;
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-  // delete
+  // writableChild
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   /**
-   * @dev Deletion always occurs at the leaf-level in a B+ Tree.
-   * @dev This deletion function, first, aims to get down to the
-   *      sequence set, and then processes any up-bound information
-   *      that might affect the structure of index set.
+   * @dev Return the child at index, first replacing it with a private copy if
+   *      an open snapshot still shares it. This node must already be private.
    */
 
-  public BPTreeNode<TKey, TValue> delete(TKey key) {
-
-    // Find correct child to traverse
-    int index = 0;
-    Boolean greaterKeyFound = false;
-    for (int i = 0; i < this.keyTally; i++) {
-      index = i;
-      if (key.compareTo((TKey) this.keys[i]) < 0) {
-        greaterKeyFound = true;
-        break;
-      }
+  public BPTreeNode<TKey, TValue> writableChild(int index) {
+    BPTreeNode<TKey, TValue> child = this.getChild(index);
+    if (child.isShared()) {
+      child = child.copy();
+      this.setChild(index, child);
     }
+    return child;
+  }
 
-    BPTreeNode<TKey, TValue> nextChild = null;
-    if (greaterKeyFound)
-      nextChild = (BPTreeNode<TKey, TValue>) this.references[index];
-    if (!greaterKeyFound)
-      nextChild = (BPTreeNode<TKey, TValue>) this.references[index + 1];
-    BPTreeNode<TKey, TValue> upBoundPacket = null;
-
-    // Go down to next child in tree
-    if (nextChild != null)
-      upBoundPacket = nextChild.delete(key);
-
-    // Special deletion case has occurred
-    if (upBoundPacket != nextChild) {
-
-      // Keys were shared after deletion
-      if (upBoundPacket.keyTally == 1 && !upBoundPacket.isLeaf()) {
-
-        // Left leaf shared data with right leaf
-        if (upBoundPacket.keys[0] != null) {
-          if (!greaterKeyFound)
-            index += 1;
-          this.keys[index - 1] = upBoundPacket.keys[0];
-          return this;
-        }
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // search
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-        // Right leaf shared data with left leaf
-        this.keys[index] = upBoundPacket.keys[1];
-        return this;
+  public TValue search(TKey key) {
+    return this.getChild(this.findChild(key)).search(key);
+  }
 
-      } else if (upBoundPacket.keyTally == 1 && upBoundPacket.isLeaf()) {
-        return upBoundPacket;
-      }
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // findLeaf
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-      // Convert to access references
-      BPTreeInnerNode<TKey, TValue> upBoundPacket2 = null;
-      if (!upBoundPacket.isLeaf())
-        upBoundPacket2 = (BPTreeInnerNode<TKey, TValue>) upBoundPacket;
-
-      //
-      if (upBoundPacket2 != null && upBoundPacket2.references[0] != null) { // Left merge occurred
-        this.deleteSeparatorAfterLeftLeafMerge((BPTreeInnerNode<TKey, TValue>) upBoundPacket2);
-        return this;
-      } else if (upBoundPacket2 != null && upBoundPacket2.references[1] != null) { // Right merge occurred
-        this.deleteSeparatorAfterRightLeafMerge((BPTreeInnerNode<TKey, TValue>) upBoundPacket2);
-        return this;
-      } else { // Special case where leaf merges with inner
-        return upBoundPacket;
-      }
+  public BPTreeLeafNode<TKey, TValue> findLeaf(TKey key) {
+    if (key == null) {
+      return this.getChild(0).findLeaf(null);
     }
-    return this;
+    return this.getChild(this.findChild(key)).findLeaf(key);
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -190,167 +134,270 @@ class BPTreeInnerNode<TKey extends Comparable<TKey>, TValue> extends BPTreeNode<
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-  // sortKeys (Selection sort)
+  // getIndexOfKey
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-  public void sortKeys() {
-    for (int i = 0; i < this.keyTally - 1; i++) {
-      int minIndex = i;
-      for (int j = i + 1; j < this.keyTally; j++) {
-        TKey jkey = (TKey) this.keys[j];
-        TKey ikey = (TKey) this.keys[i];
-        if (jkey.compareTo(ikey) < 0) {
-          minIndex = j;
-        }
-      }
-      // Swap keys
-      Object temp = this.keys[minIndex];
-      this.keys[minIndex] = this.keys[i];
-      this.keys[i] = temp;
-    }
+  public int getIndexOfKey(TKey key) {
+    int index = this.findKey(key);
+    return index < 0 ? 0 : index;
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-  // getIndexOfKey
+  // splitNode
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-  public int getIndexOfKey(TKey key) {
-    for (int i = 0; i < this.keyTally; i++) {
-      TKey ikey = (TKey) this.keys[i];
-      if (ikey.equals(key))
-        return i;
+  /**
+   * @dev Moves the keys and references right of the middle key of this full
+   *      node into a new right-hand node. The middle key leaves both nodes.
+   *      Its position is set by the tree's split ratio, kept such that the
+   *      new node holds at least one key.
+   * @param append - whether the separator that filled this node is its last
+   * @return the new node; the middle key, which the parent now needs in front
+   *         of it, is left in the context's splitKey
+   */
+
+  public BPTreeNode<TKey, TValue> splitNode(boolean append) {
+
+    BPTreeInnerNode<TKey, TValue> newNode = new BPTreeInnerNode<TKey, TValue>(this.m, this.context);
+    this.context.innerSplits++;
+
+    // Middle key goes up to the higher level
+    int middleIndex = Math.min(this.context.splitIndex(this.m, append), this.m - 2);
+    this.context.splitKey = this.keys[middleIndex];
+
+    // Move the keys and references right of the middle key into newNode
+    // with block copies, then clear them from the pre-split node
+    int keysMoved = this.keyTally - middleIndex - 1;
+    System.arraycopy(this.keys, middleIndex + 1, newNode.keys, 0, keysMoved);
+    System.arraycopy(this.references, middleIndex + 1, newNode.references, 0, keysMoved + 1);
+    Arrays.fill(this.keys, middleIndex, this.keyTally, null);
+    Arrays.fill(this.references, middleIndex + 1, this.keyTally + 1, null);
+    if (this.counts != null) {
+      System.arraycopy(this.counts, middleIndex + 1, newNode.counts, 0, keysMoved + 1);
+      if (this.aggregates != null) {
+        System.arraycopy(this.aggregates, middleIndex + 1, newNode.aggregates, 0, keysMoved + 1);
+        Arrays.fill(this.aggregates, middleIndex + 1, this.keyTally + 1, null);
+      }
     }
-    return 0;
+    newNode.keyTally = keysMoved;
+    this.keyTally = middleIndex;
+    return newNode;
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-  // splitNode
+  // insertSeparator
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-  public BPTreeNode<TKey, TValue> splitNode() {
-
-    BPTreeInnerNode<TKey, TValue> upBoundPacket = new BPTreeInnerNode<TKey, TValue>(this.m);
-    BPTreeInnerNode<TKey, TValue> newNode = new BPTreeInnerNode<TKey, TValue>(this.m);
-
-    // Prepare middle key to be sent to higher level
-    int middleIndex = (int) Math.floor(this.m / 2);
-    upBoundPacket.keys[0] = this.keys[middleIndex];
-    upBoundPacket.keyTally++;
-    this.keys[middleIndex] = null;
-    this.keyTally--;
-    int keysRemoved = 0;
-
-    // Fill the references of newNode
-    // Simultaneoulsy delete them from pre-split node
-    int index = 0;
-    for (int i = middleIndex + 1; i <= this.m; i++) {
-      newNode.references[index++] = this.references[i];
-      this.references[i] = null;
-    }
+  /**
+   * @dev Adds a separator sent up from a split child, together with the new
+   *      right-hand node of that split. index is the child that split, so the
+   *      separator goes in front of the reference after it; both tails are
+   *      shifted in one block move.
+   */
 
-    // Fill the keys of newNode
-    // Simultaneoulsy delete them from pre-split node
-    for (int j = middleIndex + 1; j < this.m; j++) {
-      newNode.keys[newNode.keyTally++] = this.keys[j];
-      this.keys[j] = null;
-      keysRemoved++;
+  public void insertSeparator(int index, TKey key, BPTreeNode<TKey, TValue> rightChild) {
+    System.arraycopy(this.keys, index, this.keys, index + 1, this.keyTally - index);
+    System.arraycopy(this.references, index + 1, this.references, index + 2, this.keyTally - index);
+    if (this.counts != null) {
+      System.arraycopy(this.counts, index + 1, this.counts, index + 2, this.keyTally - index);
+      if (this.aggregates != null) {
+        System.arraycopy(this.aggregates, index + 1, this.aggregates, index + 2, this.keyTally - index);
+      }
     }
-
-    this.keyTally -= keysRemoved;
-    upBoundPacket.references[0] = this;
-    upBoundPacket.references[1] = newNode;
-    this.linkParentToChild();
-    newNode.linkParentToChild();
-    return upBoundPacket;
+    this.keys[index] = key;
+    this.references[index + 1] = rightChild;
+    this.keyTally++;
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-  // addNewReference
+  // removeSeparator
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-  public void addNewReference(BPTreeInnerNode<TKey, TValue> upBoundPacket, int indexOfNewKey) {
-    for (int i = this.m; i >= 0; i--) {
-      if (i == indexOfNewKey + 1) {
-        this.references[i] = upBoundPacket.references[1];
-        return;
+  /**
+   * @dev Removes the separator at index together with the reference to its
+   *      right, after the child there was merged into its left neighbour.
+   */
+
+  public void removeSeparator(int index) {
+    System.arraycopy(this.keys, index + 1, this.keys, index, this.keyTally - index - 1);
+    System.arraycopy(this.references, index + 2, this.references, index + 1, this.keyTally - index - 1);
+    this.keys[this.keyTally - 1] = null;
+    this.references[this.keyTally] = null;
+    if (this.counts != null) {
+      System.arraycopy(this.counts, index + 2, this.counts, index + 1, this.keyTally - index - 1);
+      if (this.aggregates != null) {
+        System.arraycopy(this.aggregates, index + 2, this.aggregates, index + 1, this.keyTally - index - 1);
+        this.aggregates[this.keyTally] = null;
       }
-      this.references[i] = this.references[i - 1];
     }
+    this.keyTally--;
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-  // linkHierachy
+  // removeChildren
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-  public void linkParentToChild() {
-    for (int i = 0; i <= this.keyTally; i++) {
-      this.setChild(i, this.getChild(i));
+  /**
+   * @dev Removes children from..to-1, each with the separator in front of it,
+   *      or for the first child the separator after it. At least one child
+   *      must be left.
+   */
+
+  public void removeChildren(int from, int to) {
+    int count = to - from;
+    int keyFrom = from > 0 ? from - 1 : 0;
+    System.arraycopy(this.keys, keyFrom + count, this.keys, keyFrom, this.keyTally - keyFrom - count);
+    System.arraycopy(this.references, to, this.references, from, this.keyTally + 1 - to);
+    Arrays.fill(this.keys, this.keyTally - count, this.keyTally, null);
+    Arrays.fill(this.references, this.keyTally + 1 - count, this.keyTally + 1, null);
+    if (this.counts != null) {
+      System.arraycopy(this.counts, to, this.counts, from, this.keyTally + 1 - to);
+      if (this.aggregates != null) {
+        System.arraycopy(this.aggregates, to, this.aggregates, from, this.keyTally + 1 - to);
+        Arrays.fill(this.aggregates, this.keyTally + 1 - count, this.keyTally + 1, null);
+      }
     }
+    this.keyTally -= count;
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-  // sortKeysAfterDelete
+  // borrowFromLeft
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-  public void sortKeysAfterDelete(int indexOfDelete) {
-    for (int i = indexOfDelete; i < this.m - 1; i++) {
-      this.keys[i] = this.keys[i + 1];
+  /**
+   * @dev Takes the last child of left, this node's left sibling. separator,
+   *      the parent's key between the two nodes, comes down in front of this
+   *      node's keys, and left's last key goes up in its place.
+   * @return the new separator for the parent
+   */
+
+  public TKey borrowFromLeft(BPTreeInnerNode<TKey, TValue> left, TKey separator) {
+    System.arraycopy(this.keys, 0, this.keys, 1, this.keyTally);
+    System.arraycopy(this.references, 0, this.references, 1, this.keyTally + 1);
+    this.keys[0] = separator;
+    this.references[0] = left.references[left.keyTally];
+    if (this.counts != null) {
+      System.arraycopy(this.counts, 0, this.counts, 1, this.keyTally + 1);
+      this.counts[0] = left.counts[left.keyTally];
+      if (this.aggregates != null) {
+        System.arraycopy(this.aggregates, 0, this.aggregates, 1, this.keyTally + 1);
+        this.aggregates[0] = left.aggregates[left.keyTally];
+        left.aggregates[left.keyTally] = null;
+      }
     }
+    this.keyTally++;
+
+    TKey newSeparator = (TKey) left.keys[left.keyTally - 1];
+    left.keys[left.keyTally - 1] = null;
+    left.references[left.keyTally] = null;
+    left.keyTally--;
+    return newSeparator;
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-  // sortReferencesAfterDelete
+  // borrowFromRight
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-  public void sortReferencesAfterDelete(int indexOfDelete) {
-    for (int i = indexOfDelete; i < this.m - 1; i++) {
-      this.references[i] = this.references[i + 1];
+  /**
+   * @dev Takes the first child of right, this node's right sibling. separator
+   *      comes down after this node's keys, and right's first key goes up in
+   *      its place.
+   * @return the new separator for the parent
+   */
+
+  public TKey borrowFromRight(BPTreeInnerNode<TKey, TValue> right, TKey separator) {
+    this.keys[this.keyTally] = separator;
+    this.references[this.keyTally + 1] = right.references[0];
+    if (this.counts != null) {
+      this.counts[this.keyTally + 1] = right.counts[0];
+      System.arraycopy(right.counts, 1, right.counts, 0, right.keyTally);
+      if (this.aggregates != null) {
+        this.aggregates[this.keyTally + 1] = right.aggregates[0];
+        System.arraycopy(right.aggregates, 1, right.aggregates, 0, right.keyTally);
+        right.aggregates[right.keyTally] = null;
+      }
     }
+    this.keyTally++;
+
+    TKey newSeparator = (TKey) right.keys[0];
+    System.arraycopy(right.keys, 1, right.keys, 0, right.keyTally - 1);
+    System.arraycopy(right.references, 1, right.references, 0, right.keyTally);
+    right.keys[right.keyTally - 1] = null;
+    right.references[right.keyTally] = null;
+    right.keyTally--;
+    return newSeparator;
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-  // deleteSeparatorAfterLeftLeafMerge
+  // mergeFrom
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   /**
-   * @dev A merge has occurred with a leaf node and its left sibling.
-   * @dev This function deletes the stale, leftover separator key in the index
-   *      set.
-   * @param referenceNode - information used to identify stale separator.
+   * @dev Appends separator and then every key and child of right, this
+   *      node's right sibling, which the parent drops afterwards.
    */
 
-  public void deleteSeparatorAfterLeftLeafMerge(BPTreeInnerNode<TKey, TValue> referenceNode) {
-    for (int i = 0; i < this.keyTally + 1; i++) { // looping through references
-      if (this.references[i] == referenceNode.references[0]) {
-        this.keys[i] = null;
-        this.keyTally--;
-        this.references[i + 1] = null;
-        this.sortKeysAfterDelete(i);
-        this.sortReferencesAfterDelete(i + 1);
+  public void mergeFrom(BPTreeInnerNode<TKey, TValue> right, TKey separator) {
+    this.keys[this.keyTally] = separator;
+    System.arraycopy(right.keys, 0, this.keys, this.keyTally + 1, right.keyTally);
+    System.arraycopy(right.references, 0, this.references, this.keyTally + 1, right.keyTally + 1);
+    if (this.counts != null) {
+      System.arraycopy(right.counts, 0, this.counts, this.keyTally + 1, right.keyTally + 1);
+      if (this.aggregates != null) {
+        System.arraycopy(right.aggregates, 0, this.aggregates, this.keyTally + 1, right.keyTally + 1);
       }
     }
+    this.keyTally += right.keyTally + 1;
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-  // deleteSeparatorAfterRightLeafMerge
+  // refreshSummaries
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   /**
-   * @dev A merge has occurred with a leaf node and its right sibling.
-   * @dev This function deletes the stale, leftover separator key in the index
-   *      set.
-   * @param referenceNode - information used to identify stale separator.
+   * @dev Recompute the stored summaries of children from..to, clipped to the
+   *      children this node has. Each child is summarised from its own
+   *      entries, so a changed subtree is refreshed bottom-up.
    */
-
-  public void deleteSeparatorAfterRightLeafMerge(BPTreeInnerNode<TKey, TValue> referenceNode) {
-    for (int i = 0; i < this.keyTally + 1; i++) {
-      if (this.references[i] == referenceNode.references[1]) {
-        this.keys[i] = null;
-        this.keyTally--;
-        this.references[i] = null;
-        this.sortKeysAfterDelete(i);
-        this.sortReferencesAfterDelete(i);
+  public void refreshSummaries(int from, int to) {
+    BPTreeMonoid<Object, Object> monoid = this.context.monoid;
+    for (int i = Math.max(0, from); i <= Math.min(to, this.keyTally); i++) {
+      BPTreeNode<TKey, TValue> child = this.getChild(i);
+      if (child.isLeaf()) {
+        this.counts[i] = child.keyTally;
+        if (monoid != null) {
+          this.aggregates[i] = ((BPTreeLeafNode<TKey, TValue>) child).fold(0, child.keyTally);
+        }
+      } else {
+        BPTreeInnerNode<TKey, TValue> inner = (BPTreeInnerNode<TKey, TValue>) child;
+        this.counts[i] = inner.count(0, inner.keyTally + 1);
+        if (monoid != null) {
+          this.aggregates[i] = inner.fold(0, inner.keyTally + 1);
+        }
       }
     }
   }
+
+  /**
+   * @dev Keys in children from..to-1.
+   */
+  public long count(int from, int to) {
+    long total = 0;
+    for (int i = from; i < to; i++) {
+      total += this.counts[i];
+    }
+    return total;
+  }
+
+  /**
+   * @dev Aggregate of children from..to-1, in key order.
+   */
+  public Object fold(int from, int to) {
+    BPTreeMonoid<Object, Object> monoid = this.context.monoid;
+    Object result = monoid.identity();
+    for (int i = from; i < to; i++) {
+      result = monoid.combine(result, this.aggregates[i]);
+    }
+    return result;
+  }
 }
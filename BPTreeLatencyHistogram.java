@@ -0,0 +1,156 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @dev Log-linear latency histogram in the style of HdrHistogram. Each power
+ *      of two is cut into 2^SUB_BITS buckets, so a recorded value is known to
+ *      within about 3% whatever its magnitude, and recording is a shift and an
+ *      atomic array increment. Recording threads are spread over a fixed set
+ *      of stripes, one bucket array each, so threads rarely contend and
+ *      memory stays bounded however many threads come and go. A stripe's
+ *      array is only allocated once a thread records into it, so a tree used
+ *      from one thread keeps a single array. The stripes are only summed when
+ *      someone reads the histogram.
+ */
+class BPTreeLatencyHistogram {
+
+  static final int SUB_BITS = 5;
+  static final int BUCKETS = (64 - SUB_BITS) << SUB_BITS;
+
+  // Power of two at or above the processor count, capped at 64
+  static final int STRIPES = Math.min(64,
+      Integer.highestOneBit(Math.max(1, 2 * Runtime.getRuntime().availableProcessors() - 1)));
+
+  private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<AtomicLongArray>(STRIPES);
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // record
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public void record(long nanos) {
+    int h = System.identityHashCode(Thread.currentThread()) * 0x9E3779B9;
+    int stripe = (h ^ (h >>> 16)) & (STRIPES - 1);
+    AtomicLongArray counts = this.stripes.get(stripe);
+    if (counts == null) {
+      this.stripes.compareAndSet(stripe, null, new AtomicLongArray(BUCKETS));
+      counts = this.stripes.get(stripe);
+    }
+    counts.incrementAndGet(bucket(Math.max(0, nanos)));
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // merge
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Sum the buckets of every stripe into one array.
+   */
+  public long[] merge() {
+    long[] merged = new long[BUCKETS];
+    for (int s = 0; s < STRIPES; s++) {
+      AtomicLongArray counts = this.stripes.get(s);
+      if (counts != null) {
+        for (int i = 0; i < BUCKETS; i++) {
+          merged[i] += counts.get(i);
+        }
+      }
+    }
+    return merged;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // reset
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Zero every bucket. A value recorded while the reset runs may be
+   *      kept or dropped.
+   */
+  public void reset() {
+    for (int s = 0; s < STRIPES; s++) {
+      AtomicLongArray counts = this.stripes.get(s);
+      if (counts != null) {
+        for (int i = 0; i < BUCKETS; i++) {
+          counts.set(i, 0);
+        }
+      }
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // bucket arithmetic
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Values below 2^(SUB_BITS + 1) get a bucket each. Above that, a value
+   *      is shifted right until it has SUB_BITS + 1 significant bits, and the
+   *      shift picks the group of buckets.
+   */
+  static int bucket(long value) {
+    int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+    return (shift << SUB_BITS) + (int) (value >>> shift);
+  }
+
+  /**
+   * @dev Smallest value that falls into bucket index.
+   */
+  static long lowestValue(int index) {
+    int shift = index < (2 << SUB_BITS) ? 0 : (index >>> SUB_BITS) - 1;
+    return (long) (index - (shift << SUB_BITS)) << shift;
+  }
+
+  /**
+   * @dev Largest value that falls into bucket index.
+   */
+  static long highestValue(int index) {
+    int shift = index < (2 << SUB_BITS) ? 0 : (index >>> SUB_BITS) - 1;
+    return lowestValue(index) + (1L << shift) - 1;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // queries over merged counts
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  static long count(long[] counts) {
+    long total = 0;
+    for (long c : counts) {
+      total += c;
+    }
+    return total;
+  }
+
+  /**
+   * @dev Value at or below which percentile percent of the recorded values
+   *      fall, reported as the top of its bucket. 0 if nothing was recorded.
+   */
+  static long valueAtPercentile(long[] counts, double percentile) {
+    long total = count(counts);
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return highestValue(i);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * @dev Mean of the recorded values, each taken at the middle of its bucket.
+   */
+  static double mean(long[] counts) {
+    long total = 0;
+    double sum = 0;
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] != 0) {
+        total += counts[i];
+        sum += counts[i] * ((lowestValue(i) + highestValue(i)) / 2.0);
+      }
+    }
+    return total == 0 ? 0 : sum / total;
+  }
+}
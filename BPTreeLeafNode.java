@@ -1,3 +1,5 @@
+import java.util.Arrays;
+
 /**
  * A B+ tree leaf node
  * @param <TKey> the data type of the key
@@ -5,222 +7,408 @@
  */
 @SuppressWarnings("unchecked")
 class BPTreeLeafNode<TKey extends Comparable<TKey>, TValue> extends BPTreeNode<TKey, TValue> {
-	
-	protected Object[] values;
-
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-// constructor
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-	
-	public BPTreeLeafNode(int order) {
-		this.m = order;
-		this.keys = new Object[m];
-		this.values = new Object[m];
-	}
-
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-// getValue
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-
-	public TValue getValue(int index) {
-		return (TValue)this.values[index];
-	}
-
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-// setValue
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-
-	public void setValue(int index, TValue value) {
-		this.values[index] = value;
-	}
-
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-// isLeaf
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-	
-	@Override
-	public boolean isLeaf() {
-		return true;
-	}
-
-
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-// insert
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
+  protected Object[] values;
 
-  public BPTreeNode<TKey, TValue> insert(TKey key, TValue value) {
+  // Stands in for the value of an entry deleted in lazy mode. The key keeps
+  // its slot until the leaf is purged
+  static final Object TOMBSTONE = new Object();
+  protected int tombstones;
+
+  // Optional one-byte hash of the key in each slot, kept in step with keys.
+  // Point lookups scan these and compare full keys only where one matches
+  protected byte[] fingerprints;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public BPTreeLeafNode(int order, BPTreeContext<TKey, TValue> context) {
+    this.m = order;
+    this.context = context;
+    this.epoch = context.epoch;
+    this.keys = new Object[m];
+    this.values = new Object[m];
+    if (context.fingerprints) {
+      this.fingerprints = new byte[m];
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // getValue
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public TValue getValue(int index) {
+    return (TValue)this.values[index];
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // setValue
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public void setValue(int index, TValue value) {
+    this.values[index] = value;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // isLeaf
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public boolean isLeaf() {
+    return true;
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // copy
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+
+  /**
+   * The copy takes this leaf's place in the sequence set, so the live tree's
+   * sibling chain runs through it from now on.
+   */
+
+  public BPTreeNode<TKey, TValue> copy() {
+    BPTreeLeafNode<TKey, TValue> copy = new BPTreeLeafNode<TKey, TValue>(this.m, this.context);
+    System.arraycopy(this.keys, 0, copy.keys, 0, this.keyTally);
+    System.arraycopy(this.values, 0, copy.values, 0, this.keyTally);
+    copy.keyTally = this.keyTally;
+    copy.tombstones = this.tombstones;
+    if (copy.fingerprints != null) {
+      copy.refreshFingerprints();
+    }
+    copy.leftSibling = this.leftSibling;
+    copy.rightSibling = this.rightSibling;
+    if (this.leftSibling != null) {
+      this.leftSibling.rightSibling = copy;
+    }
+    if (this.rightSibling != null) {
+      this.rightSibling.leftSibling = copy;
+    }
+    return copy;
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // search
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-    if (this.keyTally < m - 1) {  // node not full
-      for (int i = 0; i < m; i++) {
-        if (this.keys[i] == null) {
-          this.keys[i] = key;
-          this.values[i] = value;
-          this.keyTally++;
-          this.sortNode();
-          return this; // nothing to send up so we send this for reference in case it is root
+
+  public TValue search(TKey key) {
+    int index = this.indexOf(key);
+    if (index < 0 || this.values[index] == TOMBSTONE) {
+      return null;
+    }
+    return (TValue)this.values[index];
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // indexOf
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+
+  /**
+   * Slot of key in this leaf, or -1 if it is absent, for lookups that need
+   * an exact match only. With fingerprints the slots are scanned for the
+   * key's fingerprint and the full key is compared only where it matches,
+   * about once per 256 slots besides the hit itself. Otherwise this is
+   * findKey.
+   */
+
+  public int indexOf(TKey key) {
+    if (this.fingerprints == null) {
+      int index = this.findKey(key);
+      return index < 0 ? -1 : index;
+    }
+    this.context.nodeVisits++;
+    byte fingerprint = fingerprint(key);
+    for (int i = 0; i < this.keyTally; i++) {
+      if (this.fingerprints[i] == fingerprint) {
+        this.context.compares++;
+        if (key.compareTo((TKey) this.keys[i]) == 0) {
+          return i;
         }
       }
     }
-    this.keys[this.keyTally] = key;  // node is full
-    this.values[this.keyTally++] = value;
-    this.sortNode();
-    BPTreeNode<TKey, TValue> upBoundPacket = this.splitNode();
-    return upBoundPacket;
+    return -1;
   }
 
 
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-// delete
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // fingerprints
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
 
   /**
-   * Deletes the given key from this leaf node. Note that upboundPacket, 
-   * and its configuration, is the way in which case information is
-   * communicated with higher levels of the tree.
-   * @param key - used to identify item to be deleted.
+   * Top byte of the key's hash code after a multiplicative mix, so keys whose
+   * hash codes differ only in their low bits still spread over all 256 values.
    */
 
-  public BPTreeNode<TKey, TValue> delete(TKey key) {
+  static byte fingerprint(Object key) {
+    return (byte) ((key.hashCode() * 0x9E3779B9) >>> 24);
+  }
+
+  /**
+   * Recomputes the fingerprint of every slot, after keys were written
+   * directly rather than through this leaf's own methods.
+   */
 
-    // Find index of key in this node
-    Boolean keyInNode = false;
-    int indexOfTarget = 0;
+  public void refreshFingerprints() {
+    if (this.fingerprints == null) {
+      this.fingerprints = new byte[this.m];
+    }
     for (int i = 0; i < this.keyTally; i++) {
-      if (key.equals((TKey)this.keys[i])) {
-        keyInNode = true;
-        indexOfTarget = i;
-        break;
-      }
+      this.fingerprints[i] = fingerprint(this.keys[i]);
     }
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // liveCount
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+
+  /**
+   * Number of entries in this leaf that are not tombstones.
+   */
+
+  public int liveCount() {
+    return this.keyTally - this.tombstones;
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // findLeaf
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
 
-    // Key not found in node!
-    if (!keyInNode) { 
-      return this;
+  public BPTreeLeafNode<TKey, TValue> findLeaf(TKey key) {
+    return this;
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // covers
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+
+  /**
+   * For a sweep over keys in ascending order: whether key is at most this
+   * leaf's last key. A key that already passed this leaf's left neighbour
+   * then belongs here, so it can be looked up without a descent.
+   */
+
+  public boolean covers(TKey key) {
+    if (this.keyTally == 0) {
+      return false;
     }
-    
-    // One more insertion and this node will underflow
-    if (this.keyTally <= Math.ceil((this.m - 1) / 2)) {
-
-      this.keys[indexOfTarget] = null;
-      this.values[indexOfTarget] = null;
-      this.keyTally--;
-      this.sortNodeAfterDelete(indexOfTarget);
-      int numKeysNeeded = (int)Math.ceil((this.m - 1) / 2) - this.keyTally;
-      int minKeysForShare = (int)Math.ceil((this.m - 1) / 2) * 2; // Any less and we'll need to merge
-      BPTreeLeafNode<TKey,TValue> leftSibling = (BPTreeLeafNode<TKey, TValue>)this.leftSibling;
-      BPTreeLeafNode<TKey,TValue> rightSibling = (BPTreeLeafNode<TKey, TValue>)this.rightSibling;
-
-      // Redistribute data from leftSibling to this leaf node
-      if (this.leftSibling != null && this.keyTally + this.leftSibling.keyTally >= minKeysForShare) {
-
-        // Share keys of leftSibling with this leaf node
-        for (int i = this.leftSibling.keyTally - numKeysNeeded; i < this.leftSibling.keyTally; i++) {
-          this.keys[this.keyTally] = leftSibling.keys[i];
-          leftSibling.keys[i] = null;
-          this.values[this.keyTally++] = leftSibling.values[i];
-          leftSibling.values[i] = null;
-        }
+    this.context.compares++;
+    return key.compareTo((TKey) this.keys[this.keyTally - 1]) <= 0;
+  }
 
-        this.sortNode();
-        leftSibling.keyTally -= numKeysNeeded;
-        BPTreeInnerNode<TKey, TValue> upBoundPacket = new BPTreeInnerNode<>(this.m);
-        upBoundPacket.keys[0] = this.keys[0];
-        upBoundPacket.keyTally++;
-        return upBoundPacket;
-
-      // Redistribute data from rightSibling to this leaf node
-      } else if (this.rightSibling != null && this.keyTally + this.rightSibling.keyTally >= minKeysForShare) { // we can share with right sibling
-
-        // Share keys of rightSibling with this leaf node
-        for (int i = 0; i < numKeysNeeded; i++) {
-          this.keys[this.keyTally] = rightSibling.keys[i];
-          rightSibling.keys[i] = null;
-          this.values[this.keyTally++] = rightSibling.values[i];
-          rightSibling.values[i] = null;
-        }
 
-        rightSibling.keyTally -= numKeysNeeded;
-        rightSibling.sortNodeAfterRightShare();
-        BPTreeInnerNode<TKey, TValue> upBoundPacket = new BPTreeInnerNode<>(this.m);
-        upBoundPacket.keys[1] = this.rightSibling.keys[0];
-        upBoundPacket.keyTally++;
-        return upBoundPacket;
-
-      // Merge this leaf node with leftSibling
-      } else if (leftSibling != null && leftSibling.keyTally + this.keyTally < (this.m - 1)) {
-
-        leftSibling.redistributeKeys(this);
-        if (this.leftSibling != null) this.leftSibling.rightSibling = this.rightSibling;
-        if (this.rightSibling != null) this.rightSibling.leftSibling = this.leftSibling;
-        BPTreeInnerNode<TKey, TValue> upBoundPacket = new BPTreeInnerNode<TKey, TValue>(this.m);
-        upBoundPacket.references[0] = this.leftSibling;  // we will match these references in the index layer so we know what separator to delete
-
-        if (this.rightSibling == null && leftSibling.leftSibling == null) {
-          BPTreeLeafNode<TKey, TValue> newUpBoundPacket = new BPTreeLeafNode<>(this.m);
-          for (int i = 0; i < leftSibling.keyTally; i++) {
-            newUpBoundPacket.keys[newUpBoundPacket.keyTally] = leftSibling.keys[i];
-            newUpBoundPacket.values[newUpBoundPacket.keyTally++] = leftSibling.values[i];
-          }
-          return newUpBoundPacket;
-        }
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // insert
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-        return upBoundPacket; // all keys will be null if we send a packet up after a merge
-
-      // Merge this leaf node with rightSibling
-      } else if (rightSibling != null && rightSibling.keyTally + this.keyTally < (this.m - 1)) {
-
-          rightSibling.redistributeKeys(this);
-          if (this.rightSibling != null) this.rightSibling.leftSibling = this.leftSibling;
-          if (this.leftSibling != null) this.leftSibling.rightSibling = this.rightSibling;
-          BPTreeInnerNode<TKey, TValue> upBoundPacket = new BPTreeInnerNode<TKey, TValue>(this.m);
-          upBoundPacket.references[1] = this;  // we will match these references in the index layer so we know which separator to delete
-
-          if (this.leftSibling == null && rightSibling.rightSibling == null) {
-            BPTreeLeafNode<TKey, TValue> newUpBoundPacket = new BPTreeLeafNode<>(this.m);
-            for (int i = 0; i < rightSibling.keyTally; i++) {
-              newUpBoundPacket.keys[newUpBoundPacket.keyTally] = rightSibling.keys[i];
-              newUpBoundPacket.values[newUpBoundPacket.keyTally++] = rightSibling.values[i];
-            }
-            return newUpBoundPacket;
-          }
-  
-          return upBoundPacket; // all keys will be null if we send a packet up from a merge
-
-      // Package node for merge with parent
-      } else {
-
-        BPTreeInnerNode<TKey, TValue> upBoundPacket = new BPTreeInnerNode<TKey, TValue>(this.m);
-
-        if (this.leftSibling != null) {
-          for (int i = 0; i < leftSibling.keyTally; i++) {
-            this.keys[this.keyTally] = this.leftSibling.keys[i];
-            this.values[this.keyTally++] = leftSibling.values[i];
-          }
-          return upBoundPacket;
-        }
 
-        // Bundle with right
-        if (this.rightSibling != null) {
-          for (int i = 0; i < rightSibling.keyTally; i++) {
-            this.keys[this.keyTally] = this.rightSibling.keys[i];
-            this.values[this.keyTally++] = rightSibling.values[i];
-          }
-          return upBoundPacket;
-        }
+  /**
+   * Inserts the key at its sorted position. The slot is found with the shared
+   * in-node search and the tail is shifted right in one block move. A key that
+   * is already present has its value replaced, which also revives it if it
+   * was a tombstone. A leaf that fills up while holding tombstones is purged
+   * instead of split, if enough live entries remain for its minimum fill.
+   * @return the new right-hand node if this leaf filled up and split, with
+   *         its separator in the context's splitKey; otherwise null
+   */
 
-        // Delete key from only node in tree
-        this.sortNode();
-        return this;
+  public BPTreeNode<TKey, TValue> insert(TKey key, TValue value) {
 
+    int index = this.findKey(key);
+    if (index >= 0) {  // key already in node
+      if (this.values[index] == TOMBSTONE) {
+        this.tombstones--;
+        this.context.tombstones--;
       }
+      this.values[index] = value;
+      return null;
+    }
+
+    index = -index - 1;
+    System.arraycopy(this.keys, index, this.keys, index + 1, this.keyTally - index);
+    System.arraycopy(this.values, index, this.values, index + 1, this.keyTally - index);
+    this.keys[index] = key;
+    this.values[index] = value;
+    if (this.fingerprints != null) {
+      System.arraycopy(this.fingerprints, index, this.fingerprints, index + 1, this.keyTally - index);
+      this.fingerprints[index] = fingerprint(key);
     }
+    this.keyTally++;
 
-    this.keys[indexOfTarget] = null;
-    this.values[indexOfTarget] = null;
+    if (this.keyTally < m) {  // node not full
+      return null;
+    }
+    if (this.tombstones > 0 && this.liveCount() >= Math.max(1, (m - 1) / 2)) {
+      this.purge();
+      return null;
+    }
+    return this.splitNode(index == this.keyTally - 1);
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // append
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+
+  /**
+   * Adds a key known to be above every key in this leaf to its end, without
+   * searching the node.
+   * @return the new right-hand node if this leaf filled up and split, as for
+   *         insert
+   */
+
+  public BPTreeNode<TKey, TValue> append(TKey key, TValue value) {
+    this.keys[this.keyTally] = key;
+    this.values[this.keyTally] = value;
+    if (this.fingerprints != null) {
+      this.fingerprints[this.keyTally] = fingerprint(key);
+    }
+    this.keyTally++;
+    this.context.nodeVisits++;
+    if (this.keyTally < m) {  // node not full
+      return null;
+    }
+    if (this.tombstones > 0 && this.liveCount() >= Math.max(1, (m - 1) / 2)) {
+      this.purge();
+      return null;
+    }
+    return this.splitNode(true);
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // remove
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+
+  /**
+   * Removes key and its value from this leaf and closes the gap. Underflow is
+   * left for the tree to repair, since only the tree knows the parent.
+   * @param key - used to identify item to be deleted.
+   * @return whether the key was present
+   */
+
+  public boolean remove(TKey key) {
+    int index = this.indexOf(key);
+    if (index < 0) {
+      return false;
+    }
+    if (this.values[index] == TOMBSTONE) {
+      this.tombstones--;
+      this.context.tombstones--;
+    }
     this.keyTally--;
-    this.sortNodeAfterDelete(indexOfTarget);
-    return this;  // Standard leaf delete occurred, no ripple effect
+    this.sortNodeAfterDelete(index);
+    return true;
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // removeRange
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+
+  /**
+   * Removes the entries in slots from..to-1 and closes the gap in one block
+   * move. Underflow is left for the tree to repair, as for remove.
+   */
+
+  public void removeRange(int from, int to) {
+    for (int i = from; i < to && this.tombstones > 0; i++) {
+      if (this.values[i] == TOMBSTONE) {
+        this.tombstones--;
+        this.context.tombstones--;
+      }
+    }
+    int count = to - from;
+    System.arraycopy(this.keys, to, this.keys, from, this.keyTally - to);
+    System.arraycopy(this.values, to, this.values, from, this.keyTally - to);
+    if (this.fingerprints != null) {
+      System.arraycopy(this.fingerprints, to, this.fingerprints, from, this.keyTally - to);
+    }
+    Arrays.fill(this.keys, this.keyTally - count, this.keyTally, null);
+    Arrays.fill(this.values, this.keyTally - count, this.keyTally, null);
+    this.keyTally -= count;
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // tombstone
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+
+  /**
+   * Marks the entry for key deleted without moving anything, for lazy delete.
+   * @return whether a live entry for key was found
+   */
+
+  public boolean tombstone(TKey key) {
+    int index = this.indexOf(key);
+    if (index < 0 || this.values[index] == TOMBSTONE) {
+      return false;
+    }
+    this.values[index] = TOMBSTONE;
+    this.tombstones++;
+    this.context.tombstones++;
+    return true;
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // purge
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+
+  /**
+   * Drops every tombstone and closes the gaps in one pass. Separators in the
+   * parent stay valid, since they only bound the keys that are left.
+   */
+
+  public void purge() {
+    int kept = 0;
+    for (int i = 0; i < this.keyTally; i++) {
+      if (this.values[i] != TOMBSTONE) {
+        this.keys[kept] = this.keys[i];
+        if (this.fingerprints != null) {
+          this.fingerprints[kept] = this.fingerprints[i];
+        }
+        this.values[kept++] = this.values[i];
+      }
+    }
+    Arrays.fill(this.keys, kept, this.keyTally, null);
+    Arrays.fill(this.values, kept, this.keyTally, null);
+    this.context.tombstones -= this.tombstones;
+    this.tombstones = 0;
+    this.keyTally = kept;
+  }
+
+  /**
+   * Counts the tombstones in this leaf's slots, to rebuild the tally after
+   * entries were moved in bulk.
+   */
+
+  public int countTombstones() {
+    int count = 0;
+    for (int i = 0; i < this.keyTally; i++) {
+      if (this.values[i] == TOMBSTONE) {
+        count++;
+      }
+    }
+    return count;
   }
 
 
@@ -235,9 +423,7 @@ class BPTreeLeafNode<TKey extends Comparable<TKey>, TValue> extends BPTreeNode<T
     int numValuesInTree = 0;
     BPTreeLeafNode<TKey, TValue> nodePtr = this;
     while (nodePtr != null) {
-      for (int i = 0; i < nodePtr.keyTally; i++) {
-        numValuesInTree++;
-      }
+      numValuesInTree += nodePtr.liveCount();
       nodePtr = (BPTreeLeafNode<TKey, TValue>)nodePtr.rightSibling;
     }
     Object[] tvals = new Object[numValuesInTree];
@@ -247,60 +433,51 @@ class BPTreeLeafNode<TKey extends Comparable<TKey>, TValue> extends BPTreeNode<T
     int index = 0;
     while (nodePtr != null) {
       for (int i = 0; i < nodePtr.keyTally; i++) {
-        tvals[index++] = nodePtr.values[i];
+        if (nodePtr.values[i] != TOMBSTONE) {
+          tvals[index++] = nodePtr.values[i];
+        }
       }
+      this.context.nodeVisits++;
       nodePtr = (BPTreeLeafNode<TKey, TValue>)nodePtr.rightSibling;
     }
     return (TValue[])tvals;
   }
 
 
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-// sortNode (Selection sort)
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-
-
-  public void sortNode() {
-    for (int i = 0; i < this.keyTally - 1; i++) {
-      int minIndex = i;
-      for (int j = i + 1; j < this.keyTally; j++) {
-          TKey jkey = (TKey)this.keys[j];
-          TKey ikey = (TKey)this.keys[i];
-          if (jkey.compareTo(ikey) < 0) minIndex = j;
-      }
-      // Swap keys
-      Object temp = this.keys[minIndex];
-      this.keys[minIndex] = this.keys[i];
-      this.keys[i] = temp;
-
-      // Swap keys
-      Object tempVal = this.values[minIndex];
-      this.values[minIndex] = this.values[i];
-      this.values[i] = tempVal;
-    }
-  }
-
-
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-// splitNode
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // splitNode
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
 
-  public BPTreeNode<TKey, TValue> splitNode() {
+  /**
+   * Moves the upper part of this full leaf into a new right sibling. How many
+   * keys stay behind is set by the tree's split ratio.
+   * @param append - whether the key that filled this leaf is its last key
+   * @return the new node; its first key, the separator for the parent, is
+   *         left in the context's splitKey
+   */
 
-    BPTreeInnerNode<TKey, TValue> upBoundPacket = new BPTreeInnerNode<>(this.m);
-    BPTreeLeafNode<TKey, TValue> newNode = new BPTreeLeafNode<>(this.m);
-    int numKeysRemoved = 0;
+  public BPTreeNode<TKey, TValue> splitNode(boolean append) {
 
-    for (int i = (int)Math.floor(this.m / 2); i < this.keyTally; i++) {
+    BPTreeLeafNode<TKey, TValue> newNode = new BPTreeLeafNode<>(this.m, this.context);
+    this.context.leafSplits++;
 
-      newNode.keys[newNode.keyTally] = this.keys[i]; // add data to newNode
-      newNode.values[newNode.keyTally++] = this.values[i];
-      this.keys[i] = null; // delete split data from original
-      this.values[i] = null;
-      numKeysRemoved++;
+    // Move the upper part into newNode with one block copy
+    int splitIndex = this.context.splitIndex(this.m, append);
+    int numKeysMoved = this.keyTally - splitIndex;
+    System.arraycopy(this.keys, splitIndex, newNode.keys, 0, numKeysMoved);
+    System.arraycopy(this.values, splitIndex, newNode.values, 0, numKeysMoved);
+    if (this.fingerprints != null) {
+      System.arraycopy(this.fingerprints, splitIndex, newNode.fingerprints, 0, numKeysMoved);
+    }
+    Arrays.fill(this.keys, splitIndex, this.keyTally, null); // delete split data from original
+    Arrays.fill(this.values, splitIndex, this.keyTally, null);
+    newNode.keyTally = numKeysMoved;
+    this.keyTally = splitIndex;
+    if (this.tombstones > 0) {
+      newNode.tombstones = newNode.countTombstones();
+      this.tombstones -= newNode.tombstones;
     }
-    this.keyTally -= numKeysRemoved;
 
     // Relink siblings
     newNode.rightSibling = this.rightSibling;
@@ -308,18 +485,14 @@ class BPTreeLeafNode<TKey extends Comparable<TKey>, TValue> extends BPTreeNode<T
     if (newNode.rightSibling != null) newNode.rightSibling.leftSibling = newNode;
     if (newNode.leftSibling != null) newNode.leftSibling.rightSibling = newNode;
 
-    // Prepare upBoundPacket
-    upBoundPacket.keys[0] = newNode.keys[0];
-    upBoundPacket.references[0] = this;
-    upBoundPacket.references[1] = newNode;
-    upBoundPacket.keyTally++;
-    return upBoundPacket;
+    this.context.splitKey = newNode.keys[0];
+    return newNode;
   }
 
 
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-// sortNodeAfterDelete
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // sortNodeAfterDelete
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   /**
    * Shifts data right of the indexOfDelete one space to the left.
@@ -327,39 +500,70 @@ class BPTreeLeafNode<TKey extends Comparable<TKey>, TValue> extends BPTreeNode<T
    */
 
   public void sortNodeAfterDelete(int indexOfDelete) {
-    for (int i = indexOfDelete; i < this.m - 1; i++) {
-      this.keys[i] = this.keys[i + 1];
-      this.values[i] = this.values[i + 1];
+    System.arraycopy(this.keys, indexOfDelete + 1, this.keys, indexOfDelete, this.m - 1 - indexOfDelete);
+    System.arraycopy(this.values, indexOfDelete + 1, this.values, indexOfDelete, this.m - 1 - indexOfDelete);
+    if (this.fingerprints != null) {
+      System.arraycopy(this.fingerprints, indexOfDelete + 1, this.fingerprints, indexOfDelete, this.m - 1 - indexOfDelete);
     }
+    this.keys[this.m - 1] = null;
+    this.values[this.m - 1] = null;
   }
 
 
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-// sortNodeAfterShare
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // fold
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
 
-  public void sortNodeAfterRightShare() {
-    while (this.keys[0] == null) {
-      for (int j = 0; j < this.m - 1; j++) {
-        this.keys[j] = this.keys[j + 1];
-        this.values[j] = this.values[j + 1];
-      }
+  /**
+   * Aggregate of the values in slots from..to-1 under the tree's monoid.
+   */
+
+  public Object fold(int from, int to) {
+    BPTreeMonoid<Object, Object> monoid = this.context.monoid;
+    Object result = monoid.identity();
+    for (int i = from; i < to; i++) {
+      result = monoid.combine(result, monoid.lift(this.values[i]));
     }
+    return result;
   }
 
 
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-// redistributeKeys
-///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // moveTo
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
 
-  public void redistributeKeys(BPTreeLeafNode<TKey, TValue> underflowNode) {
-     int index = 0;
-     for (int i = 0; i < underflowNode.keyTally; i++) {
-       this.keys[this.keyTally] = underflowNode.keys[index];
-       this.values[this.keyTally++] = underflowNode.values[index++];
-     }
-     this.sortNode();
+  /**
+   * Moves count entries starting at from into target at position at. Entries
+   * already in target at or after at are shifted right first; entries left
+   * behind in this node are shifted left to close the gap.
+   */
+
+  public void moveTo(int from, int count, BPTreeLeafNode<TKey, TValue> target, int at) {
+    for (int i = from; i < from + count && this.tombstones > 0; i++) {
+      if (this.values[i] == TOMBSTONE) {
+        this.tombstones--;
+        target.tombstones++;
+      }
+    }
+    System.arraycopy(target.keys, at, target.keys, at + count, target.keyTally - at);
+    System.arraycopy(target.values, at, target.values, at + count, target.keyTally - at);
+    System.arraycopy(this.keys, from, target.keys, at, count);
+    System.arraycopy(this.values, from, target.values, at, count);
+    if (this.fingerprints != null) {
+      System.arraycopy(target.fingerprints, at, target.fingerprints, at + count, target.keyTally - at);
+      System.arraycopy(this.fingerprints, from, target.fingerprints, at, count);
+    }
+    target.keyTally += count;
+
+    System.arraycopy(this.keys, from + count, this.keys, from, this.keyTally - from - count);
+    System.arraycopy(this.values, from + count, this.values, from, this.keyTally - from - count);
+    if (this.fingerprints != null) {
+      System.arraycopy(this.fingerprints, from + count, this.fingerprints, from, this.keyTally - from - count);
+    }
+    Arrays.fill(this.keys, this.keyTally - count, this.keyTally, null);
+    Arrays.fill(this.values, this.keyTally - count, this.keyTally, null);
+    this.keyTally -= count;
   }
 }
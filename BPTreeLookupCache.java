@@ -0,0 +1,218 @@
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * @dev A bounded cache of point lookups in front of BPTree.search, mapping
+ *      recently found keys to their values. The tree stays the source of
+ *      truth: every write through the tree updates or drops the cached entry,
+ *      so a hit never returns a stale value.
+ * @dev Entries are kept in S3-FIFO order. A new key enters a small FIFO queue
+ *      of a tenth of the capacity and is only promoted to the main queue if it
+ *      is read again before it reaches the end, so a one-off scan passes
+ *      through the small queue without displacing the working set. Keys that
+ *      leave the small queue unread are remembered in a ghost queue, and one
+ *      that comes back soon after goes straight to the main queue. The main
+ *      queue gives an entry read since its last pass another round, as CLOCK
+ *      does.
+ * @dev Keys are found by hashCode and equals, which must agree with compareTo.
+ *
+ * @param <TKey>   the data type of the key
+ * @param <TValue> the data type of the value
+ */
+class BPTreeLookupCache<TKey, TValue> {
+
+  // Reads counted per entry, capped so a formerly hot key ages out quickly
+  private static final int MAX_FREQUENCY = 3;
+
+  private final int capacity;
+  private final int smallCapacity;
+  private final HashMap<TKey, Entry<TKey, TValue>> entries;
+  private final ArrayDeque<Entry<TKey, TValue>> small;
+  private final ArrayDeque<Entry<TKey, TValue>> main;
+  private final LinkedHashSet<TKey> ghosts;
+
+  // Live entries in each queue. Dropped entries stay queued until reached
+  private int smallSize;
+  private int mainSize;
+
+  protected long hits;
+  protected long misses;
+  protected long evictions;
+
+  private static final class Entry<TKey, TValue> {
+    final TKey key;
+    TValue value;
+    int frequency;
+    boolean inMain;
+    boolean dropped;
+
+    Entry(TKey key, TValue value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  BPTreeLookupCache(int capacity) {
+    this.capacity = capacity;
+    this.smallCapacity = Math.max(1, capacity / 10);
+    this.entries = new HashMap<TKey, Entry<TKey, TValue>>(capacity * 2);
+    this.small = new ArrayDeque<Entry<TKey, TValue>>();
+    this.main = new ArrayDeque<Entry<TKey, TValue>>();
+    this.ghosts = new LinkedHashSet<TKey>();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // get
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev The cached value of key, or null on a miss.
+   */
+  TValue get(TKey key) {
+    Entry<TKey, TValue> entry = this.entries.get(key);
+    if (entry == null) {
+      this.misses++;
+      return null;
+    }
+    this.hits++;
+    if (entry.frequency < MAX_FREQUENCY) {
+      entry.frequency++;
+    }
+    return entry.value;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // admit
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Cache the value just read from the tree for key, which missed.
+   */
+  void admit(TKey key, TValue value) {
+    Entry<TKey, TValue> entry = new Entry<TKey, TValue>(key, value);
+    this.entries.put(key, entry);
+    if (this.ghosts.remove(key)) {
+      entry.inMain = true;
+      this.main.addLast(entry);
+      this.mainSize++;
+    } else {
+      this.small.addLast(entry);
+      this.smallSize++;
+    }
+
+    // Entries dropped by writes are skipped lazily; clear them out before
+    // they outnumber the live ones
+    if (this.small.size() + this.main.size() > 2 * this.capacity) {
+      this.small.removeIf(queued -> queued.dropped);
+      this.main.removeIf(queued -> queued.dropped);
+    }
+    while (this.smallSize + this.mainSize > this.capacity) {
+      if (this.smallSize > this.smallCapacity || this.mainSize == 0) {
+        this.evictSmall();
+      } else {
+        this.evictMain();
+      }
+    }
+  }
+
+  /**
+   * @dev Take the oldest entry off the small queue: promote it if it was
+   *      read again, otherwise drop it and remember its key as a ghost.
+   */
+  private void evictSmall() {
+    Entry<TKey, TValue> entry = this.small.pollFirst();
+    while (entry.dropped) {
+      entry = this.small.pollFirst();
+    }
+    this.smallSize--;
+    if (entry.frequency > 0) {
+      entry.frequency = 0;
+      entry.inMain = true;
+      this.main.addLast(entry);
+      this.mainSize++;
+      return;
+    }
+    this.entries.remove(entry.key);
+    this.evictions++;
+    this.ghosts.add(entry.key);
+    if (this.ghosts.size() > this.capacity) {
+      Iterator<TKey> oldest = this.ghosts.iterator();
+      oldest.next();
+      oldest.remove();
+    }
+  }
+
+  /**
+   * @dev Take the oldest entry off the main queue: requeue it one read
+   *      poorer if it was read since its last pass, otherwise drop it.
+   */
+  private void evictMain() {
+    Entry<TKey, TValue> entry = this.main.pollFirst();
+    while (entry.dropped) {
+      entry = this.main.pollFirst();
+    }
+    if (entry.frequency > 0) {
+      entry.frequency--;
+      this.main.addLast(entry);
+      return;
+    }
+    this.mainSize--;
+    this.entries.remove(entry.key);
+    this.evictions++;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // invalidation
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Give a cached key the value just written to the tree. Keys that are
+   *      not cached are left out, so writes do not fill the cache.
+   */
+  void update(TKey key, TValue value) {
+    Entry<TKey, TValue> entry = this.entries.get(key);
+    if (entry != null) {
+      entry.value = value;
+    }
+  }
+
+  /**
+   * @dev Drop key after it was deleted from the tree.
+   */
+  void invalidate(TKey key) {
+    Entry<TKey, TValue> entry = this.entries.remove(key);
+    if (entry != null) {
+      entry.dropped = true;
+      if (entry.inMain) {
+        this.mainSize--;
+      } else {
+        this.smallSize--;
+      }
+    }
+  }
+
+  void clear() {
+    this.entries.clear();
+    this.small.clear();
+    this.main.clear();
+    this.ghosts.clear();
+    this.smallSize = 0;
+    this.mainSize = 0;
+  }
+
+  int size() {
+    return this.entries.size();
+  }
+
+  void resetStats() {
+    this.hits = 0;
+    this.misses = 0;
+    this.evictions = 0;
+  }
+}
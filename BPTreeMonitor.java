@@ -0,0 +1,197 @@
+/**
+ * @dev BPTreeStatsMXBean implementation behind BPTree.registerMBean. A JMX
+ *      client reads the attributes one at a time, so every read within
+ *      REFRESH_NANOS of the last snapshot is answered from that snapshot.
+ *      One console refresh then merges the latency histograms once, not once
+ *      per attribute. Nothing here touches the tree's nodes: BPTreeStats is
+ *      built from counters and the tree's tracked height.
+ */
+class BPTreeMonitor implements BPTreeStatsMXBean {
+
+  static final long REFRESH_NANOS = 1_000_000_000L;
+
+  private final BPTree<?, ?> tree;
+  private BPTreeStats stats;
+  private long takenAt;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  BPTreeMonitor(BPTree<?, ?> tree) {
+    this.tree = tree;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // stats
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev The current snapshot, retaken if it is older than REFRESH_NANOS.
+   */
+  private synchronized BPTreeStats stats() {
+    long now = System.nanoTime();
+    if (this.stats == null || now - this.takenAt > REFRESH_NANOS) {
+      this.stats = this.tree.getStats();
+      this.takenAt = now;
+    }
+    return this.stats;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // counts
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public int getHeight() {
+    return this.stats().getHeight();
+  }
+
+  public long getInsertCount() {
+    return this.stats().getOperationCount(BPTreeOperation.INSERT);
+  }
+
+  public long getSearchCount() {
+    return this.stats().getOperationCount(BPTreeOperation.SEARCH);
+  }
+
+  public long getDeleteCount() {
+    return this.stats().getOperationCount(BPTreeOperation.DELETE);
+  }
+
+  public long getScanCount() {
+    return this.stats().getOperationCount(BPTreeOperation.SCAN);
+  }
+
+  public long getBatchInsertCount() {
+    return this.stats().getOperationCount(BPTreeOperation.BATCH_INSERT);
+  }
+
+  public long getBulkLoadCount() {
+    return this.stats().getOperationCount(BPTreeOperation.BULK_LOAD);
+  }
+
+  public long getCompareCount() {
+    return this.stats().getCompareCount();
+  }
+
+  public long getNodeVisits() {
+    return this.stats().getNodeVisits();
+  }
+
+  public double getNodeVisitsPerOperation() {
+    return this.stats().getNodeVisitsPerOperation();
+  }
+
+  public long getLeafSplits() {
+    return this.stats().getLeafSplits();
+  }
+
+  public long getInnerSplits() {
+    return this.stats().getInnerSplits();
+  }
+
+  public long getLeftRedistributions() {
+    return this.stats().getLeftRedistributions();
+  }
+
+  public long getRightRedistributions() {
+    return this.stats().getRightRedistributions();
+  }
+
+  public long getLeftMerges() {
+    return this.stats().getLeftMerges();
+  }
+
+  public long getRightMerges() {
+    return this.stats().getRightMerges();
+  }
+
+  public long getHeightIncreases() {
+    return this.stats().getHeightIncreases();
+  }
+
+  public long getHeightDecreases() {
+    return this.stats().getHeightDecreases();
+  }
+
+  public long getAppendInserts() {
+    return this.stats().getAppendInserts();
+  }
+
+  public long getTombstones() {
+    return this.stats().getTombstones();
+  }
+
+  public long getCacheHits() {
+    return this.stats().getCacheHits();
+  }
+
+  public long getCacheMisses() {
+    return this.stats().getCacheMisses();
+  }
+
+  public double getCacheHitRate() {
+    return this.stats().getCacheHitRate();
+  }
+
+  public long getCacheEvictions() {
+    return this.stats().getCacheEvictions();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // latency
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public long getInsertLatencyP50() {
+    return this.stats().getLatencyPercentile(BPTreeOperation.INSERT, 50);
+  }
+
+  public long getInsertLatencyP99() {
+    return this.stats().getLatencyPercentile(BPTreeOperation.INSERT, 99);
+  }
+
+  public long getInsertLatencyMax() {
+    return this.stats().getLatencyMax(BPTreeOperation.INSERT);
+  }
+
+  public long getSearchLatencyP50() {
+    return this.stats().getLatencyPercentile(BPTreeOperation.SEARCH, 50);
+  }
+
+  public long getSearchLatencyP99() {
+    return this.stats().getLatencyPercentile(BPTreeOperation.SEARCH, 99);
+  }
+
+  public long getSearchLatencyMax() {
+    return this.stats().getLatencyMax(BPTreeOperation.SEARCH);
+  }
+
+  public long getDeleteLatencyP50() {
+    return this.stats().getLatencyPercentile(BPTreeOperation.DELETE, 50);
+  }
+
+  public long getDeleteLatencyP99() {
+    return this.stats().getLatencyPercentile(BPTreeOperation.DELETE, 99);
+  }
+
+  public long getDeleteLatencyMax() {
+    return this.stats().getLatencyMax(BPTreeOperation.DELETE);
+  }
+
+  public long getBatchInsertLatencyMax() {
+    return this.stats().getLatencyMax(BPTreeOperation.BATCH_INSERT);
+  }
+
+  public long getBulkLoadLatencyMax() {
+    return this.stats().getLatencyMax(BPTreeOperation.BULK_LOAD);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // resetStats
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public synchronized void resetStats() {
+    this.tree.resetStats();
+    this.stats = null;
+  }
+}
@@ -0,0 +1,99 @@
+import java.util.Comparator;
+import java.util.function.ToLongFunction;
+
+/**
+ * @dev Associative summary of values for an augmented tree. Inner nodes keep
+ *      one aggregate per child, so any key range is summarised from a
+ *      handful of stored aggregates plus the entries of its two edge leaves.
+ *      combine must be associative and identity must be its neutral element.
+ *      combine need not be commutative: aggregates are always combined in
+ *      ascending key order.
+ * 
+ * @param <TValue> the data type of the value
+ * @param <A>      the data type of the aggregate
+ */
+public interface BPTreeMonoid<TValue, A> {
+
+  /**
+   * @dev Aggregate of no values.
+   */
+  A identity();
+
+  /**
+   * @dev Aggregate of the single value.
+   */
+  A lift(TValue value);
+
+  /**
+   * @dev Aggregate of the values summarised by left followed by those
+   *      summarised by right.
+   */
+  A combine(A left, A right);
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // built-in monoids
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Sum of a long drawn from each value.
+   */
+  static <TValue> BPTreeMonoid<TValue, Long> sum(ToLongFunction<? super TValue> field) {
+    return new BPTreeMonoid<TValue, Long>() {
+      public Long identity() {
+        return 0L;
+      }
+
+      public Long lift(TValue value) {
+        return field.applyAsLong(value);
+      }
+
+      public Long combine(Long left, Long right) {
+        return left + right;
+      }
+    };
+  }
+
+  /**
+   * @dev Smallest value by order, or null over no values.
+   */
+  static <TValue> BPTreeMonoid<TValue, TValue> min(Comparator<? super TValue> order) {
+    return new BPTreeMonoid<TValue, TValue>() {
+      public TValue identity() {
+        return null;
+      }
+
+      public TValue lift(TValue value) {
+        return value;
+      }
+
+      public TValue combine(TValue left, TValue right) {
+        if (left == null) {
+          return right;
+        }
+        return right == null || order.compare(left, right) <= 0 ? left : right;
+      }
+    };
+  }
+
+  /**
+   * @dev Largest value by order, or null over no values.
+   */
+  static <TValue> BPTreeMonoid<TValue, TValue> max(Comparator<? super TValue> order) {
+    return new BPTreeMonoid<TValue, TValue>() {
+      public TValue identity() {
+        return null;
+      }
+
+      public TValue lift(TValue value) {
+        return value;
+      }
+
+      public TValue combine(TValue left, TValue right) {
+        if (left == null) {
+          return right;
+        }
+        return right == null || order.compare(left, right) >= 0 ? left : right;
+      }
+    };
+  }
+}
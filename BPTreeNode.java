@@ -11,9 +11,10 @@ abstract class BPTreeNode<TKey extends Comparable<TKey>, TValue> {
   protected Object[] keys;
   protected int keyTally;
   protected int m;
-  protected BPTreeNode<TKey, TValue> parentNode;
   protected BPTreeNode<TKey, TValue> leftSibling;
   protected BPTreeNode<TKey, TValue> rightSibling;
+  protected BPTreeContext<TKey, TValue> context;
+  protected long epoch;
   protected static int level = 0;
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -22,7 +23,6 @@ abstract class BPTreeNode<TKey extends Comparable<TKey>, TValue> {
 
   protected BPTreeNode() {
     this.keyTally = 0;
-    this.parentNode = null;
     this.leftSibling = null;
     this.rightSibling = null;
   }
@@ -53,19 +53,105 @@ abstract class BPTreeNode<TKey extends Comparable<TKey>, TValue> {
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-  // getParent
+  // isShared
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-  public BPTreeNode<TKey, TValue> getParent() {
-    return this.parentNode;
+  /**
+   * @dev Whether an open snapshot may still reach this node. Such a node must
+   *      be copied, not changed in place. Sibling pointers are the exception:
+   *      snapshots never follow them, so they are kept current on shared
+   *      nodes too.
+   */
+
+  public boolean isShared() {
+    return this.epoch < this.context.epoch && this.context.openSnapshots.get() > 0;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // copy (abstract)
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Return a private copy of this node for the live tree to change. The
+   *      caller points the parent at the copy.
+   */
+
+  public abstract BPTreeNode<TKey, TValue> copy();
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // searchKeys
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev The single in-node search routine shared by every descent path.
+   *      Returns how many of keys[0..keyTally) are smaller than key, or, when
+   *      upper is set, smaller than or equal to key. The strategy comes from
+   *      the tree's search mode and every comparison is counted on the context,
+   *      as is the visit to this node.
+   */
+
+  @SuppressWarnings("unchecked")
+  protected int searchKeys(TKey key, boolean upper) {
+    int threshold = upper ? 0 : 1;
+    this.context.nodeVisits++;
+
+    // Branch-light scan: no early exit, the loop body only accumulates
+    if (this.context.searchMode == BPTreeSearchMode.LINEAR) {
+      int count = 0;
+      for (int i = 0; i < this.keyTally; i++) {
+        count += key.compareTo((TKey) this.keys[i]) >= threshold ? 1 : 0;
+      }
+      this.context.compares += this.keyTally;
+      return count;
+    }
+
+    // Binary search for the first key that is greater than (or equal to) key
+    int low = 0;
+    int high = this.keyTally;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      this.context.compares++;
+      if (key.compareTo((TKey) this.keys[mid]) >= threshold) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // findChild
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Index of the reference to follow when descending for key. Keys equal
+   *      to a separator live in the subtree to its right.
+   */
+
+  protected int findChild(TKey key) {
+    return this.searchKeys(key, true);
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-  // setParent
+  // findKey
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-  public void setParent(BPTreeNode<TKey, TValue> parent) {
-    this.parentNode = parent;
+  /**
+   * @dev Index of key in this node, or (-(insertion point) - 1) when the key
+   *      is absent, following the java.util.Arrays.binarySearch convention.
+   */
+
+  @SuppressWarnings("unchecked")
+  protected int findKey(TKey key) {
+    int index = this.searchKeys(key, false);
+    if (index < this.keyTally) {
+      this.context.compares++;
+      if (key.compareTo((TKey) this.keys[index]) == 0) {
+        return index;
+      }
+    }
+    return -index - 1;
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -74,6 +160,17 @@ abstract class BPTreeNode<TKey extends Comparable<TKey>, TValue> {
 
   public abstract boolean isLeaf();
 
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // findLeaf (abstract)
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Descend to the leaf that holds key, or would hold it. A null key
+   *      descends to the leftmost leaf of the sequence set.
+   */
+
+  public abstract BPTreeLeafNode<TKey, TValue> findLeaf(TKey key);
+
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
   // print
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -131,39 +228,6 @@ abstract class BPTreeNode<TKey extends Comparable<TKey>, TValue> {
     return this.search(key);
   }
 
-  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-  // insert
-  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-
-  /**
-   * @dev Insert a new key and its associated value into the B+ tree.
-   * @dev The root node of the changed tree should be returned.
-   */
-
-  public BPTreeNode<TKey, TValue> insert(TKey key, TValue value) {
-
-    BPTreeNode<TKey, TValue> newRoot = this.insert(key, value);
-    if (newRoot != null)
-      return newRoot;
-    return this;
-  }
-
-  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-  // delete
-  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-
-  /**
-   * @dev Delete a key and its associated value from the B+ tree.
-   * @dev The root node of the changed tree should be returned.
-   */
-
-  public BPTreeNode<TKey, TValue> delete(TKey key) {
-    BPTreeNode<TKey, TValue> newRoot = this.delete(key);
-    if (newRoot != null)
-      return newRoot;
-    return this;
-  }
-
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
   // values
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
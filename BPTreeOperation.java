@@ -0,0 +1,14 @@
+/**
+ * @dev Kinds of tree operation that are counted and timed separately in
+ *      BPTreeStats. SCAN covers values() and range(). BATCH_INSERT covers
+ *      insertAll() and BULK_LOAD covers bulkLoad(); both count once per key
+ *      but are timed once per call.
+ */
+public enum BPTreeOperation {
+  INSERT,
+  SEARCH,
+  DELETE,
+  SCAN,
+  BATCH_INSERT,
+  BULK_LOAD
+}
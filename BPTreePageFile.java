@@ -0,0 +1,315 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * @dev A single file of fixed-size pages, read and written with positional
+ *      FileChannel calls. Page 0 holds the header; every other page holds one
+ *      node, part of the stored free list, or nothing. Page ID 0 therefore
+ *      doubles as "no page" in node links.
+ * @dev The file only changes state at a checkpoint, see commit(). Between two
+ *      checkpoints no page the last one can reach is written: a changed node
+ *      moves to a page allocated since (see epoch), and pages given up are
+ *      held back until the next checkpoint is durable. A crash at any point
+ *      leaves the file as of the last completed checkpoint.
+ * @dev The header is kept twice, in the two halves of page 0. A checkpoint
+ *      overwrites the older copy, so a torn header write leaves the other one
+ *      intact. Each copy holds magic, format, page size, key size and value
+ *      size as ints, then epoch, root page, page count, free list head and
+ *      entry count as longs, then a CRC32 of all of these.
+ * @dev The free list is stored in a chain of pages written at each
+ *      checkpoint: a type byte, the ID count at offset 4 and the next page of
+ *      the chain at offset 8, then the IDs.
+ */
+class BPTreePageFile {
+
+  static final long NO_PAGE = 0;
+  private static final int MAGIC = 0x42505431; // "BPT1"
+  private static final int FORMAT = 2;
+  private static final int HEADER_BYTES = 5 * Integer.BYTES + 5 * Long.BYTES + Long.BYTES;
+  private static final byte FREE_LIST = 3;
+  private static final int FREE_LIST_HEADER = 16;
+
+  private final FileChannel channel;
+  protected final int pageSize;
+  protected final int keySize;
+  protected final int valueSize;
+  protected long rootPage;
+  protected long pageCount;
+  protected long size;
+
+  // Epoch of the checkpoint being built. Pages written since the last
+  // checkpoint carry it and are the only ones that may be overwritten
+  protected long epoch;
+
+  // Pages free for reuse now, pages given up since the last checkpoint, and
+  // the pages the last checkpoint stored its free list in
+  private final ArrayList<Long> free;
+  private final ArrayList<Long> pending;
+  private final ArrayList<Long> freeListPages;
+  private final ByteBuffer scratch;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Open file, creating it if it is missing or empty. An existing file
+   *      must have been written with the same page, key and value sizes.
+   */
+  BPTreePageFile(Path file, int pageSize, int keySize, int valueSize) throws IOException {
+    if (pageSize < 4096 || pageSize > 65536 || Integer.bitCount(pageSize) != 1) {
+      throw new IllegalArgumentException("page size must be a power of two from 4 KiB to 64 KiB, was " + pageSize);
+    }
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.pageSize = pageSize;
+    this.keySize = keySize;
+    this.valueSize = valueSize;
+    this.scratch = ByteBuffer.allocate(pageSize);
+    this.free = new ArrayList<Long>();
+    this.pending = new ArrayList<Long>();
+    this.freeListPages = new ArrayList<Long>();
+
+    if (this.channel.size() == 0) {
+      this.rootPage = NO_PAGE;
+      this.pageCount = 1;
+      this.size = 0;
+      this.epoch = 0;
+      this.scratch.clear();
+      this.writePage(0, this.scratch);
+      this.writeHeader(NO_PAGE);
+      this.channel.force(true);
+      this.epoch = 1;
+      return;
+    }
+
+    // Take the newer of the two header copies that is intact
+    this.readPage(0, this.scratch);
+    int newest = -1;
+    long newestEpoch = -1;
+    for (int copy = 0; copy < 2; copy++) {
+      ByteBuffer header = this.headerCopy(copy);
+      if (header.getInt(0) != MAGIC || header.getInt(4) != FORMAT) {
+        continue;
+      }
+      long copyEpoch = header.getLong(5 * Integer.BYTES);
+      if (checksum(header) == header.getLong(HEADER_BYTES - Long.BYTES) && copyEpoch > newestEpoch) {
+        newest = copy;
+        newestEpoch = copyEpoch;
+      }
+    }
+    if (newest < 0) {
+      this.channel.close();
+      throw new IOException(file + " is not a B+ tree page file, or was written by an older format");
+    }
+    ByteBuffer header = this.headerCopy(newest);
+    header.position(2 * Integer.BYTES);
+    int storedPageSize = header.getInt();
+    int storedKeySize = header.getInt();
+    int storedValueSize = header.getInt();
+    if (storedPageSize != pageSize || storedKeySize != keySize || storedValueSize != valueSize) {
+      this.channel.close();
+      throw new IllegalArgumentException(file + " holds " + storedPageSize + "-byte pages of " + storedKeySize
+          + "-byte keys and " + storedValueSize + "-byte values");
+    }
+    this.epoch = header.getLong() + 1;
+    this.rootPage = header.getLong();
+    this.pageCount = header.getLong();
+    long freeListHead = header.getLong();
+    this.size = header.getLong();
+    this.readFreeList(freeListHead);
+  }
+
+  /**
+   * @dev View of one header copy in page 0, as read into scratch.
+   */
+  private ByteBuffer headerCopy(int copy) {
+    ByteBuffer header = this.scratch.duplicate();
+    header.clear();
+    header.position(copy * (this.pageSize / 2));
+    header.limit(header.position() + HEADER_BYTES);
+    return header.slice();
+  }
+
+  private static long checksum(ByteBuffer header) {
+    CRC32 crc = new CRC32();
+    ByteBuffer fields = header.duplicate();
+    fields.clear();
+    fields.limit(HEADER_BYTES - Long.BYTES);
+    crc.update(fields);
+    return crc.getValue();
+  }
+
+  private void readFreeList(long pageId) throws IOException {
+    while (pageId != NO_PAGE) {
+      this.readPage(pageId, this.scratch);
+      if (this.scratch.get(0) != FREE_LIST) {
+        throw new IOException("page " + pageId + " should hold part of the free list");
+      }
+      this.freeListPages.add(pageId);
+      int count = this.scratch.getInt(4);
+      this.scratch.position(FREE_LIST_HEADER);
+      for (int i = 0; i < count; i++) {
+        this.free.add(this.scratch.getLong());
+      }
+      pageId = this.scratch.getLong(8);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // readPage
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Fill page with the contents of pageId and flip it for reading.
+   */
+  void readPage(long pageId, ByteBuffer page) throws IOException {
+    page.clear();
+    long position = pageId * this.pageSize;
+    while (page.hasRemaining()) {
+      if (this.channel.read(page, position + page.position()) < 0) {
+        throw new IOException("page " + pageId + " lies past the end of the file");
+      }
+    }
+    page.flip();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // writePage
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Write the pageSize bytes of page to pageId.
+   */
+  void writePage(long pageId, ByteBuffer page) throws IOException {
+    page.clear();
+    long position = pageId * this.pageSize;
+    while (page.hasRemaining()) {
+      this.channel.write(page, position + page.position());
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // allocate
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Return a page ID for a node written in the current epoch, reusing a
+   *      free page if there is one.
+   */
+  long allocate() {
+    if (this.free.isEmpty()) {
+      return this.pageCount++;
+    }
+    return this.free.remove(this.free.size() - 1);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // free
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Give up pageId, last written in pageEpoch. A page from the current
+   *      epoch can be reused at once. An older one may still be reachable
+   *      from the last checkpoint, so it is only reused after the next.
+   */
+  void free(long pageId, long pageEpoch) {
+    if (pageEpoch == this.epoch) {
+      this.free.add(pageId);
+    } else {
+      this.pending.add(pageId);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // commit
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Make the pages written so far a checkpoint. The caller has written
+   *      every changed node. The free list is stored in pages of its own, all
+   *      pages are forced to the device, and only then is the older header
+   *      copy overwritten with the new root and forced. Pages held back since
+   *      the last checkpoint become free, and a new epoch starts.
+   */
+  void commit() throws IOException {
+    ArrayList<Long> released = new ArrayList<Long>(this.free.size() + this.pending.size() + this.freeListPages.size());
+    released.addAll(this.pending);
+    released.addAll(this.freeListPages);
+
+    // Store the list in pages that no checkpoint can reach, taking them out
+    // of the list they store
+    int perPage = (this.pageSize - FREE_LIST_HEADER) / Long.BYTES;
+    int pages = (this.free.size() + released.size() + perPage - 1) / perPage;
+    ArrayList<Long> listPages = new ArrayList<Long>(pages);
+    for (int i = 0; i < pages; i++) {
+      listPages.add(this.allocate());
+    }
+    released.addAll(this.free);
+    int next = 0;
+    for (int i = 0; i < pages; i++) {
+      int count = Math.min(perPage, released.size() - next);
+      this.scratch.clear();
+      this.scratch.put(0, FREE_LIST);
+      this.scratch.putInt(4, count);
+      this.scratch.putLong(8, i + 1 < pages ? listPages.get(i + 1) : NO_PAGE);
+      this.scratch.position(FREE_LIST_HEADER);
+      for (int j = 0; j < count; j++) {
+        this.scratch.putLong(released.get(next++));
+      }
+      this.writePage(listPages.get(i), this.scratch);
+    }
+    this.channel.force(true);
+
+    long freeListHead = pages > 0 ? listPages.get(0) : NO_PAGE;
+    this.writeHeader(freeListHead);
+    this.channel.force(false);
+
+    this.free.clear();
+    this.free.addAll(released);
+    this.pending.clear();
+    this.freeListPages.clear();
+    this.freeListPages.addAll(listPages);
+    this.epoch++;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // writeHeader
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Write the header for the current epoch into the copy the previous
+   *      epoch did not use.
+   */
+  private void writeHeader(long freeListHead) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    header.putInt(MAGIC);
+    header.putInt(FORMAT);
+    header.putInt(this.pageSize);
+    header.putInt(this.keySize);
+    header.putInt(this.valueSize);
+    header.putLong(this.epoch);
+    header.putLong(this.rootPage);
+    header.putLong(this.pageCount);
+    header.putLong(freeListHead);
+    header.putLong(this.size);
+    header.putLong(checksum(header));
+    header.flip();
+    long position = (this.epoch & 1) * (this.pageSize / 2);
+    while (header.hasRemaining()) {
+      this.channel.write(header, position + header.position());
+    }
+  }
+
+  void close() throws IOException {
+    try {
+      this.commit();
+    } finally {
+      this.channel.close();
+    }
+  }
+}
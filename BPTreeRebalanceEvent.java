@@ -0,0 +1,43 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * @dev JFR event for a node left underfull by a delete and refilled from, or
+ *      merged with, a sibling.
+ */
+@Name("bptree.Rebalance")
+@Label("B+ Tree Rebalance")
+@Category("B+ Tree")
+@Description("An underfull node borrowed from or merged with a sibling on delete")
+class BPTreeRebalanceEvent extends jdk.jfr.Event {
+
+  @Label("Kind")
+  @Description("Left or right redistribution, or left or right merge")
+  String kind;
+
+  @Label("Leaf")
+  boolean leaf;
+
+  @Label("Level")
+  @Description("Level of the node, counting the leaves as level 1")
+  int level;
+
+  @Label("Separator Removed")
+  @Description("Whether a separator was deleted from the parent, which merges do")
+  boolean separatorRemoved;
+
+  @Label("Order")
+  int order;
+
+  @Label("Key Count")
+  @Description("Keys in the underfull node before it was rebalanced")
+  int keyCount;
+
+  @Label("Sibling Key Count")
+  int siblingKeyCount;
+
+  @Label("Tree Height")
+  int height;
+}
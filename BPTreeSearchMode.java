@@ -0,0 +1,10 @@
+/**
+ * @dev In-node key search strategy used on every descent path of a B+ tree.
+ *      BINARY halves the key range on each comparison and suits large orders.
+ *      LINEAR counts the keys below the target without an early exit, which
+ *      keeps the loop free of data-dependent branches and suits small nodes.
+ */
+public enum BPTreeSearchMode {
+  BINARY,
+  LINEAR
+}
@@ -0,0 +1,27 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * @dev JFR event for an insert, search, delete, scan, batch insert or bulk
+ *      load that took longer than the event's threshold, 1 ms unless the
+ *      recording settings say otherwise.
+ */
+@Name("bptree.SlowOperation")
+@Label("B+ Tree Slow Operation")
+@Category("B+ Tree")
+@Description("A tree operation that ran longer than the threshold")
+@Threshold("1 ms")
+class BPTreeSlowOperationEvent extends jdk.jfr.Event {
+
+  @Label("Operation")
+  String operation;
+
+  @Label("Order")
+  int order;
+
+  @Label("Tree Height")
+  int height;
+}
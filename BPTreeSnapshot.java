@@ -0,0 +1,113 @@
+import java.util.ArrayList;
+
+/**
+ * @dev A read-only, point-in-time view of a B+ tree, returned by
+ *      BPTree.snapshot(). It keeps the root the tree had when the snapshot was
+ *      taken; the live tree copies any node it would otherwise change, so
+ *      nothing reachable from here changes afterwards.
+ * @dev Reads only descend from the root and never follow the sibling or parent
+ *      links, which the live tree keeps updating. Close the snapshot when done
+ *      so the tree can stop copying.
+ * 
+ * @param <TKey>   the data type of the key
+ * @param <TValue> the data type of the value
+ */
+@SuppressWarnings("unchecked")
+public class BPTreeSnapshot<TKey extends Comparable<TKey>, TValue> implements AutoCloseable {
+
+  private BPTreeNode<TKey, TValue> root;
+  private final BPTreeContext<TKey, TValue> context;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  BPTreeSnapshot(BPTreeNode<TKey, TValue> root, BPTreeContext<TKey, TValue> context) {
+    this.root = root;
+    this.context = context;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // search
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Search a key and return the value it had when the snapshot was taken.
+   */
+  public TValue search(TKey key) {
+    return this.openRoot().search(key);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // range
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Return a lazy cursor over the snapshot's entries whose keys lie
+   *      between from and to, as BPTree.range does for the live tree. The
+   *      cursor moves between leaves through the path it descended, not the
+   *      sequence set.
+   */
+  @SuppressWarnings("rawtypes")
+  public BPTreeCursor<TKey, TValue> range(TKey from, boolean fromInclusive, TKey to, boolean toInclusive) {
+    BPTreeNode<TKey, TValue> node = this.openRoot();
+    int height = 0;
+    for (BPTreeNode<TKey, TValue> n = node; !n.isLeaf(); n = ((BPTreeInnerNode<TKey, TValue>) n).getChild(0)) {
+      height++;
+    }
+
+    BPTreeInnerNode<TKey, TValue>[] path = new BPTreeInnerNode[height];
+    int[] pathIndex = new int[height];
+    for (int level = 0; level < height; level++) {
+      path[level] = (BPTreeInnerNode<TKey, TValue>) node;
+      pathIndex[level] = from == null ? 0 : path[level].findChild(from);
+      node = path[level].getChild(pathIndex[level]);
+    }
+    BPTreeLeafNode<TKey, TValue> leaf = (BPTreeLeafNode<TKey, TValue>) node;
+    int index = from == null ? 0 : leaf.searchKeys(from, !fromInclusive);
+    return new BPTreeCursor<TKey, TValue>(path, pathIndex, leaf, index, to, toInclusive);
+  }
+
+  /**
+   * @dev Return a lazy cursor over the half-open key range [from, to).
+   */
+  public BPTreeCursor<TKey, TValue> range(TKey from, TKey to) {
+    return range(from, true, to, false);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // values
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Return all values in the snapshot in ascending key order.
+   */
+  public TValue[] values() {
+    ArrayList<Object> result = new ArrayList<Object>();
+    this.range(null, true, null, true).forEach((key, value) -> result.add(value));
+    return (TValue[]) result.toArray();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // close
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Release the snapshot. The tree stops copying once its last snapshot
+   *      is closed. Closing twice has no further effect.
+   */
+  @Override
+  public void close() {
+    if (this.root != null) {
+      this.root = null;
+      this.context.openSnapshots.decrementAndGet();
+    }
+  }
+
+  private BPTreeNode<TKey, TValue> openRoot() {
+    if (this.root == null) {
+      throw new IllegalStateException("snapshot is closed");
+    }
+    return this.root;
+  }
+}
@@ -0,0 +1,32 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * @dev JFR event for a node that filled up on insert and split in two.
+ */
+@Name("bptree.Split")
+@Label("B+ Tree Split")
+@Category("B+ Tree")
+@Description("A full node split in two on insert")
+class BPTreeSplitEvent extends jdk.jfr.Event {
+
+  @Label("Leaf")
+  boolean leaf;
+
+  @Label("Order")
+  int order;
+
+  @Label("Key Count")
+  @Description("Keys in the node when it split")
+  int keyCount;
+
+  @Label("Level")
+  @Description("Level of the node, counting the leaves as level 1")
+  int level;
+
+  @Label("Tree Height")
+  @Description("Levels in the tree after the split")
+  int height;
+}
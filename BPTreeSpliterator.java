@@ -0,0 +1,220 @@
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * @dev Spliterator over the sequence set of a B+ tree, for BPTree.entryStream
+ *      and valueStream. A spliterator covers a run of children lo..hi-1 of
+ *      one inner node. trySplit hands the left half of that run to a new
+ *      spliterator, or steps down into the only child, so the halves always
+ *      cover disjoint subtrees. Each half walks its leaves along the
+ *      rightSibling links, stopping at the first leaf of the next half.
+ * @dev Once the children are leaves, their live key counts are summed and the
+ *      size is exact (SIZED | SUBSIZED). An augmented tree stores subtree
+ *      counts, so there the size is exact at every level. Otherwise it is
+ *      estimated from the fill of the leftmost leaf.
+ *      Tombstones from lazy deletes are skipped.
+ * 
+ * @param <TKey>   the data type of the key
+ * @param <TValue> the data type of the value
+ * @param <T>      the element type, built from each key and value
+ */
+@SuppressWarnings("unchecked")
+class BPTreeSpliterator<TKey extends Comparable<TKey>, TValue, T> implements Spliterator<T> {
+
+  private final BiFunction<TKey, TValue, T> element;
+  private final int characteristics;
+
+  // Children lo..hi-1 of inner are covered, or just the leaf first if inner is null
+  private BPTreeInnerNode<TKey, TValue> inner;
+  private int lo;
+  private int hi;
+  private BPTreeLeafNode<TKey, TValue> first;
+  private final BPTreeLeafNode<TKey, TValue> fence;
+
+  // Traversal state, set by the first tryAdvance or forEachRemaining
+  private boolean started;
+  private BPTreeLeafNode<TKey, TValue> leaf;
+  private int index;
+  private long size;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @param root    - root of the tree to cover
+   * @param element - builds the stream element from a key and its value
+   * @param nonNull - whether element never returns null
+   */
+  BPTreeSpliterator(BPTreeNode<TKey, TValue> root, BiFunction<TKey, TValue, T> element, boolean nonNull) {
+    this(element, ORDERED | (nonNull ? NONNULL : 0), null);
+    if (root.isLeaf()) {
+      this.first = (BPTreeLeafNode<TKey, TValue>) root;
+    } else {
+      this.inner = (BPTreeInnerNode<TKey, TValue>) root;
+      this.lo = 0;
+      this.hi = root.keyTally + 1;
+    }
+    this.size = this.computeSize();
+  }
+
+  private BPTreeSpliterator(BiFunction<TKey, TValue, T> element, int characteristics,
+      BPTreeLeafNode<TKey, TValue> fence) {
+    this.element = element;
+    this.characteristics = characteristics;
+    this.fence = fence;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // trySplit
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public Spliterator<T> trySplit() {
+    if (this.started || this.inner == null) {
+      return null;
+    }
+
+    // A single inner child: cover its children instead, then split those
+    while (this.hi - this.lo == 1) {
+      BPTreeNode<TKey, TValue> child = this.inner.getChild(this.lo);
+      if (child.isLeaf()) {
+        this.size = this.computeSize();
+        return null;
+      }
+      this.inner = (BPTreeInnerNode<TKey, TValue>) child;
+      this.lo = 0;
+      this.hi = child.keyTally + 1;
+    }
+
+    int mid = (this.lo + this.hi) >>> 1;
+    BPTreeSpliterator<TKey, TValue, T> prefix = new BPTreeSpliterator<TKey, TValue, T>(this.element,
+        this.characteristics, leftmostLeaf(this.inner.getChild(mid)));
+    prefix.inner = this.inner;
+    prefix.lo = this.lo;
+    prefix.hi = mid;
+    prefix.size = prefix.computeSize();
+    this.lo = mid;
+    this.size = this.computeSize();
+    return prefix;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // tryAdvance
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public boolean tryAdvance(Consumer<? super T> action) {
+    if (!this.started) {
+      this.start();
+    }
+    while (this.leaf != this.fence
+        && (this.index >= this.leaf.keyTally || this.leaf.values[this.index] == BPTreeLeafNode.TOMBSTONE)) {
+      if (this.index < this.leaf.keyTally) {
+        this.index++;
+        continue;
+      }
+      this.leaf = (BPTreeLeafNode<TKey, TValue>) this.leaf.rightSibling;
+      this.index = 0;
+    }
+    if (this.leaf == this.fence) {
+      return false;
+    }
+    int i = this.index++;
+    this.size--;
+    action.accept(this.element.apply((TKey) this.leaf.keys[i], (TValue) this.leaf.values[i]));
+    return true;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // forEachRemaining
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public void forEachRemaining(Consumer<? super T> action) {
+    if (!this.started) {
+      this.start();
+    }
+    BPTreeLeafNode<TKey, TValue> nodePtr = this.leaf;
+    int i = this.index;
+    while (nodePtr != this.fence) {
+      for (; i < nodePtr.keyTally; i++) {
+        if (nodePtr.values[i] != BPTreeLeafNode.TOMBSTONE) {
+          action.accept(this.element.apply((TKey) nodePtr.keys[i], (TValue) nodePtr.values[i]));
+        }
+      }
+      nodePtr = (BPTreeLeafNode<TKey, TValue>) nodePtr.rightSibling;
+      i = 0;
+    }
+    this.leaf = this.fence;
+    this.index = 0;
+    this.size = 0;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // size and characteristics
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public long estimateSize() {
+    return Math.max(0, this.size);
+  }
+
+  @Override
+  public int characteristics() {
+    return this.isExact() ? this.characteristics | SIZED | SUBSIZED : this.characteristics;
+  }
+
+  /**
+   * @dev Whether the covered leaves are known directly, so their live key
+   *      counts add up to the exact size.
+   */
+  private boolean isExact() {
+    return this.inner == null || this.inner.counts != null || this.inner.getChild(this.lo).isLeaf();
+  }
+
+  private long computeSize() {
+    if (this.inner == null) {
+      return this.first.liveCount();
+    }
+    if (this.inner.counts != null) {
+      return this.inner.count(this.lo, this.hi);
+    }
+    if (this.isExact()) {
+      long total = 0;
+      for (int c = this.lo; c < this.hi; c++) {
+        total += ((BPTreeLeafNode<TKey, TValue>) this.inner.getChild(c)).liveCount();
+      }
+      return total;
+    }
+
+    // Children times the leaves below one child times the keys in a leaf,
+    // with the leftmost path standing in for the rest
+    long estimate = this.hi - this.lo;
+    BPTreeNode<TKey, TValue> node = this.inner.getChild(this.lo);
+    while (!node.isLeaf()) {
+      estimate *= node.keyTally + 1;
+      node = ((BPTreeInnerNode<TKey, TValue>) node).getChild(0);
+    }
+    return estimate * Math.max(1, node.keyTally);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // start
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  private void start() {
+    this.started = true;
+    this.leaf = this.inner == null ? this.first : leftmostLeaf(this.inner.getChild(this.lo));
+    this.index = 0;
+  }
+
+  private static <TKey extends Comparable<TKey>, TValue> BPTreeLeafNode<TKey, TValue> leftmostLeaf(
+      BPTreeNode<TKey, TValue> node) {
+    while (!node.isLeaf()) {
+      node = ((BPTreeInnerNode<TKey, TValue>) node).getChild(0);
+    }
+    return (BPTreeLeafNode<TKey, TValue>) node;
+  }
+}
@@ -0,0 +1,245 @@
+/**
+ * @dev Point-in-time copy of a BPTree's counters, taken by BPTree.getStats().
+ *      Counts cover the time since the tree was created or its stats were
+ *      last reset. Latency figures are in nanoseconds and are only recorded
+ *      while latency tracking is switched on for the tree.
+ */
+public class BPTreeStats {
+
+  private final long[] operationCounts;
+  private final long compares;
+  private final long nodeVisits;
+  private final long leafSplits;
+  private final long innerSplits;
+  private final long leftRedistributions;
+  private final long rightRedistributions;
+  private final long leftMerges;
+  private final long rightMerges;
+  private final long heightIncreases;
+  private final long heightDecreases;
+  private final long appendInserts;
+  private final long tombstones;
+  private final long cacheHits;
+  private final long cacheMisses;
+  private final long cacheEvictions;
+  private final int height;
+  private final long[][] latency;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  BPTreeStats(BPTreeContext<?, ?> context, int height, long[][] latency, BPTreeLookupCache<?, ?> cache) {
+    this.operationCounts = context.operationCounts.clone();
+    this.compares = context.compares;
+    this.nodeVisits = context.nodeVisits;
+    this.leafSplits = context.leafSplits;
+    this.innerSplits = context.innerSplits;
+    this.leftRedistributions = context.leftRedistributions;
+    this.rightRedistributions = context.rightRedistributions;
+    this.leftMerges = context.leftMerges;
+    this.rightMerges = context.rightMerges;
+    this.heightIncreases = context.heightIncreases;
+    this.heightDecreases = context.heightDecreases;
+    this.appendInserts = context.appendInserts;
+    this.tombstones = context.tombstones;
+    this.cacheHits = cache != null ? cache.hits : 0;
+    this.cacheMisses = cache != null ? cache.misses : 0;
+    this.cacheEvictions = cache != null ? cache.evictions : 0;
+    this.height = height;
+    this.latency = latency;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // operation counts
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Number of operations of the given kind. A batch call counts once
+   *      for each key in the batch.
+   */
+  public long getOperationCount(BPTreeOperation operation) {
+    return this.operationCounts[operation.ordinal()];
+  }
+
+  public long getOperationCount() {
+    long total = 0;
+    for (long count : this.operationCounts) {
+      total += count;
+    }
+    return total;
+  }
+
+  public long getCompareCount() {
+    return this.compares;
+  }
+
+  /**
+   * @dev Number of nodes searched on the way to answering an operation: one
+   *      per level of each descent, plus the leaves a scan walks through.
+   */
+  public long getNodeVisits() {
+    return this.nodeVisits;
+  }
+
+  public double getNodeVisitsPerOperation() {
+    long operations = this.getOperationCount();
+    return operations == 0 ? 0 : (double) this.nodeVisits / operations;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // structural changes
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public long getLeafSplits() {
+    return this.leafSplits;
+  }
+
+  public long getInnerSplits() {
+    return this.innerSplits;
+  }
+
+  /**
+   * @dev Deletes that refilled a node by borrowing from its left sibling.
+   */
+  public long getLeftRedistributions() {
+    return this.leftRedistributions;
+  }
+
+  /**
+   * @dev Deletes that refilled a node by borrowing from its right sibling.
+   */
+  public long getRightRedistributions() {
+    return this.rightRedistributions;
+  }
+
+  /**
+   * @dev Deletes that merged an underfull node into its left sibling.
+   */
+  public long getLeftMerges() {
+    return this.leftMerges;
+  }
+
+  /**
+   * @dev Deletes that merged an underfull node's right sibling into it.
+   */
+  public long getRightMerges() {
+    return this.rightMerges;
+  }
+
+  public long getHeightIncreases() {
+    return this.heightIncreases;
+  }
+
+  public long getHeightDecreases() {
+    return this.heightDecreases;
+  }
+
+  /**
+   * @dev Inserts above the largest key that went straight to the rightmost
+   *      leaf without a descent from the root.
+   */
+  public long getAppendInserts() {
+    return this.appendInserts;
+  }
+
+  /**
+   * @dev Entries deleted in lazy mode and still waiting for compact(). Not a
+   *      counter, so resetStats leaves it alone.
+   */
+  public long getTombstones() {
+    return this.tombstones;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // lookup cache
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Searches answered by the lookup cache. All cache figures read 0
+   *      while the tree has no lookup cache.
+   */
+  public long getCacheHits() {
+    return this.cacheHits;
+  }
+
+  public long getCacheMisses() {
+    return this.cacheMisses;
+  }
+
+  public double getCacheHitRate() {
+    long lookups = this.cacheHits + this.cacheMisses;
+    return lookups == 0 ? 0 : (double) this.cacheHits / lookups;
+  }
+
+  public long getCacheEvictions() {
+    return this.cacheEvictions;
+  }
+
+  /**
+   * @dev Number of levels, counting the leaves, when the stats were taken.
+   */
+  public int getHeight() {
+    return this.height;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // latency
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public boolean hasLatency() {
+    return this.latency != null;
+  }
+
+  /**
+   * @dev Number of timed operations of the given kind.
+   */
+  public long getLatencyCount(BPTreeOperation operation) {
+    return this.latency == null ? 0 : BPTreeLatencyHistogram.count(this.latency[operation.ordinal()]);
+  }
+
+  /**
+   * @dev Latency in nanoseconds that percentile percent of the timed
+   *      operations of the given kind stayed within, e.g. 99.9.
+   */
+  public long getLatencyPercentile(BPTreeOperation operation, double percentile) {
+    return this.latency == null ? 0
+        : BPTreeLatencyHistogram.valueAtPercentile(this.latency[operation.ordinal()], percentile);
+  }
+
+  public double getLatencyMean(BPTreeOperation operation) {
+    return this.latency == null ? 0 : BPTreeLatencyHistogram.mean(this.latency[operation.ordinal()]);
+  }
+
+  public long getLatencyMax(BPTreeOperation operation) {
+    return this.getLatencyPercentile(operation, 100);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // toString
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public String toString() {
+    StringBuilder res = new StringBuilder();
+    res.append("height=").append(this.height);
+    for (BPTreeOperation operation : BPTreeOperation.values()) {
+      res.append(' ').append(operation.name().toLowerCase()).append('=').append(this.getOperationCount(operation));
+    }
+    res.append(" compares=").append(this.compares);
+    res.append(" nodeVisits=").append(this.nodeVisits);
+    res.append(" splits=").append(this.leafSplits).append('/').append(this.innerSplits);
+    res.append(" redistributions=").append(this.leftRedistributions).append('/').append(this.rightRedistributions);
+    res.append(" merges=").append(this.leftMerges).append('/').append(this.rightMerges);
+    res.append(" heightChanges=+").append(this.heightIncreases).append("/-").append(this.heightDecreases);
+    if (this.latency != null) {
+      for (BPTreeOperation operation : BPTreeOperation.values()) {
+        res.append(' ').append(operation.name().toLowerCase()).append("P50/P99/max=")
+            .append(this.getLatencyPercentile(operation, 50)).append('/')
+            .append(this.getLatencyPercentile(operation, 99)).append('/')
+            .append(this.getLatencyMax(operation)).append("ns");
+      }
+    }
+    return res.toString();
+  }
+}
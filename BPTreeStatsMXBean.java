@@ -0,0 +1,78 @@
+/**
+ * @dev JMX view of a BPTree's stats, registered with BPTree.registerMBean.
+ *      Latencies are in nanoseconds and read 0 while latency tracking is off.
+ */
+public interface BPTreeStatsMXBean {
+
+  int getHeight();
+
+  long getInsertCount();
+
+  long getSearchCount();
+
+  long getDeleteCount();
+
+  long getScanCount();
+
+  long getBatchInsertCount();
+
+  long getBulkLoadCount();
+
+  long getCompareCount();
+
+  long getNodeVisits();
+
+  double getNodeVisitsPerOperation();
+
+  long getLeafSplits();
+
+  long getInnerSplits();
+
+  long getLeftRedistributions();
+
+  long getRightRedistributions();
+
+  long getLeftMerges();
+
+  long getRightMerges();
+
+  long getHeightIncreases();
+
+  long getHeightDecreases();
+
+  long getAppendInserts();
+
+  long getTombstones();
+
+  long getCacheHits();
+
+  long getCacheMisses();
+
+  double getCacheHitRate();
+
+  long getCacheEvictions();
+
+  long getInsertLatencyP50();
+
+  long getInsertLatencyP99();
+
+  long getInsertLatencyMax();
+
+  long getSearchLatencyP50();
+
+  long getSearchLatencyP99();
+
+  long getSearchLatencyMax();
+
+  long getDeleteLatencyP50();
+
+  long getDeleteLatencyP99();
+
+  long getDeleteLatencyMax();
+
+  long getBatchInsertLatencyMax();
+
+  long getBulkLoadLatencyMax();
+
+  void resetStats();
+}
@@ -0,0 +1,320 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * @dev Append-only log of logical inserts and deletes, written ahead of the
+ *      change it describes. A record is a type byte, the key, the value for
+ *      inserts, and a CRC32 of those bytes. Replay stops at the first record
+ *      that is cut short or fails its checksum and truncates the file there,
+ *      since that can only be a write the crash interrupted.
+ * @dev Group commit: append only buffers a record. sync makes it durable, and
+ *      the first writer to need an fsync leads: it waits up to the latency
+ *      budget for writers that have entered but not yet appended, then writes
+ *      and forces everything buffered in one go. Everyone else whose record
+ *      made it into that batch returns when it completes. A lone writer never
+ *      waits for the budget.
+ * 
+ * @param <TKey>   the data type of the key
+ * @param <TValue> the data type of the value
+ */
+class BPTreeWriteAheadLog<TKey extends Comparable<TKey>, TValue> {
+
+  static final byte INSERT = 1;
+  static final byte DELETE = 2;
+  private static final int CHECKSUM = Integer.BYTES;
+
+  private final FileChannel channel;
+  private final BPTreeCodec<TKey> keyCodec;
+  private final BPTreeCodec<TValue> valueCodec;
+  private final long budgetNanos;
+  private final CRC32 crc;
+
+  private final ReentrantLock lock;
+  private final Condition joined;
+  private final Condition flushed;
+  private ByteBuffer pending; // records appended since the last batch was taken
+  private ByteBuffer spare;   // buffer of the batch being written, reused afterwards
+  private long appendedSeq;
+  private long durableSeq;
+  private int registered;
+  private int syncing;
+  private boolean flushing;
+  private IOException failure;
+
+  // Number of batches written and forced, one fsync each, and the most
+  // records any one of them held
+  protected long batches;
+  protected long largestBatch;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  BPTreeWriteAheadLog(Path file, BPTreeCodec<TKey> keyCodec, BPTreeCodec<TValue> valueCodec, long groupCommitMicros)
+      throws IOException {
+    if (groupCommitMicros < 0) {
+      throw new IllegalArgumentException("group commit budget must not be negative, was " + groupCommitMicros);
+    }
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+    this.budgetNanos = TimeUnit.MICROSECONDS.toNanos(groupCommitMicros);
+    this.crc = new CRC32();
+    this.lock = new ReentrantLock();
+    this.joined = this.lock.newCondition();
+    this.flushed = this.lock.newCondition();
+    this.pending = ByteBuffer.allocate(64 * this.insertSize());
+    this.spare = ByteBuffer.allocate(64 * this.insertSize());
+  }
+
+  private int insertSize() {
+    return 1 + this.keyCodec.size() + this.valueCodec.size() + CHECKSUM;
+  }
+
+  private int deleteSize() {
+    return 1 + this.keyCodec.size() + CHECKSUM;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // replay
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Apply every intact record to tree in log order, drop a torn tail and
+   *      position the log for appending after the last intact record.
+   * @return the number of records applied
+   */
+  long replay(BPTree<TKey, TValue> tree) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(Math.max(1 << 16, this.insertSize()));
+    long readPosition = 0;
+    long position = 0;
+    long records = 0;
+    boolean eof = false;
+    buffer.flip();
+
+    for (;;) {
+      if (!eof && buffer.remaining() < this.insertSize()) {
+        buffer.compact();
+        int read = this.channel.read(buffer, readPosition);
+        if (read < 0) {
+          eof = true;
+        } else {
+          readPosition += read;
+        }
+        buffer.flip();
+        continue;
+      }
+      if (!buffer.hasRemaining()) {
+        break;
+      }
+      int start = buffer.position();
+      byte type = buffer.get(start);
+      int size = type == INSERT ? this.insertSize() : type == DELETE ? this.deleteSize() : -1;
+      if (size < 0 || buffer.remaining() < size) {
+        break;
+      }
+      this.crc.reset();
+      this.crc.update(buffer.array(), start, size - CHECKSUM);
+      if ((int) this.crc.getValue() != buffer.getInt(start + size - CHECKSUM)) {
+        break;
+      }
+
+      buffer.position(start + 1);
+      TKey key = this.keyCodec.decode(buffer);
+      if (type == INSERT) {
+        tree.insert(key, this.valueCodec.decode(buffer));
+      } else {
+        tree.delete(key);
+      }
+      buffer.position(start + size);
+      position += size;
+      records++;
+    }
+
+    this.channel.truncate(position);
+    this.channel.position(position);
+    return records;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // enter / leave
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Announce a writer that is about to append. A leader holds its fsync
+   *      back, within the budget, for writers that have entered but not yet
+   *      reached sync.
+   */
+  void enter() {
+    this.lock.lock();
+    try {
+      this.registered++;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  void leave() {
+    this.lock.lock();
+    try {
+      this.registered--;
+      this.joined.signal();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // append
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Buffer one record and return its sequence number for sync. Records
+   *      reach the file in the order they are appended. Once a batch has
+   *      failed to reach the disk the log takes no more records.
+   * @param value - ignored for DELETE
+   */
+  long append(byte type, TKey key, TValue value) throws IOException {
+    this.lock.lock();
+    try {
+      if (this.failure != null) {
+        throw new IOException("an earlier log write failed", this.failure);
+      }
+      int size = type == INSERT ? this.insertSize() : this.deleteSize();
+      if (this.pending.remaining() < size) {
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(this.pending.capacity() * 2, this.pending.position() + size));
+        this.pending.flip();
+        grown.put(this.pending);
+        this.pending = grown;
+      }
+
+      int start = this.pending.position();
+      try {
+        this.pending.put(type);
+        this.keyCodec.encode(key, this.pending);
+        if (type == INSERT) {
+          this.valueCodec.encode(value, this.pending);
+        }
+      } catch (RuntimeException e) {
+        this.pending.position(start); // a key or value the codec rejects leaves no partial record
+        throw e;
+      }
+      this.crc.reset();
+      this.crc.update(this.pending.array(), start, size - CHECKSUM);
+      this.pending.putInt((int) this.crc.getValue());
+      return ++this.appendedSeq;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // sync
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Return once the record with sequence number seq, and everything
+   *      appended before it, is on stable storage.
+   */
+  void sync(long seq) throws IOException {
+    this.lock.lock();
+    this.syncing++;
+    this.joined.signal();
+    try {
+      while (this.durableSeq < seq) {
+        if (this.failure != null) {
+          throw new IOException("an earlier log write failed", this.failure);
+        }
+        if (this.flushing) {
+          this.flushed.awaitUninterruptibly();
+          continue;
+        }
+        this.flushing = true;
+        try {
+          this.awaitJoiners();
+          this.flushBatch();
+        } finally {
+          this.flushing = false;
+          this.flushed.signalAll();
+        }
+      }
+    } finally {
+      this.syncing--;
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * @dev Leader only: give writers that have entered but not yet appended
+   *      until the budget runs out to join this batch.
+   */
+  private void awaitJoiners() throws IOException {
+    long remaining = this.budgetNanos;
+    while (this.syncing < this.registered && remaining > 0) {
+      try {
+        remaining = this.joined.awaitNanos(remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted while waiting to group commit");
+      }
+    }
+  }
+
+  /**
+   * @dev Leader only: take everything appended so far, write it and force it
+   *      without holding the lock, so new records can be appended meanwhile.
+   */
+  private void flushBatch() throws IOException {
+    ByteBuffer batch = this.pending;
+    long batchSeq = this.appendedSeq;
+    this.pending = this.spare;
+    this.lock.unlock();
+    try {
+      batch.flip();
+      while (batch.hasRemaining()) {
+        this.channel.write(batch);
+      }
+      this.channel.force(false);
+    } catch (IOException e) {
+      this.lock.lock();
+      this.failure = e;
+      throw e;
+    }
+    this.lock.lock();
+    batch.clear();
+    this.spare = batch;
+    this.largestBatch = Math.max(this.largestBatch, batchSeq - this.durableSeq);
+    this.durableSeq = batchSeq;
+    this.batches++;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // close
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Make every appended record durable and close the file.
+   */
+  void close() throws IOException {
+    try {
+      long seq;
+      this.lock.lock();
+      try {
+        seq = this.appendedSeq;
+      } finally {
+        this.lock.unlock();
+      }
+      this.sync(seq);
+    } finally {
+      this.channel.close();
+    }
+  }
+}
@@ -0,0 +1,594 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * @dev A thread-safe B+ tree built on optimistic lock coupling.
+ * @dev Readers take no latches. They descend by noting each node's version,
+ *      reading it, and validating the version before trusting what they read;
+ *      a failed validation restarts the lookup from the root.
+ * @dev Writers first try the same optimistic descent and upgrade only the
+ *      leaf to a write lock. That covers every insert that does not split and
+ *      every delete that does not underflow. Otherwise the writer restarts
+ *      pessimistically: it write-locks top-down and releases ancestors as soon
+ *      as a node cannot be affected by a split (or merge) below it. Siblings
+ *      needed for a merge or redistribution are try-locked before anything is
+ *      changed, so a writer never blocks while holding a sibling.
+ * @dev values() is weakly consistent: each leaf is read consistently, but
+ *      writes to leaves already passed are not reflected.
+ * 
+ * @param <TKey>   the data type of the key
+ * @param <TValue> the data type of the value
+ */
+@SuppressWarnings("unchecked")
+public class ConcurrentBPTree<TKey extends Comparable<TKey>, TValue> {
+
+  private volatile ConcurrentBPTreeNode<TKey, TValue> root;
+  private final int m;
+  private final BPTreeSearchMode searchMode;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public ConcurrentBPTree(int order) {
+    this(order, BPTreeSearchMode.BINARY);
+  }
+
+  public ConcurrentBPTree(int order, BPTreeSearchMode searchMode) {
+    if (order < 3) {
+      throw new IllegalArgumentException("order must be at least 3, was " + order);
+    }
+    this.m = order;
+    this.searchMode = searchMode;
+    this.root = new ConcurrentBPTreeLeafNode<TKey, TValue>(order);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // search
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Search a key on the tree and return its associated value, or null.
+   *      Never blocks and never writes to shared state.
+   */
+  public TValue search(TKey key) {
+    if (key == null) {
+      throw new NullPointerException("key");
+    }
+    for (;;) {
+      ConcurrentBPTreeNode<TKey, TValue> node = this.root;
+      long v = node.readLock();
+      try {
+        if (v == ConcurrentBPTreeNode.RESTART || node != this.root) {
+          Thread.onSpinWait();
+          continue;
+        }
+        boolean restart = false;
+        while (!node.isLeaf()) {
+          ConcurrentBPTreeInnerNode<TKey, TValue> inner = (ConcurrentBPTreeInnerNode<TKey, TValue>) node;
+          ConcurrentBPTreeNode<TKey, TValue> child = inner.getChild(inner.searchKeys(key, true, this.searchMode));
+          long childVersion = child.readLock();
+          if (childVersion == ConcurrentBPTreeNode.RESTART || !inner.validate(v)) {
+            restart = true;
+            break;
+          }
+          node = child;
+          v = childVersion;
+        }
+        if (restart) {
+          continue;
+        }
+        int index = node.findKey(key, this.searchMode);
+        Object value = index >= 0 ? ((ConcurrentBPTreeLeafNode<TKey, TValue>) node).values[index] : null;
+        if (node.validate(v)) {
+          return (TValue) value;
+        }
+      } catch (RuntimeException e) {
+        // A torn read can surface as a null key or an index past the live keys
+        if (node.validate(v)) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // insert
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Insert a key and its value, replacing the value if the key exists.
+   */
+  public void insert(TKey key, TValue value) {
+    if (key == null) {
+      throw new NullPointerException("key");
+    }
+    ConcurrentBPTreeLeafNode<TKey, TValue> leaf = this.lockLeafOptimistically(key, true);
+    if (leaf != null) {
+      int index = leaf.findKey(key, this.searchMode);
+      if (index >= 0) {
+        leaf.values[index] = value;
+      } else {
+        this.openSlot(leaf, -index - 1, key, value);
+      }
+      leaf.writeUnlock();
+      return;
+    }
+    this.insertPessimistically(key, value);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // delete
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Delete a key and its associated value from the tree.
+   */
+  public void delete(TKey key) {
+    if (key == null) {
+      throw new NullPointerException("key");
+    }
+    ConcurrentBPTreeLeafNode<TKey, TValue> leaf = this.lockLeafOptimistically(key, false);
+    if (leaf != null) {
+      int index = leaf.findKey(key, this.searchMode);
+      if (index >= 0) {
+        this.removeSlot(leaf, index);
+      }
+      leaf.writeUnlock();
+      return;
+    }
+    this.deletePessimistically(key);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // values
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Return all values in ascending key order, one consistent leaf at a
+   *      time. When a leaf changes under the scan, the scan re-descends to the
+   *      last key it returned and carries on from there.
+   */
+  public TValue[] values() {
+    ArrayList<Object> result = new ArrayList<Object>();
+    Object[] keyBuffer = new Object[this.m];
+    Object[] valueBuffer = new Object[this.m];
+    TKey lastKey = null;
+
+    scan: for (;;) {
+      ConcurrentBPTreeLeafNode<TKey, TValue> leaf = null;
+      long v = ConcurrentBPTreeNode.RESTART;
+
+      // Descend to the leaf holding lastKey, or the leftmost leaf
+      ConcurrentBPTreeNode<TKey, TValue> node = this.root;
+      try {
+        v = node.readLock();
+        if (v == ConcurrentBPTreeNode.RESTART || node != this.root) {
+          continue;
+        }
+        while (!node.isLeaf()) {
+          ConcurrentBPTreeInnerNode<TKey, TValue> inner = (ConcurrentBPTreeInnerNode<TKey, TValue>) node;
+          int index = lastKey == null ? 0 : inner.searchKeys(lastKey, true, this.searchMode);
+          ConcurrentBPTreeNode<TKey, TValue> child = inner.getChild(index);
+          long childVersion = child.readLock();
+          if (childVersion == ConcurrentBPTreeNode.RESTART || !inner.validate(v)) {
+            continue scan;
+          }
+          node = child;
+          v = childVersion;
+        }
+        leaf = (ConcurrentBPTreeLeafNode<TKey, TValue>) node;
+
+        // Copy leaves along the sequence set, validating each before keeping its entries
+        while (leaf != null) {
+          int tally = leaf.keyTally;
+          System.arraycopy(leaf.keys, 0, keyBuffer, 0, tally);
+          System.arraycopy(leaf.values, 0, valueBuffer, 0, tally);
+          ConcurrentBPTreeLeafNode<TKey, TValue> next = leaf.rightSibling;
+          long nextVersion = next == null ? 0 : next.readLock();
+          if (nextVersion == ConcurrentBPTreeNode.RESTART || !leaf.validate(v)) {
+            continue scan;
+          }
+          for (int i = 0; i < tally; i++) {
+            if (lastKey == null || ((TKey) keyBuffer[i]).compareTo(lastKey) > 0) {
+              result.add(valueBuffer[i]);
+              lastKey = (TKey) keyBuffer[i];
+            }
+          }
+          leaf = next;
+          v = nextVersion;
+        }
+        return (TValue[]) result.toArray();
+      } catch (RuntimeException e) {
+        ConcurrentBPTreeNode<TKey, TValue> current = leaf != null ? leaf : node;
+        if (current.validate(v)) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // lockLeafOptimistically
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Optimistic descent for writers. Returns the write-locked leaf for key
+   *      if the change can be made in that leaf alone, or null if a split (on
+   *      insert) or underflow (on delete) may be needed.
+   */
+  private ConcurrentBPTreeLeafNode<TKey, TValue> lockLeafOptimistically(TKey key, boolean inserting) {
+    for (;;) {
+      ConcurrentBPTreeNode<TKey, TValue> node = this.root;
+      long v = node.readLock();
+      try {
+        if (v == ConcurrentBPTreeNode.RESTART || node != this.root) {
+          Thread.onSpinWait();
+          continue;
+        }
+        boolean isRoot = true;
+        boolean restart = false;
+        while (!node.isLeaf()) {
+          ConcurrentBPTreeInnerNode<TKey, TValue> inner = (ConcurrentBPTreeInnerNode<TKey, TValue>) node;
+          ConcurrentBPTreeNode<TKey, TValue> child = inner.getChild(inner.searchKeys(key, true, this.searchMode));
+          long childVersion = child.readLock();
+          if (childVersion == ConcurrentBPTreeNode.RESTART || !inner.validate(v)) {
+            restart = true;
+            break;
+          }
+          node = child;
+          v = childVersion;
+          isRoot = false;
+        }
+        if (restart) {
+          continue;
+        }
+
+        boolean fitsInLeaf = inserting
+            ? node.keyTally < this.m - 1
+            : isRoot || node.keyTally > this.minLeafKeys();
+        if (!node.validate(v)) {
+          continue;
+        }
+        if (!fitsInLeaf) {
+          return null;
+        }
+        if (node.tryUpgrade(v)) {
+          return (ConcurrentBPTreeLeafNode<TKey, TValue>) node;
+        }
+      } catch (RuntimeException e) {
+        if (node.validate(v)) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // lockPath
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Pessimistic descent. Write-locks from the root down, recording the
+   *      path and child indices. Whenever a node is safe, meaning a change
+   *      below cannot reach its parent, every lock above it is released. On
+   *      return path[top..depth] are locked and path[depth] is the leaf.
+   */
+  private int lockPath(TKey key, boolean inserting, ConcurrentBPTreeNode<TKey, TValue>[] path, int[] childIndex, int[] top) {
+    for (;;) {
+      ConcurrentBPTreeNode<TKey, TValue> node = this.root;
+      if (!node.writeLock()) {
+        continue;
+      }
+      if (node != this.root) {
+        node.writeUnlock();
+        continue;
+      }
+      int depth = 0;
+      top[0] = 0;
+      path[0] = node;
+      while (!node.isLeaf()) {
+        ConcurrentBPTreeInnerNode<TKey, TValue> inner = (ConcurrentBPTreeInnerNode<TKey, TValue>) node;
+        int index = inner.searchKeys(key, true, this.searchMode);
+        ConcurrentBPTreeNode<TKey, TValue> child = inner.getChild(index);
+        child.writeLock(); // a child of a locked parent cannot be obsolete
+        childIndex[depth] = index;
+        path[++depth] = child;
+        if (this.isSafe(child, inserting)) {
+          for (int i = top[0]; i < depth; i++) {
+            path[i].writeUnlock();
+          }
+          top[0] = depth;
+        }
+        node = child;
+      }
+      return depth;
+    }
+  }
+
+  private boolean isSafe(ConcurrentBPTreeNode<TKey, TValue> node, boolean inserting) {
+    if (inserting) {
+      return node.keyTally < this.m - 1;
+    }
+    return node.keyTally > (node.isLeaf() ? this.minLeafKeys() : this.minInnerKeys());
+  }
+
+  private int minLeafKeys() {
+    return this.m / 2;
+  }
+
+  private int minInnerKeys() {
+    return (this.m - 1) / 2;
+  }
+
+  @SuppressWarnings("rawtypes")
+  private ConcurrentBPTreeNode<TKey, TValue>[] newPath() {
+    return (ConcurrentBPTreeNode<TKey, TValue>[]) new ConcurrentBPTreeNode[64];
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // insertPessimistically
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  private void insertPessimistically(TKey key, TValue value) {
+    ConcurrentBPTreeNode<TKey, TValue>[] path = this.newPath();
+    int[] childIndex = new int[64];
+    int[] top = new int[1];
+    int depth = this.lockPath(key, true, path, childIndex, top);
+    ConcurrentBPTreeLeafNode<TKey, TValue> leaf = (ConcurrentBPTreeLeafNode<TKey, TValue>) path[depth];
+
+    int index = leaf.findKey(key, this.searchMode);
+    if (index >= 0) {
+      leaf.values[index] = value;
+    } else {
+      this.openSlot(leaf, -index - 1, key, value);
+      if (leaf.keyTally == this.m) {
+        this.splitPath(path, childIndex, top[0], depth);
+      }
+    }
+    for (int i = top[0]; i <= depth; i++) {
+      path[i].writeUnlock();
+    }
+  }
+
+  /**
+   * @dev splitNode for the concurrent tree: split the full leaf at depth and
+   *      carry separators up the locked path. New nodes are fully built before
+   *      the locked parent publishes them.
+   */
+  private void splitPath(ConcurrentBPTreeNode<TKey, TValue>[] path, int[] childIndex, int top, int depth) {
+    ConcurrentBPTreeLeafNode<TKey, TValue> leaf = (ConcurrentBPTreeLeafNode<TKey, TValue>) path[depth];
+    ConcurrentBPTreeLeafNode<TKey, TValue> right = new ConcurrentBPTreeLeafNode<TKey, TValue>(this.m);
+    int splitIndex = this.m / 2;
+    leaf.moveTo(splitIndex, leaf.keyTally - splitIndex, right, 0);
+    right.rightSibling = leaf.rightSibling;
+    leaf.rightSibling = right;
+
+    Object separator = right.keys[0];
+    ConcurrentBPTreeNode<TKey, TValue> newChild = right;
+    for (int level = depth - 1; level >= top; level--) {
+      ConcurrentBPTreeInnerNode<TKey, TValue> parent = (ConcurrentBPTreeInnerNode<TKey, TValue>) path[level];
+      parent.insertSeparator(childIndex[level], separator, newChild);
+      if (parent.keyTally < this.m) {
+        return;
+      }
+      int middleIndex = this.m / 2;
+      ConcurrentBPTreeInnerNode<TKey, TValue> sibling = new ConcurrentBPTreeInnerNode<TKey, TValue>(this.m);
+      int keysMoved = parent.keyTally - middleIndex - 1;
+      System.arraycopy(parent.keys, middleIndex + 1, sibling.keys, 0, keysMoved);
+      System.arraycopy(parent.references, middleIndex + 1, sibling.references, 0, keysMoved + 1);
+      separator = parent.keys[middleIndex];
+      Arrays.fill(parent.keys, middleIndex, parent.keyTally, null);
+      Arrays.fill(parent.references, middleIndex + 1, parent.keyTally + 1, null);
+      sibling.keyTally = keysMoved;
+      parent.keyTally = middleIndex;
+      newChild = sibling;
+    }
+
+    // Only reachable when path[top] is the root: its lock guards the root field
+    ConcurrentBPTreeInnerNode<TKey, TValue> newRoot = new ConcurrentBPTreeInnerNode<TKey, TValue>(this.m);
+    newRoot.keys[0] = separator;
+    newRoot.references[0] = path[top];
+    newRoot.references[1] = newChild;
+    newRoot.keyTally = 1;
+    this.root = newRoot;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // deletePessimistically
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  private void deletePessimistically(TKey key) {
+    ConcurrentBPTreeNode<TKey, TValue>[] path = this.newPath();
+    ConcurrentBPTreeNode<TKey, TValue>[] siblings = this.newPath();
+    int[] childIndex = new int[64];
+    int[] top = new int[1];
+
+    for (;;) {
+      int depth = this.lockPath(key, false, path, childIndex, top);
+      ConcurrentBPTreeLeafNode<TKey, TValue> leaf = (ConcurrentBPTreeLeafNode<TKey, TValue>) path[depth];
+      int index = leaf.findKey(key, this.searchMode);
+      if (index < 0) {
+        this.unlockAll(path, siblings, top[0], depth);
+        return;
+      }
+
+      // Every node below top may underflow: lock a sibling for each before touching anything
+      boolean locked = true;
+      for (int level = top[0] + 1; level <= depth; level++) {
+        ConcurrentBPTreeInnerNode<TKey, TValue> parent = (ConcurrentBPTreeInnerNode<TKey, TValue>) path[level - 1];
+        int sibling = childIndex[level - 1] > 0 ? childIndex[level - 1] - 1 : childIndex[level - 1] + 1;
+        siblings[level] = parent.getChild(sibling);
+        if (!this.tryWriteLockBriefly(siblings[level])) {
+          siblings[level] = null;
+          locked = false;
+          break;
+        }
+      }
+      if (!locked) {
+        this.unlockAll(path, siblings, top[0], depth);
+        Thread.yield();
+        continue;
+      }
+
+      this.removeSlot(leaf, index);
+      this.rebalancePath(path, siblings, childIndex, top[0], depth);
+      return;
+    }
+  }
+
+  private boolean tryWriteLockBriefly(ConcurrentBPTreeNode<TKey, TValue> node) {
+    for (int attempt = 0; attempt < 64; attempt++) {
+      if (node.tryWriteLock()) {
+        return true;
+      }
+      Thread.onSpinWait();
+    }
+    return false;
+  }
+
+  private void unlockAll(ConcurrentBPTreeNode<TKey, TValue>[] path, ConcurrentBPTreeNode<TKey, TValue>[] siblings,
+      int top, int depth) {
+    for (int i = top; i <= depth; i++) {
+      path[i].writeUnlock();
+      if (siblings[i] != null) {
+        siblings[i].writeUnlock();
+        siblings[i] = null;
+      }
+    }
+  }
+
+  /**
+   * @dev Fix underflow from the leaf upwards using the locked path and the
+   *      pre-locked siblings: redistribute when the sibling can spare a key,
+   *      otherwise merge and remove the separator from the parent. A node that
+   *      is merged away is released as obsolete. An emptied root is replaced
+   *      by its only child.
+   */
+  private void rebalancePath(ConcurrentBPTreeNode<TKey, TValue>[] path, ConcurrentBPTreeNode<TKey, TValue>[] siblings,
+      int[] childIndex, int top, int depth) {
+    ConcurrentBPTreeNode<TKey, TValue> obsolete = null;
+    int level = depth;
+    while (level > top) {
+      ConcurrentBPTreeNode<TKey, TValue> node = path[level];
+      boolean underflow = node.keyTally < (node.isLeaf() ? this.minLeafKeys() : this.minInnerKeys());
+      if (!underflow) {
+        break;
+      }
+      ConcurrentBPTreeInnerNode<TKey, TValue> parent = (ConcurrentBPTreeInnerNode<TKey, TValue>) path[level - 1];
+      int index = childIndex[level - 1];
+      boolean siblingIsLeft = index > 0;
+      int separator = siblingIsLeft ? index - 1 : index;
+      ConcurrentBPTreeNode<TKey, TValue> sibling = siblings[level];
+      ConcurrentBPTreeNode<TKey, TValue> left = siblingIsLeft ? sibling : node;
+      ConcurrentBPTreeNode<TKey, TValue> right = siblingIsLeft ? node : sibling;
+
+      if (node.isLeaf()) {
+        ConcurrentBPTreeLeafNode<TKey, TValue> leftLeaf = (ConcurrentBPTreeLeafNode<TKey, TValue>) left;
+        ConcurrentBPTreeLeafNode<TKey, TValue> rightLeaf = (ConcurrentBPTreeLeafNode<TKey, TValue>) right;
+        if (sibling.keyTally > this.minLeafKeys()) {
+          if (siblingIsLeft) {
+            leftLeaf.moveTo(leftLeaf.keyTally - 1, 1, rightLeaf, 0);
+          } else {
+            rightLeaf.moveTo(0, 1, leftLeaf, leftLeaf.keyTally);
+          }
+          parent.keys[separator] = rightLeaf.keys[0];
+          break;
+        }
+        rightLeaf.moveTo(0, rightLeaf.keyTally, leftLeaf, leftLeaf.keyTally);
+        leftLeaf.rightSibling = rightLeaf.rightSibling;
+      } else {
+        ConcurrentBPTreeInnerNode<TKey, TValue> leftInner = (ConcurrentBPTreeInnerNode<TKey, TValue>) left;
+        ConcurrentBPTreeInnerNode<TKey, TValue> rightInner = (ConcurrentBPTreeInnerNode<TKey, TValue>) right;
+        if (sibling.keyTally > this.minInnerKeys()) {
+          this.rotate(parent, separator, leftInner, rightInner, siblingIsLeft);
+          break;
+        }
+        leftInner.keys[leftInner.keyTally] = parent.keys[separator];
+        System.arraycopy(rightInner.keys, 0, leftInner.keys, leftInner.keyTally + 1, rightInner.keyTally);
+        System.arraycopy(rightInner.references, 0, leftInner.references, leftInner.keyTally + 1, rightInner.keyTally + 1);
+        leftInner.keyTally += rightInner.keyTally + 1;
+      }
+
+      // Merged: right is gone, its separator leaves the parent
+      parent.removeSeparator(separator);
+      if (right == node) {
+        path[level] = null;
+      } else {
+        siblings[level] = null;
+      }
+      right.writeUnlockObsolete();
+      level--;
+    }
+
+    // Collapse an empty root. Its lock, held as path[top], guards the root field
+    ConcurrentBPTreeNode<TKey, TValue> topNode = path[top];
+    if (topNode == this.root && !topNode.isLeaf() && topNode.keyTally == 0) {
+      this.root = ((ConcurrentBPTreeInnerNode<TKey, TValue>) topNode).getChild(0);
+      path[top] = null;
+      obsolete = topNode;
+    }
+
+    for (int i = top; i <= depth; i++) {
+      if (path[i] != null) {
+        path[i].writeUnlock();
+      }
+      if (siblings[i] != null) {
+        siblings[i].writeUnlock();
+        siblings[i] = null;
+      }
+    }
+    if (obsolete != null) {
+      obsolete.writeUnlockObsolete();
+    }
+  }
+
+  /**
+   * @dev Redistribute one key between two inner siblings through their
+   *      separator in the parent.
+   */
+  private void rotate(ConcurrentBPTreeInnerNode<TKey, TValue> parent, int separator,
+      ConcurrentBPTreeInnerNode<TKey, TValue> left, ConcurrentBPTreeInnerNode<TKey, TValue> right, boolean fromLeft) {
+    if (fromLeft) {
+      System.arraycopy(right.keys, 0, right.keys, 1, right.keyTally);
+      System.arraycopy(right.references, 0, right.references, 1, right.keyTally + 1);
+      right.keys[0] = parent.keys[separator];
+      right.references[0] = left.references[left.keyTally];
+      right.keyTally++;
+      parent.keys[separator] = left.keys[left.keyTally - 1];
+      left.keys[left.keyTally - 1] = null;
+      left.references[left.keyTally] = null;
+      left.keyTally--;
+    } else {
+      left.keys[left.keyTally] = parent.keys[separator];
+      left.references[left.keyTally + 1] = right.references[0];
+      left.keyTally++;
+      parent.keys[separator] = right.keys[0];
+      System.arraycopy(right.keys, 1, right.keys, 0, right.keyTally - 1);
+      System.arraycopy(right.references, 1, right.references, 0, right.keyTally);
+      right.keys[right.keyTally - 1] = null;
+      right.references[right.keyTally] = null;
+      right.keyTally--;
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // leaf slots
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  private void openSlot(ConcurrentBPTreeLeafNode<TKey, TValue> leaf, int index, TKey key, TValue value) {
+    System.arraycopy(leaf.keys, index, leaf.keys, index + 1, leaf.keyTally - index);
+    System.arraycopy(leaf.values, index, leaf.values, index + 1, leaf.keyTally - index);
+    leaf.keys[index] = key;
+    leaf.values[index] = value;
+    leaf.keyTally++;
+  }
+
+  private void removeSlot(ConcurrentBPTreeLeafNode<TKey, TValue> leaf, int index) {
+    System.arraycopy(leaf.keys, index + 1, leaf.keys, index, leaf.keyTally - index - 1);
+    System.arraycopy(leaf.values, index + 1, leaf.values, index, leaf.keyTally - index - 1);
+    leaf.keyTally--;
+    leaf.keys[leaf.keyTally] = null;
+    leaf.values[leaf.keyTally] = null;
+  }
+}
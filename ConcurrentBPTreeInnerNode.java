@@ -0,0 +1,38 @@
+/**
+ * An internal node of a ConcurrentBPTree.
+ */
+@SuppressWarnings("unchecked")
+class ConcurrentBPTreeInnerNode<TKey extends Comparable<TKey>, TValue> extends ConcurrentBPTreeNode<TKey, TValue> {
+
+  protected Object[] references;
+
+  public ConcurrentBPTreeInnerNode(int order) {
+    super(order);
+    this.references = new Object[order + 1];
+  }
+
+  public ConcurrentBPTreeNode<TKey, TValue> getChild(int index) {
+    return (ConcurrentBPTreeNode<TKey, TValue>) this.references[index];
+  }
+
+  @Override
+  public boolean isLeaf() {
+    return false;
+  }
+
+  void insertSeparator(int index, Object key, ConcurrentBPTreeNode<TKey, TValue> rightChild) {
+    System.arraycopy(this.keys, index, this.keys, index + 1, this.keyTally - index);
+    System.arraycopy(this.references, index + 1, this.references, index + 2, this.keyTally - index);
+    this.keys[index] = key;
+    this.references[index + 1] = rightChild;
+    this.keyTally++;
+  }
+
+  void removeSeparator(int index) {
+    System.arraycopy(this.keys, index + 1, this.keys, index, this.keyTally - index - 1);
+    System.arraycopy(this.references, index + 2, this.references, index + 1, this.keyTally - index - 1);
+    this.keys[this.keyTally - 1] = null;
+    this.references[this.keyTally] = null;
+    this.keyTally--;
+  }
+}
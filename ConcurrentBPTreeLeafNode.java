@@ -0,0 +1,41 @@
+import java.util.Arrays;
+
+/**
+ * A leaf node of a ConcurrentBPTree.
+ * @dev Leaves are only linked to the right. rightSibling is written while
+ *      holding this leaf's lock, so a reader that validates this leaf after
+ *      reading it has seen the right neighbour of a consistent snapshot.
+ */
+class ConcurrentBPTreeLeafNode<TKey extends Comparable<TKey>, TValue> extends ConcurrentBPTreeNode<TKey, TValue> {
+
+  protected Object[] values;
+  protected ConcurrentBPTreeLeafNode<TKey, TValue> rightSibling;
+
+  public ConcurrentBPTreeLeafNode(int order) {
+    super(order);
+    this.values = new Object[order];
+  }
+
+  @Override
+  public boolean isLeaf() {
+    return true;
+  }
+
+  /**
+   * @dev Move count entries from position from into target at position at,
+   *      shifting what is already there and closing the gap left behind.
+   */
+  void moveTo(int from, int count, ConcurrentBPTreeLeafNode<TKey, TValue> target, int at) {
+    System.arraycopy(target.keys, at, target.keys, at + count, target.keyTally - at);
+    System.arraycopy(target.values, at, target.values, at + count, target.keyTally - at);
+    System.arraycopy(this.keys, from, target.keys, at, count);
+    System.arraycopy(this.values, from, target.values, at, count);
+    target.keyTally += count;
+
+    System.arraycopy(this.keys, from + count, this.keys, from, this.keyTally - from - count);
+    System.arraycopy(this.values, from + count, this.values, from, this.keyTally - from - count);
+    Arrays.fill(this.keys, this.keyTally - count, this.keyTally, null);
+    Arrays.fill(this.values, this.keyTally - count, this.keyTally, null);
+    this.keyTally -= count;
+  }
+}
@@ -0,0 +1,157 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A node of a ConcurrentBPTree. Besides its keys, every node carries an
+ * optimistic version lock.
+ * @dev version layout: bit 0 marks the node obsolete (unlinked by a merge),
+ *      bit 1 is the write lock and the remaining bits count completed writes.
+ *      Readers never write to a node: they note the version, read, and then
+ *      validate that the version did not move. Writers set the lock bit with
+ *      a CAS and bump the counter when they release it.
+ * 
+ * @param <TKey>   the data type of the key
+ * @param <TValue> the data type of the value
+ */
+abstract class ConcurrentBPTreeNode<TKey extends Comparable<TKey>, TValue> {
+
+  static final long RESTART = -1L;
+  private static final long OBSOLETE = 0b01L;
+  private static final long LOCKED = 0b10L;
+  private static final VarHandle VERSION;
+
+  static {
+    try {
+      VERSION = MethodHandles.lookup().findVarHandle(ConcurrentBPTreeNode.class, "version", long.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  protected volatile long version;
+  protected Object[] keys;
+  protected int keyTally;
+  protected int m;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  protected ConcurrentBPTreeNode(int order) {
+    this.m = order;
+    this.keys = new Object[order];
+    this.keyTally = 0;
+  }
+
+  public abstract boolean isLeaf();
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // optimistic reads
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Version to validate a read against, or RESTART if the node is
+   *      locked or obsolete right now.
+   */
+  long readLock() {
+    long v = this.version;
+    return (v & (LOCKED | OBSOLETE)) != 0 ? RESTART : v;
+  }
+
+  /**
+   * @dev Whether everything read from this node since readLock returned v was
+   *      consistent. The fence keeps those plain reads from moving below the
+   *      version check.
+   */
+  boolean validate(long v) {
+    VarHandle.acquireFence();
+    return this.version == v;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // write locks
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Turn an optimistic read into a write lock, failing if anything has
+   *      changed since v was read.
+   */
+  boolean tryUpgrade(long v) {
+    return VERSION.compareAndSet(this, v, v | LOCKED);
+  }
+
+  boolean tryWriteLock() {
+    long v = this.readLock();
+    return v != RESTART && this.tryUpgrade(v);
+  }
+
+  /**
+   * @dev Spin until the write lock is held. Fails only when the node became
+   *      obsolete, in which case the caller must start over from the root.
+   */
+  boolean writeLock() {
+    for (;;) {
+      long v = this.version;
+      if ((v & OBSOLETE) != 0) {
+        return false;
+      }
+      if ((v & LOCKED) == 0 && this.tryUpgrade(v)) {
+        return true;
+      }
+      Thread.onSpinWait();
+    }
+  }
+
+  void writeUnlock() {
+    VERSION.setRelease(this, this.version + LOCKED);
+  }
+
+  /**
+   * @dev Release the lock and mark the node as unlinked from the tree, so
+   *      readers that still hold a reference to it restart.
+   */
+  void writeUnlockObsolete() {
+    VERSION.setRelease(this, this.version + LOCKED + OBSOLETE);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // searchKeys
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Same contract as BPTreeNode.searchKeys. Under an optimistic read the
+   *      keys may be torn; the caller validates the version afterwards.
+   */
+  @SuppressWarnings("unchecked")
+  protected int searchKeys(TKey key, boolean upper, BPTreeSearchMode mode) {
+    int threshold = upper ? 0 : 1;
+    int tally = this.keyTally;
+    if (mode == BPTreeSearchMode.LINEAR) {
+      int count = 0;
+      for (int i = 0; i < tally; i++) {
+        count += key.compareTo((TKey) this.keys[i]) >= threshold ? 1 : 0;
+      }
+      return count;
+    }
+    int low = 0;
+    int high = tally;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (key.compareTo((TKey) this.keys[mid]) >= threshold) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  @SuppressWarnings("unchecked")
+  protected int findKey(TKey key, BPTreeSearchMode mode) {
+    int index = this.searchKeys(key, false, mode);
+    if (index < this.keyTally && key.compareTo((TKey) this.keys[index]) == 0) {
+      return index;
+    }
+    return -index - 1;
+  }
+}
@@ -0,0 +1,148 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+
+/**
+ * @dev A BPTree whose inserts and deletes are recorded in a write-ahead log
+ *      before they are acknowledged. Opening the tree replays the log into a
+ *      fresh BPTree, so after a crash it holds every acknowledged change.
+ * @dev Any number of threads may call insert and delete. The tree itself is
+ *      guarded by a single lock, held while a record is appended and again
+ *      while changes are applied, but not during the wait for the disk, so
+ *      writers that arrive within the group commit budget share one fsync.
+ * @dev A change is applied only once its record is durable, and changes are
+ *      applied in log order, so readers never see a change a crash could
+ *      undo. If a log write fails, the changes it carried are never applied
+ *      and every later insert or delete throws.
+ * @dev The log is never checkpointed or truncated. It grows with every
+ *      write, and so does the time it takes to open the tree.
+ * 
+ * @param <TKey>   the data type of the key
+ * @param <TValue> the data type of the value
+ */
+public class DurableBPTree<TKey extends Comparable<TKey>, TValue> implements Closeable {
+
+  private final BPTree<TKey, TValue> tree;
+  private final BPTreeWriteAheadLog<TKey, TValue> log;
+
+  // Changes appended to the log but not yet applied, in log order
+  private final ArrayDeque<Change<TKey, TValue>> unapplied;
+
+  private static final class Change<TKey, TValue> {
+    final long seq;
+    final byte type;
+    final TKey key;
+    final TValue value;
+
+    Change(long seq, byte type, TKey key, TValue value) {
+      this.seq = seq;
+      this.type = type;
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Open the log at logFile, creating it if needed, and rebuild the tree
+   *      from it.
+   * @param groupCommitMicros - longest a writer holds its fsync back for
+   *                            other writers to join; 0 syncs as soon as the
+   *                            previous fsync is done
+   */
+  public DurableBPTree(Path logFile, int order, BPTreeCodec<TKey> keyCodec, BPTreeCodec<TValue> valueCodec,
+      long groupCommitMicros) throws IOException {
+    this.tree = new BPTree<TKey, TValue>(order);
+    this.log = new BPTreeWriteAheadLog<TKey, TValue>(logFile, keyCodec, valueCodec, groupCommitMicros);
+    this.unapplied = new ArrayDeque<Change<TKey, TValue>>();
+    this.log.replay(this.tree);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // insert
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Insert a key and its value and return once the change is durable.
+   */
+  public void insert(TKey key, TValue value) {
+    this.write(BPTreeWriteAheadLog.INSERT, key, value);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // delete
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Delete a key and return once the change is durable.
+   */
+  public void delete(TKey key) {
+    this.write(BPTreeWriteAheadLog.DELETE, key, null);
+  }
+
+  /**
+   * @dev Append the change, wait for it to be durable, then apply it along
+   *      with every earlier change still waiting. Records reach the disk in
+   *      sequence order, so all of those are durable too, and whichever
+   *      writer gets the lock first applies them in log order.
+   */
+  private void write(byte type, TKey key, TValue value) {
+    this.log.enter();
+    try {
+      long seq;
+      synchronized (this.tree) {
+        seq = this.log.append(type, key, value);
+        this.unapplied.add(new Change<TKey, TValue>(seq, type, key, value));
+      }
+      this.log.sync(seq);
+      synchronized (this.tree) {
+        while (!this.unapplied.isEmpty() && this.unapplied.peek().seq <= seq) {
+          Change<TKey, TValue> change = this.unapplied.poll();
+          if (change.type == BPTreeWriteAheadLog.INSERT) {
+            this.tree.insert(change.key, change.value);
+          } else {
+            this.tree.delete(change.key);
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      this.log.leave();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // search
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public TValue search(TKey key) {
+    synchronized (this.tree) {
+      return this.tree.search(key);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // values
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public TValue[] values() {
+    synchronized (this.tree) {
+      return this.tree.values();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // close
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public void close() throws IOException {
+    this.log.close();
+  }
+}
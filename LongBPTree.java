@@ -0,0 +1,76 @@
+/**
+ * @dev A B+ tree specialised for primitive long keys. Keys are stored in
+ *      long[] arrays in every node and compared with primitive operators, so
+ *      no key is boxed and no comparison chases a pointer. The operations
+ *      mirror BPTree.
+ * 
+ * @param <TValue> the data type of the value
+ */
+@SuppressWarnings("unchecked")
+public class LongBPTree<TValue> extends LongBPTreeBase {
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public LongBPTree(int order) {
+    this(order, BPTreeSearchMode.BINARY);
+  }
+
+  public LongBPTree(int order, BPTreeSearchMode searchMode) {
+    super(order, searchMode, false);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // insert
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Insert a key and its value, replacing the value if the key exists.
+   */
+  public void insert(long key, TValue value) {
+    int slot = this.insertKey(key);
+    ((Object[]) this.leaf.values)[slot] = value;
+    this.splitIfFull();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // search
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Return the value associated with key, or null if it is absent.
+   */
+  public TValue search(long key) {
+    LongBPTreeLeafNode target = this.findLeaf(key);
+    int index = target.findKey(key, this.searchMode);
+    if (index < 0) {
+      return null;
+    }
+    return (TValue) ((Object[]) target.values)[index];
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // delete
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Delete a key and its associated value from the tree.
+   */
+  public void delete(long key) {
+    this.deleteKey(key);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // values
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Return all values in ascending key order.
+   */
+  public TValue[] values() {
+    Object[] tvals = new Object[this.size];
+    this.copyValues(tvals);
+    return (TValue[]) tvals;
+  }
+}
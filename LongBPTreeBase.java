@@ -0,0 +1,345 @@
+import java.util.Arrays;
+
+/**
+ * @dev Structure shared by the long-keyed trees. It owns the root, descends
+ *      with an explicit path stack instead of parent pointers, and performs
+ *      every split, borrow and merge. Subclasses only decide how a single
+ *      value is read from or written into a leaf slot.
+ * @dev Leaves hold between m/2 and m-1 keys and inner nodes between
+ *      (m-1)/2 and m-1 keys, except at the root. Underflow on delete is fixed
+ *      at every level by borrowing from or merging with a sibling under the
+ *      same parent, and the root collapses when it is left with one child.
+ */
+abstract class LongBPTreeBase {
+
+  protected final int m;
+  protected final BPTreeSearchMode searchMode;
+  protected final boolean primitiveValues;
+  protected LongBPTreeNode root;
+  protected LongBPTreeLeafNode leaf; // leaf reached by the last insertKey
+  protected int size;
+
+  // Descent path of the current insert or delete, reused between calls
+  private LongBPTreeInnerNode[] pathNodes;
+  private int[] pathIndex;
+  private int depth;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  protected LongBPTreeBase(int order, BPTreeSearchMode searchMode, boolean primitiveValues) {
+    if (order < 3) {
+      throw new IllegalArgumentException("order must be at least 3, was " + order);
+    }
+    this.m = order;
+    this.searchMode = searchMode;
+    this.primitiveValues = primitiveValues;
+    this.root = new LongBPTreeLeafNode(order, primitiveValues);
+    this.pathNodes = new LongBPTreeInnerNode[8];
+    this.pathIndex = new int[8];
+    this.size = 0;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // size
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public int size() {
+    return this.size;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // containsKey
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Whether key is in the tree, even where its value is null or equal
+   *      to the value search returns for absent keys.
+   */
+  public boolean containsKey(long key) {
+    return this.findLeaf(key).findKey(key, this.searchMode) >= 0;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // findLeaf
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Read-only descent to the leaf that holds, or would hold, key.
+   */
+  protected LongBPTreeLeafNode findLeaf(long key) {
+    LongBPTreeNode node = this.root;
+    while (!node.isLeaf()) {
+      LongBPTreeInnerNode inner = (LongBPTreeInnerNode) node;
+      node = inner.references[inner.searchKeys(key, true, this.searchMode)];
+    }
+    return (LongBPTreeLeafNode) node;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // descend
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Descent that records every inner node and the child index taken on
+   *      the path stack, so splits and merges can walk back up.
+   */
+  private LongBPTreeLeafNode descend(long key) {
+    this.depth = 0;
+    LongBPTreeNode node = this.root;
+    while (!node.isLeaf()) {
+      if (this.depth == this.pathNodes.length) {
+        this.pathNodes = Arrays.copyOf(this.pathNodes, this.depth * 2);
+        this.pathIndex = Arrays.copyOf(this.pathIndex, this.depth * 2);
+      }
+      LongBPTreeInnerNode inner = (LongBPTreeInnerNode) node;
+      int index = inner.searchKeys(key, true, this.searchMode);
+      this.pathNodes[this.depth] = inner;
+      this.pathIndex[this.depth++] = index;
+      node = inner.references[index];
+    }
+    return (LongBPTreeLeafNode) node;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // insertKey
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev First half of an insert: place key in its leaf and return the slot
+   *      its value belongs in. The leaf is left in the leaf field. The caller
+   *      writes the value and then calls splitIfFull.
+   */
+  protected int insertKey(long key) {
+    LongBPTreeLeafNode target = this.descend(key);
+    this.leaf = target;
+    int index = target.findKey(key, this.searchMode);
+    if (index >= 0) {
+      return index;
+    }
+    index = -index - 1;
+    target.openSlot(index, key);
+    this.size++;
+    return index;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // splitIfFull
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Second half of an insert: split the leaf if it reached m keys and
+   *      carry separators up the path stack for as long as parents overflow.
+   */
+  protected void splitIfFull() {
+    LongBPTreeLeafNode left = this.leaf;
+    this.leaf = null;
+    if (left.keyTally < this.m) {
+      return;
+    }
+
+    LongBPTreeLeafNode right = new LongBPTreeLeafNode(this.m, this.primitiveValues);
+    int splitIndex = this.m / 2;
+    left.moveTo(splitIndex, left.keyTally - splitIndex, right, 0);
+    right.rightSibling = left.rightSibling;
+    if (right.rightSibling != null) {
+      right.rightSibling.leftSibling = right;
+    }
+    right.leftSibling = left;
+    left.rightSibling = right;
+
+    long separator = right.keys[0];
+    LongBPTreeNode newChild = right;
+    for (int level = this.depth - 1; level >= 0; level--) {
+      LongBPTreeInnerNode parent = this.pathNodes[level];
+      parent.insertSeparator(this.pathIndex[level], separator, newChild);
+      if (parent.keyTally < this.m) {
+        return;
+      }
+
+      // Parent overflowed: its middle key moves up, the keys right of it move to a new node
+      int middleIndex = this.m / 2;
+      LongBPTreeInnerNode sibling = new LongBPTreeInnerNode(this.m);
+      int keysMoved = parent.keyTally - middleIndex - 1;
+      System.arraycopy(parent.keys, middleIndex + 1, sibling.keys, 0, keysMoved);
+      System.arraycopy(parent.references, middleIndex + 1, sibling.references, 0, keysMoved + 1);
+      Arrays.fill(parent.references, middleIndex + 1, parent.keyTally + 1, null);
+      sibling.keyTally = keysMoved;
+      separator = parent.keys[middleIndex];
+      parent.keyTally = middleIndex;
+      newChild = sibling;
+    }
+
+    // The root itself split, grow the tree by one level
+    LongBPTreeInnerNode newRoot = new LongBPTreeInnerNode(this.m);
+    newRoot.keys[0] = separator;
+    newRoot.references[0] = this.root;
+    newRoot.references[1] = newChild;
+    newRoot.keyTally = 1;
+    this.root = newRoot;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // deleteKey
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Remove key and its value, then repair underflow bottom-up.
+   * @return whether the key was present
+   */
+  protected boolean deleteKey(long key) {
+    LongBPTreeLeafNode target = this.descend(key);
+    int index = target.findKey(key, this.searchMode);
+    if (index < 0) {
+      return false;
+    }
+    target.removeSlot(index);
+    this.size--;
+
+    if (this.depth > 0 && target.keyTally < this.m / 2) {
+      if (this.rebalanceLeaf(target)) {
+        this.rebalanceInner();
+      }
+    }
+    return true;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // rebalanceLeaf
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Borrow one entry from a sibling that can spare it, otherwise merge
+   *      with a sibling. Only siblings under the same parent are used, so the
+   *      separator to fix is always the one between the two leaves.
+   * @return whether a merge removed a separator from the parent
+   */
+  private boolean rebalanceLeaf(LongBPTreeLeafNode node) {
+    LongBPTreeInnerNode parent = this.pathNodes[this.depth - 1];
+    int childIndex = this.pathIndex[this.depth - 1];
+    LongBPTreeLeafNode left = childIndex > 0 ? (LongBPTreeLeafNode) parent.references[childIndex - 1] : null;
+    LongBPTreeLeafNode right = childIndex < parent.keyTally ? (LongBPTreeLeafNode) parent.references[childIndex + 1] : null;
+    int minKeys = this.m / 2;
+
+    if (left != null && left.keyTally > minKeys) {
+      left.moveTo(left.keyTally - 1, 1, node, 0);
+      parent.keys[childIndex - 1] = node.keys[0];
+      return false;
+    }
+    if (right != null && right.keyTally > minKeys) {
+      right.moveTo(0, 1, node, node.keyTally);
+      parent.keys[childIndex] = right.keys[0];
+      return false;
+    }
+
+    if (left != null) {
+      node.moveTo(0, node.keyTally, left, left.keyTally);
+      this.unlink(node);
+      parent.removeSeparator(childIndex - 1);
+    } else {
+      right.moveTo(0, right.keyTally, node, node.keyTally);
+      this.unlink(right);
+      parent.removeSeparator(childIndex);
+    }
+    return true;
+  }
+
+  private void unlink(LongBPTreeLeafNode node) {
+    if (node.leftSibling != null) {
+      node.leftSibling.rightSibling = node.rightSibling;
+    }
+    if (node.rightSibling != null) {
+      node.rightSibling.leftSibling = node.leftSibling;
+    }
+    node.leftSibling = null;
+    node.rightSibling = null;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // rebalanceInner
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Walk up the path stack after a leaf merge. An underfull inner node
+   *      rotates one key through the parent from a sibling that can spare it,
+   *      or merges with a sibling and pulls the separator down, which may in
+   *      turn leave the parent underfull. An empty root is replaced by its
+   *      only child.
+   */
+  private void rebalanceInner() {
+    int minKeys = (this.m - 1) / 2;
+    for (int level = this.depth - 1; level > 0; level--) {
+      LongBPTreeInnerNode node = this.pathNodes[level];
+      if (node.keyTally >= minKeys) {
+        return;
+      }
+      LongBPTreeInnerNode parent = this.pathNodes[level - 1];
+      int childIndex = this.pathIndex[level - 1];
+      LongBPTreeInnerNode left = childIndex > 0 ? (LongBPTreeInnerNode) parent.references[childIndex - 1] : null;
+      LongBPTreeInnerNode right = childIndex < parent.keyTally ? (LongBPTreeInnerNode) parent.references[childIndex + 1] : null;
+
+      if (left != null && left.keyTally > minKeys) {
+        System.arraycopy(node.keys, 0, node.keys, 1, node.keyTally);
+        System.arraycopy(node.references, 0, node.references, 1, node.keyTally + 1);
+        node.keys[0] = parent.keys[childIndex - 1];
+        node.references[0] = left.references[left.keyTally];
+        node.keyTally++;
+        parent.keys[childIndex - 1] = left.keys[left.keyTally - 1];
+        left.references[left.keyTally] = null;
+        left.keyTally--;
+        return;
+      }
+      if (right != null && right.keyTally > minKeys) {
+        node.keys[node.keyTally] = parent.keys[childIndex];
+        node.references[node.keyTally + 1] = right.references[0];
+        node.keyTally++;
+        parent.keys[childIndex] = right.keys[0];
+        System.arraycopy(right.keys, 1, right.keys, 0, right.keyTally - 1);
+        System.arraycopy(right.references, 1, right.references, 0, right.keyTally);
+        right.references[right.keyTally] = null;
+        right.keyTally--;
+        return;
+      }
+
+      if (left != null) {
+        this.mergeInner(left, parent.keys[childIndex - 1], node);
+        parent.removeSeparator(childIndex - 1);
+      } else {
+        this.mergeInner(node, parent.keys[childIndex], right);
+        parent.removeSeparator(childIndex);
+      }
+    }
+
+    if (!this.root.isLeaf() && this.root.keyTally == 0) {
+      this.root = ((LongBPTreeInnerNode) this.root).references[0];
+    }
+  }
+
+  private void mergeInner(LongBPTreeInnerNode left, long separator, LongBPTreeInnerNode right) {
+    left.keys[left.keyTally] = separator;
+    System.arraycopy(right.keys, 0, left.keys, left.keyTally + 1, right.keyTally);
+    System.arraycopy(right.references, 0, left.references, left.keyTally + 1, right.keyTally + 1);
+    left.keyTally += right.keyTally + 1;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // copyValues
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Copy every value into dest in ascending key order using the sequence
+   *      set. dest is an Object[] or long[] of length size.
+   */
+  protected void copyValues(Object dest) {
+    LongBPTreeNode node = this.root;
+    while (!node.isLeaf()) {
+      node = ((LongBPTreeInnerNode) node).references[0];
+    }
+    int index = 0;
+    for (LongBPTreeLeafNode nodePtr = (LongBPTreeLeafNode) node; nodePtr != null; nodePtr = nodePtr.rightSibling) {
+      System.arraycopy(nodePtr.values, 0, dest, index, nodePtr.keyTally);
+      index += nodePtr.keyTally;
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/**
+ * An internal node of a long-keyed B+ tree.
+ */
+class LongBPTreeInnerNode extends LongBPTreeNode {
+
+  protected LongBPTreeNode[] references;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public LongBPTreeInnerNode(int order) {
+    super(order);
+    // As in BPTreeInnerNode, the node may briefly hold m keys before it splits
+    this.references = new LongBPTreeNode[order + 1];
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // getChild
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public LongBPTreeNode getChild(int index) {
+    return this.references[index];
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // isLeaf
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public boolean isLeaf() {
+    return false;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // insertSeparator
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Add key at index with rightChild as the reference to its right.
+   */
+
+  public void insertSeparator(int index, long key, LongBPTreeNode rightChild) {
+    System.arraycopy(this.keys, index, this.keys, index + 1, this.keyTally - index);
+    System.arraycopy(this.references, index + 1, this.references, index + 2, this.keyTally - index);
+    this.keys[index] = key;
+    this.references[index + 1] = rightChild;
+    this.keyTally++;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // removeSeparator
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Remove the key at index together with the reference to its right.
+   */
+
+  public void removeSeparator(int index) {
+    System.arraycopy(this.keys, index + 1, this.keys, index, this.keyTally - index - 1);
+    System.arraycopy(this.references, index + 2, this.references, index + 1, this.keyTally - index - 1);
+    this.references[this.keyTally] = null;
+    this.keyTally--;
+  }
+}
@@ -0,0 +1,96 @@
+import java.util.Arrays;
+
+/**
+ * A leaf node of a long-keyed B+ tree.
+ * @dev values is either an Object[] or a long[], chosen by the owning tree.
+ *      Every bulk move goes through System.arraycopy, which accepts both, so
+ *      the structural code never needs to know which one it is handling.
+ */
+class LongBPTreeLeafNode extends LongBPTreeNode {
+
+  protected Object values;
+  protected LongBPTreeLeafNode leftSibling;
+  protected LongBPTreeLeafNode rightSibling;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public LongBPTreeLeafNode(int order, boolean primitiveValues) {
+    super(order);
+    this.values = primitiveValues ? new long[order] : new Object[order];
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // isLeaf
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public boolean isLeaf() {
+    return true;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // openSlot
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Shift keys and values right of index one place right and store key
+   *      at index. The caller writes the matching value.
+   */
+
+  public void openSlot(int index, long key) {
+    System.arraycopy(this.keys, index, this.keys, index + 1, this.keyTally - index);
+    System.arraycopy(this.values, index, this.values, index + 1, this.keyTally - index);
+    this.keys[index] = key;
+    this.keyTally++;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // removeSlot
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public void removeSlot(int index) {
+    System.arraycopy(this.keys, index + 1, this.keys, index, this.keyTally - index - 1);
+    System.arraycopy(this.values, index + 1, this.values, index, this.keyTally - index - 1);
+    this.keyTally--;
+    this.clearValues(this.keyTally, this.keyTally + 1);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // moveTo
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Move count entries starting at from into target at position at.
+   *      Entries already in target at or after at are shifted right first;
+   *      entries left behind in this node are shifted left to close the gap.
+   */
+
+  public void moveTo(int from, int count, LongBPTreeLeafNode target, int at) {
+    System.arraycopy(target.keys, at, target.keys, at + count, target.keyTally - at);
+    System.arraycopy(target.values, at, target.values, at + count, target.keyTally - at);
+    System.arraycopy(this.keys, from, target.keys, at, count);
+    System.arraycopy(this.values, from, target.values, at, count);
+    target.keyTally += count;
+
+    System.arraycopy(this.keys, from + count, this.keys, from, this.keyTally - from - count);
+    System.arraycopy(this.values, from + count, this.values, from, this.keyTally - from - count);
+    this.keyTally -= count;
+    this.clearValues(this.keyTally, this.keyTally + count);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // clearValues
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Drop references from vacated slots so removed values can be collected.
+   */
+
+  private void clearValues(int from, int to) {
+    if (this.values instanceof Object[]) {
+      Arrays.fill((Object[]) this.values, from, to, null);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/**
+ * A node of a long-keyed B+ tree. Keys are held in a primitive long[] and
+ * compared directly, so no key is ever boxed.
+ */
+abstract class LongBPTreeNode {
+
+  protected long[] keys;
+  protected int keyTally;
+  protected int m;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  protected LongBPTreeNode(int order) {
+    this.m = order;
+    this.keys = new long[order];
+    this.keyTally = 0;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // getKeyCount
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public int getKeyCount() {
+    return this.keyTally;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // getKey
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public long getKey(int index) {
+    return this.keys[index];
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // isLeaf (abstract)
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public abstract boolean isLeaf();
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // searchKeys
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Primitive counterpart of BPTreeNode.searchKeys: how many of
+   *      keys[0..keyTally) are smaller than key, or smaller than or equal to
+   *      it when upper is set.
+   */
+
+  protected int searchKeys(long key, boolean upper, BPTreeSearchMode mode) {
+    if (mode == BPTreeSearchMode.LINEAR) {
+      int count = 0;
+      if (upper) {
+        for (int i = 0; i < this.keyTally; i++) {
+          count += this.keys[i] <= key ? 1 : 0;
+        }
+      } else {
+        for (int i = 0; i < this.keyTally; i++) {
+          count += this.keys[i] < key ? 1 : 0;
+        }
+      }
+      return count;
+    }
+
+    int low = 0;
+    int high = this.keyTally;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      long midKey = this.keys[mid];
+      if (midKey < key || (upper && midKey == key)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // findKey
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Index of key in this node, or (-(insertion point) - 1) when absent.
+   */
+
+  protected int findKey(long key, BPTreeSearchMode mode) {
+    int index = this.searchKeys(key, false, mode);
+    if (index < this.keyTally && this.keys[index] == key) {
+      return index;
+    }
+    return -index - 1;
+  }
+}
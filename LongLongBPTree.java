@@ -0,0 +1,73 @@
+/**
+ * @dev A B+ tree from primitive long keys to primitive long values. Neither
+ *      keys nor values are boxed: leaves keep both in long[] arrays. Since a
+ *      long has no null, search takes the value to return for absent keys.
+ */
+public class LongLongBPTree extends LongBPTreeBase {
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public LongLongBPTree(int order) {
+    this(order, BPTreeSearchMode.BINARY);
+  }
+
+  public LongLongBPTree(int order, BPTreeSearchMode searchMode) {
+    super(order, searchMode, true);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // insert
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Insert a key and its value, replacing the value if the key exists.
+   */
+  public void insert(long key, long value) {
+    int slot = this.insertKey(key);
+    ((long[]) this.leaf.values)[slot] = value;
+    this.splitIfFull();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // search
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Return the value associated with key, or absentValue if the key is
+   *      not in the tree.
+   */
+  public long search(long key, long absentValue) {
+    LongBPTreeLeafNode target = this.findLeaf(key);
+    int index = target.findKey(key, this.searchMode);
+    if (index < 0) {
+      return absentValue;
+    }
+    return ((long[]) target.values)[index];
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // delete
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Delete a key and its associated value from the tree.
+   */
+  public void delete(long key) {
+    this.deleteKey(key);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // values
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Return all values in ascending key order.
+   */
+  public long[] values() {
+    long[] tvals = new long[this.size];
+    this.copyValues(tvals);
+    return tvals;
+  }
+}
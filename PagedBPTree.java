@@ -0,0 +1,598 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * @dev A B+ tree stored in a file of fixed-size pages instead of on the heap.
+ *      Every node is one page; links between nodes are page IDs. Nodes are
+ *      read through a bounded buffer pool of decoded pages, and a changed
+ *      node is written back when its frame is reused or on flush, so the heap
+ *      holds only the nodes it caches and the index may be far larger than memory.
+ * @dev The order follows from the page size and the widths of the key and
+ *      value codecs. Leaves and inner nodes each get the largest order that
+ *      fits a page. insert, search, delete and values() behave as in BPTree:
+ *      an existing key has its value replaced, and deletes borrow from or
+ *      merge with siblings under the same parent at every level.
+ * @dev flush() and close() are checkpoints. Pages are copy-on-write between
+ *      them: the first change to a node after a checkpoint moves it to a new
+ *      page, along with the nodes on its path, and pages given up are only
+ *      reused after the next checkpoint. Nothing the last checkpoint can
+ *      reach is overwritten, so reopening after a crash restores the tree as
+ *      of the last flush() or close() that returned. Leaves are not linked
+ *      to their siblings, which keeps a moved node's relinking to its parent;
+ *      values() walks the inner nodes instead.
+ * @dev An I/O failure inside an operation surfaces as an
+ *      UncheckedIOException.
+ * 
+ * @param <TKey>   the data type of the key
+ * @param <TValue> the data type of the value
+ */
+@SuppressWarnings("unchecked")
+public class PagedBPTree<TKey extends Comparable<TKey>, TValue> implements Closeable {
+
+  private final BPTreePageFile file;
+  private final BPTreeCodec<TKey> keyCodec;
+  private final BPTreeCodec<TValue> valueCodec;
+  private final int leafOrder;
+  private final int innerOrder;
+  private static final int DEFAULT_CACHE_PAGES = 1024;
+  private final BPTreeBufferPool<TKey, TValue> pool;
+  private final int residentLevels;
+  private final ArrayList<PagedBPTreeNode<TKey, TValue>> pinned;
+
+  // Descent path of the current insert or delete, reused between calls
+  private PagedBPTreeNode<TKey, TValue>[] pathNodes;
+  private int[] pathIndex;
+  private int depth;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public PagedBPTree(Path path, int pageSize, BPTreeCodec<TKey> keyCodec, BPTreeCodec<TValue> valueCodec)
+      throws IOException {
+    this(path, pageSize, keyCodec, valueCodec, DEFAULT_CACHE_PAGES, 0);
+  }
+
+  /**
+   * @dev Open the tree stored in path, or create an empty one if the file is
+   *      missing or empty. An existing file must have been created with the
+   *      same page size and codec widths.
+   * @param pageSize       - bytes per page, a power of two from 4 KiB to 64 KiB
+   * @param cachePages     - number of pages the buffer pool holds
+   * @param residentLevels - number of levels below and including the root
+   *                         whose pages are never evicted once read
+   */
+  @SuppressWarnings("rawtypes")
+  public PagedBPTree(Path path, int pageSize, BPTreeCodec<TKey> keyCodec, BPTreeCodec<TValue> valueCodec,
+      int cachePages, int residentLevels) throws IOException {
+    if (cachePages < 1 || residentLevels < 0) {
+      throw new IllegalArgumentException("cachePages must be positive and residentLevels not negative");
+    }
+    this.leafOrder = PagedBPTreeNode.leafOrder(pageSize, keyCodec.size(), valueCodec.size());
+    this.innerOrder = PagedBPTreeNode.innerOrder(pageSize, keyCodec.size());
+    if (this.leafOrder < 3 || this.innerOrder < 3) {
+      throw new IllegalArgumentException("a " + pageSize + "-byte page cannot hold two entries of "
+          + keyCodec.size() + "-byte keys and " + valueCodec.size() + "-byte values");
+    }
+    this.file = new BPTreePageFile(path, pageSize, keyCodec.size(), valueCodec.size());
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+    this.pool = new BPTreeBufferPool<TKey, TValue>(this.file, cachePages, this.leafOrder, this.innerOrder, keyCodec,
+        valueCodec);
+    this.residentLevels = residentLevels;
+    this.pinned = new ArrayList<PagedBPTreeNode<TKey, TValue>>();
+    this.pathNodes = new PagedBPTreeNode[8];
+    this.pathIndex = new int[8];
+
+    if (this.file.rootPage == BPTreePageFile.NO_PAGE) {
+      PagedBPTreeNode<TKey, TValue> root = this.newNode(true);
+      this.file.rootPage = root.pageId;
+      this.release();
+      this.flush();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // size
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public long size() {
+    return this.file.size;
+  }
+
+  public int getLeafOrder() {
+    return this.leafOrder;
+  }
+
+  public int getInnerOrder() {
+    return this.innerOrder;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // buffer pool counters
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Number of node reads served from the buffer pool.
+   */
+  public long getPageHits() {
+    return this.pool.hits;
+  }
+
+  /**
+   * @dev Number of node reads that had to read their page from the file.
+   */
+  public long getPageMisses() {
+    return this.pool.misses;
+  }
+
+  /**
+   * @dev Number of cached nodes dropped to make room for another page.
+   */
+  public long getPageEvictions() {
+    return this.pool.evictions;
+  }
+
+  /**
+   * @dev Number of dirty pages written back to the file.
+   */
+  public long getPageWrites() {
+    return this.pool.writes;
+  }
+
+  public double getPageHitRate() {
+    long reads = this.pool.hits + this.pool.misses;
+    return reads == 0 ? 0 : (double) this.pool.hits / reads;
+  }
+
+  public void resetPageCounters() {
+    this.pool.hits = 0;
+    this.pool.misses = 0;
+    this.pool.evictions = 0;
+    this.pool.writes = 0;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // insert
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Insert a key and its value, replacing the value if the key exists.
+   */
+  public void insert(TKey key, TValue value) {
+    try {
+      PagedBPTreeNode<TKey, TValue> leaf = this.descend(key);
+      int index = leaf.findKey(key);
+      this.prepareWrite(leaf);
+      if (index >= 0) {
+        leaf.values[index] = value;
+        this.writeNode(leaf);
+        return;
+      }
+      leaf.openSlot(-index - 1, key, value);
+      this.file.size++;
+      if (leaf.keyTally < this.leafOrder) {
+        this.writeNode(leaf);
+        return;
+      }
+      this.split(leaf);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      this.release();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // search
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Return the value associated with key, or null if it is absent.
+   */
+  public TValue search(TKey key) {
+    try {
+      int level = 0;
+      PagedBPTreeNode<TKey, TValue> node = this.readNode(this.file.rootPage, level);
+      while (!node.isLeaf()) {
+        node = this.readNode(node.children[node.searchKeys(key, true)], ++level);
+      }
+      int index = node.findKey(key);
+      return index < 0 ? null : (TValue) node.values[index];
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      this.release();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // delete
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Delete a key and its associated value from the tree.
+   */
+  public void delete(TKey key) {
+    try {
+      PagedBPTreeNode<TKey, TValue> leaf = this.descend(key);
+      int index = leaf.findKey(key);
+      if (index < 0) {
+        return;
+      }
+      this.prepareWrite(leaf);
+      leaf.removeSlot(index);
+      this.file.size--;
+      if (this.depth == 0 || leaf.keyTally >= this.leafOrder / 2) {
+        this.writeNode(leaf);
+        return;
+      }
+      if (this.rebalanceLeaf(leaf)) {
+        this.rebalanceInner();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      this.release();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // values
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Return all values in ascending key order, visiting the leaves left
+   *      to right through their parents.
+   */
+  public TValue[] values() {
+    try {
+      Object[] values = new Object[Math.toIntExact(this.file.size)];
+      int leafLevel = 0;
+      PagedBPTreeNode<TKey, TValue> node = this.readNode(this.file.rootPage, leafLevel);
+      while (!node.isLeaf()) {
+        node = this.readNode(node.children[0], ++leafLevel);
+      }
+      this.release();
+      this.collect(this.file.rootPage, 0, leafLevel, values, 0);
+      return (TValue[]) values;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      this.release();
+    }
+  }
+
+  /**
+   * @dev Copy the values below pageId into values from index on and return
+   *      the index after the last one. Only the nodes on the way down to the
+   *      current leaf stay pinned.
+   */
+  private int collect(long pageId, int level, int leafLevel, Object[] values, int index) throws IOException {
+
+    // A full scan reads each leaf once, so its pages must not push out the working set
+    PagedBPTreeNode<TKey, TValue> node = this.pool.pin(pageId, level < this.residentLevels, level == leafLevel);
+    try {
+      if (node.isLeaf()) {
+        System.arraycopy(node.values, 0, values, index, node.keyTally);
+        return index + node.keyTally;
+      }
+      for (int i = 0; i <= node.keyTally; i++) {
+        index = this.collect(node.children[i], level + 1, leafLevel, values, index);
+      }
+      return index;
+    } finally {
+      this.pool.unpin(node);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // flush / close
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Write back every changed node and make the tree as it is now the
+   *      checkpoint a later open finds, even after a crash. Returns once the
+   *      checkpoint is on the device.
+   */
+  public void flush() throws IOException {
+    this.pool.flush();
+    this.file.commit();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      this.pool.flush();
+    } finally {
+      this.file.close();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // node I/O
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Pin the node in pageId for the rest of the current operation.
+   * @param level - depth of the node below the root, which decides whether
+   *                its frame is kept resident
+   */
+  private PagedBPTreeNode<TKey, TValue> readNode(long pageId, int level) throws IOException {
+    PagedBPTreeNode<TKey, TValue> node = this.pool.pin(pageId, level < this.residentLevels, false);
+    this.pinned.add(node);
+    return node;
+  }
+
+  /**
+   * @dev Mark a changed node for write-back. The page is written when the
+   *      buffer pool reuses its frame or on flush. The node must already be
+   *      in a page of the current epoch, see prepareWrite and writable.
+   */
+  private void writeNode(PagedBPTreeNode<TKey, TValue> node) {
+    node.dirty = true;
+  }
+
+  /**
+   * @dev Before the current operation changes anything, move every node on
+   *      its path that the last checkpoint may reach to a new page, top-down,
+   *      relinking each in its parent or as the root.
+   */
+  private void prepareWrite(PagedBPTreeNode<TKey, TValue> leaf) {
+    for (int level = 0; level <= this.depth; level++) {
+      PagedBPTreeNode<TKey, TValue> node = level < this.depth ? this.pathNodes[level] : leaf;
+      if (!this.pool.relocate(node)) {
+        continue;
+      }
+      if (level == 0) {
+        this.file.rootPage = node.pageId;
+      } else {
+        PagedBPTreeNode<TKey, TValue> parent = this.pathNodes[level - 1];
+        parent.children[this.pathIndex[level - 1]] = node.pageId;
+        this.writeNode(parent);
+      }
+    }
+  }
+
+  /**
+   * @dev Make child, found at index of parent, safe to change in place, as
+   *      prepareWrite does for the path. parent must already be.
+   */
+  private PagedBPTreeNode<TKey, TValue> writable(PagedBPTreeNode<TKey, TValue> parent, int index,
+      PagedBPTreeNode<TKey, TValue> child) {
+    if (this.pool.relocate(child)) {
+      parent.children[index] = child.pageId;
+      this.writeNode(parent);
+    }
+    return child;
+  }
+
+  private PagedBPTreeNode<TKey, TValue> newNode(boolean leaf) throws IOException {
+    PagedBPTreeNode<TKey, TValue> node = this.pool.pinNew(leaf);
+    this.pinned.add(node);
+    return node;
+  }
+
+  /**
+   * @dev Unpin every node pinned since the last release.
+   */
+  private void release() {
+    for (int i = 0; i < this.pinned.size(); i++) {
+      this.pool.unpin(this.pinned.get(i));
+    }
+    this.pinned.clear();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // descend
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Descent that keeps every inner node read on the way and the child
+   *      index taken, so splits and merges can walk back up without parent
+   *      links.
+   */
+  private PagedBPTreeNode<TKey, TValue> descend(TKey key) throws IOException {
+    this.depth = 0;
+    PagedBPTreeNode<TKey, TValue> node = this.readNode(this.file.rootPage, 0);
+    while (!node.isLeaf()) {
+      if (this.depth == this.pathNodes.length) {
+        this.pathNodes = Arrays.copyOf(this.pathNodes, this.depth * 2);
+        this.pathIndex = Arrays.copyOf(this.pathIndex, this.depth * 2);
+      }
+      int index = node.searchKeys(key, true);
+      this.pathNodes[this.depth] = node;
+      this.pathIndex[this.depth++] = index;
+      node = this.readNode(node.children[index], this.depth);
+    }
+    return node;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // split
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Split a leaf that reached leafOrder keys and carry separators up the
+   *      path for as long as parents overflow. Every node changed is written.
+   */
+  private void split(PagedBPTreeNode<TKey, TValue> leaf) throws IOException {
+    PagedBPTreeNode<TKey, TValue> right = this.newNode(true);
+    int splitIndex = this.leafOrder / 2;
+    leaf.moveTo(splitIndex, leaf.keyTally - splitIndex, right, 0);
+    this.writeNode(leaf);
+    this.writeNode(right);
+
+    Object separator = right.keys[0];
+    long newChild = right.pageId;
+    for (int level = this.depth - 1; level >= 0; level--) {
+      PagedBPTreeNode<TKey, TValue> parent = this.pathNodes[level];
+      parent.insertSeparator(this.pathIndex[level], separator, newChild);
+      if (parent.keyTally < this.innerOrder) {
+        this.writeNode(parent);
+        return;
+      }
+
+      // Parent overflowed: its middle key moves up, the keys right of it move to a new node
+      int middleIndex = this.innerOrder / 2;
+      PagedBPTreeNode<TKey, TValue> sibling = this.newNode(false);
+      int keysMoved = parent.keyTally - middleIndex - 1;
+      System.arraycopy(parent.keys, middleIndex + 1, sibling.keys, 0, keysMoved);
+      System.arraycopy(parent.children, middleIndex + 1, sibling.children, 0, keysMoved + 1);
+      sibling.keyTally = keysMoved;
+      separator = parent.keys[middleIndex];
+      Arrays.fill(parent.keys, middleIndex, parent.keyTally, null);
+      parent.keyTally = middleIndex;
+      this.writeNode(parent);
+      this.writeNode(sibling);
+      newChild = sibling.pageId;
+    }
+
+    // The root itself split, grow the tree by one level
+    PagedBPTreeNode<TKey, TValue> newRoot = this.newNode(false);
+    newRoot.keys[0] = separator;
+    newRoot.children[0] = this.file.rootPage;
+    newRoot.children[1] = newChild;
+    newRoot.keyTally = 1;
+    this.writeNode(newRoot);
+    this.file.rootPage = newRoot.pageId;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // rebalanceLeaf
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Borrow one entry from a sibling under the same parent that can spare
+   *      it, otherwise merge with that sibling and free the emptied page. A
+   *      sibling is moved to a new page before it is changed.
+   * @return whether a merge removed a separator from the parent
+   */
+  private boolean rebalanceLeaf(PagedBPTreeNode<TKey, TValue> node) throws IOException {
+    PagedBPTreeNode<TKey, TValue> parent = this.pathNodes[this.depth - 1];
+    int childIndex = this.pathIndex[this.depth - 1];
+    PagedBPTreeNode<TKey, TValue> left = childIndex > 0 ? this.readNode(parent.children[childIndex - 1], this.depth) : null;
+    PagedBPTreeNode<TKey, TValue> right = childIndex < parent.keyTally
+        ? this.readNode(parent.children[childIndex + 1], this.depth)
+        : null;
+    int minKeys = this.leafOrder / 2;
+
+    if (left != null && left.keyTally > minKeys) {
+      this.writable(parent, childIndex - 1, left).moveTo(left.keyTally - 1, 1, node, 0);
+      parent.keys[childIndex - 1] = node.keys[0];
+      this.writeNodes(left, node, parent);
+      return false;
+    }
+    if (right != null && right.keyTally > minKeys) {
+      this.writable(parent, childIndex + 1, right).moveTo(0, 1, node, node.keyTally);
+      parent.keys[childIndex] = right.keys[0];
+      this.writeNodes(node, right, parent);
+      return false;
+    }
+
+    if (left != null) {
+      node.moveTo(0, node.keyTally, this.writable(parent, childIndex - 1, left), left.keyTally);
+      parent.removeSeparator(childIndex - 1);
+      this.writeNode(left);
+      this.pool.free(node);
+    } else {
+      right.moveTo(0, right.keyTally, node, node.keyTally);
+      parent.removeSeparator(childIndex);
+      this.writeNode(node);
+      this.pool.free(right);
+    }
+    this.writeNode(parent);
+    return true;
+  }
+
+  private void writeNodes(PagedBPTreeNode<TKey, TValue> first, PagedBPTreeNode<TKey, TValue> second,
+      PagedBPTreeNode<TKey, TValue> parent) throws IOException {
+    this.writeNode(first);
+    this.writeNode(second);
+    this.writeNode(parent);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // rebalanceInner
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Walk up the path after a leaf merge, rotating a key through the
+   *      parent from a sibling that can spare one or merging with a sibling
+   *      and pulling the separator down. An empty root is replaced by its only
+   *      child and its page freed.
+   */
+  private void rebalanceInner() throws IOException {
+    int minKeys = (this.innerOrder - 1) / 2;
+    for (int level = this.depth - 1; level > 0; level--) {
+      PagedBPTreeNode<TKey, TValue> node = this.pathNodes[level];
+      if (node.keyTally >= minKeys) {
+        break;
+      }
+      PagedBPTreeNode<TKey, TValue> parent = this.pathNodes[level - 1];
+      int childIndex = this.pathIndex[level - 1];
+      PagedBPTreeNode<TKey, TValue> left = childIndex > 0 ? this.readNode(parent.children[childIndex - 1], level) : null;
+      PagedBPTreeNode<TKey, TValue> right = childIndex < parent.keyTally
+          ? this.readNode(parent.children[childIndex + 1], level)
+          : null;
+
+      if (left != null && left.keyTally > minKeys) {
+        this.writable(parent, childIndex - 1, left);
+        System.arraycopy(node.keys, 0, node.keys, 1, node.keyTally);
+        System.arraycopy(node.children, 0, node.children, 1, node.keyTally + 1);
+        node.keys[0] = parent.keys[childIndex - 1];
+        node.children[0] = left.children[left.keyTally];
+        node.keyTally++;
+        parent.keys[childIndex - 1] = left.keys[left.keyTally - 1];
+        left.keys[--left.keyTally] = null;
+        this.writeNodes(left, node, parent);
+        return;
+      }
+      if (right != null && right.keyTally > minKeys) {
+        this.writable(parent, childIndex + 1, right);
+        node.keys[node.keyTally] = parent.keys[childIndex];
+        node.children[node.keyTally + 1] = right.children[0];
+        node.keyTally++;
+        parent.keys[childIndex] = right.keys[0];
+        System.arraycopy(right.keys, 1, right.keys, 0, right.keyTally - 1);
+        System.arraycopy(right.children, 1, right.children, 0, right.keyTally);
+        right.keys[--right.keyTally] = null;
+        this.writeNodes(node, right, parent);
+        return;
+      }
+
+      if (left != null) {
+        this.mergeInner(this.writable(parent, childIndex - 1, left), parent.keys[childIndex - 1], node);
+        parent.removeSeparator(childIndex - 1);
+      } else {
+        this.mergeInner(node, parent.keys[childIndex], right);
+        parent.removeSeparator(childIndex);
+      }
+      this.writeNode(parent);
+    }
+
+    PagedBPTreeNode<TKey, TValue> root = this.pathNodes[0];
+    if (root.keyTally == 0) {
+      this.file.rootPage = root.children[0];
+      this.pool.free(root);
+    }
+  }
+
+  /**
+   * @dev Append separator and every key and child of right to left, write
+   *      left and free the page of right.
+   */
+  private void mergeInner(PagedBPTreeNode<TKey, TValue> left, Object separator, PagedBPTreeNode<TKey, TValue> right)
+      throws IOException {
+    left.keys[left.keyTally] = separator;
+    System.arraycopy(right.keys, 0, left.keys, left.keyTally + 1, right.keyTally);
+    System.arraycopy(right.children, 0, left.children, left.keyTally + 1, right.keyTally + 1);
+    left.keyTally += right.keyTally + 1;
+    this.writeNode(left);
+    this.pool.free(right);
+  }
+}
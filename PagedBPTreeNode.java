@@ -0,0 +1,243 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A node of a PagedBPTree, decoded from its page.
+ * @dev One class serves both kinds of node, like the page format does: a leaf
+ *      uses values, an inner node uses children. Links to other nodes are
+ *      page IDs, never object references. Leaves have no sibling links, so a
+ *      node that moves to a new page only has to be relinked in its parent.
+ * @dev Page layout: a type byte, the key count at offset 4 and the epoch the
+ *      page was written in at offset 8, then the key slots, then the value or
+ *      child slots. Slots are fixed-width, so a slot's offset depends only on
+ *      its index.
+ * 
+ * @param <TKey>   the data type of the key
+ * @param <TValue> the data type of the value
+ */
+@SuppressWarnings("unchecked")
+class PagedBPTreeNode<TKey extends Comparable<TKey>, TValue> {
+
+  static final int HEADER = 16;
+  private static final byte LEAF = 1;
+  private static final byte INNER = 2;
+
+  protected long pageId;
+  protected final boolean leaf;
+  protected Object[] keys;
+  protected Object[] values;
+  protected long[] children;
+  protected int keyTally;
+  protected final int m;
+
+  // File epoch of the page this node lives in. Only a node of the current
+  // epoch may be written back in place
+  protected long epoch;
+
+  // Buffer pool bookkeeping
+  protected int frame;
+  protected int pinCount;
+  protected boolean dirty;
+  protected boolean referenced;
+  protected boolean resident;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // constructor
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Like the heap nodes, there is room for m keys so a node can hold
+   *      one key too many between an insert and its split. Only m-1 ever
+   *      reach the page.
+   */
+  PagedBPTreeNode(long pageId, boolean leaf, int order) {
+    this.pageId = pageId;
+    this.leaf = leaf;
+    this.m = order;
+    this.keys = new Object[order];
+    if (leaf) {
+      this.values = new Object[order];
+    } else {
+      this.children = new long[order + 1];
+    }
+  }
+
+  public boolean isLeaf() {
+    return this.leaf;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // capacity
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Largest order whose m-1 leaf entries fit in one page.
+   */
+  static int leafOrder(int pageSize, int keySize, int valueSize) {
+    return (pageSize - HEADER) / (keySize + valueSize) + 1;
+  }
+
+  /**
+   * @dev Largest order whose m-1 keys and m child IDs fit in one page.
+   */
+  static int innerOrder(int pageSize, int keySize) {
+    return (pageSize - HEADER - Long.BYTES) / (keySize + Long.BYTES) + 1;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // decode
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  static <TKey extends Comparable<TKey>, TValue> PagedBPTreeNode<TKey, TValue> decode(long pageId, ByteBuffer page,
+      int leafOrder, int innerOrder, BPTreeCodec<TKey> keyCodec, BPTreeCodec<TValue> valueCodec) {
+    boolean leaf = page.get(0) == LEAF;
+    int order = leaf ? leafOrder : innerOrder;
+    PagedBPTreeNode<TKey, TValue> node = new PagedBPTreeNode<TKey, TValue>(pageId, leaf, order);
+    node.keyTally = page.getInt(4);
+    node.epoch = page.getLong(8);
+
+    page.position(HEADER);
+    for (int i = 0; i < node.keyTally; i++) {
+      node.keys[i] = keyCodec.decode(page);
+    }
+    page.position(HEADER + (order - 1) * keyCodec.size());
+    if (leaf) {
+      for (int i = 0; i < node.keyTally; i++) {
+        node.values[i] = valueCodec.decode(page);
+      }
+    } else {
+      for (int i = 0; i <= node.keyTally; i++) {
+        node.children[i] = page.getLong();
+      }
+    }
+    return node;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // encode
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Write this node into page. Slots past keyTally are left as they
+   *      were; they are never read back.
+   */
+  void encode(ByteBuffer page, BPTreeCodec<TKey> keyCodec, BPTreeCodec<TValue> valueCodec) {
+    page.clear();
+    page.put(0, this.leaf ? LEAF : INNER);
+    page.putInt(4, this.keyTally);
+    page.putLong(8, this.epoch);
+
+    page.position(HEADER);
+    for (int i = 0; i < this.keyTally; i++) {
+      keyCodec.encode((TKey) this.keys[i], page);
+    }
+    page.position(HEADER + (this.m - 1) * keyCodec.size());
+    if (this.leaf) {
+      for (int i = 0; i < this.keyTally; i++) {
+        valueCodec.encode((TValue) this.values[i], page);
+      }
+    } else {
+      for (int i = 0; i <= this.keyTally; i++) {
+        page.putLong(this.children[i]);
+      }
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // searchKeys
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Number of keys smaller than key, or smaller than or equal to key
+   *      when upper is set.
+   */
+  int searchKeys(TKey key, boolean upper) {
+    int threshold = upper ? 0 : 1;
+    int low = 0;
+    int high = this.keyTally;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (key.compareTo((TKey) this.keys[mid]) >= threshold) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @dev Index of key, or (-(insertion point) - 1) when it is absent.
+   */
+  int findKey(TKey key) {
+    int index = this.searchKeys(key, false);
+    if (index < this.keyTally && key.compareTo((TKey) this.keys[index]) == 0) {
+      return index;
+    }
+    return -index - 1;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // leaf slots
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  void openSlot(int index, TKey key, TValue value) {
+    System.arraycopy(this.keys, index, this.keys, index + 1, this.keyTally - index);
+    System.arraycopy(this.values, index, this.values, index + 1, this.keyTally - index);
+    this.keys[index] = key;
+    this.values[index] = value;
+    this.keyTally++;
+  }
+
+  void removeSlot(int index) {
+    System.arraycopy(this.keys, index + 1, this.keys, index, this.keyTally - index - 1);
+    System.arraycopy(this.values, index + 1, this.values, index, this.keyTally - index - 1);
+    this.keyTally--;
+    this.keys[this.keyTally] = null;
+    this.values[this.keyTally] = null;
+  }
+
+  /**
+   * @dev Move count leaf entries starting at from into target at position at,
+   *      closing the gap left behind.
+   */
+  void moveTo(int from, int count, PagedBPTreeNode<TKey, TValue> target, int at) {
+    System.arraycopy(target.keys, at, target.keys, at + count, target.keyTally - at);
+    System.arraycopy(target.values, at, target.values, at + count, target.keyTally - at);
+    System.arraycopy(this.keys, from, target.keys, at, count);
+    System.arraycopy(this.values, from, target.values, at, count);
+    target.keyTally += count;
+
+    System.arraycopy(this.keys, from + count, this.keys, from, this.keyTally - from - count);
+    System.arraycopy(this.values, from + count, this.values, from, this.keyTally - from - count);
+    for (int i = this.keyTally - count; i < this.keyTally; i++) {
+      this.keys[i] = null;
+      this.values[i] = null;
+    }
+    this.keyTally -= count;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // inner slots
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Add separator key with rightChild after the child at index.
+   */
+  void insertSeparator(int index, Object key, long rightChild) {
+    System.arraycopy(this.keys, index, this.keys, index + 1, this.keyTally - index);
+    System.arraycopy(this.children, index + 1, this.children, index + 2, this.keyTally - index);
+    this.keys[index] = key;
+    this.children[index + 1] = rightChild;
+    this.keyTally++;
+  }
+
+  /**
+   * @dev Remove the separator at index together with the child to its right.
+   */
+  void removeSeparator(int index) {
+    System.arraycopy(this.keys, index + 1, this.keys, index, this.keyTally - index - 1);
+    System.arraycopy(this.children, index + 2, this.children, index + 1, this.keyTally - index - 1);
+    this.keyTally--;
+    this.keys[this.keyTally] = null;
+  }
+}
@@ -0,0 +1,47 @@
+import bptree.bench.BenchTree;
+
+/**
+ * @dev The tree lives in the default package, which named packages cannot
+ *      import, and JMH refuses benchmark classes in the default package. This
+ *      adapter sits on the default-package side and is loaded by name from
+ *      BenchTree.create, so the benchmarks only ever see the interface.
+ */
+public class BPTreeBenchAdapter implements BenchTree {
+
+  private final BPTree<Integer, Integer> tree;
+
+  public BPTreeBenchAdapter(int order) {
+    this.tree = new BPTree<Integer, Integer>(order);
+  }
+
+  @Override
+  public void insert(Integer key, Integer value) {
+    tree.insert(key, value);
+  }
+
+  @Override
+  public Integer search(Integer key) {
+    return tree.search(key);
+  }
+
+  @Override
+  public void delete(Integer key) {
+    tree.delete(key);
+  }
+
+  @Override
+  public Object[] values() {
+    return tree.values();
+  }
+
+  @Override
+  public int range(Integer from, Integer to) {
+    BPTreeCursor<Integer, Integer> cursor = tree.range(from, to);
+    int count = 0;
+    while (cursor.hasNext()) {
+      cursor.next();
+      count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,159 @@
+package bptree.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @dev Single-threaded insert, search, delete, range and values() over a
+ *      grid of orders, tree sizes and key distributions. Trees of 10^8
+ *      entries need a large heap; pass it with -jvmArgsAppend, e.g.
+ *      -jvmArgsAppend -Xmx48g.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BPTreeBenchmark {
+
+  /** Length of the lookup stream that search and delete cycle through. */
+  static final int ACCESS_LENGTH = 1 << 22;
+
+  /** Number of consecutive keys a range benchmark walks. */
+  static final int RANGE_LENGTH = 200;
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // states
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Parameters and generated keys. Keys are boxed once into a pool that
+   *      the trees and the probes share, so the GC profiler only sees what the
+   *      tree itself allocates.
+   */
+  @State(Scope.Benchmark)
+  public static class Keys {
+
+    @Param({ "16", "64", "128", "256", "512" })
+    int order;
+
+    @Param({ "100000", "10000000", "100000000" })
+    int size;
+
+    @Param({ "SEQUENTIAL", "UNIFORM", "ZIPFIAN", "REVERSE" })
+    KeyDistribution distribution;
+
+    Integer[] pool;
+    int[] insertOrder;
+    int[] accessOrder;
+
+    @Setup(Level.Trial)
+    public void generate() {
+      SplittableRandom random = new SplittableRandom(42);
+      pool = new Integer[size];
+      for (int i = 0; i < size; i++) {
+        pool[i] = Integer.valueOf(i);
+      }
+      insertOrder = distribution.insertOrder(size, random);
+      accessOrder = distribution.accessOrder(size, ACCESS_LENGTH, random);
+    }
+  }
+
+  /**
+   * @dev A tree holding every key, built once per trial in insertion order.
+   */
+  @State(Scope.Benchmark)
+  public static class Populated {
+
+    BenchTree tree;
+    int cursor;
+
+    @Setup(Level.Trial)
+    public void build(Keys keys) {
+      tree = BenchTree.create(keys.order);
+      for (int key : keys.insertOrder) {
+        tree.insert(keys.pool[key], keys.pool[key]);
+      }
+      cursor = 0;
+    }
+
+    Integer next(Keys keys) {
+      int key = keys.accessOrder[cursor];
+      cursor = (cursor + 1) & (ACCESS_LENGTH - 1);
+      return keys.pool[key];
+    }
+  }
+
+  /**
+   * @dev A tree that insert fills up to size keys and then replaces with an
+   *      empty one, so every measured insert adds a key that is not present.
+   */
+  @State(Scope.Benchmark)
+  public static class Growing {
+
+    BenchTree tree;
+    int cursor;
+
+    @Setup(Level.Trial)
+    public void reset(Keys keys) {
+      tree = BenchTree.create(keys.order);
+      cursor = 0;
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // benchmarks
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Benchmark
+  public void insert(Keys keys, Growing growing) {
+    if (growing.cursor == keys.size) {
+      growing.reset(keys);
+    }
+    Integer key = keys.pool[keys.insertOrder[growing.cursor++]];
+    growing.tree.insert(key, key);
+  }
+
+  @Benchmark
+  public Integer search(Keys keys, Populated populated) {
+    return populated.tree.search(populated.next(keys));
+  }
+
+  /**
+   * @dev Deletes a present key and puts it straight back, so the tree stays at
+   *      size for the whole run. Subtract insert for the delete share.
+   */
+  @Benchmark
+  public void delete(Keys keys, Populated populated) {
+    Integer key = populated.next(keys);
+    populated.tree.delete(key);
+    populated.tree.insert(key, key);
+  }
+
+  /**
+   * @dev Short range scan of RANGE_LENGTH keys starting at a lookup key.
+   */
+  @Benchmark
+  public int range(Keys keys, Populated populated) {
+    Integer from = populated.next(keys);
+    return populated.tree.range(from, from + RANGE_LENGTH);
+  }
+
+  @Benchmark
+  public Object[] values(Populated populated) {
+    return populated.tree.values();
+  }
+}
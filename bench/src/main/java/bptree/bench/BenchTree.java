@@ -0,0 +1,29 @@
+package bptree.bench;
+
+/**
+ * @dev The operations under measurement, as seen from a named package. The
+ *      only implementation is the default-package BPTreeBenchAdapter; the call
+ *      site stays monomorphic, so the JIT inlines straight through it.
+ */
+public interface BenchTree {
+
+  void insert(Integer key, Integer value);
+
+  Integer search(Integer key);
+
+  void delete(Integer key);
+
+  Object[] values();
+
+  /** Walks [from, to) and returns the number of entries visited. */
+  int range(Integer from, Integer to);
+
+  static BenchTree create(int order) {
+    try {
+      Class<?> adapter = Class.forName("BPTreeBenchAdapter");
+      return (BenchTree) adapter.getConstructor(int.class).newInstance(order);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("BPTreeBenchAdapter is missing from the benchmark jar", e);
+    }
+  }
+}
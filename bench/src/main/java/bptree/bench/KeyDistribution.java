@@ -0,0 +1,159 @@
+package bptree.bench;
+
+import java.util.SplittableRandom;
+
+/**
+ * @dev How keys reach the tree. Every distribution fills a tree with the keys
+ *      0..size-1; they differ in the order those keys are inserted and in the
+ *      order lookups and deletes visit them afterwards.
+ */
+public enum KeyDistribution {
+
+  /** Ascending inserts, ascending lookups. */
+  SEQUENTIAL {
+    @Override
+    int[] insertOrder(int size, SplittableRandom random) {
+      int[] keys = new int[size];
+      for (int i = 0; i < size; i++) {
+        keys[i] = i;
+      }
+      return keys;
+    }
+
+    @Override
+    int[] accessOrder(int size, int length, SplittableRandom random) {
+      int[] keys = new int[length];
+      for (int i = 0; i < length; i++) {
+        keys[i] = i % size;
+      }
+      return keys;
+    }
+  },
+
+  /** Shuffled inserts, uniformly random lookups. */
+  UNIFORM {
+    @Override
+    int[] insertOrder(int size, SplittableRandom random) {
+      return shuffled(size, random);
+    }
+
+    @Override
+    int[] accessOrder(int size, int length, SplittableRandom random) {
+      int[] keys = new int[length];
+      for (int i = 0; i < length; i++) {
+        keys[i] = random.nextInt(size);
+      }
+      return keys;
+    }
+  },
+
+  /**
+   * Shuffled inserts, lookups skewed towards a few hot keys (theta 0.99, as in
+   * YCSB). Hot ranks are scattered over the key space so they do not all share
+   * a leaf.
+   */
+  ZIPFIAN {
+    @Override
+    int[] insertOrder(int size, SplittableRandom random) {
+      return shuffled(size, random);
+    }
+
+    @Override
+    int[] accessOrder(int size, int length, SplittableRandom random) {
+      ZipfianGenerator zipf = new ZipfianGenerator(size, 0.99);
+      int[] keys = new int[length];
+      for (int i = 0; i < length; i++) {
+        keys[i] = scatter(zipf.next(random), size);
+      }
+      return keys;
+    }
+  },
+
+  /** Descending inserts, descending lookups. */
+  REVERSE {
+    @Override
+    int[] insertOrder(int size, SplittableRandom random) {
+      int[] keys = new int[size];
+      for (int i = 0; i < size; i++) {
+        keys[i] = size - 1 - i;
+      }
+      return keys;
+    }
+
+    @Override
+    int[] accessOrder(int size, int length, SplittableRandom random) {
+      int[] keys = new int[length];
+      for (int i = 0; i < length; i++) {
+        keys[i] = size - 1 - (i % size);
+      }
+      return keys;
+    }
+  };
+
+  /**
+   * @dev Every key 0..size-1 exactly once, in the order they are inserted.
+   */
+  abstract int[] insertOrder(int size, SplittableRandom random);
+
+  /**
+   * @dev A stream of existing keys that lookups and deletes cycle through.
+   */
+  abstract int[] accessOrder(int size, int length, SplittableRandom random);
+
+  private static int[] shuffled(int size, SplittableRandom random) {
+    int[] keys = SEQUENTIAL.insertOrder(size, random);
+    for (int i = size - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int tmp = keys[i];
+      keys[i] = keys[j];
+      keys[j] = tmp;
+    }
+    return keys;
+  }
+
+  private static int scatter(long rank, int size) {
+    long h = rank * 0x9E3779B97F4A7C15L;
+    return (int) Long.remainderUnsigned(h ^ (h >>> 29), size);
+  }
+
+  /**
+   * @dev Zipfian rank generator after Gray et al., "Quickly Generating
+   *      Billion-Record Synthetic Databases", the same method YCSB uses.
+   */
+  private static final class ZipfianGenerator {
+
+    private final long items;
+    private final double theta;
+    private final double zetaN;
+    private final double alpha;
+    private final double eta;
+
+    ZipfianGenerator(long items, double theta) {
+      this.items = items;
+      this.theta = theta;
+      this.zetaN = zeta(items, theta);
+      this.alpha = 1.0 / (1.0 - theta);
+      this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+    }
+
+    long next(SplittableRandom random) {
+      double u = random.nextDouble();
+      double uz = u * zetaN;
+      if (uz < 1.0) {
+        return 0;
+      }
+      if (uz < 1.0 + Math.pow(0.5, theta)) {
+        return 1;
+      }
+      return Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1, alpha)));
+    }
+
+    private static double zeta(long n, double theta) {
+      double sum = 0;
+      for (long i = 0; i < n; i++) {
+        sum += 1 / Math.pow(i + 1, theta);
+      }
+      return sum;
+    }
+  }
+}
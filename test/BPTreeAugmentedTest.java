@@ -0,0 +1,132 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * @dev Checks augmented mode against a TreeMap: rank, select, count, size and
+ *      a sum aggregate over random ranges while inserts, deletes and batches
+ *      change the tree, for trees augmented empty or once already filled, and
+ *      a min aggregate over a bulk-loaded tree.
+ */
+class BPTreeAugmentedTest {
+
+  public static void main(String[] args) {
+    Random random = new Random(9);
+    for (int order : new int[] { 3, 4, 5, 8, 32 }) {
+      for (int round = 0; round < 6; round++) {
+        run(order, round, random);
+      }
+    }
+    bulkLoadedMin(random);
+    System.out.println("BPTreeAugmentedTest passed");
+  }
+
+  private static void run(int order, int round, Random random) {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(order);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    int range = 200 + random.nextInt(4000);
+    boolean early = round % 2 == 0;
+    BPTreeSnapshot<Integer, Integer> snapshot = null;
+    if (early) {
+      tree.augment(BPTreeMonoid.sum((Integer value) -> value));
+    }
+    for (int step = 0; step < 8000; step++) {
+      if (!early && step == 2000) {
+        tree.augment(BPTreeMonoid.sum((Integer value) -> value));
+      }
+      if (step % 1000 == 500) {
+        if (snapshot != null) {
+          snapshot.close();
+        }
+        snapshot = round % 3 == 0 ? tree.snapshot() : null;
+      }
+      int op = random.nextInt(20);
+      if (op < 9) {
+        int key = random.nextInt(range);
+        int value = random.nextInt(1000) - 500;
+        tree.insert(key, value);
+        expected.put(key, value);
+      } else if (op < 18) {
+        int key = random.nextInt(range);
+        tree.delete(key);
+        expected.remove(key);
+      } else if (op == 18) {
+        int n = random.nextInt(300);
+        Integer[] keys = new Integer[n];
+        Integer[] values = new Integer[n];
+        for (int i = 0; i < n; i++) {
+          keys[i] = random.nextInt(range);
+          values[i] = random.nextInt(100);
+          expected.put(keys[i], values[i]);
+        }
+        tree.insertAll(keys, values);
+      }
+      if (tree.isAugmented() && step % 50 == 0) {
+        checkQueries(tree, expected, random, range, "order " + order + " round " + round + " step " + step);
+      }
+    }
+    if (snapshot != null) {
+      snapshot.close();
+    }
+    BPTreeInvariants.check(tree, true);
+  }
+
+  private static void checkQueries(BPTree<Integer, Integer> tree, TreeMap<Integer, Integer> expected, Random random,
+      int range, String when) {
+    check(tree.size() == expected.size(), when + ": size " + tree.size() + ", expected " + expected.size());
+    long total = 0;
+    for (int value : expected.values()) {
+      total += value;
+    }
+    check(Objects.equals(tree.aggregate(null, null), total), when + ": aggregate of the whole tree");
+
+    ArrayList<Integer> keys = new ArrayList<Integer>(expected.keySet());
+    for (int q = 0; q < 20; q++) {
+      int key = random.nextInt(range + 2) - 1;
+      check(tree.rank(key) == expected.headMap(key).size(), when + ": rank " + key);
+      if (!keys.isEmpty()) {
+        int index = random.nextInt(keys.size());
+        check(tree.select(index).equals(keys.get(index)), when + ": select " + index);
+      }
+
+      int from = random.nextInt(range);
+      int to = from + random.nextInt(range / 4 + 1);
+      boolean fromInclusive = random.nextBoolean();
+      boolean toInclusive = random.nextBoolean();
+      NavigableMap<Integer, Integer> sub = expected.subMap(from, fromInclusive, to, toInclusive);
+      check(tree.count(from, fromInclusive, to, toInclusive) == sub.size(), when + ": count " + from + ".." + to);
+      long sum = 0;
+      for (int value : sub.values()) {
+        sum += value;
+      }
+      check(Objects.equals(tree.aggregate(from, fromInclusive, to, toInclusive), sum), when + ": aggregate " + from
+          + ".." + to);
+    }
+  }
+
+  private static void bulkLoadedMin(Random random) {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(16);
+    tree.augment(BPTreeMonoid.min(Comparator.<Integer>naturalOrder()));
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    for (int i = 0; i < 10000; i++) {
+      expected.put(i * 2, (i * 7919) % 10007);
+    }
+    tree.bulkLoad(expected.entrySet().iterator(), 0.7);
+    BPTreeInvariants.check(tree, false);
+    for (int q = 0; q < 2000; q++) {
+      int from = random.nextInt(20000);
+      int to = from + random.nextInt(2000);
+      Integer min = expected.subMap(from, true, to, false).values().stream().min(Integer::compare).orElse(null);
+      check(Objects.equals(tree.aggregate(from, to), min), "min " + from + ".." + to);
+    }
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
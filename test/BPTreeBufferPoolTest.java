@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * @dev Checks that a two-frame pool, evicting on nearly every pin, never
+ *      writes over a page of the last checkpoint and only reuses the pages it
+ *      gives up once the next checkpoint is durable.
+ */
+class BPTreeBufferPoolTest {
+
+  private static final int PAGE_SIZE = 4096;
+  private static final int NODES = 4;
+
+  public static void main(String[] args) throws IOException {
+    Path path = Files.createTempFile("bptree", ".db");
+    Files.delete(path);
+    BPTreePageFile file = new BPTreePageFile(path, PAGE_SIZE, Long.BYTES, Long.BYTES);
+    try {
+      BPTreeBufferPool<Long, Long> pool = new BPTreeBufferPool<Long, Long>(file, 2,
+          PagedBPTreeNode.leafOrder(PAGE_SIZE, Long.BYTES, Long.BYTES), PagedBPTreeNode.innerOrder(PAGE_SIZE, Long.BYTES),
+          BPTreeCodec.LONG, BPTreeCodec.LONG);
+
+      long[] checkpointed = new long[NODES];
+      for (int i = 0; i < NODES; i++) {
+        PagedBPTreeNode<Long, Long> node = pool.pinNew(true);
+        node.openSlot(0, (long) i, (long) i);
+        checkpointed[i] = node.pageId;
+        pool.unpin(node);
+      }
+      pool.flush();
+      file.commit();
+      byte[][] before = readPages(file, checkpointed);
+
+      // Change every checkpointed node and push each out of the pool
+      HashSet<Long> written = new HashSet<Long>();
+      for (int i = 0; i < NODES; i++) {
+        PagedBPTreeNode<Long, Long> node = pool.pin(checkpointed[i], false, false);
+        check(pool.relocate(node), "a node of the last checkpoint should move");
+        check(!pool.relocate(node), "a moved node should stay put");
+        node.openSlot(1, 100L + i, 100L + i);
+        written.add(node.pageId);
+        pool.unpin(node);
+        for (int j = 0; j < 3; j++) {
+          PagedBPTreeNode<Long, Long> filler = pool.pinNew(true);
+          written.add(filler.pageId);
+          pool.unpin(filler);
+        }
+      }
+      for (long pageId : checkpointed) {
+        check(!written.contains(pageId), "page " + pageId + " reused before the next checkpoint");
+      }
+      check(Arrays.deepEquals(before, readPages(file, checkpointed)), "a checkpointed page was overwritten");
+
+      // After the next checkpoint the pages given up are the first reused
+      pool.flush();
+      file.commit();
+      HashSet<Long> reused = new HashSet<Long>();
+      for (int i = 0; i < NODES; i++) {
+        PagedBPTreeNode<Long, Long> node = pool.pinNew(true);
+        reused.add(node.pageId);
+        pool.unpin(node);
+      }
+      for (long pageId : checkpointed) {
+        check(reused.contains(pageId), "page " + pageId + " not reused after the checkpoint");
+      }
+
+      // Changing a checkpointed node in place is refused at write-back
+      pool.flush();
+      file.commit();
+      PagedBPTreeNode<Long, Long> node = pool.pin(written.iterator().next(), false, false);
+      node.dirty = true;
+      pool.unpin(node);
+      try {
+        pool.flush();
+        throw new AssertionError("writing back an unmoved checkpointed node should fail");
+      } catch (IllegalStateException e) {
+        node.dirty = false;
+      }
+    } finally {
+      file.close();
+      Files.delete(path);
+    }
+    System.out.println("BPTreeBufferPoolTest passed");
+  }
+
+  private static byte[][] readPages(BPTreePageFile file, long[] pageIds) throws IOException {
+    byte[][] pages = new byte[pageIds.length][];
+    ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+    for (int i = 0; i < pageIds.length; i++) {
+      file.readPage(pageIds[i], page);
+      pages[i] = Arrays.copyOf(page.array(), PAGE_SIZE);
+    }
+    return pages;
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
@@ -0,0 +1,133 @@
+import java.lang.reflect.Field;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * @dev Checks bulkLoad at the edges of its input: empty input, a single
+ *      entry and sizes just either side of one leaf, at fill factors from
+ *      barely above 0 up to 1. Every node but the root must stay within
+ *      the occupancy the delete path expects, leaves must not be filled
+ *      past their target, and the tree must take inserts afterwards. Bad
+ *      fill factors, unsorted input and non-empty trees are rejected.
+ */
+class BPTreeBulkLoadTest {
+
+  public static void main(String[] args) {
+    Random random = new Random(5);
+    for (int order : new int[] { 3, 4, 5, 6, 8, 16, 64, 256 }) {
+      for (double fill : new double[] { 0.01, 0.5, 0.75, 1.0 }) {
+        for (int size : new int[] { 0, 1, 2, order - 2, order - 1, order, 2 * order - 1, 2 * order + 1, 5000 }) {
+          run(order, fill, size, random);
+        }
+      }
+    }
+    rejects();
+    System.out.println("BPTreeBulkLoadTest passed");
+  }
+
+  private static void run(int order, double fill, int size, Random random) {
+    String when = "order " + order + " fill " + fill + " size " + size;
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    for (int i = 0; i < size; i++) {
+      expected.put(3 * i, i);
+    }
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(order);
+    tree.bulkLoad(expected.entrySet().iterator(), fill);
+    check(tree, expected, when);
+
+    // Leaves are packed to the target, never below the minimum; folding a
+    // short last leaf into its neighbour can add up to minimum - 1 more
+    int minimum = Math.max(1, (order - 1) / 2);
+    int target = Math.max(minimum, Math.min(order - 1, (int) Math.round((order - 1) * fill)));
+    int leaves = 0;
+    for (BPTreeNode<Integer, Integer> leaf = leftmostLeaf(tree); leaf != null; leaf = leaf.rightSibling) {
+      leaves++;
+      check(leaf.keyTally <= Math.max(target, 2 * minimum - 1), when + ": leaf filled to " + leaf.keyTally
+          + " past its target " + target);
+    }
+    if (fill == 1.0 && size > 0) {
+      int packed = (size + order - 2) / (order - 1);
+      check(leaves == packed, when + ": " + leaves + " leaves, a full packing needs " + packed);
+    }
+
+    for (int i = 0; i < 500; i++) {
+      int key = random.nextInt(3 * size + 10) - 5;
+      tree.insert(key, -key);
+      expected.put(key, -key);
+    }
+    check(tree, expected, when + " after inserts");
+  }
+
+  private static void rejects() {
+    List<Map.Entry<Integer, Integer>> sorted = entries(1, 2, 3);
+    for (double fill : new double[] { 0, -0.5, 1.01, Double.NaN }) {
+      try {
+        new BPTree<Integer, Integer>(8).bulkLoad(sorted.iterator(), fill);
+        check(false, "fill factor " + fill + " accepted");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+    for (List<Map.Entry<Integer, Integer>> unsorted : Arrays.asList(entries(1, 3, 2), entries(1, 2, 2))) {
+      try {
+        new BPTree<Integer, Integer>(8).bulkLoad(unsorted.iterator(), 1.0);
+        check(false, "unsorted input " + unsorted + " accepted");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(8);
+    tree.insert(0, 0);
+    try {
+      tree.bulkLoad(sorted.iterator(), 1.0);
+      check(false, "bulkLoad into a non-empty tree accepted");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  private static List<Map.Entry<Integer, Integer>> entries(int... keys) {
+    List<Map.Entry<Integer, Integer>> entries = new ArrayList<Map.Entry<Integer, Integer>>();
+    for (int key : keys) {
+      entries.add(new AbstractMap.SimpleEntry<Integer, Integer>(key, key));
+    }
+    return entries;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static BPTreeNode<Integer, Integer> leftmostLeaf(BPTree<Integer, Integer> tree) {
+    BPTreeNode<Integer, Integer> node;
+    try {
+      Field field = BPTree.class.getDeclaredField("root");
+      field.setAccessible(true);
+      node = (BPTreeNode<Integer, Integer>) field.get(tree);
+    } catch (ReflectiveOperationException e) {
+      throw new AssertionError(e);
+    }
+    while (!node.isLeaf()) {
+      node = ((BPTreeInnerNode<Integer, Integer>) node).getChild(0);
+    }
+    return node;
+  }
+
+  private static void check(BPTree<Integer, Integer> tree, TreeMap<Integer, Integer> expected, String when) {
+    BPTreeInvariants.check(tree, true);
+    check(Arrays.equals(tree.values(), expected.values().toArray()), when + ": values differ");
+    int last = expected.isEmpty() ? 0 : expected.lastKey();
+    for (int key = -6; key <= last + 6; key++) {
+      check(Objects.equals(tree.search(key), expected.get(key)), when + ": search " + key);
+    }
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
@@ -0,0 +1,147 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * @dev Checks deleteRange against a TreeMap: open, half-open, closed, empty
+ *      and unbounded ranges, short and long, on plain, augmented and lazily
+ *      deleting trees and with snapshots open, then that a range spanning
+ *      nearly the whole tree leaves a valid tree of the right height.
+ */
+class BPTreeDeleteRangeTest {
+
+  private static final int RANGE = 6000;
+
+  public static void main(String[] args) {
+    Random random = new Random(33);
+    for (int order : new int[] { 3, 4, 5, 6, 8, 16, 64 }) {
+      for (int round = 0; round < 4; round++) {
+        run(order, round, random);
+      }
+    }
+    wholeTree();
+    System.out.println("BPTreeDeleteRangeTest passed");
+  }
+
+  /**
+   * @dev Round 1 is augmented, round 2 keeps snapshots open and round 3
+   *      deletes lazily.
+   */
+  private static void run(int order, int round, Random random) {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(order);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    if (round == 1) {
+      tree.augment(BPTreeMonoid.sum((Integer value) -> value));
+    }
+    if (round == 3) {
+      tree.setLazyDelete(true);
+    }
+    BPTreeSnapshot<Integer, Integer> snapshot = null;
+    TreeMap<Integer, Integer> snapshotExpected = null;
+    for (int step = 0; step < 3000; step++) {
+      String when = "order " + order + " round " + round + " step " + step;
+      if (round == 2 && step % 300 == 150) {
+        if (snapshot != null) {
+          checkSnapshot(snapshot, snapshotExpected, when);
+          snapshot.close();
+        }
+        snapshot = tree.snapshot();
+        snapshotExpected = new TreeMap<Integer, Integer>(expected);
+      }
+      int n = random.nextInt(60);
+      for (int i = 0; i < n; i++) {
+        int key = random.nextInt(RANGE);
+        tree.insert(key, key);
+        expected.put(key, key);
+      }
+      if (round == 3) {
+        for (int i = 0; i < n / 2; i++) {
+          int key = random.nextInt(RANGE);
+          tree.delete(key);
+          expected.remove(key);
+        }
+      }
+
+      Integer from = random.nextInt(15) == 0 ? null : random.nextInt(RANGE);
+      Integer to = random.nextInt(15) == 0 ? null
+          : (from == null ? random.nextInt(RANGE) : from + random.nextInt(random.nextBoolean() ? 50 : RANGE / 3));
+      boolean fromInclusive = random.nextBoolean();
+      boolean toInclusive = random.nextBoolean();
+      if (random.nextInt(4) == 0) {
+        fromInclusive = true;
+        toInclusive = false;
+      }
+      tree.deleteRange(from, fromInclusive, to, toInclusive);
+      if (from == null || to == null || from < to || (from.equals(to) && fromInclusive && toInclusive)) {
+        subMap(expected, from, fromInclusive, to, toInclusive).clear();
+      }
+
+      if (step % 20 == 0) {
+        BPTreeInvariants.check(tree, round != 3);
+        check(Arrays.equals(tree.values(), expected.values().toArray()), when + ": values differ");
+        if (round == 1) {
+          long sum = expected.values().stream().mapToLong(value -> value).sum();
+          check(tree.size() == expected.size() && Objects.equals(tree.aggregate(null, null), sum), when
+              + ": augmented size or sum");
+        }
+      }
+    }
+    if (snapshot != null) {
+      checkSnapshot(snapshot, snapshotExpected, "order " + order + " end");
+      snapshot.close();
+    }
+    if (round == 3) {
+      tree.compact();
+      BPTreeInvariants.check(tree, true);
+      check(Arrays.equals(tree.values(), expected.values().toArray()), "order " + order + ": after compact");
+    }
+  }
+
+  /**
+   * @dev Cut all but a thousand keys from each end of a large tree. The
+   *      leaf chain, separators and tracked height must stay valid.
+   */
+  private static void wholeTree() {
+    int n = 200000;
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(64);
+    for (int i = 0; i < n; i++) {
+      tree.insert(i, i);
+    }
+    tree.deleteRange(1000, n - 1000);
+    BPTreeInvariants.check(tree, true);
+    Object[] values = tree.values();
+    check(values.length == 2000, values.length + " values left, expected 2000");
+    for (int i = 0; i < 2000; i++) {
+      int key = i < 1000 ? i : n - 2000 + i;
+      check(values[i].equals(key) && Objects.equals(tree.search(key), key), "key " + key + " lost");
+    }
+    tree.deleteRange(null, null);
+    values = tree.values();
+    check(values.length == 0 && tree.getHeight() == 1, "deleting everything should leave an empty leaf");
+  }
+
+  private static NavigableMap<Integer, Integer> subMap(TreeMap<Integer, Integer> map, Integer from,
+      boolean fromInclusive, Integer to, boolean toInclusive) {
+    if (from == null) {
+      return to == null ? map : map.headMap(to, toInclusive);
+    }
+    return to == null ? map.tailMap(from, fromInclusive) : map.subMap(from, fromInclusive, to, toInclusive);
+  }
+
+  private static void checkSnapshot(BPTreeSnapshot<Integer, Integer> snapshot, TreeMap<Integer, Integer> expected,
+      String when) {
+    check(Arrays.equals(snapshot.values(), expected.values().toArray()), when + ": snapshot values changed");
+    for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+      check(entry.getValue().equals(snapshot.search(entry.getKey())), when + ": snapshot search " + entry.getKey());
+    }
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
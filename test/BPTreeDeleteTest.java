@@ -0,0 +1,117 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * @dev Checks delete against a TreeMap at small and large orders: random
+ *      inserts and deletes, deletes of absent keys, draining a tree in
+ *      ascending, descending and random order, and deletes while a snapshot
+ *      is open, which must not see them.
+ */
+class BPTreeDeleteTest {
+
+  private static final int RANGE = 3000;
+
+  public static void main(String[] args) {
+    Random random = new Random(14);
+    for (int order : new int[] { 3, 4, 5, 6, 7, 8, 16, 64 }) {
+      mixed(order, random);
+      for (int direction = 0; direction < 3; direction++) {
+        drain(order, direction, random);
+      }
+      snapshot(order, random);
+    }
+    System.out.println("BPTreeDeleteTest passed");
+  }
+
+  private static void mixed(int order, Random random) {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(order);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    for (int step = 0; step < 30000; step++) {
+      int key = random.nextInt(RANGE);
+      if (random.nextInt(10) < 6) {
+        tree.insert(key, step);
+        expected.put(key, step);
+      } else {
+        tree.delete(key);
+        expected.remove(key);
+      }
+      if (step % 500 == 0) {
+        check(tree, expected, "order " + order + " step " + step);
+      }
+    }
+    check(tree, expected, "order " + order);
+  }
+
+  /**
+   * @dev direction 0 deletes in ascending order, 1 in descending order and 2
+   *      in random order, with a delete of an absent key before each one.
+   */
+  private static void drain(int order, int direction, Random random) {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(order);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    for (int key = 0; key < RANGE; key += 2) {
+      tree.insert(key, key);
+      expected.put(key, key);
+    }
+    ArrayList<Integer> keys = new ArrayList<Integer>(expected.keySet());
+    if (direction == 1) {
+      Collections.reverse(keys);
+    } else if (direction == 2) {
+      Collections.shuffle(keys, random);
+    }
+    String when = "order " + order + " drain " + direction;
+    for (Integer key : keys) {
+      tree.delete(key + 1);
+      tree.delete(key);
+      expected.remove(key);
+      if (expected.size() % 100 == 0) {
+        check(tree, expected, when);
+      }
+    }
+    Object[] values = tree.values();
+    check(values.length == 0, when + ": drained tree holds values");
+  }
+
+  private static void snapshot(int order, Random random) {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(order);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    for (int i = 0; i < RANGE; i++) {
+      int key = random.nextInt(RANGE);
+      tree.insert(key, i);
+      expected.put(key, i);
+    }
+    BPTreeSnapshot<Integer, Integer> snapshot = tree.snapshot();
+    TreeMap<Integer, Integer> frozen = new TreeMap<Integer, Integer>(expected);
+    for (int i = 0; i < RANGE; i++) {
+      int key = random.nextInt(RANGE);
+      tree.delete(key);
+      expected.remove(key);
+    }
+    String when = "order " + order + " snapshot";
+    check(tree, expected, when);
+    check(Arrays.equals(snapshot.values(), frozen.values().toArray()), when + ": snapshot saw deletes");
+    for (Map.Entry<Integer, Integer> entry : frozen.entrySet()) {
+      check(entry.getValue().equals(snapshot.search(entry.getKey())), when + ": snapshot search " + entry.getKey());
+    }
+    snapshot.close();
+  }
+
+  private static void check(BPTree<Integer, Integer> tree, TreeMap<Integer, Integer> expected, String when) {
+    BPTreeInvariants.check(tree, true);
+    check(Arrays.equals(tree.values(), expected.values().toArray()), when + ": values differ");
+    for (int key = -1; key <= RANGE; key++) {
+      check(Objects.equals(tree.search(key), expected.get(key)), when + ": search " + key);
+    }
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * @dev Records a known workload with JFR and checks the events against
+ *      BPTreeStats: one split event per split on insert, one rebalance event
+ *      per borrow or merge, and with a zero threshold one slow-operation
+ *      event per call, including insertAll and bulkLoad.
+ */
+class BPTreeEventTest {
+
+  public static void main(String[] args) throws Exception {
+    Path file = Files.createTempFile("bptree-events", ".jfr");
+    try {
+      run(file);
+    } finally {
+      Files.deleteIfExists(file);
+    }
+    System.out.println("BPTreeEventTest passed");
+  }
+
+  private static void run(Path file) throws Exception {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(6);
+    BPTree<Integer, Integer> loaded = new BPTree<Integer, Integer>(6);
+    int n = 5000;
+    BPTreeStats stats;
+    try (Recording recording = new Recording()) {
+      recording.enable("bptree.Split");
+      recording.enable("bptree.Rebalance");
+      recording.enable("bptree.SlowOperation").withThreshold(Duration.ZERO);
+      recording.start();
+      for (int i = 0; i < n; i++) {
+        tree.insert(i * 7 % n, i);
+      }
+      for (int i = 0; i < 1000; i++) {
+        tree.search(i);
+      }
+      for (int i = 0; i < n / 2; i++) {
+        tree.delete(i * 2);
+      }
+      tree.values();
+      stats = tree.getStats();
+      Integer[] batch = { 100001, 100000, 100002 };
+      tree.insertAll(batch, batch);
+      List<Map.Entry<Integer, Integer>> entries = new ArrayList<Map.Entry<Integer, Integer>>();
+      for (int i = 0; i < 1000; i++) {
+        entries.add(new AbstractMap.SimpleEntry<Integer, Integer>(i, i));
+      }
+      loaded.bulkLoad(entries.iterator(), 1.0);
+      recording.stop();
+      recording.dump(file);
+    }
+
+    int leafSplits = 0;
+    int innerSplits = 0;
+    int rebalances = 0;
+    int merges = 0;
+    int[] slow = new int[BPTreeOperation.values().length];
+    for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+      String name = event.getEventType().getName();
+      if (name.equals("bptree.Split")) {
+        if (event.getBoolean("leaf")) {
+          leafSplits++;
+        } else {
+          innerSplits++;
+        }
+        check(event.getInt("order") == 6 && event.getInt("level") >= 1
+            && event.getInt("level") <= event.getInt("height"), "split event fields " + event);
+      } else if (name.equals("bptree.Rebalance")) {
+        rebalances++;
+        boolean merge = event.getString("kind").endsWith("merge");
+        check(event.getBoolean("separatorRemoved") == merge, "separatorRemoved on " + event.getString("kind"));
+        merges += merge ? 1 : 0;
+      } else if (name.equals("bptree.SlowOperation")) {
+        slow[BPTreeOperation.valueOf(event.getString("operation")).ordinal()]++;
+      }
+    }
+
+    check(leafSplits == stats.getLeafSplits() && innerSplits == stats.getInnerSplits(), "split events "
+        + leafSplits + "/" + innerSplits + ", stats " + stats);
+    check(rebalances == stats.getLeftRedistributions() + stats.getRightRedistributions() + stats.getLeftMerges()
+        + stats.getRightMerges(), rebalances + " rebalance events, stats " + stats);
+    check(merges == stats.getLeftMerges() + stats.getRightMerges() && merges > 0, merges + " merge events");
+    check(slow[BPTreeOperation.INSERT.ordinal()] == n, "insert events " + slow[BPTreeOperation.INSERT.ordinal()]);
+    check(slow[BPTreeOperation.SEARCH.ordinal()] == 1000, "search events");
+    check(slow[BPTreeOperation.DELETE.ordinal()] == n / 2, "delete events");
+    check(slow[BPTreeOperation.SCAN.ordinal()] == 1, "scan events");
+    check(slow[BPTreeOperation.BATCH_INSERT.ordinal()] == 1, "batch insert events");
+    check(slow[BPTreeOperation.BULK_LOAD.ordinal()] == 1, "bulk load events");
+    check(tree.getStats().getOperationCount(BPTreeOperation.BATCH_INSERT) == 3, "batch insert count");
+    check(loaded.getStats().getOperationCount(BPTreeOperation.BULK_LOAD) == 1000, "bulk load count");
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
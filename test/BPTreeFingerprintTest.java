@@ -0,0 +1,153 @@
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * @dev Checks per-leaf fingerprints against a TreeMap: they stay in step with
+ *      the keys through every kind of write, lookups of present and absent
+ *      keys agree with the map whether they are on or off, and turning them
+ *      on or off mid-run rebuilds or drops them everywhere.
+ */
+class BPTreeFingerprintTest {
+
+  private static final int RANGE = 4000;
+
+  public static void main(String[] args) {
+    Random random = new Random(25);
+    for (int order : new int[] { 3, 4, 5, 8, 16, 64, 256 }) {
+      for (int round = 0; round < 4; round++) {
+        run(order, round, random);
+      }
+    }
+    strings(random);
+    System.out.println("BPTreeFingerprintTest passed");
+  }
+
+  /**
+   * @dev Round 0 keeps snapshots open, round 1 starts from a bulk load,
+   *      round 2 turns fingerprints on halfway and round 3 deletes lazily
+   *      with append splits.
+   */
+  private static void run(int order, int round, Random random) {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(order);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    if (round == 1) {
+      for (int i = 0; i < 3000; i += 2) {
+        expected.put(i, i);
+      }
+      tree.setFingerprints(true);
+      tree.bulkLoad(expected.entrySet().iterator(), 0.8);
+    } else if (round != 2) {
+      tree.setFingerprints(true);
+    }
+    if (round == 3) {
+      tree.setLazyDelete(true);
+      tree.setAppendSplitRatio(0.9);
+    }
+    BPTreeSnapshot<Integer, Integer> snapshot = null;
+    TreeMap<Integer, Integer> snapshotExpected = null;
+    for (int step = 0; step < 30000; step++) {
+      if (round == 2 && step == 15000) {
+        tree.setFingerprints(true);
+      }
+      if (round == 0 && step % 5000 == 2500) {
+        if (snapshot != null) {
+          checkSnapshot(snapshot, snapshotExpected);
+          snapshot.close();
+        }
+        snapshot = tree.snapshot();
+        snapshotExpected = new TreeMap<Integer, Integer>(expected);
+      }
+      int op = random.nextInt(100);
+      int key = random.nextInt(RANGE);
+      if (op < 40) {
+        tree.insert(key, key + 1);
+        expected.put(key, key + 1);
+      } else if (op < 43) {
+        int last = expected.isEmpty() ? 100000 : Math.max(100000, expected.lastKey() + 1);
+        tree.insert(last, last);
+        expected.put(last, last);
+      } else if (op < 78) {
+        tree.delete(key);
+        expected.remove(key);
+      } else if (op < 79) {
+        Integer[] keys = new Integer[50];
+        for (int i = 0; i < keys.length; i++) {
+          keys[i] = random.nextInt(RANGE);
+          expected.put(keys[i], keys[i]);
+        }
+        tree.insertAll(keys, keys.clone());
+      } else if (op < 80 && step % 20 == 0) {
+        int to = key + random.nextInt(200);
+        tree.deleteRange(key, to);
+        expected.subMap(key, to).clear();
+      } else if (op < 81 && step % 50 == 0) {
+        tree.compact();
+      } else if (op < 90) {
+        check(Objects.equals(tree.search(key), expected.get(key)), "order " + order + ": search " + key);
+      }
+      if (step % 1000 == 0) {
+        checkLookups(tree, expected);
+      }
+    }
+    checkLookups(tree, expected);
+    tree.compact();
+    BPTreeInvariants.check(tree, round != 3);
+    checkLookups(tree, expected);
+    if (snapshot != null) {
+      checkSnapshot(snapshot, snapshotExpected);
+      snapshot.close();
+    }
+    tree.setFingerprints(false);
+    checkLookups(tree, expected);
+  }
+
+  /**
+   * @dev String keys, whose compareTo is costlier than a fingerprint check,
+   *      with lookups of present and absent keys.
+   */
+  private static void strings(Random random) {
+    BPTree<String, Integer> tree = new BPTree<String, Integer>(64);
+    TreeMap<String, Integer> expected = new TreeMap<String, Integer>();
+    for (int i = 0; i < 20000; i++) {
+      String key = "user:" + Integer.toHexString(i * 0x9E3779B1);
+      tree.insert(key, i);
+      expected.put(key, i);
+    }
+    tree.setFingerprints(true);
+    for (int i = 0; i < 50000; i++) {
+      String key = "user:" + Integer.toHexString(random.nextInt(40000) * 0x9E3779B1);
+      check(Objects.equals(tree.search(key), expected.get(key)), "search " + key);
+    }
+  }
+
+  private static void checkLookups(BPTree<Integer, Integer> tree, TreeMap<Integer, Integer> expected) {
+    BPTreeInvariants.check(tree, false);
+    Integer[] keys = new Integer[RANGE + 50];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = i < RANGE ? i : 100000 + i;
+    }
+    List<Integer> found = tree.searchAll(keys);
+    for (int i = 0; i < keys.length; i++) {
+      check(Objects.equals(found.get(i), expected.get(keys[i])), "searchAll " + keys[i]);
+      check(Objects.equals(tree.search(keys[i]), expected.get(keys[i])), "search " + keys[i]);
+    }
+    for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+      check(entry.getValue().equals(tree.search(entry.getKey())), "search present " + entry.getKey());
+    }
+  }
+
+  private static void checkSnapshot(BPTreeSnapshot<Integer, Integer> snapshot, TreeMap<Integer, Integer> expected) {
+    for (int key = 0; key < RANGE; key++) {
+      check(Objects.equals(snapshot.search(key), expected.get(key)), "snapshot search " + key);
+    }
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
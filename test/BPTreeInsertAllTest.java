@@ -0,0 +1,87 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * @dev Checks insertAll against a TreeMap: batches of every size from empty
+ *      to larger than the tree, unsorted and with repeated keys, mixed with
+ *      single inserts, with and without a snapshot open. searchAll answers
+ *      the lookups.
+ */
+class BPTreeInsertAllTest {
+
+  public static void main(String[] args) {
+    Random random = new Random(7);
+    for (int order : new int[] { 3, 4, 5, 8, 33 }) {
+      for (int round = 0; round < 20; round++) {
+        run(order, random, round % 4 == 3);
+      }
+    }
+    System.out.println("BPTreeInsertAllTest passed");
+  }
+
+  private static void run(int order, Random random, boolean snapshots) {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(order);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    BPTreeSnapshot<Integer, Integer> snapshot = null;
+    TreeMap<Integer, Integer> snapshotExpected = null;
+    for (int step = 0; step < 20; step++) {
+      if (snapshots && step % 5 == 2) {
+        if (snapshot != null) {
+          checkSnapshot(snapshot, snapshotExpected, order);
+          snapshot.close();
+        }
+        snapshot = tree.snapshot();
+        snapshotExpected = new TreeMap<Integer, Integer>(expected);
+      }
+      if (random.nextInt(3) == 0) {
+        int key = random.nextInt(3000);
+        int value = random.nextInt();
+        tree.insert(key, value);
+        expected.put(key, value);
+      } else {
+        int n = random.nextInt(step % 5 == 0 ? 2000 : 60);
+        Integer[] keys = new Integer[n];
+        Integer[] values = new Integer[n];
+        int base = random.nextInt(3000);
+        int span = 1 + random.nextInt(3000);
+        for (int i = 0; i < n; i++) {
+          keys[i] = base + random.nextInt(span) - span / 2;
+          values[i] = random.nextInt();
+          expected.put(keys[i], values[i]);
+        }
+        tree.insertAll(keys, values);
+      }
+
+      BPTreeInvariants.check(tree, true);
+      check(Arrays.equals(tree.values(), expected.values().toArray()), "order " + order + ": values differ");
+      Integer[] lookups = new Integer[200];
+      for (int i = 0; i < lookups.length; i++) {
+        lookups[i] = random.nextInt(4000) - 500;
+      }
+      List<Integer> found = tree.searchAll(lookups);
+      for (int i = 0; i < lookups.length; i++) {
+        check(Objects.equals(found.get(i), expected.get(lookups[i])), "order " + order + ": searchAll " + lookups[i]);
+        check(Objects.equals(tree.search(lookups[i]), expected.get(lookups[i])), "order " + order + ": search "
+            + lookups[i]);
+      }
+    }
+    if (snapshot != null) {
+      checkSnapshot(snapshot, snapshotExpected, order);
+      snapshot.close();
+    }
+  }
+
+  private static void checkSnapshot(BPTreeSnapshot<Integer, Integer> snapshot, TreeMap<Integer, Integer> expected,
+      int order) {
+    check(Arrays.equals(snapshot.values(), expected.values().toArray()), "order " + order + ": snapshot changed");
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
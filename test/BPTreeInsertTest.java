@@ -0,0 +1,66 @@
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * @dev Checks the insert path against a TreeMap: ascending, descending and
+ *      random key orders at small and wide orders, where every insert lands
+ *      at the front, the back or the middle of a node, and repeated keys,
+ *      which must replace their value rather than be stored twice.
+ */
+class BPTreeInsertTest {
+
+  private static final int RANGE = 6000;
+
+  public static void main(String[] args) {
+    Random random = new Random(2);
+    for (int order : new int[] { 3, 4, 5, 6, 7, 8, 16, 64, 256 }) {
+      for (int pattern = 0; pattern < 3; pattern++) {
+        run(order, pattern, random);
+      }
+    }
+    System.out.println("BPTreeInsertTest passed");
+  }
+
+  /**
+   * @dev Pattern 0 inserts ascending keys, pattern 1 descending keys and
+   *      pattern 2 random keys, about a third of them already present.
+   */
+  private static void run(int order, int pattern, Random random) {
+    String when = "order " + order + " pattern " + pattern;
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(order);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    for (int step = 0; step < RANGE; step++) {
+      int key = pattern == 0 ? step : pattern == 1 ? RANGE - step : random.nextInt(RANGE);
+      int value = random.nextInt();
+      tree.insert(key, value);
+      expected.put(key, value);
+      if (step % 500 == 0) {
+        check(tree, expected, when + " step " + step);
+      }
+    }
+    check(tree, expected, when);
+
+    // Overwrite every key once more
+    for (Integer key : expected.keySet()) {
+      tree.insert(key, -key);
+      expected.put(key, -key);
+    }
+    check(tree, expected, when + " after overwrites");
+  }
+
+  private static void check(BPTree<Integer, Integer> tree, TreeMap<Integer, Integer> expected, String when) {
+    BPTreeInvariants.check(tree, true);
+    check(Arrays.equals(tree.values(), expected.values().toArray()), when + ": values differ");
+    for (int key = -1; key <= RANGE + 1; key++) {
+      check(Objects.equals(tree.search(key), expected.get(key)), when + ": search " + key);
+    }
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
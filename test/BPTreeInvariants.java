@@ -0,0 +1,103 @@
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+
+/**
+ * @dev Structural checks on a BPTree with Integer keys, shared by the tests.
+ *      Keys are sorted and within their parent's separators, every leaf is
+ *      at the depth the tracked height says, and the leaf chain links the
+ *      leaves in order both ways. Each leaf's tombstone count matches the
+ *      tombstones it holds, and their total matches the stats. Leaves carry
+ *      fingerprints exactly when the tree does, each matching its key. In
+ *      augmented mode each child's subtree count matches the live keys
+ *      below it.
+ */
+class BPTreeInvariants {
+
+  /**
+   * @param fullNodes - also require every node but the root to be at least
+   *                    half full, which lazy deletion and append splits relax
+   */
+  @SuppressWarnings("unchecked")
+  static void check(BPTree<Integer, ?> tree, boolean fullNodes) {
+    BPTreeNode<Integer, ?> root;
+    try {
+      Field field = BPTree.class.getDeclaredField("root");
+      field.setAccessible(true);
+      root = (BPTreeNode<Integer, ?>) field.get(tree);
+    } catch (ReflectiveOperationException e) {
+      throw new AssertionError(e);
+    }
+    ArrayList<BPTreeLeafNode<Integer, ?>> leaves = new ArrayList<BPTreeLeafNode<Integer, ?>>();
+    long result = check(root, null, null, true, fullNodes, tree.hasFingerprints(), leaves);
+    check(tree.getHeight() == result >>> 32, "tracked height " + tree.getHeight() + ", tree is " + (result >>> 32));
+    long tombstones = 0;
+    for (int i = 0; i < leaves.size(); i++) {
+      tombstones += leaves.get(i).tombstones;
+      check(leaves.get(i).leftSibling == (i > 0 ? leaves.get(i - 1) : null), "left sibling chain broken");
+      check(leaves.get(i).rightSibling == (i + 1 < leaves.size() ? leaves.get(i + 1) : null),
+          "right sibling chain broken");
+    }
+    check(tree.getStats().getTombstones() == tombstones, "stats count " + tree.getStats().getTombstones()
+        + " tombstones, leaves hold " + tombstones);
+  }
+
+  /**
+   * @dev Check the subtree below node, whose keys must lie in [low, high).
+   * @return the subtree's depth and number of live keys, packed as
+   *         depth << 32 | live
+   */
+  @SuppressWarnings("unchecked")
+  private static long check(BPTreeNode<Integer, ?> node, Integer low, Integer high, boolean root, boolean fullNodes,
+      boolean fingerprints, ArrayList<BPTreeLeafNode<Integer, ?>> leaves) {
+    check(node.keyTally < node.m, "node holds " + node.keyTally + " keys at order " + node.m);
+    for (int i = 0; i < node.keyTally; i++) {
+      Integer key = (Integer) node.keys[i];
+      check(key != null, "null key at " + i);
+      check(i == 0 || (Integer) node.keys[i - 1] < key, "keys out of order at " + key);
+      check(low == null || key >= low, "key " + key + " below its separator " + low);
+      check(high == null || key < high, "key " + key + " not below its separator " + high);
+    }
+
+    if (node.isLeaf()) {
+      BPTreeLeafNode<Integer, ?> leaf = (BPTreeLeafNode<Integer, ?>) node;
+      leaves.add(leaf);
+      check(!fullNodes || root || leaf.keyTally >= Math.max(1, (leaf.m - 1) / 2), "leaf underfull");
+      int tombstones = 0;
+      for (int i = 0; i < leaf.keyTally; i++) {
+        if (leaf.values[i] == BPTreeLeafNode.TOMBSTONE) {
+          tombstones++;
+        }
+      }
+      check(tombstones == leaf.tombstones, "leaf counts " + leaf.tombstones + " tombstones, holds " + tombstones);
+      check((leaf.fingerprints != null) == fingerprints, "leaf fingerprints do not match the tree's setting");
+      for (int i = 0; fingerprints && i < leaf.keyTally; i++) {
+        check(leaf.fingerprints[i] == BPTreeLeafNode.fingerprint(leaf.keys[i]), "stale fingerprint at " + i);
+      }
+      return 1L << 32 | (leaf.keyTally - tombstones);
+    }
+
+    BPTreeInnerNode<Integer, ?> inner = (BPTreeInnerNode<Integer, ?>) node;
+    check(!fullNodes || inner.keyTally >= (root ? 1 : Math.max(1, (inner.m + 1) / 2 - 1)), "inner node underfull");
+    long depth = -1;
+    long live = 0;
+    for (int i = 0; i <= inner.keyTally; i++) {
+      BPTreeNode<Integer, ?> child = (BPTreeNode<Integer, ?>) inner.references[i];
+      check(child != null, "null child at " + i);
+      long result = check(child, i == 0 ? low : (Integer) inner.keys[i - 1], i == inner.keyTally ? high
+          : (Integer) inner.keys[i], false, fullNodes, fingerprints, leaves);
+      check(depth < 0 || result >>> 32 == depth, "leaves at different depths");
+      depth = result >>> 32;
+      if (inner.counts != null) {
+        check(inner.counts[i] == (int) result, "subtree count " + inner.counts[i] + ", holds " + (int) result);
+      }
+      live += (int) result;
+    }
+    return (depth + 1) << 32 | live;
+  }
+
+  static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
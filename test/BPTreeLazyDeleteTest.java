@@ -0,0 +1,167 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * @dev Checks lazy deletion against a TreeMap: every read path skips
+ *      tombstones, eager deletes and batches mix with lazy ones, compact()
+ *      removes every tombstone and restores full nodes, snapshots taken
+ *      meanwhile keep their view, and augmenting compacts first.
+ */
+class BPTreeLazyDeleteTest {
+
+  private static final int RANGE = 4000;
+
+  public static void main(String[] args) {
+    Random random = new Random(21);
+    for (int order : new int[] { 3, 4, 5, 8, 16, 64 }) {
+      for (int round = 0; round < 4; round++) {
+        run(order, round, random);
+      }
+    }
+    augmentCompacts();
+    System.out.println("BPTreeLazyDeleteTest passed");
+  }
+
+  /**
+   * @dev Rounds 2 and 3 keep snapshots open; round 3 also uses append
+   *      splits, which leave nodes less than half full by design.
+   */
+  private static void run(int order, int round, Random random) {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(order);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    tree.setLazyDelete(true);
+    boolean fullNodes = round != 3;
+    if (round == 3) {
+      tree.setAppendSplitRatio(0.9);
+    }
+    BPTreeSnapshot<Integer, Integer> snapshot = null;
+    TreeMap<Integer, Integer> snapshotExpected = null;
+    for (int step = 0; step < 40000; step++) {
+      if (round >= 2 && step % 5000 == 2500) {
+        if (snapshot != null) {
+          checkSnapshot(snapshot, snapshotExpected);
+          snapshot.close();
+        }
+        snapshot = tree.snapshot();
+        snapshotExpected = new TreeMap<Integer, Integer>(expected);
+      }
+      int op = random.nextInt(100);
+      int key = random.nextInt(RANGE);
+      if (op < 40) {
+        tree.insert(key, key + 1);
+        expected.put(key, key + 1);
+      } else if (op < 43) {
+        int last = expected.isEmpty() ? 100000 : Math.max(100000, expected.lastKey() + 1);
+        tree.insert(last, last);
+        expected.put(last, last);
+      } else if (op < 80) {
+        tree.delete(key);
+        expected.remove(key);
+      } else if (op < 81) {
+        Integer[] keys = new Integer[50];
+        for (int i = 0; i < keys.length; i++) {
+          keys[i] = random.nextInt(RANGE);
+          expected.put(keys[i], keys[i]);
+        }
+        tree.insertAll(keys, keys.clone());
+      } else if (op < 82) {
+        tree.setLazyDelete(false);
+        tree.delete(key);
+        expected.remove(key);
+        tree.setLazyDelete(true);
+      } else if (op < 83 && step % 50 == 0) {
+        compact(tree, fullNodes);
+      } else if (op < 90) {
+        check(Objects.equals(tree.search(key), expected.get(key)), "search " + key);
+      }
+      if (step % 2000 == 0) {
+        checkReads(tree, expected, random);
+      }
+    }
+    checkReads(tree, expected, random);
+    compact(tree, fullNodes);
+    checkReads(tree, expected, random);
+    if (snapshot != null) {
+      checkSnapshot(snapshot, snapshotExpected);
+      snapshot.close();
+    }
+
+    // A purge: delete nine keys in ten, then compact
+    for (int key = 0; key < RANGE; key++) {
+      if (random.nextInt(10) != 0) {
+        tree.delete(key);
+        expected.remove(key);
+      }
+    }
+    checkReads(tree, expected, random);
+    compact(tree, fullNodes);
+    checkReads(tree, expected, random);
+  }
+
+  private static void augmentCompacts() {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(8);
+    tree.setLazyDelete(true);
+    for (int i = 0; i < 1000; i++) {
+      tree.insert(i, i);
+    }
+    for (int i = 0; i < 1000; i += 2) {
+      tree.delete(i);
+    }
+    tree.augment();
+    check(tree.size() == 500 && tree.getStats().getTombstones() == 0, "augment should compact first");
+    tree.delete(1);
+    check(tree.size() == 499, "an augmented tree deletes eagerly");
+    BPTreeInvariants.check(tree, true);
+  }
+
+  private static void compact(BPTree<Integer, Integer> tree, boolean fullNodes) {
+    tree.compact();
+    BPTreeInvariants.check(tree, fullNodes);
+    check(tree.getStats().getTombstones() == 0, "tombstones left after compact");
+  }
+
+  private static void checkReads(BPTree<Integer, Integer> tree, TreeMap<Integer, Integer> expected, Random random) {
+    BPTreeInvariants.check(tree, false);
+    List<Integer> values = new ArrayList<Integer>(expected.values());
+    check(Arrays.equals(tree.values(), values.toArray()), "values");
+    check(tree.valueStream().collect(Collectors.toList()).equals(values), "valueStream");
+    check(tree.valueStream().parallel().collect(Collectors.toList()).equals(values), "parallel valueStream");
+
+    int from = random.nextInt(RANGE);
+    int to = from + random.nextInt(500);
+    List<Integer> inRange = new ArrayList<Integer>();
+    BPTreeCursor<Integer, Integer> cursor = tree.range(from, to);
+    while (cursor.hasNext()) {
+      inRange.add(cursor.next());
+    }
+    check(inRange.equals(new ArrayList<Integer>(expected.subMap(from, to).values())), "range " + from + ".." + to);
+
+    Integer[] keys = new Integer[50];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = random.nextInt(RANGE);
+    }
+    List<Integer> found = tree.searchAll(keys);
+    for (int i = 0; i < keys.length; i++) {
+      check(Objects.equals(found.get(i), expected.get(keys[i])), "searchAll " + keys[i]);
+    }
+  }
+
+  private static void checkSnapshot(BPTreeSnapshot<Integer, Integer> snapshot, TreeMap<Integer, Integer> expected) {
+    check(Arrays.equals(snapshot.values(), expected.values().toArray()), "snapshot values changed");
+    for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+      check(entry.getValue().equals(snapshot.search(entry.getKey())), "snapshot search " + entry.getKey());
+    }
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
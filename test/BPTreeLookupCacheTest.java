@@ -0,0 +1,124 @@
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * @dev Checks that the lookup cache never returns a stale value, whatever
+ *      kind of write changed the key, and that it keeps a hot set cached
+ *      through a one-off scan.
+ */
+class BPTreeLookupCacheTest {
+
+  public static void main(String[] args) {
+    Random random = new Random(44);
+    for (int round = 0; round < 5; round++) {
+      noStaleHits(round, random);
+    }
+    scanResistance(random);
+    System.out.println("BPTreeLookupCacheTest passed");
+  }
+
+  /**
+   * @dev Round 0 caches a single key, round 2 deletes lazily, round 3 is
+   *      augmented and round 4 keeps a snapshot open. The cache is resized
+   *      and the tree emptied and bulk-loaded along the way. Lookups are
+   *      skewed so most of them can hit.
+   */
+  private static void noStaleHits(int round, Random random) {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(8);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    tree.setLookupCache(round == 0 ? 1 : 64);
+    if (round == 2) {
+      tree.setLazyDelete(true);
+    }
+    if (round == 3) {
+      tree.augment();
+    }
+    BPTreeSnapshot<Integer, Integer> snapshot = null;
+    for (int step = 0; step < 200000; step++) {
+      if (round == 4 && step % 20000 == 0) {
+        if (snapshot != null) {
+          snapshot.close();
+        }
+        snapshot = tree.snapshot();
+      }
+      if (round != 0 && step % 5000 == 2500) {
+        tree.setLookupCache(1 + random.nextInt(128));
+      }
+      if (step % 50000 == 25000 && snapshot == null) {
+        tree.deleteRange(null, null);
+        expected.clear();
+        for (int i = 0; i < 300; i += 3) {
+          expected.put(i, random.nextInt());
+        }
+        tree.bulkLoad(expected.entrySet().iterator(), 0.8);
+      }
+      int op = random.nextInt(100);
+      int key = (int) Math.abs(random.nextGaussian() * 200);
+      if (op < 20) {
+        int value = random.nextInt();
+        tree.insert(key, value);
+        expected.put(key, value);
+      } else if (op < 30) {
+        tree.delete(key);
+        expected.remove(key);
+      } else if (op < 31) {
+        Integer[] keys = new Integer[10];
+        Integer[] values = new Integer[10];
+        for (int i = 0; i < keys.length; i++) {
+          keys[i] = random.nextInt(400);
+          values[i] = random.nextInt();
+          expected.put(keys[i], values[i]);
+        }
+        tree.insertAll(keys, values);
+      } else if (op < 32 && step % 10 == 0) {
+        int from = random.nextInt(400);
+        tree.deleteRange(from, from + 20);
+        expected.subMap(from, from + 20).clear();
+      } else if (op < 33 && round == 2) {
+        tree.compact();
+      } else {
+        Integer found = tree.search(key);
+        check(Objects.equals(found, expected.get(key)), "round " + round + " step " + step + ": search " + key
+            + " returned " + found + ", expected " + expected.get(key));
+      }
+    }
+    if (snapshot != null) {
+      snapshot.close();
+    }
+    BPTreeInvariants.check(tree, false);
+    check(tree.getStats().getCacheHitRate() > 0, "round " + round + ": the cache never hit");
+  }
+
+  /**
+   * @dev Read a hot set of 500 keys until cached, then scan 50000 other keys
+   *      once each. The hot set must still hit afterwards.
+   */
+  private static void scanResistance(Random random) {
+    int n = 100000;
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(64);
+    for (int i = 0; i < n; i++) {
+      tree.insert(i, i);
+    }
+    tree.setLookupCache(1000);
+    for (int i = 0; i < 20000; i++) {
+      tree.search(random.nextInt(500));
+    }
+    for (int key = 500; key < 50500; key++) {
+      tree.search(key);
+    }
+    tree.resetStats();
+    for (int i = 0; i < 20000; i++) {
+      int key = random.nextInt(500);
+      check(tree.search(key) == key, "search " + key);
+    }
+    double hitRate = tree.getStats().getCacheHitRate();
+    check(hitRate > 0.9, "hot set hit rate after a scan was " + hitRate);
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
@@ -0,0 +1,93 @@
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * @dev Checks range cursors against TreeMap.subMap: open, half-open, closed,
+ *      empty and unbounded ranges, walked with next() and with forEach, and
+ *      ranges whose bounds fall between keys, before the first key or past
+ *      the last one.
+ */
+class BPTreeRangeTest {
+
+  private static final int RANGE = 4000;
+
+  public static void main(String[] args) {
+    Random random = new Random(4);
+    for (int order : new int[] { 3, 4, 5, 8, 16, 64 }) {
+      run(order, random);
+    }
+    System.out.println("BPTreeRangeTest passed");
+  }
+
+  private static void run(int order, Random random) {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(order);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    for (int i = 0; i < RANGE; i++) {
+      int key = 2 * random.nextInt(RANGE);
+      tree.insert(key, -key);
+      expected.put(key, -key);
+    }
+    BPTreeInvariants.check(tree, true);
+
+    for (int step = 0; step < 2000; step++) {
+      Integer from = random.nextInt(20) == 0 ? null : random.nextInt(2 * RANGE + 20) - 10;
+      Integer to = random.nextInt(20) == 0 ? null
+          : (from == null ? random.nextInt(2 * RANGE) : from + random.nextInt(random.nextBoolean() ? 40 : RANGE));
+      boolean fromInclusive = random.nextBoolean();
+      boolean toInclusive = random.nextBoolean();
+      String when = "order " + order + ": range " + (fromInclusive ? "[" : "(") + from + ", " + to
+          + (toInclusive ? "]" : ")");
+      NavigableMap<Integer, Integer> sub = subMap(expected, from, fromInclusive, to, toInclusive);
+
+      BPTreeCursor<Integer, Integer> cursor = tree.range(from, fromInclusive, to, toInclusive);
+      for (Map.Entry<Integer, Integer> entry : sub.entrySet()) {
+        check(cursor.hasNext(), when + ": ended before " + entry.getKey());
+        check(cursor.next().equals(entry.getValue()), when + ": wrong value for " + entry.getKey());
+        check(cursor.getKey().equals(entry.getKey()) && cursor.getValue().equals(entry.getValue()), when
+            + ": got key " + cursor.getKey() + ", expected " + entry.getKey());
+      }
+      check(!cursor.hasNext(), when + ": returned keys past the end");
+      try {
+        cursor.next();
+        check(false, when + ": next() past the end did not throw");
+      } catch (NoSuchElementException e) {
+        // expected
+      }
+
+      ArrayList<Integer> walked = new ArrayList<Integer>();
+      tree.range(from, fromInclusive, to, toInclusive).forEach((key, value) -> {
+        check(value == -key, when + ": forEach value for " + key);
+        walked.add(key);
+      });
+      check(walked.equals(new ArrayList<Integer>(sub.keySet())), when + ": forEach keys differ");
+    }
+
+    // The two-argument form is the half-open [from, to)
+    BPTreeCursor<Integer, Integer> cursor = tree.range(100, 200);
+    for (Integer key : expected.subMap(100, 200).keySet()) {
+      check(cursor.next() == -key, "half-open range at " + key);
+    }
+    check(!cursor.hasNext(), "half-open range includes its upper bound");
+  }
+
+  private static NavigableMap<Integer, Integer> subMap(TreeMap<Integer, Integer> map, Integer from,
+      boolean fromInclusive, Integer to, boolean toInclusive) {
+    if (from == null) {
+      return to == null ? map : map.headMap(to, toInclusive);
+    }
+    if (to != null && (to < from || (to.equals(from) && !(fromInclusive && toInclusive)))) {
+      return new TreeMap<Integer, Integer>();
+    }
+    return to == null ? map.tailMap(from, fromInclusive) : map.subMap(from, fromInclusive, to, toInclusive);
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
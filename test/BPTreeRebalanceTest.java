@@ -0,0 +1,133 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * @dev Checks inner-node rebalancing on delete: under insert/delete churn
+ *      every node but the root stays at least half full and the height
+ *      within its logarithmic bound, and draining a tree one key at a time
+ *      collapses it back to a single leaf. Runs plain, augmented and with a
+ *      snapshot open across the drain.
+ */
+class BPTreeRebalanceTest {
+
+  public static void main(String[] args) {
+    Random random = new Random(21);
+    for (int order : new int[] { 3, 4, 5, 6, 7, 8, 9, 16, 64 }) {
+      for (int round = 0; round < 3; round++) {
+        churn(order, round, random);
+        drain(order, round, random);
+      }
+    }
+    System.out.println("BPTreeRebalanceTest passed");
+  }
+
+  /**
+   * @dev Round 1 is augmented and round 2 keeps a snapshot open.
+   */
+  private static BPTree<Integer, Integer> newTree(int order, int round) {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(order);
+    if (round == 1) {
+      tree.augment();
+    }
+    return tree;
+  }
+
+  private static void churn(int order, int round, Random random) {
+    BPTree<Integer, Integer> tree = newTree(order, round);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    BPTreeSnapshot<Integer, Integer> snapshot = null;
+    for (int step = 0; step < 30000; step++) {
+      if (round == 2 && step % 3000 == 0) {
+        if (snapshot != null) {
+          snapshot.close();
+        }
+        snapshot = tree.snapshot();
+      }
+      // Grow for a while, then shrink, so whole levels come and go
+      boolean growing = step / 5000 % 2 == 0;
+      int key = random.nextInt(5000);
+      if (random.nextInt(10) < (growing ? 8 : 2)) {
+        tree.insert(key, step);
+        expected.put(key, step);
+      } else {
+        tree.delete(key);
+        expected.remove(key);
+      }
+      if (step % 250 == 0) {
+        check(tree, order, expected, "order " + order + " round " + round + " step " + step);
+      }
+    }
+    if (snapshot != null) {
+      snapshot.close();
+    }
+  }
+
+  /**
+   * @dev Delete every key in random order, checking the whole tree after
+   *      each delete while it is small. The last delete must leave a single
+   *      empty leaf, with every level added on the way up removed again.
+   */
+  private static void drain(int order, int round, Random random) {
+    BPTree<Integer, Integer> tree = newTree(order, round);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    for (int i = 0; i < 2000; i++) {
+      tree.insert(i, i);
+      expected.put(i, i);
+    }
+    BPTreeSnapshot<Integer, Integer> snapshot = round == 2 ? tree.snapshot() : null;
+    ArrayList<Integer> keys = new ArrayList<Integer>(expected.keySet());
+    Collections.shuffle(keys, random);
+    String when = "order " + order + " round " + round + " drain";
+    for (Integer key : keys) {
+      tree.delete(key);
+      expected.remove(key);
+      if (expected.size() < 200 || expected.size() % 100 == 0) {
+        check(tree, order, expected, when + " at " + expected.size());
+      }
+    }
+    BPTreeStats stats = tree.getStats();
+    Object[] left = tree.values();
+    check(tree.getHeight() == 1 && left.length == 0, when + ": drained tree is not a single empty leaf");
+    check(stats.getHeightDecreases() == stats.getHeightIncreases(), when + ": height went up "
+        + stats.getHeightIncreases() + " times but down " + stats.getHeightDecreases());
+    if (snapshot != null) {
+      Object[] values = snapshot.values();
+      check(values.length == 2000 && values[1999].equals(1999), when + ": snapshot saw the drain");
+      snapshot.close();
+    }
+  }
+
+  private static void check(BPTree<Integer, Integer> tree, int order, TreeMap<Integer, Integer> expected,
+      String when) {
+    BPTreeInvariants.check(tree, true);
+    check(Arrays.equals(tree.values(), expected.values().toArray()), when + ": values differ");
+    for (int i = 0; i < 50; i++) {
+      int key = i * 101 % 5000;
+      check(Objects.equals(tree.search(key), expected.get(key)), when + ": search " + key);
+    }
+
+    // A non-root inner node has at least ceil(m/2) children and a non-root
+    // leaf at least (m-1)/2 keys, which bounds the height from above
+    int fanout = Math.max(2, (order + 1) / 2);
+    int leafKeys = Math.max(1, (order - 1) / 2);
+    int bound = 1;
+    for (long reach = 2L * leafKeys; reach <= expected.size(); reach *= fanout) {
+      bound++;
+    }
+    check(tree.getHeight() <= Math.max(1, bound), when + ": height " + tree.getHeight() + " for "
+        + expected.size() + " keys at order " + order);
+    if (tree.isAugmented()) {
+      check(tree.size() == expected.size(), when + ": augmented size " + tree.size());
+    }
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
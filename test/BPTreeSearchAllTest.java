@@ -0,0 +1,68 @@
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * @dev Checks searchAll against a TreeMap: batches in random, sorted and
+ *      clustered order, with repeated and absent keys, come back in the
+ *      order they were given.
+ */
+class BPTreeSearchAllTest {
+
+  private static final int RANGE = 20000;
+
+  public static void main(String[] args) {
+    Random random = new Random(12);
+    for (int order : new int[] { 3, 4, 5, 8, 16, 128 }) {
+      run(order, random);
+    }
+    empty();
+    System.out.println("BPTreeSearchAllTest passed");
+  }
+
+  private static void run(int order, Random random) {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(order);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    for (int i = 0; i < RANGE / 2; i++) {
+      int key = random.nextInt(RANGE);
+      tree.insert(key, i);
+      expected.put(key, i);
+    }
+    for (int batch = 0; batch < 200; batch++) {
+      Integer[] keys = new Integer[1 + random.nextInt(300)];
+      int start = random.nextInt(RANGE);
+      for (int i = 0; i < keys.length; i++) {
+        switch (batch % 3) {
+        case 0:
+          keys[i] = random.nextInt(RANGE + 100) - 50;
+          break;
+        case 1:
+          keys[i] = start + i;
+          break;
+        default:
+          keys[i] = start + random.nextInt(500);
+        }
+      }
+      List<Integer> found = tree.searchAll(keys);
+      check(found.size() == keys.length, "order " + order + ": " + found.size() + " results for " + keys.length
+          + " keys");
+      for (int i = 0; i < keys.length; i++) {
+        check(Objects.equals(found.get(i), expected.get(keys[i])), "order " + order + ": searchAll " + keys[i]);
+      }
+    }
+  }
+
+  private static void empty() {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(4);
+    check(tree.searchAll(new Integer[0]).isEmpty(), "empty batch");
+    List<Integer> found = tree.searchAll(new Integer[] { 1, 2 });
+    check(found.size() == 2 && found.get(0) == null && found.get(1) == null, "empty tree");
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * @dev Checks that BINARY and LINEAR in-node search build valid trees that
+ *      find the same values as a TreeMap, for present and absent keys, and
+ *      that the compare counters reflect the strategy: a binary search over
+ *      wide nodes makes far fewer comparisons per lookup than a linear scan.
+ */
+class BPTreeSearchModeTest {
+
+  private static final int RANGE = 5000;
+
+  public static void main(String[] args) {
+    Random random = new Random(1);
+    for (int order : new int[] { 3, 4, 5, 8, 16, 64, 256 }) {
+      run(order, random);
+    }
+    counts(random);
+    System.out.println("BPTreeSearchModeTest passed");
+  }
+
+  private static void run(int order, Random random) {
+    BPTree<Integer, Integer> binary = new BPTree<Integer, Integer>(order, BPTreeSearchMode.BINARY);
+    BPTree<Integer, Integer> linear = new BPTree<Integer, Integer>(order, BPTreeSearchMode.LINEAR);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    for (int key = 0; key < RANGE; key += 2) {
+      keys.add(key);
+    }
+    Collections.shuffle(keys, random);
+    for (int step = 0; step < keys.size(); step++) {
+      int key = keys.get(step);
+      int value = random.nextInt();
+      binary.insert(key, value);
+      linear.insert(key, value);
+      expected.put(key, value);
+      if (step % 500 == 0) {
+        check(binary, expected, "order " + order + " BINARY step " + step);
+        check(linear, expected, "order " + order + " LINEAR step " + step);
+      }
+    }
+    check(binary, expected, "order " + order + " BINARY");
+    check(linear, expected, "order " + order + " LINEAR");
+  }
+
+  /**
+   * @dev The same lookups on the same keys at order 256: every call counts
+   *      as one operation, a binary descent costs about log2(256) + 1
+   *      comparisons per level, and a linear one scans whole nodes.
+   */
+  private static void counts(Random random) {
+    BPTree<Integer, Integer> binary = new BPTree<Integer, Integer>(256, BPTreeSearchMode.BINARY);
+    BPTree<Integer, Integer> linear = new BPTree<Integer, Integer>(256, BPTreeSearchMode.LINEAR);
+    for (int i = 0; i < 100000; i++) {
+      binary.insert(i, i);
+      linear.insert(i, i);
+    }
+    check(binary.getOperationCount() == 100000 && binary.getCompareCount() > 0, "inserts not counted");
+    binary.resetCompareCount();
+    linear.resetCompareCount();
+    check(binary.getCompareCount() == 0 && binary.getOperationCount() == 0
+        && binary.getComparesPerOperation() == 0, "counters not reset");
+
+    for (int i = 0; i < 20000; i++) {
+      int key = random.nextInt(110000);
+      Integer value = key < 100000 ? key : null;
+      check(Objects.equals(binary.search(key), value) && Objects.equals(linear.search(key), value), "search " + key);
+    }
+    check(binary.getOperationCount() == 20000 && linear.getOperationCount() == 20000, "searches not counted");
+    double binaryPerSearch = binary.getComparesPerOperation();
+    double linearPerSearch = linear.getComparesPerOperation();
+    check(binaryPerSearch <= 4 * (8 + 1) + 1, binaryPerSearch + " compares per binary search");
+    check(binaryPerSearch * 4 < linearPerSearch, binaryPerSearch + " compares per binary search against "
+        + linearPerSearch + " per linear search");
+  }
+
+  private static void check(BPTree<Integer, Integer> tree, TreeMap<Integer, Integer> expected, String when) {
+    BPTreeInvariants.check(tree, true);
+    check(Arrays.equals(tree.values(), expected.values().toArray()), when + ": values differ");
+    for (int key = -1; key <= RANGE; key++) {
+      check(Objects.equals(tree.search(key), expected.get(key)), when + ": search " + key);
+    }
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
@@ -0,0 +1,102 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * @dev Checks snapshot isolation under plain inserts and deletes: several
+ *      snapshots of different ages stay open while the live tree keeps
+ *      splitting, borrowing and merging, and each must keep answering
+ *      search, range and values() exactly as the TreeMap copied when it was
+ *      taken. The live tree is checked against its own TreeMap throughout,
+ *      and after the last snapshot closes writes go back to working in place.
+ */
+class BPTreeSnapshotTest {
+
+  private static final int RANGE = 3000;
+
+  public static void main(String[] args) {
+    Random random = new Random(8);
+    for (int order : new int[] { 3, 4, 5, 6, 8, 16, 64 }) {
+      run(order, random);
+    }
+    System.out.println("BPTreeSnapshotTest passed");
+  }
+
+  private static void run(int order, Random random) {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(order);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    ArrayList<BPTreeSnapshot<Integer, Integer>> snapshots = new ArrayList<BPTreeSnapshot<Integer, Integer>>();
+    ArrayList<TreeMap<Integer, Integer>> frozen = new ArrayList<TreeMap<Integer, Integer>>();
+
+    for (int step = 0; step < 40000; step++) {
+      String when = "order " + order + " step " + step;
+      if (step % 2000 == 1000) {
+        snapshots.add(tree.snapshot());
+        frozen.add(new TreeMap<Integer, Integer>(expected));
+        if (snapshots.size() > 3) {
+          checkSnapshot(snapshots.get(0), frozen.get(0), when);
+          snapshots.remove(0).close();
+          frozen.remove(0);
+        }
+      }
+
+      // Phases of growth and shrinkage, so merges run while snapshots are open
+      int key = random.nextInt(RANGE);
+      if (random.nextInt(100) < ((step / 5000) % 2 == 0 ? 65 : 35)) {
+        tree.insert(key, step);
+        expected.put(key, step);
+      } else {
+        tree.delete(key);
+        expected.remove(key);
+      }
+
+      if (step % 500 == 0) {
+        BPTreeInvariants.check(tree, true);
+        check(Arrays.equals(tree.values(), expected.values().toArray()), when + ": live values differ");
+        for (int i = 0; i < snapshots.size(); i++) {
+          checkSnapshot(snapshots.get(i), frozen.get(i), when + " snapshot " + i);
+        }
+      }
+    }
+    for (int i = 0; i < snapshots.size(); i++) {
+      checkSnapshot(snapshots.get(i), frozen.get(i), "order " + order + " end snapshot " + i);
+      snapshots.get(i).close();
+    }
+
+    // With every snapshot closed the tree is written in place again
+    for (Integer key : new ArrayList<Integer>(expected.keySet())) {
+      if (random.nextBoolean()) {
+        tree.delete(key);
+        expected.remove(key);
+      }
+    }
+    BPTreeInvariants.check(tree, true);
+    check(Arrays.equals(tree.values(), expected.values().toArray()), "order " + order + ": values after close");
+    for (int key = 0; key < RANGE; key++) {
+      check(Objects.equals(tree.search(key), expected.get(key)), "order " + order + ": search " + key);
+    }
+  }
+
+  private static void checkSnapshot(BPTreeSnapshot<Integer, Integer> snapshot, TreeMap<Integer, Integer> expected,
+      String when) {
+    check(Arrays.equals(snapshot.values(), expected.values().toArray()), when + ": snapshot values changed");
+    for (int key = -1; key <= RANGE; key += 7) {
+      check(Objects.equals(snapshot.search(key), expected.get(key)), when + ": snapshot search " + key);
+    }
+    BPTreeCursor<Integer, Integer> cursor = snapshot.range(RANGE / 3, true, 2 * RANGE / 3, true);
+    for (Map.Entry<Integer, Integer> entry : expected.subMap(RANGE / 3, true, 2 * RANGE / 3, true).entrySet()) {
+      check(cursor.hasNext() && cursor.next().equals(entry.getValue()) && cursor.getKey().equals(entry.getKey()),
+          when + ": snapshot range at " + entry.getKey());
+    }
+    check(!cursor.hasNext(), when + ": snapshot range runs past its end");
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
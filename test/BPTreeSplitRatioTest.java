@@ -0,0 +1,147 @@
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * @dev Checks the append path and split ratios: ascending keys fill leaves
+ *      to the share the append ratio asks for at one compare per insert,
+ *      out-of-range ratios are refused, and trees built with uneven ratios
+ *      stay correct under random inserts, deletes, snapshots and augmented
+ *      mode.
+ */
+class BPTreeSplitRatioTest {
+
+  public static void main(String[] args) {
+    for (int order : new int[] { 4, 16, 64 }) {
+      for (double ratio : new double[] { 0.5, 0.7, 0.9, 1.0 }) {
+        ascending(order, ratio);
+      }
+    }
+    refused();
+    Random random = new Random(20);
+    for (int order : new int[] { 3, 4, 5, 8, 32 }) {
+      for (int round = 0; round < 4; round++) {
+        mixed(order, round, random);
+      }
+    }
+    System.out.println("BPTreeSplitRatioTest passed");
+  }
+
+  /**
+   * @dev Every split of an ascending run keeps splitIndex keys on the left,
+   *      so all leaves but the last hold that many.
+   */
+  private static void ascending(int order, double ratio) {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(order);
+    tree.setAppendSplitRatio(ratio);
+    int n = 100000;
+    for (int i = 0; i < n; i++) {
+      tree.insert(i, i);
+    }
+    BPTreeInvariants.check(tree, ratio == 0.5);
+    BPTreeStats stats = tree.getStats();
+    String when = "order " + order + " ratio " + ratio;
+    check(stats.getAppendInserts() >= n - order, when + ": only " + stats.getAppendInserts() + " appends");
+    check(stats.getCompareCount() <= n + (long) order * 64, when + ": " + stats.getCompareCount() + " compares");
+
+    double occupancy = (double) n / ((stats.getLeafSplits() + 1) * (order - 1));
+    double target = Math.max(1, Math.min(order - 1, (int) (order * ratio))) / (double) (order - 1);
+    check(Math.abs(occupancy - target) < 0.02, when + ": leaf occupancy " + occupancy + ", expected " + target);
+    Object[] values = tree.values();
+    check(values.length == n && values[n - 1].equals(n - 1), when + ": values");
+  }
+
+  private static void refused() {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(8);
+    for (double ratio : new double[] { 0, -0.5, 1.01, Double.NaN }) {
+      boolean split = false;
+      boolean append = false;
+      try {
+        tree.setSplitRatio(ratio);
+      } catch (IllegalArgumentException e) {
+        split = true;
+      }
+      try {
+        tree.setAppendSplitRatio(ratio);
+      } catch (IllegalArgumentException e) {
+        append = true;
+      }
+      check(split && append, "ratio " + ratio + " accepted");
+    }
+  }
+
+  /**
+   * @dev Round 0 splits unevenly both ways, round 1 keeps a snapshot open,
+   *      round 2 is augmented and round 3 builds the tree with insertAll
+   *      first. Appends are mixed with random inserts and deletes, so the
+   *      remembered rightmost leaf is merged, copied and replaced under it.
+   */
+  private static void mixed(int order, int round, Random random) {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(order);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    tree.setAppendSplitRatio(1.0);
+    if (round == 0) {
+      tree.setSplitRatio(0.2);
+    }
+    if (round == 2) {
+      tree.augment();
+    }
+    if (round == 3) {
+      Integer[] keys = new Integer[500];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = random.nextInt(2000);
+        expected.put(keys[i], keys[i]);
+      }
+      tree.insertAll(keys, keys.clone());
+    }
+    BPTreeSnapshot<Integer, Integer> snapshot = null;
+    int next = 2000;
+    for (int step = 0; step < 20000; step++) {
+      if (round == 1 && step % 2000 == 0) {
+        if (snapshot != null) {
+          snapshot.close();
+        }
+        snapshot = tree.snapshot();
+      }
+      int op = random.nextInt(10);
+      if (op < 5) {
+        tree.insert(next, step);
+        expected.put(next++, step);
+      } else if (op < 7) {
+        int key = random.nextInt(next);
+        tree.insert(key, step);
+        expected.put(key, step);
+      } else {
+        int key = random.nextInt(next);
+        tree.delete(key);
+        expected.remove(key);
+      }
+      if (step % 500 == 0) {
+        check(tree, expected, "order " + order + " round " + round + " step " + step);
+      }
+    }
+    if (snapshot != null) {
+      snapshot.close();
+    }
+    check(tree, expected, "order " + order + " round " + round);
+    if (round == 2) {
+      check(tree.size() == expected.size(), "augmented size " + tree.size() + ", expected " + expected.size());
+    }
+  }
+
+  private static void check(BPTree<Integer, Integer> tree, TreeMap<Integer, Integer> expected, String when) {
+    BPTreeInvariants.check(tree, false);
+    check(Arrays.equals(tree.values(), expected.values().toArray()), when + ": values differ");
+    for (int i = 0; i < 200; i++) {
+      Integer key = expected.isEmpty() ? i : expected.lastKey() - i;
+      check(Objects.equals(tree.search(key), expected.get(key)), when + ": search " + key);
+    }
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
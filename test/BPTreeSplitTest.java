@@ -0,0 +1,67 @@
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * @dev Checks leaf, inner and root splits: keys inserted in ascending,
+ *      descending, random and outside-in order at every order from 3 to 12
+ *      and a few larger ones. The tree is checked after every insert while
+ *      it is small, so each kind of split is checked right after it happens,
+ *      and every node but the root must stay at least half full.
+ */
+class BPTreeSplitTest {
+
+  public static void main(String[] args) {
+    Random random = new Random(15);
+    int[] orders = { 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 33, 64, 128 };
+    for (int order : orders) {
+      for (int pattern = 0; pattern < 4; pattern++) {
+        run(order, pattern, random);
+      }
+    }
+    System.out.println("BPTreeSplitTest passed");
+  }
+
+  /**
+   * @dev pattern 0 inserts ascending keys, 1 descending keys, 2 random keys
+   *      and 3 alternates between the lowest and highest key left.
+   */
+  private static void run(int order, int pattern, Random random) {
+    int n = 4000;
+    int[] keys = new int[n];
+    for (int i = 0; i < n; i++) {
+      keys[i] = pattern == 1 ? n - i : pattern == 3 ? (i % 2 == 0 ? i / 2 : n - i / 2) : i;
+    }
+    if (pattern == 2) {
+      for (int i = n - 1; i > 0; i--) {
+        int j = random.nextInt(i + 1);
+        int swap = keys[i];
+        keys[i] = keys[j];
+        keys[j] = swap;
+      }
+    }
+
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(order);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    String when = "order " + order + " pattern " + pattern;
+    for (int i = 0; i < n; i++) {
+      tree.insert(keys[i], i);
+      expected.put(keys[i], i);
+      if (i < 300 || i % 250 == 0) {
+        BPTreeInvariants.check(tree, true);
+        check(Arrays.equals(tree.values(), expected.values().toArray()), when + " insert " + i + ": values differ");
+      }
+    }
+    BPTreeInvariants.check(tree, true);
+    for (int key = -1; key <= n + 1; key++) {
+      check(Objects.equals(tree.search(key), expected.get(key)), when + ": search " + key);
+    }
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * @dev Checks entryStream and valueStream against a TreeMap, sequential and
+ *      parallel, and splits their spliterators all the way down: the pieces
+ *      must cover the tree in order without overlap, and every piece that
+ *      reports SIZED must hold exactly its estimated size.
+ */
+class BPTreeSpliteratorTest {
+
+  public static void main(String[] args) throws Exception {
+    Random random = new Random(18);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (int order : new int[] { 3, 4, 5, 8, 16, 32 }) {
+        for (int size : new int[] { 0, 1, 2, 50, 3000 }) {
+          run(order, size, random, pool);
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+    System.out.println("BPTreeSpliteratorTest passed");
+  }
+
+  private static void run(int order, int size, Random random, ForkJoinPool pool) throws Exception {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(order);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    for (int i = 0; i < size * 2; i++) {
+      int key = random.nextInt(size * 4 + 1);
+      tree.insert(key, -key);
+      expected.put(key, -key);
+    }
+    for (int i = 0; i < size; i++) {
+      int key = random.nextInt(size * 4 + 1);
+      tree.delete(key);
+      expected.remove(key);
+    }
+    BPTreeInvariants.check(tree, true);
+    String when = "order " + order + " size " + expected.size();
+    List<Integer> keys = new ArrayList<Integer>(expected.keySet());
+    List<Integer> values = new ArrayList<Integer>(expected.values());
+
+    long scans = tree.getStats().getOperationCount(BPTreeOperation.SCAN);
+    check(tree.entryStream().map(Map.Entry::getKey).collect(Collectors.toList()).equals(keys), when
+        + ": sequential entryStream");
+    check(tree.valueStream().collect(Collectors.toList()).equals(values), when + ": sequential valueStream");
+    check(pool.submit(() -> tree.entryStream().parallel().map(Map.Entry::getKey).collect(Collectors.toList()))
+        .get().equals(keys), when + ": parallel entryStream");
+    check(pool.submit(() -> tree.valueStream().parallel().mapToLong(value -> value).sum()).get()
+        == values.stream().mapToLong(value -> value).sum(), when + ": parallel valueStream sum");
+    check(tree.getStats().getOperationCount(BPTreeOperation.SCAN) == scans + 4, when + ": streams not counted");
+
+    List<Integer> walked = new ArrayList<Integer>();
+    int pieces = split(tree.valueStream().spliterator(), walked, when);
+    check(walked.equals(values), when + ": split pieces do not cover the tree in order");
+    check(pieces > 1 || values.size() < order, when + ": spliterator never split");
+  }
+
+  /**
+   * @dev Split recursively, then drain the left piece before the right one,
+   *      so walked collects the elements in the order the pieces cover.
+   * @return the number of pieces that could not be split further
+   */
+  private static int split(Spliterator<Integer> spliterator, List<Integer> walked, String when) {
+    check(spliterator.hasCharacteristics(Spliterator.ORDERED), when + ": spliterator not ORDERED");
+    Spliterator<Integer> left = spliterator.trySplit();
+    if (left != null) {
+      return split(left, walked, when) + split(spliterator, walked, when);
+    }
+    long estimate = spliterator.estimateSize();
+    boolean sized = spliterator.hasCharacteristics(Spliterator.SIZED);
+    int before = walked.size();
+    spliterator.forEachRemaining(walked::add);
+    check(!sized || walked.size() - before == estimate, when + ": piece reported size " + estimate + " but held "
+        + (walked.size() - before));
+    return 1;
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
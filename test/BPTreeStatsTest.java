@@ -0,0 +1,155 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * @dev Checks BPTreeStats and the JMX view: operation and structural counts
+ *      after a known workload, the tracked height, latency histograms fed
+ *      from many short-lived threads, resetStats, and attribute reads and
+ *      resets through the platform MBean server.
+ */
+class BPTreeStatsTest {
+
+  public static void main(String[] args) throws Exception {
+    counts();
+    latency();
+    histogram();
+    jmx();
+    System.out.println("BPTreeStatsTest passed");
+  }
+
+  /**
+   * @dev With inserts only, every split adds one node, and every root split
+   *      adds a level. Deletes down to a quarter of the keys must then
+   *      borrow or merge.
+   */
+  private static void counts() {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(8);
+    int n = 20000;
+    for (int i = 0; i < n; i++) {
+      tree.insert(i * 7919 % n, i);
+    }
+    for (int i = 0; i < 500; i++) {
+      tree.search(i);
+    }
+    tree.values();
+    BPTreeInvariants.check(tree, true);
+    BPTreeStats stats = tree.getStats();
+    check(stats.getOperationCount(BPTreeOperation.INSERT) == n, "insert count " + stats);
+    check(stats.getOperationCount(BPTreeOperation.SEARCH) == 500, "search count " + stats);
+    check(stats.getOperationCount(BPTreeOperation.SCAN) == 1, "scan count " + stats);
+    check(stats.getOperationCount() == n + 501, "total count " + stats);
+    check(stats.getHeight() == tree.getHeight() && stats.getHeightIncreases() == tree.getHeight() - 1,
+        "height " + stats);
+    check(stats.getLeafSplits() >= n / 7 && stats.getInnerSplits() > 0, "splits " + stats);
+    check(stats.getCompareCount() > 0 && stats.getNodeVisits() > 0, "compares or node visits " + stats);
+
+    for (int i = 0; i < n * 3 / 4; i++) {
+      tree.delete(i);
+    }
+    BPTreeInvariants.check(tree, true);
+    stats = tree.getStats();
+    check(stats.getOperationCount(BPTreeOperation.DELETE) == n * 3 / 4, "delete count " + stats);
+    check(stats.getLeftRedistributions() + stats.getRightRedistributions() > 0, "no redistributions " + stats);
+    check(stats.getLeftMerges() + stats.getRightMerges() > 0, "no merges " + stats);
+
+    tree.resetStats();
+    stats = tree.getStats();
+    check(stats.getOperationCount() == 0 && stats.getCompareCount() == 0 && stats.getLeafSplits() == 0
+        && stats.getRightMerges() == 0 && stats.getHeight() == tree.getHeight(), "after reset " + stats);
+  }
+
+  private static void latency() {
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(16);
+    check(!tree.getStats().hasLatency(), "latency tracked before it was switched on");
+    tree.setLatencyTracking(true);
+    for (int i = 0; i < 5000; i++) {
+      tree.insert(i, i);
+    }
+    for (int i = 0; i < 3000; i++) {
+      tree.search(i);
+    }
+    for (int i = 0; i < 1000; i++) {
+      tree.delete(i);
+    }
+    BPTreeStats stats = tree.getStats();
+    check(stats.hasLatency(), "latency not tracked");
+    check(stats.getLatencyCount(BPTreeOperation.INSERT) == 5000, "insert latency count");
+    check(stats.getLatencyCount(BPTreeOperation.SEARCH) == 3000, "search latency count");
+    check(stats.getLatencyCount(BPTreeOperation.DELETE) == 1000, "delete latency count");
+    for (BPTreeOperation operation : new BPTreeOperation[] { BPTreeOperation.INSERT, BPTreeOperation.SEARCH }) {
+      long p50 = stats.getLatencyPercentile(operation, 50);
+      long p99 = stats.getLatencyPercentile(operation, 99);
+      check(0 < p50 && p50 <= p99 && p99 <= stats.getLatencyMax(operation), operation + " percentiles " + p50 + " "
+          + p99 + " " + stats.getLatencyMax(operation));
+    }
+    tree.setLatencyTracking(false);
+    check(!tree.getStats().hasLatency(), "latency still tracked after it was switched off");
+  }
+
+  /**
+   * @dev Many threads that each record a few values and exit must all be
+   *      counted, and percentiles must land within the bucket precision.
+   */
+  private static void histogram() throws InterruptedException {
+    BPTreeLatencyHistogram histogram = new BPTreeLatencyHistogram();
+    for (int round = 0; round < 20; round++) {
+      ArrayList<Thread> threads = new ArrayList<Thread>();
+      for (int t = 0; t < 10; t++) {
+        threads.add(new Thread(() -> {
+          for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 100);
+          }
+        }));
+      }
+      for (Thread thread : threads) {
+        thread.start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    }
+    long[] counts = histogram.merge();
+    check(BPTreeLatencyHistogram.count(counts) == 200000, "histogram lost records");
+    long p50 = BPTreeLatencyHistogram.valueAtPercentile(counts, 50);
+    check(Math.abs(p50 - 50000) <= 50000 * 0.04, "p50 " + p50 + ", expected about 50000");
+    histogram.reset();
+    check(BPTreeLatencyHistogram.count(histogram.merge()) == 0, "histogram not reset");
+  }
+
+  private static void jmx() throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    BPTree<Integer, Integer> tree = new BPTree<Integer, Integer>(8);
+    for (int i = 0; i < 1000; i++) {
+      tree.insert(i, i);
+    }
+    ObjectName name = tree.registerMBean("stats-test");
+    check(server.isRegistered(name), "MBean not registered");
+    check(server.getAttribute(name, "InsertCount").equals(1000L), "InsertCount over JMX");
+    check(server.getAttribute(name, "Height").equals(tree.getHeight()), "Height over JMX");
+    check(server.getAttribute(name, "DeleteLatencyP99").equals(0L), "latency read while tracking is off");
+
+    boolean refused = false;
+    try {
+      new BPTree<Integer, Integer>(8).registerMBean("stats-test");
+    } catch (IllegalStateException e) {
+      refused = true;
+    }
+    check(refused, "a second MBean with the same name was accepted");
+
+    server.invoke(name, "resetStats", null, null);
+    check(server.getAttribute(name, "InsertCount").equals(0L), "resetStats over JMX left a stale snapshot");
+    check(tree.getStats().getOperationCount() == 0, "resetStats over JMX did not reset the tree");
+
+    tree.unregisterMBean();
+    check(!server.isRegistered(name), "MBean still registered");
+    tree.unregisterMBean();
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
@@ -0,0 +1,345 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * @dev Checks that replaying the log rebuilds the tree in log order, that a
+ *      torn or damaged tail is dropped and cut off so appending resumes
+ *      after the last intact record, that concurrent writers share fsyncs
+ *      without losing or reordering records, and that the tree applies only
+ *      durable changes, in log order, and stops taking writes once the log
+ *      has failed.
+ */
+class BPTreeWriteAheadLogTest {
+
+  private static final int RECORD = 1 + Long.BYTES + Long.BYTES + Integer.BYTES;
+
+  public static void main(String[] args) throws Exception {
+    Path path = Files.createTempFile("bptree", ".log");
+    try {
+      replayOrder(path);
+      tornTail(path);
+      damagedRecord(path);
+      groupCommit(path);
+      applyOrder(path);
+      failedWrite(path);
+    } finally {
+      Files.deleteIfExists(path);
+    }
+    System.out.println("BPTreeWriteAheadLogTest passed");
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // replayOrder
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Inserts and deletes over few keys, so most keys are written and
+   *      deleted many times and only log order gives the right final state.
+   */
+  private static void replayOrder(Path path) throws IOException {
+    Files.deleteIfExists(path);
+    TreeMap<Long, Long> expected = new TreeMap<Long, Long>();
+    Random random = new Random(1);
+    for (int session = 0; session < 3; session++) {
+      try (DurableBPTree<Long, Long> tree = open(path, 0)) {
+        checkEquals(tree, expected, "reopen " + session);
+        for (long i = 0; i < 3000; i++) {
+          long key = random.nextInt(200);
+          if (random.nextInt(3) < 2) {
+            tree.insert(key, i);
+            expected.put(key, i);
+          } else {
+            tree.delete(key);
+            expected.remove(key);
+          }
+        }
+      }
+    }
+    try (DurableBPTree<Long, Long> tree = open(path, 0)) {
+      checkEquals(tree, expected, "final reopen");
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // tornTail
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Cut the last record short, as a crash during its write would, then
+   *      check it is dropped, the file is cut back to the record before, and
+   *      records appended after reopening replay too.
+   */
+  private static void tornTail(Path path) throws IOException {
+    Files.deleteIfExists(path);
+    TreeMap<Long, Long> expected = new TreeMap<Long, Long>();
+    try (DurableBPTree<Long, Long> tree = open(path, 0)) {
+      for (long key = 0; key < 1000; key++) {
+        tree.insert(key, key * 10);
+        expected.put(key, key * 10);
+      }
+      tree.insert(1000L, 10000L);
+    }
+    check(Files.size(path) == 1001L * RECORD, "log holds " + Files.size(path) + " bytes");
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      channel.truncate(1001L * RECORD - 5);
+    }
+
+    try (DurableBPTree<Long, Long> tree = open(path, 0)) {
+      checkEquals(tree, expected, "torn tail");
+      check(Files.size(path) == 1000L * RECORD, "torn record left in the log");
+      tree.insert(2000L, 1L);
+      expected.put(2000L, 1L);
+    }
+    try (DurableBPTree<Long, Long> tree = open(path, 0)) {
+      checkEquals(tree, expected, "append after torn tail");
+    }
+
+    // A tail of zeroes, as a file extended but not yet written, is dropped too
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.allocate(3 * RECORD), Files.size(path));
+    }
+    try (DurableBPTree<Long, Long> tree = open(path, 0)) {
+      checkEquals(tree, expected, "zero tail");
+      check(Files.size(path) == 1001L * RECORD, "zero tail left in the log");
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // damagedRecord
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev A record that fails its checksum ends replay, and nothing after it
+   *      is applied.
+   */
+  private static void damagedRecord(Path path) throws IOException {
+    Files.deleteIfExists(path);
+    TreeMap<Long, Long> expected = new TreeMap<Long, Long>();
+    try (DurableBPTree<Long, Long> tree = open(path, 0)) {
+      for (long key = 0; key < 100; key++) {
+        tree.insert(key, key);
+        if (key < 40) {
+          expected.put(key, key);
+        }
+      }
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer b = ByteBuffer.allocate(1);
+      channel.read(b, 40L * RECORD + 5);
+      b.put(0, (byte) (b.get(0) ^ 1));
+      b.clear();
+      channel.write(b, 40L * RECORD + 5);
+    }
+    try (DurableBPTree<Long, Long> tree = open(path, 0)) {
+      checkEquals(tree, expected, "damaged record");
+      check(Files.size(path) == 40L * RECORD, "log not cut back to the damaged record");
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // groupCommit
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev First, sixteen writers each append a record and only then call
+   *      sync, so the first leader's batch must carry the records of the
+   *      writers that joined it. Then the same writers, released together,
+   *      each rewrite a key of their own with an increasing value and add
+   *      keys of their own. Every acknowledged write must replay and each
+   *      writer's last value must win.
+   */
+  private static void groupCommit(Path path) throws Exception {
+    int writers = 16;
+    int writes = 300;
+    for (long budget : new long[] { 0, 2000 }) {
+      Files.deleteIfExists(path);
+      BPTreeWriteAheadLog<Long, Long> log = new BPTreeWriteAheadLog<Long, Long>(path, BPTreeCodec.LONG, BPTreeCodec.LONG,
+          budget);
+      CountDownLatch appended = new CountDownLatch(writers);
+      CountDownLatch start = new CountDownLatch(1);
+      Thread[] threads = new Thread[writers];
+      Throwable[] failures = new Throwable[writers];
+      for (int t = 0; t < writers; t++) {
+        long writer = t;
+        threads[t] = new Thread(() -> {
+          try {
+            log.enter();
+            try {
+              long seq = log.append(BPTreeWriteAheadLog.INSERT, 10000 + writer, writer);
+              appended.countDown();
+              appended.await();
+              log.sync(seq);
+            } finally {
+              log.leave();
+            }
+
+            start.await();
+            for (long i = 0; i < writes; i++) {
+              write(log, BPTreeWriteAheadLog.INSERT, writer, i);
+              write(log, BPTreeWriteAheadLog.INSERT, 1000 + writer * writes + i, i);
+            }
+            write(log, BPTreeWriteAheadLog.DELETE, 1000 + writer * writes, 0);
+          } catch (Throwable e) {
+            failures[(int) writer] = e;
+          }
+        });
+        threads[t].start();
+      }
+      appended.await();
+      start.countDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      for (Throwable failure : failures) {
+        if (failure != null) {
+          throw new AssertionError("writer failed", failure);
+        }
+      }
+      long records = writers * (2L * writes + 2);
+      long batches = log.batches;
+      long largestBatch = log.largestBatch;
+      log.close();
+      check(batches <= records, "more fsyncs than records");
+      check(largestBatch > 1, budget + "us budget: no batch held more than one record");
+
+      BPTree<Long, Long> tree = new BPTree<Long, Long>(16);
+      BPTreeWriteAheadLog<Long, Long> replayed = new BPTreeWriteAheadLog<Long, Long>(path, BPTreeCodec.LONG,
+          BPTreeCodec.LONG, 0);
+      check(replayed.replay(tree) == records, "records lost");
+      replayed.close();
+      for (long writer = 0; writer < writers; writer++) {
+        check(Long.valueOf(writer).equals(tree.search(10000 + writer)), "writer " + writer + " first record lost");
+        check(Long.valueOf(writes - 1).equals(tree.search(writer)), "writer " + writer + " last value lost");
+        check(tree.search(1000 + writer * writes) == null, "writer " + writer + " delete replayed out of order");
+        for (long i = 1; i < writes; i++) {
+          check(Long.valueOf(i).equals(tree.search(1000 + writer * writes + i)), "writer " + writer + " key " + i + " lost");
+        }
+      }
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // applyOrder
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Eight threads write the same few keys through a DurableBPTree. The
+   *      tree applies changes only after they are durable, and must apply
+   *      them in log order, so it has to match what replaying the log gives.
+   */
+  private static void applyOrder(Path path) throws Exception {
+    Files.deleteIfExists(path);
+    int writers = 8;
+    DurableBPTree<Long, Long> tree = open(path, 500);
+    CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[writers];
+    Throwable[] failures = new Throwable[writers];
+    for (int t = 0; t < writers; t++) {
+      int writer = t;
+      threads[t] = new Thread(() -> {
+        try {
+          Random random = new Random(writer);
+          start.await();
+          for (long i = 0; i < 1000; i++) {
+            long key = random.nextInt(20);
+            if (random.nextInt(4) == 0) {
+              tree.delete(key);
+            } else {
+              tree.insert(key, writer * 10000 + i);
+            }
+          }
+        } catch (Throwable e) {
+          failures[writer] = e;
+        }
+      });
+      threads[t].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (Throwable failure : failures) {
+      if (failure != null) {
+        throw new AssertionError("writer failed", failure);
+      }
+    }
+    TreeMap<Long, Long> applied = new TreeMap<Long, Long>();
+    for (long key = 0; key < 20; key++) {
+      if (tree.search(key) != null) {
+        applied.put(key, tree.search(key));
+      }
+    }
+    tree.close();
+    try (DurableBPTree<Long, Long> reopened = open(path, 0)) {
+      checkEquals(reopened, applied, "replay after concurrent writes");
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // failedWrite
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev A write whose record cannot reach the disk is never applied, and
+   *      the tree refuses every write after it.
+   */
+  private static void failedWrite(Path path) throws IOException {
+    Files.deleteIfExists(path);
+    DurableBPTree<Long, Long> tree = open(path, 0);
+    tree.insert(1L, 1L);
+    tree.close(); // the log's file is closed, so the next fsync fails
+    for (long key = 2; key < 4; key++) {
+      boolean failed = false;
+      try {
+        tree.insert(key, key);
+      } catch (UncheckedIOException e) {
+        failed = true;
+      }
+      check(failed, "write " + key + " to a failed log succeeded");
+      check(tree.search(key) == null, "write " + key + " applied although its record is not durable");
+    }
+    check(Long.valueOf(1).equals(tree.search(1L)), "durable write lost");
+  }
+
+  /**
+   * @dev One write as DurableBPTree makes it, without the tree.
+   */
+  private static void write(BPTreeWriteAheadLog<Long, Long> log, byte type, long key, long value) throws IOException {
+    log.enter();
+    try {
+      log.sync(log.append(type, key, value));
+    } finally {
+      log.leave();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // helpers
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  private static DurableBPTree<Long, Long> open(Path path, long budget) throws IOException {
+    return new DurableBPTree<Long, Long>(path, 16, BPTreeCodec.LONG, BPTreeCodec.LONG, budget);
+  }
+
+  private static void checkEquals(DurableBPTree<Long, ?> tree, TreeMap<Long, Long> expected, String when) {
+    check(Arrays.equals(tree.values(), expected.values().toArray()), when + ": values differ");
+    for (Long key : expected.keySet()) {
+      check(expected.get(key).equals(tree.search(key)), when + ": search " + key);
+    }
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
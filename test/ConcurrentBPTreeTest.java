@@ -0,0 +1,190 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @dev Checks ConcurrentBPTree against a TreeMap on one thread, then with
+ *      eight writers on keys of their own while a reader scans, then with
+ *      every writer on the same few keys.
+ */
+class ConcurrentBPTreeTest {
+
+  private static final int THREADS = 8;
+
+  public static void main(String[] args) throws Exception {
+    for (int order : new int[] { 3, 4, 5, 8, 33 }) {
+      singleThread(order, order % 2 == 0 ? BPTreeSearchMode.LINEAR : BPTreeSearchMode.BINARY);
+    }
+    for (int order : new int[] { 3, 4, 16, 64 }) {
+      ownKeys(order);
+      sharedKeys(order);
+    }
+    System.out.println("ConcurrentBPTreeTest passed");
+  }
+
+  private static void singleThread(int order, BPTreeSearchMode searchMode) {
+    ConcurrentBPTree<Integer, Integer> tree = new ConcurrentBPTree<Integer, Integer>(order, searchMode);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    Random random = new Random(order);
+    for (int i = 0; i < 200000; i++) {
+      int key = random.nextInt(3000);
+      int op = random.nextInt(3);
+      if (op == 0) {
+        tree.insert(key, i);
+        expected.put(key, i);
+      } else if (op == 1) {
+        tree.delete(key);
+        expected.remove(key);
+      } else {
+        check(Objects.equals(tree.search(key), expected.get(key)), "order " + order + ": search " + key);
+      }
+      if (i % 20000 == 0) {
+        check(Arrays.equals(values(tree), expected.values().toArray()), "order " + order + ": values at step " + i);
+      }
+    }
+    for (int key : new ArrayList<Integer>(expected.keySet())) {
+      tree.delete(key);
+    }
+    check(values(tree).length == 0, "order " + order + ": not empty after deleting every key");
+  }
+
+  /**
+   * @dev Each writer owns the keys congruent to its index, so it knows what
+   *      it should read back. A scanner checks every values() it sees is in
+   *      key order; values equal keys.
+   */
+  private static void ownKeys(int order) throws Exception {
+    ConcurrentBPTree<Integer, Integer> tree = new ConcurrentBPTree<Integer, Integer>(order);
+    AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    AtomicBoolean stop = new AtomicBoolean();
+    ArrayList<HashMap<Integer, Integer>> owned = new ArrayList<HashMap<Integer, Integer>>();
+    Thread[] writers = new Thread[THREADS];
+    for (int t = 0; t < THREADS; t++) {
+      int writer = t;
+      HashMap<Integer, Integer> mine = new HashMap<Integer, Integer>();
+      owned.add(mine);
+      writers[t] = new Thread(() -> {
+        try {
+          Random random = new Random(writer);
+          for (int i = 0; i < 100000; i++) {
+            int key = random.nextInt(20000) * THREADS + writer;
+            int op = random.nextInt(3);
+            if (op == 0) {
+              tree.insert(key, key);
+              mine.put(key, key);
+            } else if (op == 1) {
+              tree.delete(key);
+              mine.remove(key);
+            } else {
+              check(Objects.equals(tree.search(key), mine.get(key)), "order " + order + ": search " + key);
+            }
+          }
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        }
+      });
+    }
+    Thread scanner = new Thread(() -> {
+      try {
+        while (!stop.get()) {
+          Object[] values = values(tree);
+          for (int i = 1; i < values.length; i++) {
+            check((Integer) values[i - 1] < (Integer) values[i], "order " + order + ": scan out of order");
+          }
+        }
+      } catch (Throwable e) {
+        failure.compareAndSet(null, e);
+      }
+    });
+    run(writers, scanner, stop, failure);
+
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    for (HashMap<Integer, Integer> mine : owned) {
+      expected.putAll(mine);
+    }
+    check(Arrays.equals(values(tree), expected.values().toArray()), "order " + order + ": final values");
+    for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+      check(entry.getValue().equals(tree.search(entry.getKey())), "order " + order + ": final search");
+    }
+  }
+
+  /**
+   * @dev Every writer inserts and deletes the same 500 keys, so splits and
+   *      merges race on the same nodes. Values equal keys, so whatever
+   *      survives must still be consistent, and deleting every key must
+   *      leave the tree empty.
+   */
+  private static void sharedKeys(int order) throws Exception {
+    ConcurrentBPTree<Integer, Integer> tree = new ConcurrentBPTree<Integer, Integer>(order);
+    AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread[] writers = new Thread[THREADS];
+    for (int t = 0; t < THREADS; t++) {
+      int writer = t;
+      writers[t] = new Thread(() -> {
+        try {
+          Random random = new Random(100 + writer);
+          for (int i = 0; i < 100000; i++) {
+            int key = random.nextInt(500);
+            if (random.nextBoolean()) {
+              tree.insert(key, key);
+            } else {
+              tree.delete(key);
+            }
+            Integer found = tree.search(key);
+            check(found == null || found == key, "order " + order + ": key " + key + " holds " + found);
+          }
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        }
+      });
+    }
+    run(writers, null, new AtomicBoolean(), failure);
+
+    Object[] values = values(tree);
+    for (int i = 0; i < values.length; i++) {
+      Integer value = (Integer) values[i];
+      check(value.equals(tree.search(value)), "order " + order + ": value " + value + " not found by its key");
+      check(i == 0 || (Integer) values[i - 1] < value, "order " + order + ": values out of order");
+    }
+    for (int key = 0; key < 500; key++) {
+      tree.delete(key);
+    }
+    check(values(tree).length == 0, "order " + order + ": not empty after deleting every key");
+  }
+
+  private static void run(Thread[] writers, Thread scanner, AtomicBoolean stop, AtomicReference<Throwable> failure)
+      throws Exception {
+    for (Thread writer : writers) {
+      writer.start();
+    }
+    if (scanner != null) {
+      scanner.start();
+    }
+    for (Thread writer : writers) {
+      writer.join();
+    }
+    stop.set(true);
+    if (scanner != null) {
+      scanner.join();
+    }
+    if (failure.get() != null) {
+      throw new AssertionError("a thread failed", failure.get());
+    }
+  }
+
+  private static Object[] values(ConcurrentBPTree<Integer, ?> tree) {
+    return tree.values();
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
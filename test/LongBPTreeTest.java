@@ -0,0 +1,154 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * @dev Checks LongBPTree and LongLongBPTree against a TreeMap at small
+ *      orders, where splits, borrows, merges and root collapses happen
+ *      constantly, with both search modes. Along the way the nodes must keep
+ *      the fill bounds LongBPTreeBase promises, and draining a tree must
+ *      leave an empty leaf.
+ */
+class LongBPTreeTest {
+
+  private static final int RANGE = 600;
+
+  public static void main(String[] args) {
+    Random random = new Random(6);
+    for (int order = 3; order <= 9; order++) {
+      for (BPTreeSearchMode mode : BPTreeSearchMode.values()) {
+        for (int round = 0; round < 4; round++) {
+          run(order, mode, random);
+        }
+      }
+    }
+    nullValues();
+    System.out.println("LongBPTreeTest passed");
+  }
+
+  private static void run(int order, BPTreeSearchMode mode, Random random) {
+    String when = "order " + order + " " + mode;
+    LongBPTree<Long> tree = new LongBPTree<Long>(order, mode);
+    LongLongBPTree longTree = new LongLongBPTree(order, mode);
+    TreeMap<Long, Long> expected = new TreeMap<Long, Long>();
+    for (int step = 0; step < 4000; step++) {
+      long key = random.nextInt(RANGE) - RANGE / 3;
+      if (random.nextInt(10) < 6) {
+        long value = random.nextLong();
+        tree.insert(key, value);
+        longTree.insert(key, value);
+        expected.put(key, value);
+      } else {
+        tree.delete(key);
+        longTree.delete(key);
+        expected.remove(key);
+      }
+      if (step % 100 == 0) {
+        check(tree, longTree, expected, when + " step " + step);
+      }
+    }
+    check(tree, longTree, expected, when);
+
+    for (Long key : new ArrayList<Long>(expected.keySet())) {
+      tree.delete(key);
+      longTree.delete(key);
+      expected.remove(key);
+      if (expected.size() % 50 == 0) {
+        check(tree, longTree, expected, when + " draining");
+      }
+    }
+    check(tree.size() == 0 && longTree.size() == 0, when + ": drained trees not empty");
+    check(tree.root.isLeaf() && longTree.root.isLeaf(), when + ": drained trees did not collapse to a leaf");
+    Object[] values = tree.values();
+    check(values.length == 0 && longTree.values().length == 0, when + ": drained trees hold values");
+  }
+
+  /**
+   * @dev A null value is stored like any other: search returns null for it
+   *      and containsKey tells it apart from an absent key.
+   */
+  private static void nullValues() {
+    LongBPTree<String> tree = new LongBPTree<String>(4);
+    for (long key = 0; key < 100; key++) {
+      tree.insert(key, key % 3 == 0 ? null : "v" + key);
+    }
+    for (long key = 0; key < 100; key++) {
+      check(tree.containsKey(key), "key " + key + " missing");
+      check(Objects.equals(tree.search(key), key % 3 == 0 ? null : "v" + key), "search " + key);
+    }
+    check(!tree.containsKey(100) && tree.size() == 100, "absent key or size");
+  }
+
+  private static void check(LongBPTree<Long> tree, LongLongBPTree longTree, TreeMap<Long, Long> expected,
+      String when) {
+    checkStructure(tree, when);
+    checkStructure(longTree, when);
+    check(tree.size() == expected.size() && longTree.size() == expected.size(), when + ": size "
+        + tree.size() + " and " + longTree.size() + ", expected " + expected.size());
+    check(Arrays.equals(tree.values(), expected.values().toArray()), when + ": values differ");
+    long[] longValues = longTree.values();
+    check(longValues.length == expected.size(), when + ": long values differ");
+    int i = 0;
+    for (Long value : expected.values()) {
+      check(longValues[i++] == value, when + ": long values differ at " + (i - 1));
+    }
+    for (long key = -RANGE / 3 - 1; key <= RANGE; key++) {
+      Long value = expected.get(key);
+      check(Objects.equals(tree.search(key), value), when + ": search " + key);
+      check(longTree.search(key, Long.MIN_VALUE) == (value == null ? Long.MIN_VALUE : value), when + ": long search "
+          + key);
+      check(tree.containsKey(key) == (value != null) && longTree.containsKey(key) == (value != null), when
+          + ": containsKey " + key);
+    }
+  }
+
+  /**
+   * @dev Keys sorted and within their separators, all leaves at one depth,
+   *      every node but the root within its fill bounds, and the leaf chain
+   *      linking the leaves in order both ways.
+   */
+  private static void checkStructure(LongBPTreeBase tree, String when) {
+    ArrayList<LongBPTreeLeafNode> leaves = new ArrayList<LongBPTreeLeafNode>();
+    checkNode(tree.root, Long.MIN_VALUE, Long.MAX_VALUE, true, leaves, when);
+    for (int i = 0; i < leaves.size(); i++) {
+      check(leaves.get(i).leftSibling == (i > 0 ? leaves.get(i - 1) : null), when + ": left sibling chain broken");
+      check(leaves.get(i).rightSibling == (i + 1 < leaves.size() ? leaves.get(i + 1) : null), when
+          + ": right sibling chain broken");
+    }
+  }
+
+  /**
+   * @return the depth of the subtree below node
+   */
+  private static int checkNode(LongBPTreeNode node, long low, long high, boolean root,
+      ArrayList<LongBPTreeLeafNode> leaves, String when) {
+    check(node.keyTally < node.m, when + ": node holds " + node.keyTally + " keys at order " + node.m);
+    for (int i = 0; i < node.keyTally; i++) {
+      check(i == 0 || node.keys[i - 1] < node.keys[i], when + ": keys out of order at " + node.keys[i]);
+      check(node.keys[i] >= low && node.keys[i] < high, when + ": key " + node.keys[i] + " outside its separators");
+    }
+    if (node.isLeaf()) {
+      check(root || node.keyTally >= node.m / 2, when + ": leaf underfull");
+      leaves.add((LongBPTreeLeafNode) node);
+      return 1;
+    }
+    check(node.keyTally >= (root ? 1 : (node.m - 1) / 2), when + ": inner node underfull");
+    LongBPTreeInnerNode inner = (LongBPTreeInnerNode) node;
+    int depth = -1;
+    for (int i = 0; i <= inner.keyTally; i++) {
+      int childDepth = checkNode(inner.getChild(i), i == 0 ? low : inner.keys[i - 1],
+          i == inner.keyTally ? high : inner.keys[i], false, leaves, when);
+      check(depth < 0 || childDepth == depth, when + ": leaves at different depths");
+      depth = childDepth;
+    }
+    return depth + 1;
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
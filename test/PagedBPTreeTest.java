@@ -0,0 +1,229 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * @dev Checks PagedBPTree against a TreeMap, across close and reopen, and
+ *      checks that a copy of the file taken at any moment, as a crash would
+ *      leave it, reopens to the tree as of the last flush.
+ */
+class PagedBPTreeTest {
+
+  private static final int PAGE_SIZE = 4096;
+  private static final BPTreeCodec<String> VALUE_CODEC = BPTreeCodec.string(300);
+
+  public static void main(String[] args) throws IOException {
+    Path dir = Files.createTempDirectory("bptree");
+    try {
+      differential(dir.resolve("tree.db"));
+      crashAfterFlush(dir.resolve("crash.db"), dir.resolve("crash-copy.db"));
+      crashAtRandomPoints(dir.resolve("random.db"), dir.resolve("random-copy.db"));
+      tornHeader(dir.resolve("torn.db"), dir.resolve("torn-copy.db"));
+      mismatchedFile(dir.resolve("tree.db"));
+    } finally {
+      try (var files = Files.list(dir)) {
+        for (Path file : (Iterable<Path>) files::iterator) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(dir);
+    }
+    System.out.println("PagedBPTreeTest passed");
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // differential
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  private static void differential(Path path) throws IOException {
+    for (int keyRange : new int[] { 2000, 50000 }) {
+      Files.deleteIfExists(path);
+      TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+      Random random = new Random(keyRange);
+      PagedBPTree<Integer, String> tree = open(path, 8);
+      for (int i = 0; i < 200000; i++) {
+        int key = random.nextInt(keyRange);
+        int op = random.nextInt(10);
+        if (op < 5) {
+          tree.insert(key, "v" + i);
+          expected.put(key, "v" + i);
+        } else if (op < 8) {
+          tree.delete(key);
+          expected.remove(key);
+        } else {
+          check(Objects.equals(tree.search(key), expected.get(key)), "search " + key + " at step " + i);
+        }
+        if (i % 50000 == 0) {
+          tree.close();
+          tree = open(path, 8);
+        }
+        if (i % 20000 == 0) {
+          checkEquals(tree, expected, "step " + i);
+        }
+      }
+      checkEquals(tree, expected, "end");
+      for (int key : new ArrayList<Integer>(expected.keySet())) {
+        tree.delete(key);
+        expected.remove(key);
+      }
+      check(sameContents(tree, expected), "tree not empty after deleting every key");
+      tree.close();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // crash
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * @dev Flush a small tree, then grow and shrink it far past what a 4-page
+   *      pool holds, so evicted pages reach the file, and crash.
+   */
+  private static void crashAfterFlush(Path path, Path copy) throws IOException {
+    TreeMap<Integer, String> flushed = new TreeMap<Integer, String>();
+    PagedBPTree<Integer, String> tree = open(path, 4);
+    for (int key = 0; key < 5000; key++) {
+      tree.insert(key, "v" + key);
+      flushed.put(key, "v" + key);
+    }
+    tree.flush();
+    for (int key = 5000; key < 200000; key++) {
+      tree.insert(key, "w" + key);
+    }
+    for (int key = 0; key < 3000; key++) {
+      tree.delete(key);
+    }
+    tree.insert(4000, "changed");
+    crash(path, copy, flushed, "after flush");
+    tree.close();
+  }
+
+  /**
+   * @dev Random inserts and deletes with flushes at random steps, crashing
+   *      at other random steps.
+   */
+  private static void crashAtRandomPoints(Path path, Path copy) throws IOException {
+    Random random = new Random(7);
+    TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+    TreeMap<Integer, String> flushed = new TreeMap<Integer, String>();
+    PagedBPTree<Integer, String> tree = open(path, 6);
+    for (int i = 0; i < 100000; i++) {
+      int key = random.nextInt(20000);
+      if (random.nextInt(3) < 2) {
+        tree.insert(key, "v" + i);
+        expected.put(key, "v" + i);
+      } else {
+        tree.delete(key);
+        expected.remove(key);
+      }
+      if (random.nextInt(5000) == 0) {
+        tree.flush();
+        flushed = new TreeMap<Integer, String>(expected);
+      }
+      if (random.nextInt(4000) == 0) {
+        crash(path, copy, flushed, "step " + i);
+      }
+    }
+    tree.close();
+    crash(path, copy, expected, "after close");
+  }
+
+  /**
+   * @dev Damage either header copy of a file crashed right after a flush.
+   *      One copy still opens to that flush and the other to the one before.
+   */
+  private static void tornHeader(Path path, Path copy) throws IOException {
+    TreeMap<Integer, String> first = new TreeMap<Integer, String>();
+    PagedBPTree<Integer, String> tree = open(path, 4);
+    for (int key = 0; key < 3000; key++) {
+      tree.insert(key, "v" + key);
+      first.put(key, "v" + key);
+    }
+    tree.flush();
+    TreeMap<Integer, String> second = new TreeMap<Integer, String>(first);
+    for (int key = 0; key < 3000; key += 2) {
+      tree.delete(key);
+      second.remove(key);
+    }
+    for (int key = 3000; key < 9000; key++) {
+      tree.insert(key, "w" + key);
+      second.put(key, "w" + key);
+    }
+    tree.flush();
+
+    int matchedFirst = 0;
+    for (int half = 0; half < 2; half++) {
+      Files.copy(path, copy, StandardCopyOption.REPLACE_EXISTING);
+      try (FileChannel channel = FileChannel.open(copy, StandardOpenOption.WRITE)) {
+        channel.write(ByteBuffer.wrap(new byte[] { 0x55, 0x55, 0x55, 0x55 }), half * (PAGE_SIZE / 2) + 28);
+      }
+      try (PagedBPTree<Integer, String> reopened = open(copy, 8)) {
+        if (sameContents(reopened, first)) {
+          matchedFirst++;
+        } else {
+          checkEquals(reopened, second, "header copy " + half + " damaged");
+        }
+      }
+    }
+    check(matchedFirst == 1, "exactly one damaged header copy should fall back to the earlier flush");
+    tree.close();
+  }
+
+  private static void mismatchedFile(Path path) throws IOException {
+    try {
+      new PagedBPTree<Long, Long>(path, PAGE_SIZE, BPTreeCodec.LONG, BPTreeCodec.LONG).close();
+    } catch (IllegalArgumentException e) {
+      return;
+    }
+    throw new AssertionError("opening a file with other codec widths should fail");
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // helpers
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  private static PagedBPTree<Integer, String> open(Path path, int cachePages) throws IOException {
+    return new PagedBPTree<Integer, String>(path, PAGE_SIZE, BPTreeCodec.INTEGER, VALUE_CODEC, cachePages, 1);
+  }
+
+  /**
+   * @dev Copy the file of a tree that is still open, as a crash would leave
+   *      it, and check the copy opens to expected.
+   */
+  private static void crash(Path path, Path copy, TreeMap<Integer, String> expected, String when)
+      throws IOException {
+    Files.copy(path, copy, StandardCopyOption.REPLACE_EXISTING);
+    try (PagedBPTree<Integer, String> reopened = open(copy, 8)) {
+      checkEquals(reopened, expected, "crash " + when);
+    }
+  }
+
+  private static boolean sameContents(PagedBPTree<Integer, ?> tree, TreeMap<Integer, String> expected) {
+    return tree.size() == expected.size() && Arrays.equals(tree.values(), expected.values().toArray());
+  }
+
+  private static void checkEquals(PagedBPTree<Integer, ?> tree, TreeMap<Integer, String> expected,
+      String when) {
+    check(tree.size() == expected.size(), when + ": size " + tree.size() + ", expected " + expected.size());
+    check(Arrays.equals(tree.values(), expected.values().toArray()), when + ": values differ");
+    for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+      check(entry.getValue().equals(tree.search(entry.getKey())), when + ": search " + entry.getKey());
+    }
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}